@@ -0,0 +1,100 @@
+/*
+ * =================================================
+ * Copyright 2011 tagtraum industries incorporated
+ * All rights reserved.
+ * =================================================
+ */
+package com.tagtraum.mfsampledsp;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of {@link MFAnalysisInputStream} compared with reading full-rate planar
+ * samples, measured in operations of one second of source audio.
+ * <p>
+ * Decoded audio is served by {@link MFCachedInputStream}, i.e. only the Java side
+ * is measured and the benchmark runs on any machine. Filter quality is verified
+ * by <code>TestMFAnalysisInputStream</code>.
+ *
+ * @author <a href="mailto:hs@tagtraum.com">Hendrik Schreiber</a>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AnalysisStreamBenchmark {
+
+    private static final int SOURCE_RATE = 44100;
+    private static final int TOTAL_FRAMES = SOURCE_RATE * 10;
+
+    @Param({"11025", "16000", "22050"})
+    public int sampleRate;
+
+    @Param({"1", "2"})
+    public int channels;
+
+    private AudioFormat format;
+    private ByteBuffer data;
+    private MFAudioInputStream stream;
+    private MFAnalysisInputStream analysisStream;
+    private float[][] planar;
+    private float[] samples;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, UnsupportedAudioFileException {
+        format = new AudioFormat(SOURCE_RATE, 16, channels, true, false);
+        data = ByteBuffer.allocateDirect(TOTAL_FRAMES * format.getFrameSize()).order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < TOTAL_FRAMES * channels; i++) {
+            data.putShort((short) (10000 * Math.sin(i * 0.01) + 5000 * Math.sin(i * 0.7)));
+        }
+        data.flip();
+        planar = new float[channels][SOURCE_RATE];
+        samples = new float[sampleRate];
+        stream = open();
+        analysisStream = new MFAnalysisInputStream(open(), sampleRate);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        stream.close();
+        analysisStream.close();
+    }
+
+    private MFAudioInputStream open() throws IOException, UnsupportedAudioFileException {
+        return new MFAudioInputStream(new MFCachedInputStream(data, format), format, TOTAL_FRAMES);
+    }
+
+    @Benchmark
+    public void readAnalysis(final Blackhole blackhole) throws IOException, UnsupportedAudioFileException {
+        int read = analysisStream.read(samples, 0, samples.length);
+        if (read == -1) {
+            analysisStream.close();
+            analysisStream = new MFAnalysisInputStream(open(), sampleRate);
+            read = analysisStream.read(samples, 0, samples.length);
+        }
+        blackhole.consume(read);
+        blackhole.consume(samples);
+    }
+
+    @Benchmark
+    public void readFullRate(final Blackhole blackhole) throws IOException, UnsupportedAudioFileException {
+        int read = stream.readPlanar(planar, 0, SOURCE_RATE);
+        if (read == -1) {
+            stream.close();
+            stream = open();
+            read = stream.readPlanar(planar, 0, SOURCE_RATE);
+        }
+        blackhole.consume(read);
+        blackhole.consume(planar);
+    }
+}
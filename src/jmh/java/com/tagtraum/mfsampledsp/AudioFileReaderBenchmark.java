@@ -0,0 +1,95 @@
+/*
+ * =================================================
+ * Copyright 2011 tagtraum industries incorporated
+ * All rights reserved.
+ * =================================================
+ */
+package com.tagtraum.mfsampledsp;
+
+import org.openjdk.jmh.annotations.*;
+
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.File;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures probing via {@link MFAudioFileReader} and the helpers on its hot path.
+ * <p>
+ * The <code>getAudioFileFormat*</code> benchmarks require the native library,
+ * all other benchmarks are pure Java.
+ *
+ * @author <a href="mailto:hs@tagtraum.com">Hendrik Schreiber</a>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AudioFileReaderBenchmark {
+
+    private MFAudioFileReader reader;
+    private File file;
+    private URL url;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        reader = new MFAudioFileReader();
+        file = BenchmarkFiles.extract("test.mp3");
+        url = MFAudioFileReader.fileToURL(file);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        file.delete();
+    }
+
+    private void requireNativeLibrary() {
+        if (!MFNativeLibraryLoader.loadLibrary()) {
+            throw new IllegalStateException("Native library mfsampledsp is not available on this machine.");
+        }
+    }
+
+    @Benchmark
+    public AudioFileFormat getAudioFileFormatCacheHit() throws IOException, UnsupportedAudioFileException {
+        requireNativeLibrary();
+        return reader.getAudioFileFormat(url);
+    }
+
+    @Benchmark
+    public AudioFileFormat getAudioFileFormatCacheMiss() throws IOException, UnsupportedAudioFileException {
+        requireNativeLibrary();
+        MFAudioFileReader.getCache().clear();
+        return reader.getAudioFileFormat(url);
+    }
+
+    @Benchmark
+    public AudioFileFormat getAudioFileFormatPathCacheHit() throws IOException, UnsupportedAudioFileException {
+        requireNativeLibrary();
+        return reader.getAudioFileFormat(file.toPath());
+    }
+
+    @Benchmark
+    public MFSourceIdentity sourceIdentityOfURL() {
+        return MFSourceIdentity.of(url);
+    }
+
+    @Benchmark
+    public URL fileToURL() throws MalformedURLException {
+        return MFAudioFileReader.fileToURL(file);
+    }
+
+    @Benchmark
+    public MFAudioFormat.MFEncoding getEncodingInstanceByDataFormat() {
+        return MFAudioFormat.MFEncoding.getInstance(0x0055);
+    }
+
+    @Benchmark
+    public MFAudioFormat.MFEncoding getEncodingInstanceByName() {
+        return MFAudioFormat.MFEncoding.getInstance("MPEG-1, Layer 3");
+    }
+}
@@ -0,0 +1,33 @@
+/*
+ * =================================================
+ * Copyright 2011 tagtraum industries incorporated
+ * All rights reserved.
+ * =================================================
+ */
+package com.tagtraum.mfsampledsp;
+
+import java.io.*;
+
+/**
+ * Extracts test resources to temp files, so that benchmarks can access them via URLs.
+ *
+ * @author <a href="mailto:hs@tagtraum.com">Hendrik Schreiber</a>
+ */
+final class BenchmarkFiles {
+
+    private BenchmarkFiles() {
+    }
+
+    static File extract(final String filename) throws IOException {
+        final File file = File.createTempFile("benchmark", filename);
+        try (final InputStream in = BenchmarkFiles.class.getResourceAsStream(filename);
+             final OutputStream out = new FileOutputStream(file)) {
+            final byte[] buf = new byte[1024*64];
+            int justRead;
+            while ((justRead = in.read(buf)) != -1) {
+                out.write(buf, 0, justRead);
+            }
+        }
+        return file;
+    }
+}
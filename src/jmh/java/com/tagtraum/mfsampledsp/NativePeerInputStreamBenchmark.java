@@ -0,0 +1,107 @@
+/*
+ * =================================================
+ * Copyright 2011 tagtraum industries incorporated
+ * All rights reserved.
+ * =================================================
+ */
+package com.tagtraum.mfsampledsp;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the read paths of {@link MFNativePeerInputStream}.
+ * <p>
+ * The <code>synthetic</code> source uses {@link SyntheticPCMInputStream}, i.e. it measures
+ * the Java overhead only and runs on any machine. The <code>native</code> source decodes
+ * <code>test.mp3</code> with {@link MFFileInputStream} and therefore requires the native library.
+ *
+ * @author <a href="mailto:hs@tagtraum.com">Hendrik Schreiber</a>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NativePeerInputStreamBenchmark {
+
+    @Param({"synthetic", "native"})
+    public String source;
+
+    @Param({"64", "1024", "4096", "65536"})
+    public int chunkSize;
+
+    private File file;
+    private MFNativePeerInputStream stream;
+    private byte[] buf;
+    private ByteBuffer directBuf;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, UnsupportedAudioFileException {
+        if ("native".equals(source)) {
+            if (!MFNativeLibraryLoader.loadLibrary()) {
+                throw new IllegalStateException("Native library mfsampledsp is not available on this machine.");
+            }
+            file = BenchmarkFiles.extract("test.mp3");
+        }
+        buf = new byte[chunkSize];
+        directBuf = ByteBuffer.allocateDirect(chunkSize);
+        stream = open();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        stream.close();
+        if (file != null) file.delete();
+    }
+
+    private MFNativePeerInputStream open() throws IOException, UnsupportedAudioFileException {
+        if (file != null) {
+            return new MFFileInputStream(MFAudioFileReader.fileToURL(file));
+        }
+        // practically endless
+        return new SyntheticPCMInputStream(44100f, 2, Long.MAX_VALUE / 4);
+    }
+
+    @Benchmark
+    public int readByte() throws IOException, UnsupportedAudioFileException {
+        int b = stream.read();
+        if (b == -1) {
+            stream.close();
+            stream = open();
+            b = stream.read();
+        }
+        return b;
+    }
+
+    @Benchmark
+    public void readChunk(final Blackhole blackhole) throws IOException, UnsupportedAudioFileException {
+        int justRead = stream.read(buf, 0, chunkSize);
+        if (justRead == -1) {
+            stream.close();
+            stream = open();
+            justRead = stream.read(buf, 0, chunkSize);
+        }
+        blackhole.consume(justRead);
+        blackhole.consume(buf);
+    }
+
+    @Benchmark
+    public void readDirectByteBuffer(final Blackhole blackhole) throws IOException, UnsupportedAudioFileException {
+        directBuf.clear();
+        int justRead = stream.read(directBuf);
+        if (justRead == -1) {
+            stream.close();
+            stream = open();
+            justRead = stream.read(directBuf);
+        }
+        blackhole.consume(justRead);
+        blackhole.consume(directBuf);
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * =================================================
+ * Copyright 2011 tagtraum industries incorporated
+ * All rights reserved.
+ * =================================================
+ */
+package com.tagtraum.mfsampledsp;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares {@link MFAudioInputStream#readPlanar(float[][], int, int)} with what consumers
+ * used to do: read interleaved bytes and deinterleave them with a scalar loop.
+ * <p>
+ * Decoded audio is served by {@link MFCachedInputStream}, i.e. only the Java side
+ * is measured and the benchmark runs on any machine.
+ *
+ * @author <a href="mailto:hs@tagtraum.com">Hendrik Schreiber</a>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PlanarReadBenchmark {
+
+    private static final int FRAMES = 4096;
+    private static final int TOTAL_FRAMES = 44100 * 10;
+
+    @Param({"16", "24"})
+    public int sampleSize;
+
+    @Param({"1", "2", "4", "6", "8"})
+    public int channels;
+
+    private AudioFormat format;
+    private ByteBuffer data;
+    private MFAudioInputStream stream;
+    private float[][] planar;
+    private byte[] interleaved;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, UnsupportedAudioFileException {
+        format = new AudioFormat(44100f, sampleSize, channels, true, false);
+        final byte[] b = new byte[TOTAL_FRAMES * format.getFrameSize()];
+        new Random(0).nextBytes(b);
+        data = ByteBuffer.allocateDirect(b.length);
+        data.put(b).flip();
+        planar = new float[channels][FRAMES];
+        interleaved = new byte[FRAMES * format.getFrameSize()];
+        stream = open();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        stream.close();
+    }
+
+    private MFAudioInputStream open() throws IOException, UnsupportedAudioFileException {
+        return new MFAudioInputStream(new MFCachedInputStream(data, format), format, TOTAL_FRAMES);
+    }
+
+    @Benchmark
+    public void readPlanar(final Blackhole blackhole) throws IOException, UnsupportedAudioFileException {
+        int frames = stream.readPlanar(planar, 0, FRAMES);
+        if (frames == -1) {
+            stream.close();
+            stream = open();
+            frames = stream.readPlanar(planar, 0, FRAMES);
+        }
+        blackhole.consume(frames);
+        blackhole.consume(planar);
+    }
+
+    @Benchmark
+    public void readAndDeinterleave(final Blackhole blackhole) throws IOException, UnsupportedAudioFileException {
+        int bytes = stream.read(interleaved, 0, interleaved.length);
+        if (bytes == -1) {
+            stream.close();
+            stream = open();
+            bytes = stream.read(interleaved, 0, interleaved.length);
+        }
+        final int bytesPerSample = sampleSize / 8;
+        final float scale = 1f / (1 << (sampleSize - 1));
+        final int frames = bytes / format.getFrameSize();
+        int p = 0;
+        for (int frame = 0; frame < frames; frame++) {
+            for (int c = 0; c < channels; c++) {
+                int sample = interleaved[p + bytesPerSample - 1];
+                for (int i = bytesPerSample - 2; i >= 0; i--) {
+                    sample = (sample << 8) | (interleaved[p + i] & 0xFF);
+                }
+                planar[c][frame] = sample * scale;
+                p += bytesPerSample;
+            }
+        }
+        blackhole.consume(frames);
+        blackhole.consume(planar);
+    }
+}
@@ -26,18 +26,17 @@
 #include "Propkey.h"
 
 /**
- * Creates an AudioFileFormat instance for the given URL.
+ * Creates an AudioFileFormat instance for the given media source.
  *
  * @param env JNI env
- * @param instance calling stream instance
- * @param url url
+ * @param url url or name of the source
+ * @param pMediaSrc media source
  * @return AudioFileFormat instance
  */
-JNIEXPORT jobject JNICALL Java_com_tagtraum_mfsampledsp_MFAudioFileReader_intGetAudioFormat__Ljava_lang_String_2(JNIEnv *env, jobject instance, jstring url) {
+static jobject getAudioFormat(JNIEnv *env, jstring url, IMFMediaSource *pMediaSrc) {
 
     HRESULT res = S_OK;
     jobject audioFormat = NULL;
-    IMFMediaSource *pMediaSrc = NULL;
     IMFPresentationDescriptor *pPD = NULL;
 
     UINT64 mfDuration = 0;
@@ -59,12 +58,6 @@ JNIEXPORT jobject JNICALL Java_com_tagtraum_mfsampledsp_MFAudioFileReader_intGet
 
     IPropertyStore *pProps = NULL;
 
-    res = mf_createMediaSource(env, url, &pMediaSrc);
-    if (res) {
-        // we already threw an exception
-        goto bail;
-    }
-
     // get attributes
     res = pMediaSrc->CreatePresentationDescriptor(&pPD);
     if (res) {
@@ -192,19 +185,53 @@ bail:
     SAFE_RELEASE(pPD);
     SAFE_RELEASE(pSD);
     SAFE_RELEASE(pMFMetadata);
-    SAFE_SHUTDOWN(pMediaSrc);
 
     return audioFormat;
 }
 
 /**
- * Always throws an UnsupportedAudioFileException, because apparently Media Foundation needs
- * some hints about the mime type to properly open a stream.
+ * Creates an AudioFileFormat instance for the given URL.
+ *
+ * @param env JNI env
+ * @param instance calling stream instance
+ * @param url url
+ * @return AudioFileFormat instance
  */
-JNIEXPORT jobject JNICALL Java_com_tagtraum_mfsampledsp_MFAudioFileReader_intGetAudioFormat___3BI(JNIEnv *env, jobject instance, jbyteArray byteArray, jint length) {
-    // apparently media foundation needs some hints about the mim type to properly open stream.
-    // this is why we leave this unimplemented.
-    throwUnsupportedAudioFileExceptionIfError(env, 1, "Guessing AudioFormat from streams is not supported");
-    return NULL;
+JNIEXPORT jobject JNICALL Java_com_tagtraum_mfsampledsp_MFAudioFileReader_intGetAudioFormat__Ljava_lang_String_2(JNIEnv *env, jobject instance, jstring url) {
+
+    jobject audioFormat = NULL;
+    IMFMediaSource *pMediaSrc = NULL;
+
+    HRESULT res = mf_createMediaSource(env, url, &pMediaSrc);
+    // if we failed, we already threw an exception
+    if (res == S_OK) {
+        audioFormat = getAudioFormat(env, url, pMediaSrc);
+    }
+    SAFE_SHUTDOWN(pMediaSrc);
+
+    return audioFormat;
 }
 
+/**
+ * Creates an AudioFileFormat instance for the given MFByteSource.
+ *
+ * @param env JNI env
+ * @param instance calling stream instance
+ * @param byteSource Java MFByteSource
+ * @param name name used as hint for the container format
+ * @return AudioFileFormat instance
+ */
+JNIEXPORT jobject JNICALL Java_com_tagtraum_mfsampledsp_MFAudioFileReader_intGetAudioFormat__Lcom_tagtraum_mfsampledsp_MFByteSource_2Ljava_lang_String_2(JNIEnv *env, jobject instance, jobject byteSource, jstring name) {
+
+    jobject audioFormat = NULL;
+    IMFMediaSource *pMediaSrc = NULL;
+
+    HRESULT res = mf_createMediaSourceFromByteSource(env, byteSource, name, &pMediaSrc);
+    // if we failed, we already threw an exception
+    if (res == S_OK) {
+        audioFormat = getAudioFormat(env, name, pMediaSrc);
+    }
+    SAFE_SHUTDOWN(pMediaSrc);
+
+    return audioFormat;
+}
@@ -0,0 +1,356 @@
+/*
+ * =================================================
+ * Copyright 2011 tagtraum industries incorporated
+ * This file is part of MFSampledSP.
+ *
+ * FFSampledSP is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * FFSampledSP is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with FFSampledSP; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ * =================================================
+ *
+ * @author <a href="mailto:hs@tagtraum.com">Hendrik Schreiber</a>
+ */
+
+
+#include "MFUtils.h"
+
+/**
+ * Result of a read that has been carried out synchronously in BeginRead.
+ */
+class MFReadResult : public IUnknown
+{
+public:
+    MFReadResult(ULONG cbRead) : refCount(1), cbRead(cbRead) {}
+
+    STDMETHODIMP QueryInterface(REFIID riid, void **ppv) {
+        if (ppv == NULL) return E_POINTER;
+        if (riid == IID_IUnknown) {
+            *ppv = static_cast<IUnknown*>(this);
+            AddRef();
+            return S_OK;
+        }
+        *ppv = NULL;
+        return E_NOINTERFACE;
+    }
+
+    STDMETHODIMP_(ULONG) AddRef() {
+        return InterlockedIncrement(&refCount);
+    }
+
+    STDMETHODIMP_(ULONG) Release() {
+        ULONG count = InterlockedDecrement(&refCount);
+        if (count == 0) delete this;
+        return count;
+    }
+
+    ULONG cbRead;
+
+private:
+    LONG refCount;
+};
+
+/**
+ * IMFByteStream that reads from a Java com.tagtraum.mfsampledsp.MFByteSource.
+ * Media Foundation may call us from its own work queue threads, which are attached to
+ * the JVM as daemon threads on first use.
+ */
+class MFJavaByteStream : public IMFByteStream
+{
+public:
+
+    static HRESULT Create(JNIEnv *env, jobject byteSource, IMFByteStream **ppStream) {
+        jclass byteSourceClass = env->FindClass("com/tagtraum/mfsampledsp/MFByteSource");
+        if (byteSourceClass == NULL) return E_FAIL; /* exception thrown */
+        jmethodID readMID = env->GetMethodID(byteSourceClass, "read", "(JLjava/nio/ByteBuffer;)I");
+        jmethodID lengthMID = env->GetMethodID(byteSourceClass, "length", "()J");
+        env->DeleteLocalRef(byteSourceClass);
+        if (readMID == NULL || lengthMID == NULL) return E_FAIL; /* exception thrown */
+        JavaVM *vm = NULL;
+        if (env->GetJavaVM(&vm) != 0) return E_FAIL;
+
+        MFJavaByteStream *stream = new MFJavaByteStream(vm, env->NewGlobalRef(byteSource), readMID, lengthMID);
+        *ppStream = stream;
+        return S_OK;
+    }
+
+    // IUnknown
+
+    STDMETHODIMP QueryInterface(REFIID riid, void **ppv) {
+        if (ppv == NULL) return E_POINTER;
+        if (riid == IID_IUnknown || riid == IID_IMFByteStream) {
+            *ppv = static_cast<IMFByteStream*>(this);
+            AddRef();
+            return S_OK;
+        }
+        *ppv = NULL;
+        return E_NOINTERFACE;
+    }
+
+    STDMETHODIMP_(ULONG) AddRef() {
+        return InterlockedIncrement(&refCount);
+    }
+
+    STDMETHODIMP_(ULONG) Release() {
+        ULONG count = InterlockedDecrement(&refCount);
+        if (count == 0) delete this;
+        return count;
+    }
+
+    // IMFByteStream
+
+    STDMETHODIMP GetCapabilities(DWORD *pdwCapabilities) {
+        if (pdwCapabilities == NULL) return E_POINTER;
+        *pdwCapabilities = MFBYTESTREAM_IS_READABLE | MFBYTESTREAM_IS_SEEKABLE;
+        return S_OK;
+    }
+
+    STDMETHODIMP GetLength(QWORD *pqwLength) {
+        if (pqwLength == NULL) return E_POINTER;
+        jlong length = -1;
+        HRESULT res = javaLength(&length);
+        // -1 means unknown, which is exactly what Media Foundation expects
+        *pqwLength = (QWORD)length;
+        return res;
+    }
+
+    STDMETHODIMP SetLength(QWORD qwLength) {
+        return E_NOTIMPL;
+    }
+
+    STDMETHODIMP GetCurrentPosition(QWORD *pqwPosition) {
+        if (pqwPosition == NULL) return E_POINTER;
+        EnterCriticalSection(&lock);
+        *pqwPosition = position;
+        LeaveCriticalSection(&lock);
+        return S_OK;
+    }
+
+    STDMETHODIMP SetCurrentPosition(QWORD qwPosition) {
+        EnterCriticalSection(&lock);
+        position = qwPosition;
+        LeaveCriticalSection(&lock);
+        return S_OK;
+    }
+
+    STDMETHODIMP IsEndOfStream(BOOL *pfEndOfStream) {
+        if (pfEndOfStream == NULL) return E_POINTER;
+        jlong length = -1;
+        HRESULT res = javaLength(&length);
+        EnterCriticalSection(&lock);
+        *pfEndOfStream = length >= 0 && position >= (QWORD)length;
+        LeaveCriticalSection(&lock);
+        return res;
+    }
+
+    STDMETHODIMP Read(BYTE *pb, ULONG cb, ULONG *pcbRead) {
+        if (pb == NULL || pcbRead == NULL) return E_POINTER;
+        EnterCriticalSection(&lock);
+        HRESULT res = javaRead(position, pb, cb, pcbRead);
+        if (SUCCEEDED(res)) {
+            position += *pcbRead;
+        }
+        LeaveCriticalSection(&lock);
+        return res;
+    }
+
+    /**
+     * Reads synchronously and invokes the callback right away.
+     */
+    STDMETHODIMP BeginRead(BYTE *pb, ULONG cb, IMFAsyncCallback *pCallback, IUnknown *punkState) {
+        if (pCallback == NULL) return E_POINTER;
+        ULONG cbRead = 0;
+        HRESULT readRes = Read(pb, cb, &cbRead);
+        MFReadResult *pReadResult = new MFReadResult(cbRead);
+        IMFAsyncResult *pAsyncResult = NULL;
+        HRESULT res = MFCreateAsyncResult(pReadResult, pCallback, punkState, &pAsyncResult);
+        pReadResult->Release();
+        if (SUCCEEDED(res)) {
+            pAsyncResult->SetStatus(readRes);
+            res = MFInvokeCallback(pAsyncResult);
+            pAsyncResult->Release();
+        }
+        return res;
+    }
+
+    STDMETHODIMP EndRead(IMFAsyncResult *pResult, ULONG *pcbRead) {
+        if (pResult == NULL || pcbRead == NULL) return E_POINTER;
+        IUnknown *pUnk = NULL;
+        *pcbRead = 0;
+        HRESULT res = pResult->GetObject(&pUnk);
+        if (SUCCEEDED(res)) {
+            *pcbRead = static_cast<MFReadResult*>(pUnk)->cbRead;
+            pUnk->Release();
+            res = pResult->GetStatus();
+        }
+        return res;
+    }
+
+    STDMETHODIMP Write(const BYTE *pb, ULONG cb, ULONG *pcbWritten) {
+        return E_NOTIMPL;
+    }
+
+    STDMETHODIMP BeginWrite(const BYTE *pb, ULONG cb, IMFAsyncCallback *pCallback, IUnknown *punkState) {
+        return E_NOTIMPL;
+    }
+
+    STDMETHODIMP EndWrite(IMFAsyncResult *pResult, ULONG *pcbWritten) {
+        return E_NOTIMPL;
+    }
+
+    STDMETHODIMP Seek(MFBYTESTREAM_SEEK_ORIGIN seekOrigin, LONGLONG llSeekOffset, DWORD dwSeekFlags, QWORD *pqwCurrentPosition) {
+        EnterCriticalSection(&lock);
+        if (seekOrigin == msoCurrent) {
+            position += llSeekOffset;
+        } else {
+            position = llSeekOffset;
+        }
+        if (pqwCurrentPosition != NULL) *pqwCurrentPosition = position;
+        LeaveCriticalSection(&lock);
+        return S_OK;
+    }
+
+    STDMETHODIMP Flush() {
+        return S_OK;
+    }
+
+    /**
+     * The Java byte source is closed by the Java stream that owns it.
+     */
+    STDMETHODIMP Close() {
+        return S_OK;
+    }
+
+private:
+
+    MFJavaByteStream(JavaVM *vm, jobject byteSource, jmethodID readMID, jmethodID lengthMID)
+        : refCount(1), vm(vm), byteSource(byteSource), readMID(readMID), lengthMID(lengthMID), position(0) {
+        InitializeCriticalSection(&lock);
+    }
+
+    virtual ~MFJavaByteStream() {
+        JNIEnv *env = getEnv();
+        if (env != NULL) env->DeleteGlobalRef(byteSource);
+        DeleteCriticalSection(&lock);
+    }
+
+    /**
+     * JNIEnv for the current thread, which is attached to the JVM, if necessary.
+     */
+    JNIEnv *getEnv() {
+        JNIEnv *env = NULL;
+        if (vm->GetEnv((void**)&env, JNI_VERSION_1_4) == JNI_EDETACHED) {
+            if (vm->AttachCurrentThreadAsDaemon((void**)&env, NULL) != 0) return NULL;
+        }
+        return env;
+    }
+
+    HRESULT javaLength(jlong *pLength) {
+        JNIEnv *env = getEnv();
+        if (env == NULL) return E_FAIL;
+        *pLength = env->CallLongMethod(byteSource, lengthMID);
+        if (env->ExceptionCheck()) {
+            env->ExceptionClear();
+            *pLength = -1;
+            return E_FAIL;
+        }
+        return S_OK;
+    }
+
+    HRESULT javaRead(QWORD readPosition, BYTE *pb, ULONG cb, ULONG *pcbRead) {
+        *pcbRead = 0;
+        if (cb == 0) return S_OK;
+        JNIEnv *env = getEnv();
+        if (env == NULL) return E_FAIL;
+        jobject buffer = env->NewDirectByteBuffer(pb, (jlong)cb);
+        if (buffer == NULL) {
+            env->ExceptionClear();
+            return E_OUTOFMEMORY;
+        }
+        jint bytesRead = env->CallIntMethod(byteSource, readMID, (jlong)readPosition, buffer);
+        env->DeleteLocalRef(buffer);
+        if (env->ExceptionCheck()) {
+            env->ExceptionClear();
+            return E_FAIL;
+        }
+        // -1 signals the end of the source
+        *pcbRead = bytesRead > 0 ? (ULONG)bytesRead : 0;
+        return S_OK;
+    }
+
+    LONG refCount;
+    JavaVM *vm;
+    jobject byteSource;
+    jmethodID readMID;
+    jmethodID lengthMID;
+    QWORD position;
+    CRITICAL_SECTION lock;
+};
+
+/**
+ * Creates a Media Source that reads from a Java MFByteSource.
+ *
+ * @param env JNI env
+ * @param byteSource Java MFByteSource
+ * @param name name used as hint for the container format
+ * @param ppMediaSrc media source
+ * @return HRESULT
+ */
+HRESULT mf_createMediaSourceFromByteSource(JNIEnv *env, jobject byteSource, jstring name, IMFMediaSource **ppMediaSrc) {
+
+    HRESULT res = S_OK;
+    const LPWSTR pwszName = (LPWSTR)env->GetStringChars(name, NULL);
+    IMFByteStream *pByteStream = NULL;
+    IUnknown *pUnk = NULL;
+    IMFSourceResolver *pResolver = NULL;
+    MF_OBJECT_TYPE ObjectType = MF_OBJECT_INVALID;
+
+    *ppMediaSrc = NULL;
+    res = MFJavaByteStream::Create(env, byteSource, &pByteStream);
+    if (res) {
+        if (!env->ExceptionCheck()) throwIOExceptionIfError(env, res, "Failed to create byte stream");
+        goto bail;
+    }
+    res = MFCreateSourceResolver(&pResolver);
+    if (res != S_OK || pResolver == NULL) {
+        throwUnsupportedAudioFileExceptionIfError(env, res, "Failed to create source resolver");
+        goto bail;
+    }
+    // The name is only a hint, the content is sniffed
+    res = pResolver->CreateObjectFromByteStream(
+            pByteStream,
+            pwszName,
+            MF_RESOLUTION_MEDIASOURCE | MF_RESOLUTION_READ | MF_RESOLUTION_CONTENT_DOES_NOT_HAVE_TO_MATCH_EXTENSION_OR_MIME_TYPE,
+            NULL,
+            &ObjectType,
+            &pUnk);
+    if (res != S_OK || pUnk == NULL) {
+        throwUnsupportedAudioFileExceptionIfError(env, res, "Failed to create object from byte stream");
+        goto bail;
+    }
+    res = pUnk->QueryInterface(
+            IID_IMFMediaSource,
+            (void**)(ppMediaSrc));
+    if (res != S_OK) {
+        throwUnsupportedAudioFileExceptionIfError(env, res, "Failed get media source interface");
+        goto bail;
+    }
+
+bail:
+
+    SAFE_RELEASE(pResolver)
+    SAFE_RELEASE(pUnk)
+    SAFE_RELEASE(pByteStream)
+    env->ReleaseStringChars(name, (jchar *)pwszName);
+
+    return res;
+}
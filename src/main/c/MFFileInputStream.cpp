@@ -26,6 +26,7 @@
 
 
 static jfieldID nativeBufferFID = NULL;
+static jfieldID sampleTimeFID = NULL;
 static jmethodID rewindMID = NULL;
 static jmethodID limitMID = NULL;
 
@@ -37,8 +38,9 @@ static jmethodID limitMID = NULL;
  */
 static void init_ids(JNIEnv *env, jobject stream) {
     // get method and field ids, if we don't have them already
-    if (nativeBufferFID == NULL || rewindMID == NULL || limitMID == NULL) {
+    if (nativeBufferFID == NULL || sampleTimeFID == NULL || rewindMID == NULL || limitMID == NULL) {
         nativeBufferFID = env->GetFieldID(env->GetObjectClass(stream), "nativeBuffer", "Ljava/nio/ByteBuffer;");
+        sampleTimeFID = env->GetFieldID(env->GetObjectClass(stream), "sampleTime", "J");
         jclass bufferClass = env->FindClass("java/nio/Buffer");
         rewindMID = env->GetMethodID(bufferClass, "rewind", "()Ljava/nio/Buffer;");
         limitMID = env->GetMethodID(bufferClass, "limit", "(I)Ljava/nio/Buffer;");
@@ -104,6 +106,7 @@ JNIEXPORT void JNICALL Java_com_tagtraum_mfsampledsp_MFFileInputStream_fillNativ
     UINT32 flags = 0;
     jlong nativeBufferLength;
     DWORD dwFlags = 0;
+    LONGLONG llTimestamp = -1;
     DWORD cbAudioData = 0;
     DWORD cbBuffer = 0;
     DWORD pcbMaxLength = 0;
@@ -126,7 +129,7 @@ JNIEXPORT void JNICALL Java_com_tagtraum_mfsampledsp_MFFileInputStream_fillNativ
         0,
         NULL,
         &dwFlags,
-        NULL,
+        &llTimestamp,
         &pSample
         );
 
@@ -191,6 +194,8 @@ JNIEXPORT void JNICALL Java_com_tagtraum_mfsampledsp_MFFileInputStream_fillNativ
     // set new bytebuffer limit and position to 0.
     env->CallObjectMethod(byteBuffer, rewindMID);
     env->CallObjectMethod(byteBuffer, limitMID, (jint)cbBuffer);
+    // sample time of the first frame in the buffer, used for sample-exact seeking
+    env->SetLongField(stream, sampleTimeFID, (jlong)llTimestamp);
 
 bail:
 
@@ -204,40 +209,45 @@ bail:
 }
 
 /**
- * Opens a Media Source.
+ * Lets the source reader decode the first audio stream to PCM or float audio.
  *
  * @param env JNI env
- * @param stream calling stream instance
- * @param url URL of the media source
- * @return pointer to the MFAudioIO struct
+ * @param pReader source reader
+ * @param floatSamples decode to 32 bit IEEE float instead of integer PCM
+ * @param bitsPerSample bits per integer sample (16, 24, 32) or 0 for the decoder's default
+ * @return HRESULT
  */
-JNIEXPORT jlong JNICALL Java_com_tagtraum_mfsampledsp_MFFileInputStream_open(JNIEnv *env, jobject stream, jstring url) {
+static HRESULT configureReader(JNIEnv *env, IMFSourceReader *pReader, jboolean floatSamples, jint bitsPerSample) {
 
     HRESULT res = S_OK;
-    MFAudioIO *aio = new MFAudioIO();
     IMFMediaType *pPartialType = NULL;
 
-    // Create a partial media type that specifies uncompressed PCM audio.
+    // Create a partial media type that specifies uncompressed PCM or float audio.
     res = MFCreateMediaType(&pPartialType);
     if (res) {
         throwUnsupportedAudioFileExceptionIfError(env, res, "Failed to create media type");
         goto bail;
     }
     res = pPartialType->SetGUID(MF_MT_MAJOR_TYPE, MFMediaType_Audio);
-    res = pPartialType->SetGUID(MF_MT_SUBTYPE, MFAudioFormat_PCM);
+    if (floatSamples) {
+        res = pPartialType->SetGUID(MF_MT_SUBTYPE, MFAudioFormat_Float);
+        if (SUCCEEDED(res)) {
+            res = pPartialType->SetUINT32(MF_MT_AUDIO_BITS_PER_SAMPLE, 32);
+        }
+    } else {
+        res = pPartialType->SetGUID(MF_MT_SUBTYPE, MFAudioFormat_PCM);
+        if (SUCCEEDED(res) && bitsPerSample > 0) {
+            res = pPartialType->SetUINT32(MF_MT_AUDIO_BITS_PER_SAMPLE, (UINT32)bitsPerSample);
+        }
+    }
     if (res) {
         throwUnsupportedAudioFileExceptionIfError(env, res, "Failed to set media type");
         goto bail;
     }
 
-    res = mf_createMediaSourceReader(env, url, &(aio->mediaSrcReader));
-    if (res) {
-        // exception already thrown
-        goto bail;
-    }
     // Set this type on the source reader. The source reader will
     // load the necessary decoder.
-    res = aio->mediaSrcReader->SetCurrentMediaType(
+    res = pReader->SetCurrentMediaType(
         (DWORD)MF_SOURCE_READER_FIRST_AUDIO_STREAM,
         NULL,
         pPartialType
@@ -247,7 +257,7 @@ JNIEXPORT jlong JNICALL Java_com_tagtraum_mfsampledsp_MFFileInputStream_open(JNI
         goto bail;
     }
     // Ensure the stream is selected.
-    res = aio->mediaSrcReader->SetStreamSelection(
+    res = pReader->SetStreamSelection(
         (DWORD)MF_SOURCE_READER_FIRST_AUDIO_STREAM,
         TRUE
         );
@@ -255,11 +265,38 @@ JNIEXPORT jlong JNICALL Java_com_tagtraum_mfsampledsp_MFFileInputStream_open(JNI
         throwUnsupportedAudioFileExceptionIfError(env, res, "Failed to select first audio stream");
         goto bail;
     }
-    //fprintf(stderr, "Source is open : '%i'\n", 0);
 
 bail:
 
     SAFE_RELEASE(pPartialType)
+    return res;
+}
+
+/**
+ * Opens a Media Source for the given URL.
+ *
+ * @param env JNI env
+ * @param stream calling stream instance
+ * @param url URL of the media source
+ * @param floatSamples decode to 32 bit IEEE float instead of integer PCM
+ * @param bitsPerSample bits per integer sample (16, 24, 32) or 0 for the decoder's default
+ * @return pointer to the MFAudioIO struct
+ */
+JNIEXPORT jlong JNICALL Java_com_tagtraum_mfsampledsp_MFFileInputStream_open(JNIEnv *env, jobject stream, jstring url, jboolean floatSamples, jint bitsPerSample) {
+
+    HRESULT res = S_OK;
+    MFAudioIO *aio = new MFAudioIO();
+
+    res = mf_createMediaSourceReader(env, url, &(aio->mediaSrcReader));
+    if (res) {
+        // exception already thrown
+        goto bail;
+    }
+    res = configureReader(env, aio->mediaSrcReader, floatSamples, bitsPerSample);
+    //fprintf(stderr, "Source is open : '%i'\n", 0);
+
+bail:
+
     if (res) {
         SAFE_RELEASE(aio->mediaSrcReader);
         delete aio;
@@ -268,6 +305,48 @@ bail:
     return (jlong)aio;
 }
 
+/**
+ * Opens the given MFByteSource.
+ *
+ * @param env JNI env
+ * @param stream calling stream instance
+ * @param byteSource Java MFByteSource
+ * @param name name used as hint for the container format
+ * @param floatSamples decode to 32 bit IEEE float instead of integer PCM
+ * @param bitsPerSample bits per integer sample (16, 24, 32) or 0 for the decoder's default
+ * @return pointer to the MFAudioIO struct
+ */
+JNIEXPORT jlong JNICALL Java_com_tagtraum_mfsampledsp_MFFileInputStream_openByteSource(JNIEnv *env, jobject stream, jobject byteSource, jstring name, jboolean floatSamples, jint bitsPerSample) {
+
+    HRESULT res = S_OK;
+    MFAudioIO *aio = new MFAudioIO();
+    IMFMediaSource *pMediaSrc = NULL;
+
+    res = mf_createMediaSourceFromByteSource(env, byteSource, name, &pMediaSrc);
+    if (res) {
+        // exception already thrown
+        goto bail;
+    }
+    // the source reader shuts down the media source, when it's released
+    res = MFCreateSourceReaderFromMediaSource(pMediaSrc, NULL, &(aio->mediaSrcReader));
+    if (res) {
+        throwUnsupportedAudioFileExceptionIfError(env, res, "Failed to create source reader from byte source");
+        goto bail;
+    }
+    res = configureReader(env, aio->mediaSrcReader, floatSamples, bitsPerSample);
+
+bail:
+
+    if (res) {
+        if (aio->mediaSrcReader == NULL && pMediaSrc != NULL) pMediaSrc->Shutdown();
+        SAFE_RELEASE(aio->mediaSrcReader);
+        delete aio;
+        aio = NULL;
+    }
+    SAFE_RELEASE(pMediaSrc);
+    return (jlong)aio;
+}
+
 /**
  * Indicates, whether we can seek in this media source.
  *
@@ -319,12 +398,13 @@ JNIEXPORT void JNICALL Java_com_tagtraum_mfsampledsp_MFFileInputStream_seek(JNIE
 
 /**
  * Closes the media source and frees all associated resources.
+ * Static, so that it can also be called when the stream has become unreachable.
  *
  * @param env JNI env
- * @param stream calling stream instance
+ * @param clazz MFFileInputStream class
  * @param aioPtr pointer to the MFAudioIO struct
  */
-JNIEXPORT void JNICALL Java_com_tagtraum_mfsampledsp_MFFileInputStream_close(JNIEnv *env, jobject stream, jlong aioPtr) {
+JNIEXPORT void JNICALL Java_com_tagtraum_mfsampledsp_MFFileInputStream_release(JNIEnv *env, jclass clazz, jlong aioPtr) {
     MFAudioIO *aio = (MFAudioIO*)aioPtr;
     // TODO: check this
     if (aio != NULL) {
@@ -22,6 +22,8 @@
  */
 
 #include "MFUtils.h"
+#include "com_tagtraum_mfsampledsp_MFThreadFactory.h"
+#include "com_tagtraum_mfsampledsp_MFStartup.h"
 
 /**
  * Throws an UnsupportedAudioFileException exception
@@ -218,6 +220,73 @@ bail:
     return JNI_VERSION_1_4;
 }
 
+/**
+ * Initializes COM (multithreaded apartment) and Media Foundation for the calling thread.
+ *
+ * @return result of CoInitializeEx
+ */
+JNIEXPORT jint JNICALL Java_com_tagtraum_mfsampledsp_MFThreadFactory_initThread(JNIEnv *env, jclass factoryClass) {
+    HRESULT res = CoInitializeEx(NULL, COINIT_MULTITHREADED | COINIT_DISABLE_OLE1DDE);
+    if (res != S_OK && res != S_FALSE) {
+        // e.g. RPC_E_CHANGED_MODE, if the thread already lives in an STA - still usable
+        fprintf (stderr, "CoInitializeEx failed: '0x%X'\n", res);
+    }
+    HRESULT mfRes = MFStartup(MF_VERSION, MFSTARTUP_LITE);
+    if (mfRes != S_OK) {
+        fprintf (stderr, "MFStartup failed: '0x%X'\n", mfRes);
+    }
+    return res;
+}
+
+/**
+ * Shuts down Media Foundation for the calling thread and, if requested, uninitializes COM.
+ */
+JNIEXPORT void JNICALL Java_com_tagtraum_mfsampledsp_MFThreadFactory_uninitThread(JNIEnv *env, jclass factoryClass, jboolean uninitializeCOM) {
+    MFShutdown();
+    if (uninitializeCOM) {
+        CoUninitialize();
+    }
+}
+
+/**
+ * Instantiates and releases the MP3 and AAC decoders, so that their DLLs are loaded and
+ * initialized before the first real decode. Expects COM and Media Foundation to be
+ * initialized for the calling thread.
+ */
+JNIEXPORT void JNICALL Java_com_tagtraum_mfsampledsp_MFStartup_prewarmDecoders(JNIEnv *env, jclass startupClass) {
+    const GUID subtypes[] = { MFAudioFormat_MP3, MFAudioFormat_AAC };
+
+    for (int i = 0; i < 2; i++) {
+        HRESULT res = S_OK;
+        MFT_REGISTER_TYPE_INFO inputType = { MFMediaType_Audio, subtypes[i] };
+        IMFActivate **ppActivate = NULL;
+        IMFTransform *pDecoder = NULL;
+        UINT32 count = 0;
+
+        res = MFTEnumEx(MFT_CATEGORY_AUDIO_DECODER,
+            MFT_ENUM_FLAG_SYNCMFT | MFT_ENUM_FLAG_LOCALMFT | MFT_ENUM_FLAG_SORTANDFILTER,
+            &inputType, NULL, &ppActivate, &count);
+        if (res || count == 0) {
+            fprintf (stderr, "No decoder to prewarm: '0x%X'\n", res);
+            goto next;
+        }
+        res = ppActivate[0]->ActivateObject(IID_PPV_ARGS(&pDecoder));
+        if (res) {
+            fprintf (stderr, "Failed to activate decoder: '0x%X'\n", res);
+            goto next;
+        }
+        ppActivate[0]->ShutdownObject();
+
+next:
+
+        SAFE_RELEASE(pDecoder);
+        for (UINT32 j = 0; j < count; j++) {
+            SAFE_RELEASE(ppActivate[j]);
+        }
+        CoTaskMemFree(ppActivate);
+    }
+}
+
 /**
  * Shuts down Media Foundation and uninitializes COM.
  */
@@ -58,6 +58,8 @@ HRESULT mf_createMediaSource(JNIEnv *, jstring, IMFMediaSource **);
 
 HRESULT mf_createMediaSourceReader(JNIEnv *, jstring, IMFSourceReader **);
 
+HRESULT mf_createMediaSourceFromByteSource(JNIEnv *, jobject, jstring, IMFMediaSource **);
+
 jobject mf_createAudioFormatObject(JNIEnv*, jstring, jfloat, jint,
                                          jint, jint, jfloat, jboolean, jlong,
                                          jint, jboolean);
@@ -0,0 +1,419 @@
+/*
+ * =================================================
+ * Copyright 2011 tagtraum industries incorporated
+ * This file is part of MFSampledSP.
+ *
+ * FFSampledSP is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * FFSampledSP is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with FFSampledSP; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ * =================================================
+ */
+package com.tagtraum.mfsampledsp;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Analysis mode: downmixes an {@link MFAudioInputStream} to mono and resamples it
+ * to a (typically lower) rate while streaming, e.g. for fingerprinting, tempo or
+ * loudness estimation. Samples are delivered as 32 bit little endian float.
+ * <p>
+ * Channels are averaged, while reading planar float samples straight from the decoder's
+ * buffer (see {@link MFAudioInputStream#readPlanar(float[][], int, int)}). The resampler
+ * is a polyphase filter for the ratio <code>L/M</code> of the two (integral) rates, using
+ * a Kaiser windowed sinc with its cutoff at 85% of the lower Nyquist frequency. The filter is
+ * centered, i.e. output frame <code>n</code> corresponds exactly to source frame <code>n*M/L</code>.
+ * All buffers are allocated once and reused across reads.
+ * <p>
+ * The frame position always refers to the output rate. {@link #seek(long, TimeUnit)}
+ * produces the same samples as reading up to the target position would have.
+ *
+ * @author <a href="mailto:hs@tagtraum.com">Hendrik Schreiber</a>
+ * @see MFAudioFileReader#getAnalysisAudioInputStream(java.net.URL, float)
+ */
+public class MFAnalysisInputStream extends AudioInputStream {
+
+    private static final int BLOCK_FRAMES = 4096;
+    /**
+     * Max number of filter phases, i.e. max <code>L</code> of the rate ratio.
+     */
+    private static final int MAX_PHASES = 1024;
+    private static final int ZERO_CROSSINGS = 16;
+    private static final double ROLLOFF = 0.85;
+    private static final double KAISER_BETA = 8.0;
+
+    private final MFAudioInputStream source;
+    private final int channels;
+    private final int up;
+    private final int down;
+    private final int step;
+    private final int stepPhase;
+    /**
+     * Number of source frames up to and including the one an output frame is centered on.
+     */
+    private final int lead;
+    private final int taps;
+    private final float[][] coefficients;
+    private final float[][] planar;
+    private final float[][] monoTarget;
+    private final float[] buffer;
+    private float[] floats;
+    /**
+     * Source frame of <code>buffer[0]</code>.
+     */
+    private long bufferStart;
+    private int count;
+    private long inputIndex;
+    private int phase;
+    private boolean endOfInput;
+    private long inputEnd;
+
+    /**
+     * Creates an analysis stream. <code>source</code> must be positioned at its start.
+     *
+     * @param source source stream delivering signed or float PCM
+     * @param sampleRate output sample rate, must be integral
+     * @throws IllegalArgumentException if the source format or the rate ratio is not supported
+     */
+    public MFAnalysisInputStream(final MFAudioInputStream source, final float sampleRate) {
+        super(source, toFormat(sampleRate), toFrameLength(source, sampleRate));
+        final AudioFormat sourceFormat = source.getFormat();
+        if (!MFDeinterleaver.isSupported(sourceFormat)) {
+            throw new IllegalArgumentException("Unsupported source format: " + sourceFormat);
+        }
+        final int sourceRate = toRate(sourceFormat.getSampleRate());
+        final int targetRate = toRate(sampleRate);
+        final int gcd = gcd(sourceRate, targetRate);
+        this.source = source;
+        this.channels = sourceFormat.getChannels();
+        this.up = targetRate / gcd;
+        this.down = sourceRate / gcd;
+        if (up > MAX_PHASES) {
+            throw new IllegalArgumentException("Ratio of " + targetRate + " and " + sourceRate + " Hz needs too many filter phases: " + up);
+        }
+        this.step = down / up;
+        this.stepPhase = down % up;
+        if (up == down) {
+            this.lead = 1;
+            this.taps = 1;
+            this.coefficients = new float[][] {{1f}};
+        } else {
+            final double cutoff = ROLLOFF * Math.min(1.0, up / (double) down);
+            this.lead = (int) Math.ceil(ZERO_CROSSINGS / cutoff);
+            this.taps = 2 * lead;
+            this.coefficients = createCoefficients(up, lead, taps, cutoff);
+        }
+        this.planar = channels == 1 ? null : new float[channels][BLOCK_FRAMES];
+        this.buffer = new float[BLOCK_FRAMES + 2 * taps];
+        this.monoTarget = new float[][] {buffer};
+        reset(0, 0);
+    }
+
+    private static AudioFormat toFormat(final float sampleRate) {
+        return new AudioFormat(AudioFormat.Encoding.PCM_FLOAT, sampleRate, 32, 1, 4, sampleRate, false);
+    }
+
+    private static long toFrameLength(final MFAudioInputStream source, final float sampleRate) {
+        final long frameLength = source.getFrameLength();
+        if (frameLength == AudioSystem.NOT_SPECIFIED) return AudioSystem.NOT_SPECIFIED;
+        final int sourceRate = toRate(source.getFormat().getSampleRate());
+        final int targetRate = toRate(sampleRate);
+        final int gcd = gcd(sourceRate, targetRate);
+        final long up = targetRate / gcd;
+        final long down = sourceRate / gcd;
+        // all output frames centered on a source frame
+        return (frameLength * up + down - 1) / down;
+    }
+
+    private static int toRate(final float sampleRate) {
+        final int rate = Math.round(sampleRate);
+        if (rate <= 0 || Math.abs(rate - sampleRate) > 0.001f) {
+            throw new IllegalArgumentException("Sample rate must be a positive integer: " + sampleRate);
+        }
+        return rate;
+    }
+
+    private static int gcd(final int a, final int b) {
+        return b == 0 ? a : gcd(b, a % b);
+    }
+
+    /**
+     * Computes one normalized set of <code>taps</code> coefficients per phase.
+     * Coefficient <code>k</code> of phase <code>p</code> weighs the source frame at distance
+     * <code>p/up + lead - 1 - k</code> from the output frame's position.
+     */
+    private static float[][] createCoefficients(final int up, final int lead, final int taps, final double cutoff) {
+        final float[][] coefficients = new float[up][taps];
+        final double i0Beta = besselI0(KAISER_BETA);
+        for (int p = 0; p < up; p++) {
+            double sum = 0;
+            final double[] c = new double[taps];
+            for (int k = 0; k < taps; k++) {
+                final double distance = p / (double) up + lead - 1 - k;
+                final double x = distance / lead;
+                final double window = Math.abs(x) >= 1 ? 0 : besselI0(KAISER_BETA * Math.sqrt(1 - x * x)) / i0Beta;
+                final double arg = Math.PI * cutoff * distance;
+                c[k] = window * (arg == 0 ? 1.0 : Math.sin(arg) / arg);
+                sum += c[k];
+            }
+            // unity gain at DC for every phase
+            for (int k = 0; k < taps; k++) {
+                coefficients[p][k] = (float) (c[k] / sum);
+            }
+        }
+        return coefficients;
+    }
+
+    private static double besselI0(final double x) {
+        double sum = 1;
+        double term = 1;
+        for (int k = 1; k < 50; k++) {
+            term *= (x / (2 * k)) * (x / (2 * k));
+            sum += term;
+            if (term < sum * 1e-12) break;
+        }
+        return sum;
+    }
+
+    long getFramePosition() {
+        return framePos;
+    }
+
+    /**
+     * Reads mono float samples.
+     *
+     * @param b array
+     * @param off offset into the array
+     * @param len max number of samples to read
+     * @return number of samples read or <code>-1</code>, if the end of the stream is reached
+     * @throws IOException if something goes wrong
+     */
+    public int read(final float[] b, final int off, final int len) throws IOException {
+        if (len < 0) throw new IllegalArgumentException("Length must be greater than or equal to 0: " + len);
+        if (off < 0) throw new IllegalArgumentException("Offset must be greater than or equal to 0: " + off);
+        if (b.length - off < len) throw new IllegalArgumentException("There must be more space than "  + len + " samples left in the array. Offset is " + off);
+        if (len == 0) return 0;
+        int samplesRead = 0;
+        while (true) {
+            samplesRead += resample(b, off + samplesRead, len - samplesRead);
+            if (samplesRead == len || !fill()) break;
+        }
+        framePos += samplesRead;
+        return samplesRead == 0 ? -1 : samplesRead;
+    }
+
+    @Override
+    public int read(final byte[] b, final int off, final int len) throws IOException {
+        if (len < 0) throw new IllegalArgumentException("Length must be greater than or equal to 0: " + len);
+        if (off < 0) throw new IllegalArgumentException("Offset must be greater than or equal to 0: " + off);
+        if (b.length - off < len) throw new IllegalArgumentException("There must be more space than "  + len + " bytes left in the buffer. Offset is " + off);
+        if (floats == null) floats = new float[BLOCK_FRAMES];
+        final int samples = len / 4;
+        if (samples == 0) return 0;
+        int bytesRead = 0;
+        while (bytesRead < samples * 4) {
+            final int justRead = read(floats, 0, Math.min(floats.length, samples - bytesRead / 4));
+            if (justRead == -1) break;
+            for (int s = 0, i = off + bytesRead; s < justRead; s++, i += 4) {
+                final int bits = Float.floatToRawIntBits(floats[s]);
+                b[i] = (byte) bits;
+                b[i+1] = (byte) (bits >> 8);
+                b[i+2] = (byte) (bits >> 16);
+                b[i+3] = (byte) (bits >> 24);
+            }
+            bytesRead += justRead * 4;
+        }
+        return bytesRead == 0 ? -1 : bytesRead;
+    }
+
+    @Override
+    public long skip(final long n) throws IOException {
+        if (floats == null) floats = new float[BLOCK_FRAMES];
+        long skipped = 0;
+        while (skipped < n / 4) {
+            final int justRead = read(floats, 0, (int) Math.min(floats.length, n / 4 - skipped));
+            if (justRead == -1) break;
+            skipped += justRead;
+        }
+        return skipped * 4;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return 0;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    @Override
+    public void mark(final int readlimit) {
+    }
+
+    @Override
+    public void reset() throws IOException {
+        throw new IOException("mark/reset not supported");
+    }
+
+    /**
+     * Indicates whether this stream is seekable.
+     *
+     * @return true or false
+     * @see MFAudioInputStream#isSeekable()
+     */
+    public boolean isSeekable() {
+        return source.isSeekable();
+    }
+
+    /**
+     * Positions the stream at the desired timestamp, measured in output frames.
+     * The source is positioned early enough to fill the filter.
+     *
+     * @param time time
+     * @param timeUnit time unit
+     * @throws UnsupportedOperationException if the operation is not supported
+     * @throws IOException if something goes wrong
+     */
+    public void seek(final long time, final TimeUnit timeUnit) throws UnsupportedOperationException, IOException {
+        final long frame = Math.round(timeUnit.toNanos(time) * (double) format.getFrameRate() / 1000000000.0);
+        final long target = frame * down;
+        final long first = Math.max(0, target / up - lead + 1);
+        final float sourceRate = source.getFormat().getFrameRate();
+        // round up, so that the source does not land a frame early due to rounding
+        source.seek((long) Math.ceil(first * 1000000.0 / sourceRate), TimeUnit.MICROSECONDS);
+        long position = source.getFramePosition();
+        // drop what the filter does not need
+        while (position < first) {
+            count = 0;
+            final int justRead = readSource((int) Math.min(first - position, BLOCK_FRAMES));
+            if (justRead == -1) break;
+            position += justRead;
+        }
+        reset(target, position);
+        framePos = frame;
+    }
+
+    /**
+     * Resets the filter state.
+     *
+     * @param target position of the next output frame in units of <code>1/up</code> source frames
+     * @param start source frame the source is positioned at, earlier frames are silent
+     */
+    private void reset(final long target, final long start) {
+        inputIndex = target / up;
+        phase = (int) (target % up);
+        bufferStart = inputIndex - lead + 1;
+        count = 0;
+        // silence before the start of the stream (or wherever the source landed)
+        while (bufferStart + count < start && count < buffer.length - BLOCK_FRAMES) {
+            buffer[count++] = 0;
+        }
+        endOfInput = false;
+    }
+
+    /**
+     * Computes as many output samples as possible from the buffered source frames.
+     *
+     * @return number of samples
+     */
+    private int resample(final float[] b, final int off, final int len) {
+        int base = (int) (inputIndex - lead + 1 - bufferStart);
+        final int limit = endOfInput ? (int) Math.min(Integer.MAX_VALUE, inputEnd - lead + 1 - bufferStart) : Integer.MAX_VALUE;
+        final int last = count - taps;
+        int p = phase;
+        int n = 0;
+        while (n < len && base <= last && base < limit) {
+            final float[] c = coefficients[p];
+            float s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+            int k = 0;
+            for (int i = base; k <= taps - 4; k += 4, i += 4) {
+                s0 += buffer[i] * c[k];
+                s1 += buffer[i+1] * c[k+1];
+                s2 += buffer[i+2] * c[k+2];
+                s3 += buffer[i+3] * c[k+3];
+            }
+            for (; k < taps; k++) {
+                s0 += buffer[base + k] * c[k];
+            }
+            b[off + n++] = (s0 + s1) + (s2 + s3);
+            base += step;
+            p += stepPhase;
+            if (p >= up) {
+                p -= up;
+                base++;
+            }
+        }
+        phase = p;
+        inputIndex = bufferStart + base + lead - 1;
+        return n;
+    }
+
+    /**
+     * Drops source frames the filter does not need anymore and reads the next block.
+     *
+     * @return false, if the end of the stream was reached
+     */
+    private boolean fill() throws IOException {
+        if (endOfInput) return false;
+        final int discard = (int) Math.min(count, inputIndex - lead + 1 - bufferStart);
+        if (discard > 0) {
+            System.arraycopy(buffer, discard, buffer, 0, count - discard);
+            count -= discard;
+            bufferStart += discard;
+        }
+        final int justRead = readSource(Math.min(BLOCK_FRAMES, buffer.length - count));
+        if (justRead == -1) {
+            endOfInput = true;
+            inputEnd = bufferStart + count;
+            // silence after the end of the stream
+            for (int i = 0; i < taps - lead; i++) {
+                buffer[count++] = 0;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Reads up to <code>frames</code> source frames, averages their channels and appends
+     * them to the buffer.
+     *
+     * @return number of frames read or <code>-1</code>, if the end of the source is reached
+     */
+    private int readSource(final int frames) throws IOException {
+        if (channels == 1) {
+            final int justRead = source.readPlanar(monoTarget, count, frames);
+            if (justRead > 0) count += justRead;
+            return justRead;
+        }
+        final int justRead = source.readPlanar(planar, 0, Math.min(frames, BLOCK_FRAMES));
+        if (justRead <= 0) return justRead;
+        final float scale = 1f / channels;
+        final float[] first = planar[0];
+        for (int i = 0, j = count; i < justRead; i++, j++) {
+            buffer[j] = first[i] * scale;
+        }
+        for (int c = 1; c < channels; c++) {
+            final float[] samples = planar[c];
+            for (int i = 0, j = count; i < justRead; i++, j++) {
+                buffer[j] += samples[i] * scale;
+            }
+        }
+        count += justRead;
+        return justRead;
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * =================================================
+ * Copyright 2011 tagtraum industries incorporated
+ * This file is part of MFSampledSP.
+ *
+ * FFSampledSP is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * FFSampledSP is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with FFSampledSP; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ * =================================================
+ */
+package com.tagtraum.mfsampledsp;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounded pool of platform threads that runs blocking native calls on behalf of
+ * the asynchronous API, so that callers, e.g. virtual threads, never block inside JNI.
+ * <p>
+ * The pool size is set with the system property <code>com.tagtraum.mfsampledsp.async.threads</code>
+ * (default: number of available processors). Excess tasks are queued.
+ *
+ * @author <a href="mailto:hs@tagtraum.com">Hendrik Schreiber</a>
+ */
+final class MFAsync {
+
+    private static final int THREADS = Math.max(1, Integer.getInteger("com.tagtraum.mfsampledsp.async.threads",
+            Runtime.getRuntime().availableProcessors()));
+    private static final ExecutorService executor = new ThreadPoolExecutor(THREADS, THREADS, 30L, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(), new MFThreadFactory("async"));
+
+    static {
+        ((ThreadPoolExecutor) executor).allowCoreThreadTimeOut(true);
+    }
+
+    private MFAsync() {
+    }
+
+    /**
+     * Pool the blocking work is offloaded to.
+     *
+     * @return executor
+     */
+    static ExecutorService getExecutor() {
+        return executor;
+    }
+
+    /**
+     * Runs the given blocking task on the pool.
+     *
+     * @param task task
+     * @param <T> result type
+     * @return future completed with the task's result or exception
+     */
+    static <T> CompletableFuture<T> supply(final MFWorkers.Task<T, ?> task) {
+        final CompletableFuture<T> future = new CompletableFuture<>();
+        executor.execute(() -> complete(future, task));
+        return future;
+    }
+
+    /**
+     * Runs the given blocking task on the pool, once <code>previous</code> has completed,
+     * regardless of whether it completed normally. Used to keep async operations on
+     * the same stream in order.
+     *
+     * @param previous previous operation
+     * @param task task
+     * @param <T> result type
+     * @return future completed with the task's result or exception
+     */
+    static <T> CompletableFuture<T> after(final CompletableFuture<?> previous, final MFWorkers.Task<T, ?> task) {
+        final CompletableFuture<T> future = new CompletableFuture<>();
+        previous.whenCompleteAsync((result, throwable) -> complete(future, task), executor);
+        return future;
+    }
+
+    private static <T> void complete(final CompletableFuture<T> future, final MFWorkers.Task<T, ?> task) {
+        if (future.isCancelled()) return;
+        try {
+            future.complete(task.call());
+        } catch (Throwable t) {
+            future.completeExceptionally(t);
+        }
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * =================================================
+ * Copyright 2011 tagtraum industries incorporated
+ * This file is part of MFSampledSP.
+ *
+ * FFSampledSP is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * FFSampledSP is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with FFSampledSP; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ * =================================================
+ */
+package com.tagtraum.mfsampledsp;
+
+import javax.sound.sampled.AudioFormat;
+import java.nio.ByteBuffer;
+
+/**
+ * Chunk of decoded audio published by an {@link MFAudioChunkPublisher}.
+ * <p>
+ * The chunk's buffer is owned by the publisher. Once the subscriber is done with it,
+ * it must call {@link #release()}, so that the buffer can be reused for decoding.
+ * Unreleased chunks limit how far ahead the publisher decodes.
+ *
+ * @author <a href="mailto:hs@tagtraum.com">Hendrik Schreiber</a>
+ */
+public final class MFAudioChunk {
+
+    private final MFAudioChunkPublisher publisher;
+    private final AudioFormat format;
+    private final long framePosition;
+    private ByteBuffer buffer;
+
+    MFAudioChunk(final MFAudioChunkPublisher publisher, final AudioFormat format, final long framePosition, final ByteBuffer buffer) {
+        this.publisher = publisher;
+        this.format = format;
+        this.framePosition = framePosition;
+        this.buffer = buffer;
+    }
+
+    /**
+     * Format of the data.
+     *
+     * @return format
+     */
+    public AudioFormat getFormat() {
+        return format;
+    }
+
+    /**
+     * Position of the chunk's first frame in the stream.
+     *
+     * @return frame position
+     */
+    public long getFramePosition() {
+        return framePosition;
+    }
+
+    /**
+     * Number of frames in this chunk.
+     *
+     * @return frame count
+     */
+    public int getFrameCount() {
+        return getBuffer().limit() / format.getFrameSize();
+    }
+
+    /**
+     * Decoded data, from position 0 to limit, in the byte order of {@link #getFormat()}.
+     * Must not be used after {@link #release()}.
+     *
+     * @return buffer
+     * @throws IllegalStateException if the chunk has already been released
+     */
+    public synchronized ByteBuffer getBuffer() {
+        if (buffer == null) throw new IllegalStateException("Chunk has already been released");
+        return buffer;
+    }
+
+    /**
+     * Hands the buffer back to the publisher for reuse. Calling this method more than once has no effect.
+     */
+    public void release() {
+        final ByteBuffer released;
+        synchronized (this) {
+            released = buffer;
+            buffer = null;
+        }
+        if (released != null) {
+            publisher.recycle(released);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "MFAudioChunk{" +
+                "framePosition=" + framePosition +
+                ", buffer=" + buffer +
+                '}';
+    }
+}
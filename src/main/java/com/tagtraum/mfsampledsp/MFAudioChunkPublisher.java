@@ -0,0 +1,264 @@
+/*
+ * =================================================
+ * Copyright 2011 tagtraum industries incorporated
+ * This file is part of MFSampledSP.
+ *
+ * FFSampledSP is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * FFSampledSP is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with FFSampledSP; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ * =================================================
+ */
+package com.tagtraum.mfsampledsp;
+
+import javax.sound.sampled.AudioSystem;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Publishes the decoded audio of an {@link MFAudioInputStream} as {@link MFAudioChunk}s.
+ * <p>
+ * Decoding happens on the given executor and only as far as the subscriber's demand
+ * allows. At most <code>maxChunks</code> chunk buffers are in use at any time; once all of them
+ * are held by the subscriber, decoding pauses until a chunk is {@link MFAudioChunk#release() released}.
+ * Cancelling the subscription or reaching the end of the stream closes the stream.
+ * <p>
+ * Since a stream can only be decoded once, a publisher accepts only a single subscriber.
+ *
+ * @author <a href="mailto:hs@tagtraum.com">Hendrik Schreiber</a>
+ */
+public class MFAudioChunkPublisher implements Flow.Publisher<MFAudioChunk> {
+
+    private static final Logger LOG = Logger.getLogger(MFAudioChunkPublisher.class.getName());
+
+    private final MFAudioInputStream stream;
+    private final int chunkBytes;
+    private final int maxChunks;
+    private final Executor executor;
+    private final AtomicBoolean subscribed = new AtomicBoolean();
+    private final Queue<ByteBuffer> freeBuffers = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger allocatedBuffers = new AtomicInteger();
+    private volatile boolean terminated;
+    private volatile ChunkSubscription subscription;
+
+    /**
+     * Creates a publisher that decodes on a bounded pool of platform threads.
+     *
+     * @param stream stream
+     * @param chunkFrames max number of frames per chunk
+     * @param maxChunks max number of chunks decoded, but not released yet
+     */
+    public MFAudioChunkPublisher(final MFAudioInputStream stream, final int chunkFrames, final int maxChunks) {
+        this(stream, chunkFrames, maxChunks, MFAsync.getExecutor());
+    }
+
+    /**
+     * Creates a publisher.
+     *
+     * @param stream stream
+     * @param chunkFrames max number of frames per chunk
+     * @param maxChunks max number of chunks decoded, but not released yet
+     * @param executor executor to decode with
+     */
+    public MFAudioChunkPublisher(final MFAudioInputStream stream, final int chunkFrames, final int maxChunks, final Executor executor) {
+        if (chunkFrames < 1) throw new IllegalArgumentException("Chunk frames must be at least 1: " + chunkFrames);
+        if (maxChunks < 1) throw new IllegalArgumentException("Max chunks must be at least 1: " + maxChunks);
+        this.stream = stream;
+        this.chunkBytes = chunkFrames * stream.getFormat().getFrameSize();
+        this.maxChunks = maxChunks;
+        this.executor = executor;
+    }
+
+    @Override
+    public void subscribe(final Flow.Subscriber<? super MFAudioChunk> subscriber) {
+        if (subscriber == null) throw new NullPointerException("Subscriber must not be null");
+        if (!subscribed.compareAndSet(false, true)) {
+            subscriber.onSubscribe(new Flow.Subscription() {
+                @Override
+                public void request(final long n) {
+                }
+
+                @Override
+                public void cancel() {
+                }
+            });
+            subscriber.onError(new IllegalStateException("MFAudioChunkPublisher allows only one subscriber"));
+            return;
+        }
+        final ChunkSubscription chunkSubscription = new ChunkSubscription(subscriber);
+        this.subscription = chunkSubscription;
+        subscriber.onSubscribe(chunkSubscription);
+    }
+
+    /**
+     * Called by {@link MFAudioChunk#release()}.
+     *
+     * @param buffer buffer
+     */
+    void recycle(final ByteBuffer buffer) {
+        if (terminated) {
+            MFDirectBufferPool.getInstance().release(buffer);
+            return;
+        }
+        buffer.clear();
+        freeBuffers.offer(buffer);
+        if (terminated) {
+            // terminated in the meantime, don't leak
+            releaseFreeBuffers();
+            return;
+        }
+        final ChunkSubscription s = subscription;
+        if (s != null) s.schedule();
+    }
+
+    private ByteBuffer nextBuffer() {
+        final ByteBuffer buffer = freeBuffers.poll();
+        if (buffer != null) return buffer;
+        if (allocatedBuffers.incrementAndGet() > maxChunks) {
+            allocatedBuffers.decrementAndGet();
+            return null;
+        }
+        return MFDirectBufferPool.getInstance().acquire(chunkBytes).order(stream.getFormat().isBigEndian()
+                ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private void releaseFreeBuffers() {
+        ByteBuffer buffer;
+        while ((buffer = freeBuffers.poll()) != null) {
+            MFDirectBufferPool.getInstance().release(buffer);
+        }
+    }
+
+    private class ChunkSubscription implements Flow.Subscription, Runnable {
+
+        private final Flow.Subscriber<? super MFAudioChunk> subscriber;
+        private final AtomicLong demand = new AtomicLong();
+        private final AtomicInteger wip = new AtomicInteger();
+        private volatile boolean cancelled;
+        private volatile Throwable invalidRequest;
+
+        private ChunkSubscription(final Flow.Subscriber<? super MFAudioChunk> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(final long n) {
+            if (n <= 0) {
+                invalidRequest = new IllegalArgumentException("Requested number of chunks must be positive: " + n);
+            } else {
+                long current;
+                do {
+                    current = demand.get();
+                    if (current == Long.MAX_VALUE) break;
+                } while (!demand.compareAndSet(current, current + n < 0 ? Long.MAX_VALUE : current + n));
+            }
+            schedule();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            schedule();
+        }
+
+        /**
+         * Makes sure a drain run is pending. Only one run is active at any time,
+         * so the stream is only ever touched by one thread.
+         */
+        private void schedule() {
+            if (wip.getAndIncrement() == 0) {
+                executor.execute(this);
+            }
+        }
+
+        @Override
+        public void run() {
+            int missed = 1;
+            do {
+                drain();
+                missed = wip.addAndGet(-missed);
+            } while (missed != 0);
+        }
+
+        private void drain() {
+            if (terminated) return;
+            if (cancelled) {
+                terminate();
+                return;
+            }
+            if (invalidRequest != null) {
+                terminate();
+                subscriber.onError(invalidRequest);
+                return;
+            }
+            while (demand.get() > 0 && !cancelled) {
+                final ByteBuffer buffer = nextBuffer();
+                if (buffer == null) {
+                    // all chunks are held by the subscriber, wait for release
+                    return;
+                }
+                buffer.limit(chunkBytes);
+                final long framePosition = stream.getFramePosition();
+                final int bytesRead;
+                try {
+                    bytesRead = stream.read(buffer);
+                } catch (IOException | RuntimeException e) {
+                    recycleUnused(buffer);
+                    terminate();
+                    subscriber.onError(e);
+                    return;
+                }
+                if (bytesRead <= 0) {
+                    recycleUnused(buffer);
+                    terminate();
+                    subscriber.onComplete();
+                    return;
+                }
+                buffer.flip();
+                demand.decrementAndGet();
+                subscriber.onNext(new MFAudioChunk(MFAudioChunkPublisher.this, stream.getFormat(), framePosition, buffer));
+                if (stream.getFrameLength() != AudioSystem.NOT_SPECIFIED && stream.getFramePosition() >= stream.getFrameLength()) {
+                    // complete without waiting for more demand
+                    terminate();
+                    subscriber.onComplete();
+                    return;
+                }
+            }
+            if (cancelled) terminate();
+        }
+
+        private void recycleUnused(final ByteBuffer buffer) {
+            buffer.clear();
+            freeBuffers.offer(buffer);
+        }
+
+        private void terminate() {
+            terminated = true;
+            releaseFreeBuffers();
+            try {
+                stream.close();
+            } catch (IOException e) {
+                LOG.log(Level.WARNING, "Failed to close stream: " + e.toString(), e);
+            }
+        }
+    }
+}
@@ -47,6 +47,10 @@ public class MFAudioFileFormat extends AudioFileFormat {
     private static final Type MP3 = new Type("MP3", "mp3");
     private static final Type MP4 = new Type("MP4", "mp4");
     private static final Type MPEG4VIDEO = new Type("MPEG-4 Video", "m4v");
+    /**
+     * Type of sources whose name has no extension, e.g. byte sources and streams.
+     */
+    private static final Type UNSPECIFIED = new Type("Unspecified", "");
 
     private static Map<Integer, Type> TYPE_MAP = new HashMap<Integer, Type>();
 
@@ -92,10 +96,10 @@ public class MFAudioFileFormat extends AudioFileFormat {
         return AudioSystem.NOT_SPECIFIED;
     }
 
-    private static Type getAudioFileFormatType(final String url) throws UnsupportedAudioFileException {
+    private static Type getAudioFileFormatType(final String url) {
         final Type fileType;
         final int lastDot = url.lastIndexOf('.');
-        if (lastDot != -1) {
+        if (lastDot > Math.max(url.lastIndexOf('/'), url.lastIndexOf('\\'))) {
             final String extension = url.substring(lastDot + 1).toLowerCase();
             if (AAC.getExtension().equals(extension)) {
                 fileType = AAC;
@@ -117,7 +121,8 @@ public class MFAudioFileFormat extends AudioFileFormat {
                 fileType = new Type(extension.toUpperCase(), extension);
             }
         } else {
-            throw new UnsupportedAudioFileException("Unknown target audio url type: " + url);
+            // the format was determined from the content, not the name
+            fileType = UNSPECIFIED;
         }
         return fileType;
     }
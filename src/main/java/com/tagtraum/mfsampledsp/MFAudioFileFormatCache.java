@@ -0,0 +1,218 @@
+/*
+ * =================================================
+ * Copyright 2011 tagtraum industries incorporated
+ * This file is part of MFSampledSP.
+ *
+ * FFSampledSP is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * FFSampledSP is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with FFSampledSP; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ * =================================================
+ */
+package com.tagtraum.mfsampledsp;
+
+import javax.sound.sampled.AudioFileFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded cache for {@link AudioFileFormat}s, keyed by {@link MFSourceIdentity}.
+ * <p>
+ * To let many threads probe concurrently, the cache is split into independently locked
+ * segments, each of which is a small {@link LinkedHashMap} in either access order
+ * ({@link Policy#LRU}) or insertion order ({@link Policy#FIFO}).
+ * Size and policy of the shared instance used by {@link MFAudioFileReader} can be set
+ * with the system properties <code>com.tagtraum.mfsampledsp.cache.size</code> (default 4096,
+ * <code>0</code> disables caching) and <code>com.tagtraum.mfsampledsp.cache.policy</code>
+ * (<code>LRU</code> or <code>FIFO</code>, default <code>LRU</code>).
+ *
+ * @author <a href="mailto:hs@tagtraum.com">Hendrik Schreiber</a>
+ */
+public final class MFAudioFileFormatCache {
+
+    /**
+     * Eviction policy.
+     */
+    public enum Policy {
+        /**
+         * Evict the least recently used entry.
+         */
+        LRU,
+        /**
+         * Evict the oldest entry.
+         */
+        FIFO
+    }
+
+    private static final int DEFAULT_MAX_SIZE = 4096;
+    private static final int MAX_SEGMENTS = 16;
+
+    private final Segment[] segments;
+    private final int maxSize;
+    private final Policy policy;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * Creates a cache.
+     *
+     * @param maxSize max number of entries, 0 to disable caching
+     * @param policy eviction policy
+     */
+    public MFAudioFileFormatCache(final int maxSize, final Policy policy) {
+        if (maxSize < 0) throw new IllegalArgumentException("Max size must be greater than or equal to 0: " + maxSize);
+        if (policy == null) throw new NullPointerException("Policy must not be null");
+        this.maxSize = maxSize;
+        this.policy = policy;
+        // few entries are better served by one segment with exact eviction order
+        int segmentCount = 1;
+        while (segmentCount < MAX_SEGMENTS && segmentCount * 64 <= maxSize) {
+            segmentCount <<= 1;
+        }
+        this.segments = new Segment[segmentCount];
+        // never exceed maxSize in total
+        final int segmentSize = maxSize / segmentCount;
+        for (int i=0; i<segmentCount; i++) {
+            segments[i] = new Segment(segmentSize, policy == Policy.LRU);
+        }
+    }
+
+    /**
+     * Creates a cache configured via system properties.
+     *
+     * @return cache
+     */
+    static MFAudioFileFormatCache fromSystemProperties() {
+        final int size = Integer.getInteger("com.tagtraum.mfsampledsp.cache.size", DEFAULT_MAX_SIZE);
+        final Policy policy = Policy.valueOf(System.getProperty("com.tagtraum.mfsampledsp.cache.policy", Policy.LRU.name()).toUpperCase());
+        return new MFAudioFileFormatCache(Math.max(0, size), policy);
+    }
+
+    /**
+     * Looks up a cached format.
+     *
+     * @param identity source identity
+     * @return format or <code>null</code>
+     */
+    public AudioFileFormat get(final MFSourceIdentity identity) {
+        if (maxSize == 0) return null;
+        final Segment segment = segmentFor(identity);
+        final AudioFileFormat format;
+        synchronized (segment) {
+            format = segment.get(identity);
+        }
+        if (format == null) misses.incrementAndGet();
+        else hits.incrementAndGet();
+        return format;
+    }
+
+    /**
+     * Adds a format to the cache, possibly evicting another one.
+     *
+     * @param identity source identity
+     * @param format format
+     */
+    public void put(final MFSourceIdentity identity, final AudioFileFormat format) {
+        if (maxSize == 0) return;
+        final Segment segment = segmentFor(identity);
+        synchronized (segment) {
+            segment.put(identity, format);
+        }
+    }
+
+    /**
+     * Removes all entries. Statistics are not reset.
+     */
+    public void clear() {
+        for (final Segment segment : segments) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+    }
+
+    /**
+     * Current number of entries.
+     *
+     * @return size
+     */
+    public int size() {
+        int size = 0;
+        for (final Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public Policy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * Number of lookups that found an entry.
+     *
+     * @return hit count
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * Number of lookups that did not find an entry.
+     *
+     * @return miss count
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * Number of entries evicted to make room for new ones.
+     *
+     * @return eviction count
+     */
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    private Segment segmentFor(final MFSourceIdentity identity) {
+        int h = identity.hashCode();
+        h ^= (h >>> 16);
+        return segments[h & (segments.length - 1)];
+    }
+
+    @SuppressWarnings("serial")
+    private class Segment extends LinkedHashMap<MFSourceIdentity, AudioFileFormat> {
+
+        private final int maxEntries;
+
+        private Segment(final int maxEntries, final boolean accessOrder) {
+            super(16, 0.75f, accessOrder);
+            this.maxEntries = maxEntries;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<MFSourceIdentity, AudioFileFormat> eldest) {
+            final boolean evict = size() > maxEntries;
+            if (evict) evictions.incrementAndGet();
+            return evict;
+        }
+    }
+}
@@ -21,16 +21,26 @@
 package com.tagtraum.mfsampledsp;
 
 import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioFormat;
 import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
 import javax.sound.sampled.UnsupportedAudioFileException;
 import javax.sound.sampled.spi.AudioFileReader;
 import java.io.*;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLEncoder;
-import java.util.Collections;
-import java.util.LinkedHashMap;
-import java.util.Map;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
  * Open URLs/files or streams and returns a {@link AudioFileFormat} instance.
@@ -40,46 +50,132 @@ import java.util.Map;
 public class MFAudioFileReader extends AudioFileReader {
 
     private static final int MAX_ALLOWED_COLONS = 2;
-    private static final boolean nativeLibraryLoaded;
+    private static final int STREAM_PROBE_LIMIT = 1024 * 1024;
+    private static final int READ_AHEAD_DEPTH = Integer.getInteger("com.tagtraum.mfsampledsp.readahead", 0);
 
     static {
-        // Ensure JNI library is loaded
-        nativeLibraryLoaded = MFNativeLibraryLoader.loadLibrary();
+        // load the JNI library now, later or in the background, see MFStartup
+        MFStartup.providerLoaded();
     }
 
-    private static Map<URL, AudioFileFormat> cache = Collections.synchronizedMap(new LinkedHashMap<URL, AudioFileFormat>() {
-        private static final int MAX_ENTRIES = 20;
+    private static final Logger LOG = Logger.getLogger(MFAudioFileReader.class.getName());
+    private static final MFAudioFileFormatCache cache = MFAudioFileFormatCache.fromSystemProperties();
+    private static final MFRejectionCache rejectionCache = MFRejectionCache.fromSystemProperties();
+    private static volatile MFMetadataStore metadataStore = openMetadataStore(System.getProperty("com.tagtraum.mfsampledsp.metadatastore"));
+    private static volatile MFDecodedAudioCache decodedAudioCache = MFDecodedAudioCache.fromSystemProperties();
 
-        @Override
-        protected boolean removeEldestEntry(final Map.Entry eldest) {
-            return size() > MAX_ENTRIES;
+    private static MFMetadataStore openMetadataStore(final String path) {
+        if (path == null || path.isEmpty()) return null;
+        try {
+            return MFMetadataStore.open(Paths.get(path));
+        } catch (IOException | RuntimeException e) {
+            LOG.log(Level.WARNING, "Failed to open metadata store " + path + ": " + e.toString(), e);
+            return null;
         }
-    });
+    }
 
-    private static void addAudioAudioFileFormatToCache(final URL url, final AudioFileFormat audioFileFormat) {
-        cache.put(url, audioFileFormat);
+    /**
+     * Loads the JNI library, if it isn't loaded yet.
+     *
+     * @return true, if the library is loaded
+     */
+    private static boolean nativeLibraryLoaded() {
+        return MFNativeLibraryLoader.loadLibrary();
     }
 
-    private static AudioFileFormat getAudioFileFormatFromCache(final URL url) {
-        return cache.get(url);
+    /**
+     * Sets the persistent store that is consulted before probing files natively
+     * and that receives the results of native probing.
+     *
+     * @param store store or <code>null</code> to disable
+     * @see MFMetadataStore
+     */
+    public static void setMetadataStore(final MFMetadataStore store) {
+        metadataStore = store;
     }
 
+    /**
+     * Persistent store consulted before probing files natively.
+     *
+     * @return store or <code>null</code>
+     */
+    public static MFMetadataStore getMetadataStore() {
+        return metadataStore;
+    }
+
+    /**
+     * Sets the cache for decoded audio that is consulted by the <code>getAudioInputStream</code>
+     * methods for URLs and files.
+     *
+     * @param cache cache or <code>null</code> to disable
+     * @see MFDecodedAudioCache
+     */
+    public static void setDecodedAudioCache(final MFDecodedAudioCache cache) {
+        decodedAudioCache = cache;
+    }
+
+    /**
+     * Cache for decoded audio.
+     *
+     * @return cache or <code>null</code>
+     */
+    public static MFDecodedAudioCache getDecodedAudioCache() {
+        return decodedAudioCache;
+    }
+
+    /**
+     * Cache for probed formats shared by all instances.
+     *
+     * @return cache
+     */
+    public static MFAudioFileFormatCache getCache() {
+        return cache;
+    }
+
+    /**
+     * Probes the given stream. The stream must support {@link InputStream#mark(int)}; at most
+     * the first MB is read and the stream is reset afterwards.
+     * Unless the stream ends within that first MB, the frame length is not specified,
+     * as the prefix says nothing about the length of the whole stream.
+     */
     @Override
     public AudioFileFormat getAudioFileFormat(final InputStream stream) throws UnsupportedAudioFileException, IOException {
-        if (!nativeLibraryLoaded) throw new UnsupportedAudioFileException("Native library mfsampledsp not loaded.");
+        if (!nativeLibraryLoaded()) throw new UnsupportedAudioFileException("Native library mfsampledsp not loaded.");
         if (!stream.markSupported()) throw new IOException("InputStream must support mark()");
-        final int readlimit = 1024 * 8;
-        stream.mark(readlimit);
+        stream.mark(STREAM_PROBE_LIMIT);
         try {
-            final byte[] buf = new byte[readlimit];
-            final int length = stream.read(buf);
-            return intGetAudioFormat(buf, length);
+            if (MFContentSniffer.ENABLED && !MFContentSniffer.isSupportedAndReset(stream)) {
+                throw new UnsupportedAudioFileException("Unrecognized content (" + MFContentSniffer.MF_E_UNSUPPORTED_BYTESTREAM_TYPE + ")");
+            }
+            stream.mark(STREAM_PROBE_LIMIT);
+            final MarkLimitedInputStream prefix = new MarkLimitedInputStream(stream, STREAM_PROBE_LIMIT);
+            final AudioFileFormat fileFormat = getAudioFileFormat(new MFInputStreamByteSource(prefix,
+                    null, -1, STREAM_PROBE_LIMIT, null));
+            if (prefix.endsBeforeLimit()) return fileFormat;
+            return new AudioFileFormat(fileFormat.getType(), fileFormat.getFormat(), AudioSystem.NOT_SPECIFIED);
         } finally {
             stream.reset();
-
         }
     }
 
+    /**
+     * Probes the given byte source. Results are not cached.
+     *
+     * @param byteSource byte source
+     * @return format
+     * @throws UnsupportedAudioFileException if the format is not supported
+     * @throws IOException if something goes wrong
+     */
+    public AudioFileFormat getAudioFileFormat(final MFByteSource byteSource) throws UnsupportedAudioFileException, IOException {
+        if (!nativeLibraryLoaded()) throw new UnsupportedAudioFileException("Native library mfsampledsp not loaded.");
+        return MFWorkers.getInstance().call(new MFWorkers.Task<AudioFileFormat, IOException>() {
+            @Override
+            public AudioFileFormat call() throws IOException {
+                return intGetAudioFormat(byteSource, byteSource.getName());
+            }
+        });
+    }
+
     @Override
     public AudioFileFormat getAudioFileFormat(final File file) throws UnsupportedAudioFileException, IOException {
         if (!file.exists()) throw new FileNotFoundException(file.toString());
@@ -87,33 +183,419 @@ public class MFAudioFileReader extends AudioFileReader {
         return getAudioFileFormat(fileToURL(file));
     }
 
+    /**
+     * Probes a local file, without the round trip through {@link #getAudioFileFormat(java.io.File)}.
+     *
+     * @param path path
+     * @return format
+     * @throws UnsupportedAudioFileException if the format is not supported
+     * @throws IOException if something goes wrong
+     */
+    public AudioFileFormat getAudioFileFormat(final Path path) throws UnsupportedAudioFileException, IOException {
+        if (!nativeLibraryLoaded()) throw new UnsupportedAudioFileException("Native library mfsampledsp not loaded.");
+        return getAudioFileFormat(identify(path), fileToURL(path.toFile()));
+    }
+
     @Override
     public AudioFileFormat getAudioFileFormat(final URL url) throws UnsupportedAudioFileException, IOException {
-        if (!nativeLibraryLoaded) throw new UnsupportedAudioFileException("Native library mfsampledsp not loaded.");
-        final AudioFileFormat fileFormat = getAudioFileFormatFromCache(url);
-        if (fileFormat != null) {
-            return fileFormat;
+        if (!nativeLibraryLoaded()) throw new UnsupportedAudioFileException("Native library mfsampledsp not loaded.");
+        return getAudioFileFormat(MFSourceIdentity.of(url), url);
+    }
+
+    private static MFSourceIdentity identify(final Path path) throws IOException {
+        final MFSourceIdentity identity = MFSourceIdentity.of(path);
+        if (identity.getLength() == -1) {
+            if (!Files.exists(path)) throw new FileNotFoundException(path.toString());
+            throw new IOException("Can't read " + path.toString());
+        }
+        return identity;
+    }
+
+    private AudioFileFormat getAudioFileFormat(final MFSourceIdentity identity, final URL url) throws UnsupportedAudioFileException, IOException {
+        final MFEvents.Probe event = new MFEvents.Probe();
+        event.begin();
+        final AudioFileFormat fileFormat = cache.get(identity);
+        try {
+            if (fileFormat != null) {
+                return fileFormat;
+            }
+            return probe(identity, url);
+        } finally {
+            commit(event, identity, fileFormat != null);
+        }
+    }
+
+    private static void commit(final MFEvents.Probe event, final MFSourceIdentity identity, final boolean cacheHit) {
+        if (event.shouldCommit()) {
+            event.source = identity.getLocation();
+            event.cacheHit = cacheHit;
+            event.commit();
+        }
+    }
+
+    /**
+     * Probes the given URL on a bounded pool of platform threads, so that the caller,
+     * e.g. a virtual thread, is never blocked inside native code.
+     *
+     * @param url url
+     * @return future format, completed exceptionally with an {@link UnsupportedAudioFileException}
+     * or {@link IOException}, if probing fails
+     * @see #getAudioFileFormat(java.net.URL)
+     */
+    public CompletableFuture<AudioFileFormat> getAudioFileFormatAsync(final URL url) {
+        return MFAsync.supply(() -> getAudioFileFormat(url));
+    }
+
+    /**
+     * Probes the given local file on a bounded pool of platform threads.
+     *
+     * @param path path
+     * @return future format
+     * @see #getAudioFileFormat(java.nio.file.Path)
+     */
+    public CompletableFuture<AudioFileFormat> getAudioFileFormatAsync(final Path path) {
+        return MFAsync.supply(() -> getAudioFileFormat(path));
+    }
+
+    /**
+     * Probes many URLs concurrently. Results are delivered in completion order,
+     * see {@link MFProbeBatch}. Cache and metadata store are used just like with
+     * {@link #getAudioFileFormat(java.net.URL)}.
+     *
+     * @param urls urls
+     * @param parallelism max number of URLs probed at the same time
+     * @param listener listener to be called for each result or <code>null</code>
+     * @return running batch
+     */
+    public MFProbeBatch<URL> probeURLs(final Collection<URL> urls, final int parallelism, final MFProbeListener<URL> listener) {
+        return new MFProbeBatch<>(urls, parallelism, new MFProbeBatch.Prober<URL>() {
+            @Override
+            public AudioFileFormat probe(final URL url) throws UnsupportedAudioFileException, IOException {
+                return getAudioFileFormat(url);
+            }
+        }, listener, new MFThreadFactory("probe"));
+    }
+
+    /**
+     * Probes many URLs concurrently.
+     *
+     * @param urls urls
+     * @param parallelism max number of URLs probed at the same time
+     * @return running batch
+     * @see #probeURLs(java.util.Collection, int, MFProbeListener)
+     */
+    public MFProbeBatch<URL> probeURLs(final Collection<URL> urls, final int parallelism) {
+        return probeURLs(urls, parallelism, null);
+    }
+
+    /**
+     * Probes many local files concurrently. Results are delivered in completion order,
+     * see {@link MFProbeBatch}. Cache and metadata store are used just like with
+     * {@link #getAudioFileFormat(java.nio.file.Path)}.
+     *
+     * @param paths paths
+     * @param parallelism max number of files probed at the same time
+     * @param listener listener to be called for each result or <code>null</code>
+     * @return running batch
+     */
+    public MFProbeBatch<Path> probePaths(final Collection<Path> paths, final int parallelism, final MFProbeListener<Path> listener) {
+        return new MFProbeBatch<>(paths, parallelism, new MFProbeBatch.Prober<Path>() {
+            @Override
+            public AudioFileFormat probe(final Path path) throws UnsupportedAudioFileException, IOException {
+                return getAudioFileFormat(path);
+            }
+        }, listener, new MFThreadFactory("probe"));
+    }
+
+    /**
+     * Probes many local files concurrently.
+     *
+     * @param paths paths
+     * @param parallelism max number of files probed at the same time
+     * @return running batch
+     * @see #probePaths(java.util.Collection, int, MFProbeListener)
+     */
+    public MFProbeBatch<Path> probePaths(final Collection<Path> paths, final int parallelism) {
+        return probePaths(paths, parallelism, null);
+    }
+
+    private AudioFileFormat probe(final MFSourceIdentity identity, final URL url) throws UnsupportedAudioFileException, IOException {
+        rejectionCache.check(identity);
+        final MFMetadataStore store = metadataStore;
+        if (store != null) {
+            final AudioFileFormat storedFormat = store.get(identity, url);
+            if (storedFormat != null) {
+                cache.put(identity, storedFormat);
+                return storedFormat;
+            }
+        }
+        AudioFileFormat audioFileFormat = null;
+        try {
+            // only local files can be sniffed and parsed cheaply
+            if (identity.getLength() != -1 && (MFContentSniffer.ENABLED || MFHeaderParser.ENABLED)) {
+                audioFileFormat = probeHeaders(Paths.get(identity.getLocation()), url);
+            }
+            if (audioFileFormat == null) {
+                audioFileFormat = MFWorkers.getInstance().call(new MFWorkers.Task<AudioFileFormat, IOException>() {
+                    @Override
+                    public AudioFileFormat call() throws IOException {
+                        return intGetAudioFormat(url.toString());
+                    }
+                });
+            }
+        } catch (Exception e) {
+            // native code throws UnsupportedAudioFileException, even though it is not declared
+            if (e instanceof UnsupportedAudioFileException) rejectionCache.put(identity, (UnsupportedAudioFileException) e);
+            throw e;
         }
-        final AudioFileFormat audioFileFormat = intGetAudioFormat(url.toString());
         if (audioFileFormat != null) {
-            addAudioAudioFileFormatToCache(url, audioFileFormat);
+            cache.put(identity, audioFileFormat);
+            if (store != null) {
+                try {
+                    store.put(identity, audioFileFormat);
+                } catch (IOException e) {
+                    LOG.log(Level.WARNING, "Failed to store format for " + url + ": " + e.toString(), e);
+                }
+            }
         }
         return audioFileFormat;
     }
 
+    /**
+     * Sniffs a local file and, if possible, reads its format from its headers,
+     * without creating a native media source.
+     *
+     * @param path path
+     * @param url url
+     * @return format or <code>null</code>, if the file has to be probed natively
+     * @throws UnsupportedAudioFileException if the content is certainly not supported
+     * @throws IOException if the file cannot be read
+     */
+    private static AudioFileFormat probeHeaders(final Path path, final URL url) throws UnsupportedAudioFileException, IOException {
+        try (final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            final ByteBuffer header = MFHeaderParser.read(channel, 0, MFContentSniffer.HEADER_LENGTH);
+            if (MFContentSniffer.ENABLED && !MFContentSniffer.isSupported(header.array(), 0, header.limit())) {
+                throw new UnsupportedAudioFileException("Unrecognized content (" + MFContentSniffer.MF_E_UNSUPPORTED_BYTESTREAM_TYPE + ")");
+            }
+            return MFHeaderParser.ENABLED ? MFHeaderParser.parse(channel, header, url.toString()) : null;
+        }
+    }
+
+    /**
+     * Decodes the given stream while it is read, without writing it to a temporary file first.
+     * Like any {@link javax.sound.sampled.spi.AudioFileReader}, the stream must support
+     * {@link InputStream#mark(int)}, so that it can be probed and reset, should probing fail.
+     * Decoding is backed by a {@link MFInputStreamByteSource}. To decode streams that don't support
+     * marking, use {@link #getAudioInputStream(MFByteSource)}.
+     *
+     * @see #getAudioFileFormat(java.io.InputStream)
+     */
     @Override
     public AudioInputStream getAudioInputStream(final InputStream stream) throws UnsupportedAudioFileException, IOException {
-        if (!nativeLibraryLoaded) throw new UnsupportedAudioFileException("Native library mfsampledsp not loaded.");
-        // will cause an exception, because we don't support stream
-        getAudioFileFormat(stream);
-        return null;
+        // fails early and leaves the stream untouched for other readers
+        final AudioFileFormat fileFormat = getAudioFileFormat(stream);
+        return getAudioInputStream(new MFInputStreamByteSource(stream, null), fileFormat);
+    }
+
+    /**
+     * Opens the given byte source for decoding to 16 bit signed PCM.
+     * The byte source is closed, when the returned stream is closed.
+     *
+     * @param byteSource byte source
+     * @return audio input stream
+     * @throws UnsupportedAudioFileException if the format is not supported
+     * @throws IOException if something goes wrong
+     */
+    public AudioInputStream getAudioInputStream(final MFByteSource byteSource) throws UnsupportedAudioFileException, IOException {
+        return getAudioInputStream(byteSource, getAudioFileFormat(byteSource));
+    }
+
+    private AudioInputStream getAudioInputStream(final MFByteSource byteSource, final AudioFileFormat fileFormat) throws UnsupportedAudioFileException, IOException {
+        final MFFileInputStream stream = new MFFileInputStream(byteSource, AudioFormat.Encoding.PCM_SIGNED, AudioSystem.NOT_SPECIFIED);
+        return new MFAudioInputStream(stream, fileFormat.getFormat(), fileFormat.getFrameLength());
     }
 
+    /**
+     * Opens the given URL. If the system property <code>com.tagtraum.mfsampledsp.readahead</code>
+     * is set to a value of at least 2, the stream decodes ahead on a background thread.
+     *
+     * @see #getAudioInputStream(java.net.URL, int)
+     */
     @Override
     public AudioInputStream getAudioInputStream(final URL url) throws UnsupportedAudioFileException, IOException {
-        if (!nativeLibraryLoaded) throw new UnsupportedAudioFileException("Native library mfsampledsp not loaded.");
+        return getAudioInputStream(url, READ_AHEAD_DEPTH);
+    }
+
+    /**
+     * Opens the given URL, optionally decoding ahead of the consumer on a background thread.
+     *
+     * @param url url
+     * @param readAheadDepth number of decoded samples to buffer ahead (at least 2),
+     * or <code>0</code> to decode synchronously on the reading thread
+     * @return audio input stream
+     * @throws UnsupportedAudioFileException if the format is not supported
+     * @throws IOException if something goes wrong
+     * @see MFReadAheadInputStream
+     */
+    public AudioInputStream getAudioInputStream(final URL url, final int readAheadDepth) throws UnsupportedAudioFileException, IOException {
+        return getAudioInputStream(url, AudioFormat.Encoding.PCM_SIGNED, readAheadDepth);
+    }
+
+    /**
+     * Opens the given URL and lets Media Foundation decode to the given encoding.
+     * When asking for {@link AudioFormat.Encoding#PCM_FLOAT}, the returned stream delivers
+     * 32 bit little endian IEEE float samples straight from the decoder, which can also be read
+     * via {@link MFAudioInputStream#read(float[], int, int)}.
+     *
+     * @param url url
+     * @param encoding either {@link AudioFormat.Encoding#PCM_SIGNED} (16 bit) or {@link AudioFormat.Encoding#PCM_FLOAT} (32 bit)
+     * @return audio input stream
+     * @throws UnsupportedAudioFileException if the format is not supported
+     * @throws IOException if something goes wrong
+     */
+    public AudioInputStream getAudioInputStream(final URL url, final AudioFormat.Encoding encoding) throws UnsupportedAudioFileException, IOException {
+        return getAudioInputStream(url, encoding, READ_AHEAD_DEPTH);
+    }
+
+    private MFAudioInputStream getAudioInputStream(final URL url, final AudioFormat.Encoding encoding, final int readAheadDepth) throws UnsupportedAudioFileException, IOException {
+        if (!nativeLibraryLoaded()) throw new UnsupportedAudioFileException("Native library mfsampledsp not loaded.");
+        if (readAheadDepth != 0 && readAheadDepth < 2) throw new IllegalArgumentException("Read-ahead depth must be 0 or at least 2: " + readAheadDepth);
+        return open(MFSourceIdentity.of(url), url, encoding, readAheadDepth);
+    }
+
+    /**
+     * Opens an identified source. The URL is only needed by Media Foundation,
+     * everything else goes by identity.
+     */
+    private MFAudioInputStream open(final MFSourceIdentity identity, final URL url, final AudioFormat.Encoding encoding, final int readAheadDepth) throws UnsupportedAudioFileException, IOException {
+        final AudioFileFormat fileFormat = getAudioFileFormat(identity, url);
+        final AudioFormat format = AudioFormat.Encoding.PCM_FLOAT.equals(encoding)
+                ? MFAudioFormat.derive(fileFormat.getFormat(), AudioFormat.Encoding.PCM_FLOAT, 32)
+                : fileFormat.getFormat();
+        if (MFPassthroughInputStream.ENABLED && AudioFormat.Encoding.PCM_SIGNED.equals(encoding)
+                && MFPassthroughInputStream.isCandidate(fileFormat.getType())) {
+            final MFAudioInputStream passthrough = openPassthrough(identity, format);
+            if (passthrough != null) return passthrough;
+        }
+        final MFDecodedAudioCache pcmCache = decodedAudioCache;
+        if (pcmCache != null) {
+            final MFAudioInputStream cached = pcmCache.open(identity, format, fileFormat.getFrameLength());
+            if (cached != null) return cached;
+        }
+        final MFFileInputStream fileStream = new MFFileInputStream(url, encoding);
+        MFNativePeerInputStream stream = fileStream;
+        if (readAheadDepth != 0) {
+            stream = new MFReadAheadInputStream(fileStream, readAheadDepth);
+        }
+        if (pcmCache != null) {
+            stream = pcmCache.record(identity, format, fileFormat.getFrameLength(), stream);
+        }
+        return new MFAudioInputStream(stream, format, fileFormat.getFrameLength());
+    }
+
+    /**
+     * Opens the given URL in analysis mode, i.e. downmixed to mono and resampled to the given rate,
+     * e.g. 11025 or 22050 Hz.
+     *
+     * @param url url
+     * @param sampleRate integral sample rate
+     * @return mono 32 bit float stream
+     * @throws UnsupportedAudioFileException if the format is not supported
+     * @throws IOException if something goes wrong
+     * @see MFAnalysisInputStream
+     */
+    public MFAnalysisInputStream getAnalysisAudioInputStream(final URL url, final float sampleRate) throws UnsupportedAudioFileException, IOException {
+        final MFAudioInputStream stream = getAudioInputStream(url, AudioFormat.Encoding.PCM_SIGNED, READ_AHEAD_DEPTH);
+        try {
+            return new MFAnalysisInputStream(stream, sampleRate);
+        } catch (IllegalArgumentException e) {
+            stream.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Opens the sample data of a local, uncompressed WAVE or AIFF file, so that it can
+     * be read without decoding.
+     *
+     * @param identity identity of the source
+     * @param format format the file has been probed with
+     * @return stream or <code>null</code>, if the file must be decoded
+     * @throws IOException if the file cannot be read
+     */
+    private static MFAudioInputStream openPassthrough(final MFSourceIdentity identity, final AudioFormat format) throws IOException {
+        if (identity.getLength() == -1) return null;
+        final FileChannel channel = FileChannel.open(Paths.get(identity.getLocation()), StandardOpenOption.READ);
+        try {
+            final ByteBuffer header = MFHeaderParser.read(channel, 0, MFContentSniffer.HEADER_LENGTH);
+            final MFHeaderParser.PCMData data = MFHeaderParser.findPCMData(channel, header);
+            // the probed format must describe the data as is
+            if (data != null && data.channels == format.getChannels() && data.sampleSize == format.getSampleSizeInBits()
+                    && data.sampleRate == format.getSampleRate() && data.bigEndian == format.isBigEndian()) {
+                // the stream now owns the channel
+                return new MFAudioInputStream(MFPassthroughInputStream.open(channel, data), format, data.getFrameLength());
+            }
+        } catch (UnsupportedAudioFileException e) {
+            // not thrown by passthrough streams
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+        channel.close();
+        return null;
+    }
+
+    /**
+     * Opens the given URL on a bounded pool of platform threads, so that the caller,
+     * e.g. a virtual thread, is never blocked inside native code.
+     * Use {@link MFAudioInputStream#readAsync(java.nio.ByteBuffer)} to read from the returned stream
+     * without blocking.
+     *
+     * @param url url
+     * @return future audio input stream
+     * @see #getAudioInputStream(java.net.URL)
+     */
+    public CompletableFuture<AudioInputStream> getAudioInputStreamAsync(final URL url) {
+        return MFAsync.supply(() -> getAudioInputStream(url));
+    }
+
+    /**
+     * Opens the given local file on a bounded pool of platform threads.
+     *
+     * @param path path
+     * @return future audio input stream
+     * @see #getAudioInputStream(java.nio.file.Path)
+     */
+    public CompletableFuture<AudioInputStream> getAudioInputStreamAsync(final Path path) {
+        return MFAsync.supply(() -> getAudioInputStream(path));
+    }
+
+    /**
+     * Opens the given URL for parallel decoding. The file is split into segments
+     * that are decoded concurrently using the given executor and stitched back together
+     * in order. Non-seekable sources and very short files are decoded in a single segment.
+     * <p>
+     * The returned stream is not seekable and is meant for decoding complete files as fast as possible,
+     * e.g. in batch jobs.
+     *
+     * @param url url
+     * @param segments desired number of segments, typically the number of available cores
+     * @param parallelism max number of segments decoded ahead of the reader,
+     * bounds memory consumption
+     * @param executor executor to decode segments with
+     * @return audio input stream
+     * @throws UnsupportedAudioFileException if the format is not supported
+     * @throws IOException if something goes wrong
+     * @see MFSegmentedInputStream
+     */
+    public AudioInputStream getSegmentedAudioInputStream(final URL url, final int segments, final int parallelism,
+                                                         final ExecutorService executor) throws UnsupportedAudioFileException, IOException {
+        if (!nativeLibraryLoaded()) throw new UnsupportedAudioFileException("Native library mfsampledsp not loaded.");
         final AudioFileFormat fileFormat = getAudioFileFormat(url);
-        return new MFAudioInputStream(new MFFileInputStream(url), fileFormat.getFormat(), fileFormat.getFrameLength());
+        // non-seekable sources fall back to a single segment by themselves
+        final MFSegmentedInputStream stream = new MFSegmentedInputStream(url, fileFormat.getFormat(),
+                fileFormat.getFrameLength(), segments, parallelism, executor);
+        return new AudioInputStream(stream, fileFormat.getFormat(), fileFormat.getFrameLength());
     }
 
     @Override
@@ -123,8 +605,21 @@ public class MFAudioFileReader extends AudioFileReader {
         return getAudioInputStream(fileToURL(file));
     }
 
+    /**
+     * Opens a local file, without the round trip through {@link #getAudioInputStream(java.io.File)}.
+     *
+     * @param path path
+     * @return audio input stream
+     * @throws UnsupportedAudioFileException if the format is not supported
+     * @throws IOException if something goes wrong
+     */
+    public AudioInputStream getAudioInputStream(final Path path) throws UnsupportedAudioFileException, IOException {
+        if (!nativeLibraryLoaded()) throw new UnsupportedAudioFileException("Native library mfsampledsp not loaded.");
+        return open(identify(path), fileToURL(path.toFile()), AudioFormat.Encoding.PCM_SIGNED, READ_AHEAD_DEPTH);
+    }
+
     private native AudioFileFormat intGetAudioFormat(final String url) throws IOException;
-    private native AudioFileFormat intGetAudioFormat(final byte[] buf, final int length) throws IOException;
+    private native AudioFileFormat intGetAudioFormat(final MFByteSource byteSource, final String name) throws IOException;
 
     /**
      * Convert file to URL. Assumes that any punctuation in the filename needs to be url encoded.
@@ -177,4 +672,56 @@ public class MFAudioFileReader extends AudioFileReader {
             throw malformedURLException;
         }
     }
+
+    /**
+     * Reads at most a given number of bytes from a stream and never closes it,
+     * so that the stream can be reset to its mark afterwards.
+     */
+    private static class MarkLimitedInputStream extends FilterInputStream {
+
+        private long remaining;
+        private boolean endOfStream;
+
+        private MarkLimitedInputStream(final InputStream in, final long limit) {
+            super(in);
+            this.remaining = limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) return -1;
+            final int b = super.read();
+            if (b != -1) remaining--;
+            else endOfStream = true;
+            return b;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            if (remaining <= 0) return -1;
+            final int justRead = super.read(b, off, (int) Math.min(len, remaining));
+            if (justRead > 0) remaining -= justRead;
+            else if (justRead == -1) endOfStream = true;
+            return justRead;
+        }
+
+        /**
+         * Reads up to the limit, to find out whether the underlying stream ends before it.
+         *
+         * @return true, if the underlying stream ended within the limit
+         * @throws IOException if the stream cannot be read
+         */
+        private boolean endsBeforeLimit() throws IOException {
+            final byte[] b = new byte[8192];
+            while (read(b, 0, b.length) != -1) {
+                // skip
+            }
+            return endOfStream;
+        }
+
+        @Override
+        public void close() {
+            // leave the underlying stream open
+        }
+    }
 }
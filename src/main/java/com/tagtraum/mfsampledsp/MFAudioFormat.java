@@ -21,6 +21,7 @@
 package com.tagtraum.mfsampledsp;
 
 import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
@@ -36,7 +37,32 @@ public class MFAudioFormat extends AudioFormat {
 
     public MFAudioFormat(final float sampleRate, final int sampleSize, final int channels,
                          final int packetSize, final float frameRate, final boolean bigEndian, final int bitRate, final boolean vbr) {
-        super(Encoding.PCM_SIGNED, sampleRate, sampleSize, channels, packetSize, frameRate, bigEndian, createProperties(bitRate, vbr));
+        this(Encoding.PCM_SIGNED, sampleRate, sampleSize, channels, packetSize, frameRate, bigEndian, bitRate, vbr);
+    }
+
+    public MFAudioFormat(final Encoding encoding, final float sampleRate, final int sampleSize, final int channels,
+                         final int packetSize, final float frameRate, final boolean bigEndian, final int bitRate, final boolean vbr) {
+        super(encoding, sampleRate, sampleSize, channels, packetSize, frameRate, bigEndian, createProperties(bitRate, vbr));
+    }
+
+    /**
+     * Creates a little endian format with the same rate and channels as the given decoded format,
+     * but with a different encoding and/or sample size.
+     *
+     * @param format decoded format
+     * @param encoding {@link Encoding#PCM_SIGNED} or {@link Encoding#PCM_FLOAT}
+     * @param sampleSize sample size in bits
+     * @return derived format
+     */
+    static MFAudioFormat derive(final AudioFormat format, final Encoding encoding, final int sampleSize) {
+        final Object bitRate = format.getProperty("bitrate");
+        final Object vbr = format.getProperty("vbr");
+        final int channels = format.getChannels();
+        return new MFAudioFormat(encoding, format.getSampleRate(), sampleSize, channels,
+                channels == AudioSystem.NOT_SPECIFIED ? AudioSystem.NOT_SPECIFIED : channels * sampleSize / 8,
+                format.getFrameRate(), false,
+                bitRate instanceof Integer ? (Integer) bitRate : AudioSystem.NOT_SPECIFIED,
+                Boolean.TRUE.equals(vbr));
     }
 
     private static Map<String, Object> createProperties(final int bitRate, final boolean vbr) {
@@ -22,7 +22,15 @@ package com.tagtraum.mfsampledsp;
 
 import javax.sound.sampled.AudioFormat;
 import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
 import java.io.IOException;
+import java.lang.reflect.Array;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -30,9 +38,17 @@ import java.util.concurrent.TimeUnit;
  *
  * @author <a href="mailto:hs@tagtraum.com">Hendrik Schreiber</a>
  */
-public class MFAudioInputStream extends AudioInputStream {
+public class MFAudioInputStream extends AudioInputStream implements ReadableByteChannel {
+
+    private static final int FLOAT_BUFFER_SIZE = 32 * 1024;
+    /**
+     * Number of seeks before we give up and decode from the start.
+     */
+    private static final int MAX_SEEK_ATTEMPTS = 4;
 
     private MFNativePeerInputStream nativePeerInputStream;
+    private ByteBuffer floatBuffer;
+    private CompletableFuture<?> lastAsyncRead = CompletableFuture.completedFuture(null);
 
     public MFAudioInputStream(final MFNativePeerInputStream nativePeerInputStream, final AudioFormat format, final long length) {
         super(nativePeerInputStream, format, length);
@@ -43,10 +59,217 @@ public class MFAudioInputStream extends AudioInputStream {
         return nativePeerInputStream;
     }
 
+    long getFramePosition() {
+        return framePos;
+    }
+
     long getNativePeerInputStreamPointer() {
         return nativePeerInputStream.pointer;
     }
 
+    /**
+     * Reads whole frames into the given buffer.
+     * If <code>dst</code> is a direct buffer, the decoder may write directly into it.
+     *
+     * @param dst buffer
+     * @return number of bytes read or <code>-1</code>, if the end of the stream is reached
+     * @throws IOException if something goes wrong
+     * @see MFNativePeerInputStream#read(ByteBuffer)
+     */
+    @Override
+    public int read(final ByteBuffer dst) throws IOException {
+        if (frameLength != AudioSystem.NOT_SPECIFIED && framePos >= frameLength) return -1;
+        int len = dst.remaining() - dst.remaining() % frameSize;
+        if (frameLength != AudioSystem.NOT_SPECIFIED) {
+            len = (int) Math.min(len, (frameLength - framePos) * frameSize);
+        }
+        if (len == 0) return 0;
+        final int limit = dst.limit();
+        dst.limit(dst.position() + len);
+        final int bytesRead;
+        try {
+            bytesRead = nativePeerInputStream.read(dst);
+        } finally {
+            dst.limit(limit);
+        }
+        if (bytesRead > 0) {
+            framePos += bytesRead / frameSize;
+        }
+        return bytesRead;
+    }
+
+    /**
+     * Like {@link #read(ByteBuffer)}, but the blocking read happens on a bounded pool of
+     * platform threads, so the caller is never blocked inside native code.
+     * Async reads are carried out in the order they were issued.
+     * <code>dst</code> must not be touched until the returned future has completed.
+     *
+     * @param dst buffer
+     * @return future number of bytes read or <code>-1</code>, if the end of the stream is reached
+     */
+    public synchronized CompletableFuture<Integer> readAsync(final ByteBuffer dst) {
+        final CompletableFuture<Integer> future = MFAsync.after(lastAsyncRead, () -> read(dst));
+        lastAsyncRead = future;
+        return future;
+    }
+
+    /**
+     * Reads whole frames of float samples into the given array.
+     * Only supported, if this stream delivers 32 bit little endian {@link AudioFormat.Encoding#PCM_FLOAT} samples.
+     *
+     * @param b array
+     * @param off offset into the array
+     * @param len max number of samples (not frames) to read
+     * @return number of samples read or <code>-1</code>, if the end of the stream is reached
+     * @throws IOException if something goes wrong
+     * @throws UnsupportedOperationException if this stream does not deliver float samples
+     * @see MFAudioFileReader#getAudioInputStream(java.net.URL, javax.sound.sampled.AudioFormat.Encoding)
+     */
+    public int read(final float[] b, final int off, final int len) throws IOException {
+        if (len < 0) throw new IllegalArgumentException("Length must be greater than or equal to 0: " + len);
+        if (off < 0) throw new IllegalArgumentException("Offset must be greater than or equal to 0: " + off);
+        if (b.length - off < len) throw new IllegalArgumentException("There must be more space than "  + len + " samples left in the array. Offset is " + off);
+        return read(FloatBuffer.wrap(b, off, len));
+    }
+
+    /**
+     * Reads whole frames of float samples into the given buffer.
+     * Only supported, if this stream delivers 32 bit little endian {@link AudioFormat.Encoding#PCM_FLOAT} samples.
+     *
+     * @param dst buffer
+     * @return number of samples read or <code>-1</code>, if the end of the stream is reached
+     * @throws IOException if something goes wrong
+     * @throws UnsupportedOperationException if this stream does not deliver float samples
+     */
+    public int read(final FloatBuffer dst) throws IOException {
+        final AudioFormat format = getFormat();
+        if (!AudioFormat.Encoding.PCM_FLOAT.equals(format.getEncoding()) || format.getSampleSizeInBits() != 32 || format.isBigEndian()) {
+            throw new UnsupportedOperationException("Stream does not deliver 32 bit little endian float samples: " + format);
+        }
+        if (frameLength != AudioSystem.NOT_SPECIFIED && framePos >= frameLength) return -1;
+        final int floats = dst.remaining() - dst.remaining() % format.getChannels();
+        if (floats == 0) return 0;
+        if (floatBuffer == null) {
+            floatBuffer = MFDirectBufferPool.getInstance().acquire(FLOAT_BUFFER_SIZE);
+            floatBuffer.order(ByteOrder.LITTLE_ENDIAN);
+        }
+        int floatsRead = 0;
+        while (floatsRead < floats) {
+            floatBuffer.clear();
+            floatBuffer.limit(Math.min(floatBuffer.capacity(), (floats - floatsRead) * 4));
+            final int bytesRead = read(floatBuffer);
+            if (bytesRead <= 0) break;
+            floatBuffer.flip();
+            dst.put(floatBuffer.asFloatBuffer());
+            floatsRead += bytesRead / 4;
+        }
+        return floatsRead == 0 ? -1 : floatsRead;
+    }
+
+    /**
+     * Reads whole frames into planar per-channel arrays, scaled to [-1,1].
+     * Samples are converted straight from the decoder's buffer.
+     * Supported are signed 8, 16, 24 and 32 bit and 32 bit float PCM.
+     *
+     * @param channels one array per channel
+     * @param off offset into the channel arrays
+     * @param len max number of frames to read
+     * @return number of frames read or <code>-1</code>, if the end of the stream is reached
+     * @throws IOException if something goes wrong
+     * @throws UnsupportedOperationException if the stream's format is not supported
+     */
+    public int readPlanar(final float[][] channels, final int off, final int len) throws IOException {
+        return readPlanar((Object[]) channels, off, len);
+    }
+
+    /**
+     * Reads whole frames of signed integer samples into planar per-channel arrays.
+     * Samples keep their original magnitude, e.g. 24 bit samples lie in [-2^23,2^23-1].
+     *
+     * @param channels one array per channel
+     * @param off offset into the channel arrays
+     * @param len max number of frames to read
+     * @return number of frames read or <code>-1</code>, if the end of the stream is reached
+     * @throws IOException if something goes wrong
+     * @throws UnsupportedOperationException if the stream does not deliver signed integer samples
+     * @see #readPlanar(float[][], int, int)
+     */
+    public int readPlanar(final int[][] channels, final int off, final int len) throws IOException {
+        return readPlanar((Object[]) channels, off, len);
+    }
+
+    /**
+     * Reads whole frames of signed integer samples into planar per-channel arrays.
+     * Samples larger than 16 bit are truncated to their 16 most significant bits.
+     *
+     * @param channels one array per channel
+     * @param off offset into the channel arrays
+     * @param len max number of frames to read
+     * @return number of frames read or <code>-1</code>, if the end of the stream is reached
+     * @throws IOException if something goes wrong
+     * @throws UnsupportedOperationException if the stream does not deliver signed integer samples
+     * @see #readPlanar(float[][], int, int)
+     */
+    public int readPlanar(final short[][] channels, final int off, final int len) throws IOException {
+        return readPlanar((Object[]) channels, off, len);
+    }
+
+    private int readPlanar(final Object[] channels, final int off, final int len) throws IOException {
+        final AudioFormat format = getFormat();
+        if (!MFDeinterleaver.isSupported(format)
+                || !(channels instanceof float[][]) && AudioFormat.Encoding.PCM_FLOAT.equals(format.getEncoding())) {
+            throw new UnsupportedOperationException("Cannot read " + format + " into " + channels.getClass().getSimpleName());
+        }
+        if (len < 0) throw new IllegalArgumentException("Length must be greater than or equal to 0: " + len);
+        if (off < 0) throw new IllegalArgumentException("Offset must be greater than or equal to 0: " + off);
+        if (channels.length != format.getChannels()) throw new IllegalArgumentException("Expected " + format.getChannels() + " channel arrays, got " + channels.length);
+        for (final Object channel : channels) {
+            if (Array.getLength(channel) - off < len) throw new IllegalArgumentException("There must be more space than "  + len + " frames left in each channel array. Offset is " + off);
+        }
+        if (frameLength != AudioSystem.NOT_SPECIFIED && framePos >= frameLength) return -1;
+        int frames = len;
+        if (frameLength != AudioSystem.NOT_SPECIFIED) {
+            frames = (int) Math.min(frames, frameLength - framePos);
+        }
+        int framesRead = 0;
+        while (framesRead < frames) {
+            final ByteBuffer buffer = nativePeerInputStream.fillIfEmpty();
+            if (!buffer.hasRemaining()) break;
+            if (buffer.remaining() < frameSize) {
+                // a frame split across two samples, should not happen with any decoder we know of
+                final ByteBuffer frame = ByteBuffer.allocate(frameSize);
+                // advances framePos
+                if (read(frame) != frameSize) break;
+                frame.flip();
+                MFDeinterleaver.deinterleave(frame, format, channels, off + framesRead, 1);
+                framesRead++;
+                continue;
+            }
+            final int chunkFrames = Math.min(frames - framesRead, buffer.remaining() / frameSize);
+            MFDeinterleaver.deinterleave(buffer, format, channels, off + framesRead, chunkFrames);
+            framesRead += chunkFrames;
+            framePos += chunkFrames;
+        }
+        return framesRead == 0 && frames > 0 ? -1 : framesRead;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            super.close();
+        } finally {
+            if (floatBuffer != null) {
+                MFDirectBufferPool.getInstance().release(floatBuffer);
+                floatBuffer = null;
+            }
+        }
+    }
+
+    @Override
+    public boolean isOpen() {
+        return nativePeerInputStream.isOpen();
+    }
+
     /**
      * Indicates whether this stream is seekable.
      * Typically, stream based streams (as opposed to file-based streams)
@@ -60,6 +283,14 @@ public class MFAudioInputStream extends AudioInputStream {
 
     /**
      * Positions the stream at the desired timestamp.
+     * <p>
+     * Media Foundation lands on a nearby decodable position. Using the sample time of the first
+     * decoded sample, the stream decodes and drops frames up to the exact target frame.
+     * Should the decoder land behind the target, the stream seeks further back and tries again.
+     * Landing positions are remembered in a {@link MFSeekIndex} shared by all streams of the
+     * same source, so that repeated seeks into the same file need fewer attempts and less decoding.
+     * If the decoder does not report sample times, the stream is positioned where the decoder landed
+     * and the frame position is assumed to be the requested one.
      *
      * @param time time
      * @param timeUnit time unit
@@ -67,8 +298,55 @@ public class MFAudioInputStream extends AudioInputStream {
      * @throws IOException if something goes wrong
      */
     public void seek(final long time, final TimeUnit timeUnit) throws UnsupportedOperationException, IOException {
-        nativePeerInputStream.seek(time, timeUnit);
         final long microSeconds = timeUnit.toMicros(time);
-        framePos = (long)((getFormat().getFrameRate() * microSeconds) / 1000000L);
+        final float frameRate = getFormat().getFrameRate();
+        final long targetFrame = (long)((frameRate * microSeconds) / 1000000L);
+        if (frameRate <= 0 || frameSize <= 0) {
+            nativePeerInputStream.seek(time, timeUnit);
+            framePos = targetFrame;
+            return;
+        }
+        final MFSeekIndex index = nativePeerInputStream.getSeekIndex();
+        long requestedFrame = targetFrame;
+        long requestedTime = toSampleTime(targetFrame, frameRate);
+        final Map.Entry<Long, Long> known = index.floor(targetFrame);
+        if (known != null && targetFrame - known.getKey() <= index.getMaxLag()) {
+            // a plain seek might land even further away
+            requestedFrame = known.getKey();
+            requestedTime = known.getValue();
+        } else if (index.getMaxLead() > 0) {
+            // aim early enough to land before the target
+            requestedFrame = Math.max(0, targetFrame - index.getMaxLead());
+            requestedTime = toSampleTime(requestedFrame, frameRate);
+        }
+        for (int attempt = 1; ; attempt++) {
+            nativePeerInputStream.seek(requestedTime * 100L, TimeUnit.NANOSECONDS);
+            final long sampleTime = nativePeerInputStream.fillAfterSeek();
+            if (sampleTime < 0) {
+                // no idea where we are
+                framePos = targetFrame;
+                return;
+            }
+            final long landedFrame = Math.round(sampleTime * (double) frameRate / 10000000.0);
+            index.add(requestedFrame, landedFrame, sampleTime);
+            if (landedFrame <= targetFrame) {
+                final long discarded = nativePeerInputStream.discard((targetFrame - landedFrame) * frameSize);
+                framePos = landedFrame + discarded / frameSize;
+                return;
+            }
+            if (requestedFrame == 0) {
+                // can't go back any further
+                framePos = landedFrame;
+                return;
+            }
+            requestedFrame = attempt >= MAX_SEEK_ATTEMPTS
+                    ? 0
+                    : Math.max(0, requestedFrame - (landedFrame - requestedFrame) - ((long) frameRate << attempt) / 10);
+            requestedTime = toSampleTime(requestedFrame, frameRate);
+        }
+    }
+
+    private static long toSampleTime(final long frame, final float frameRate) {
+        return Math.round(frame * 10000000.0 / frameRate);
     }
 }
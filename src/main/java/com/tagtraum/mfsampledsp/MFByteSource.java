@@ -0,0 +1,77 @@
+/*
+ * =================================================
+ * Copyright 2011 tagtraum industries incorporated
+ * This file is part of MFSampledSP.
+ *
+ * FFSampledSP is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * FFSampledSP is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with FFSampledSP; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ * =================================================
+ */
+package com.tagtraum.mfsampledsp;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Random access source of encoded bytes that Media Foundation can decode from.
+ * On the native side, a byte source is wrapped as <code>IMFByteStream</code>.
+ * <p>
+ * Implementations must be thread-safe, as Media Foundation may read from arbitrary threads.
+ *
+ * @author <a href="mailto:hs@tagtraum.com">Hendrik Schreiber</a>
+ * @see MFInputStreamByteSource
+ * @see MFAudioFileReader#getAudioInputStream(MFByteSource)
+ */
+public abstract class MFByteSource implements Closeable {
+
+    private final String name;
+
+    /**
+     * @param name name used as hint for the container format, ideally a file name with extension
+     * like <code>upload.mp3</code>
+     */
+    protected MFByteSource(final String name) {
+        this.name = name == null ? "stream" : name;
+    }
+
+    /**
+     * Name used as hint for the container format.
+     *
+     * @return name
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Total length in bytes.
+     *
+     * @return length or <code>-1</code>, if not known (yet)
+     * @throws IOException if something goes wrong
+     */
+    public abstract long length() throws IOException;
+
+    /**
+     * Reads bytes starting at the given position into <code>dst</code>. Blocks until <code>dst</code>
+     * is full or the end of the source is reached.
+     * Called from native code.
+     *
+     * @param position absolute position
+     * @param dst buffer
+     * @return number of bytes read or <code>-1</code>, if the position is at or beyond the end
+     * @throws IOException if something goes wrong
+     */
+    public abstract int read(long position, ByteBuffer dst) throws IOException;
+}
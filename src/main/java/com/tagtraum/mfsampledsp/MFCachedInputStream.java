@@ -0,0 +1,90 @@
+/*
+ * =================================================
+ * Copyright 2011 tagtraum industries incorporated
+ * This file is part of MFSampledSP.
+ *
+ * FFSampledSP is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * FFSampledSP is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with FFSampledSP; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ * =================================================
+ */
+package com.tagtraum.mfsampledsp;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serves already decoded PCM from a buffer held by the {@link MFDecodedAudioCache},
+ * either an off-heap copy or a read-only mapping of a cache file.
+ * No data is copied until it is read, and seeking is sample-exact.
+ *
+ * @author <a href="mailto:hs@tagtraum.com">Hendrik Schreiber</a>
+ */
+public class MFCachedInputStream extends MFNativePeerInputStream {
+
+    private final ByteBuffer data;
+    private final int frameSize;
+    private final float frameRate;
+
+    /**
+     * @param data decoded audio, shared with the cache and never modified
+     * @param format format of the decoded audio
+     */
+    MFCachedInputStream(final ByteBuffer data, final AudioFormat format) throws IOException, UnsupportedAudioFileException {
+        this.data = data.asReadOnlyBuffer();
+        this.frameSize = format.getFrameSize();
+        this.frameRate = format.getFrameRate();
+        // the cached data is our native buffer, nothing to borrow from the pool
+        setNativeBuffer(EMPTY_BUFFER);
+        // there is no native peer, but we are open
+        this.pointer = 1;
+    }
+
+    @Override
+    protected void fillNativeBuffer() throws IOException {
+        if (!isOpen() || !data.hasRemaining()) {
+            setNativeBuffer(EMPTY_BUFFER);
+            return;
+        }
+        sampleTime = Math.round(data.position() / frameSize * 10000000.0 / frameRate);
+        setNativeBuffer(data.slice());
+        data.position(data.limit());
+    }
+
+    @Override
+    protected boolean canFillDirectly(final ByteBuffer dst) {
+        // no decoder to write into dst
+        return false;
+    }
+
+    @Override
+    public boolean isSeekable() {
+        return true;
+    }
+
+    @Override
+    public void seek(final long time, final TimeUnit timeUnit) throws UnsupportedOperationException, IOException {
+        if (!isOpen()) throw new IOException("Stream is already closed.");
+        final long frame = Math.round(timeUnit.toNanos(time) * (double) frameRate / 1000000000.0);
+        data.position((int) Math.min(data.limit(), frame * frameSize));
+        setNativeBuffer(EMPTY_BUFFER);
+    }
+
+    @Override
+    protected void close(final long pointer) throws IOException {
+        // the data belongs to the cache
+    }
+}
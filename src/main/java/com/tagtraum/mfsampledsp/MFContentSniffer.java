@@ -0,0 +1,219 @@
+/*
+ * =================================================
+ * Copyright 2011 tagtraum industries incorporated
+ * This file is part of MFSampledSP.
+ *
+ * FFSampledSP is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * FFSampledSP is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with FFSampledSP; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ * =================================================
+ */
+package com.tagtraum.mfsampledsp;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Recognizes containers and elementary streams Media Foundation can decode by their
+ * magic numbers, so that files owned by other providers or plain garbage can be rejected
+ * without creating a native media source.
+ * <p>
+ * Recognized are ID3 tags and MPEG audio frames, ISO base media files (<code>ftyp</code> etc.),
+ * ASF, RIFF/WAVE, AIFF, ADTS, FLAC, AMR and AC-3. The sniffer errs on the side of accepting:
+ * anything it accepts may still be rejected by Media Foundation.
+ * Sniffing can be turned off with the system property <code>com.tagtraum.mfsampledsp.sniffing=false</code>.
+ *
+ * @author <a href="mailto:hs@tagtraum.com">Hendrik Schreiber</a>
+ */
+final class MFContentSniffer {
+
+    /**
+     * Number of bytes looked at.
+     */
+    static final int HEADER_LENGTH = 16 * 1024;
+    /**
+     * HRESULT Media Foundation reports for content it does not recognize.
+     */
+    static final String MF_E_UNSUPPORTED_BYTESTREAM_TYPE = "0xC00D36C4";
+    static final boolean ENABLED = !"false".equalsIgnoreCase(System.getProperty("com.tagtraum.mfsampledsp.sniffing"));
+
+    private static final byte[] ASF_HEADER_GUID = {
+            0x30, 0x26, (byte) 0xB2, 0x75, (byte) 0x8E, 0x66, (byte) 0xCF, 0x11,
+            (byte) 0xA6, (byte) 0xD9, 0x00, (byte) 0xAA, 0x00, 0x62, (byte) 0xCE, 0x6C
+    };
+    private static final String[] ISO_BOX_TYPES = {"ftyp", "moov", "mdat", "free", "skip", "wide", "pnot"};
+    private static final int[][] MPEG_BITRATES = {
+            // V1 L1, V1 L2, V1 L3, V2 L1, V2 L2/L3
+            {0, 32, 64, 96, 128, 160, 192, 224, 256, 288, 320, 352, 384, 416, 448},
+            {0, 32, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320, 384},
+            {0, 32, 40, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320},
+            {0, 32, 48, 56, 64, 80, 96, 112, 128, 144, 160, 176, 192, 224, 256},
+            {0, 8, 16, 24, 32, 40, 48, 56, 64, 80, 96, 112, 128, 144, 160}
+    };
+    private static final int[] MPEG_SAMPLE_RATES = {44100, 48000, 32000};
+    private static final int[] ADTS_SAMPLE_RATES = {96000, 88200, 64000, 48000, 44100, 32000, 24000, 22050, 16000, 12000, 11025, 8000, 7350};
+
+    private MFContentSniffer() {
+    }
+
+    /**
+     * Sniffs the beginning of a stream and resets it. The stream must support
+     * {@link InputStream#mark(int)} and be marked with a limit of at least {@link #HEADER_LENGTH}.
+     *
+     * @param stream marked stream
+     * @return <code>false</code>, if the content is certainly not supported
+     * @throws IOException if the stream cannot be read
+     */
+    static boolean isSupportedAndReset(final InputStream stream) throws IOException {
+        final byte[] header = new byte[HEADER_LENGTH];
+        int length = 0;
+        try {
+            int justRead;
+            while (length < header.length && (justRead = stream.read(header, length, header.length - length)) != -1) {
+                length += justRead;
+            }
+        } finally {
+            stream.reset();
+        }
+        return isSupported(header, 0, length);
+    }
+
+    /**
+     * Sniffs the given header bytes.
+     *
+     * @param b buffer
+     * @param off offset of the first byte of the file
+     * @param len number of valid bytes, if less than {@link #HEADER_LENGTH}, the file is shorter
+     * @return <code>false</code>, if the content is certainly not supported
+     */
+    static boolean isSupported(final byte[] b, final int off, final int len) {
+        if (len < 4) return false;
+        if (startsWith(b, off, len, "ID3")
+                || startsWith(b, off, len, "fLaC")
+                || startsWith(b, off, len, "#!AMR")) return true;
+        if ((startsWith(b, off, len, "RIFF") || startsWith(b, off, len, "RF64"))
+                && len >= 12 && startsWith(b, off + 8, len - 8, "WAVE")) return true;
+        // served by MFPassthroughInputStream, if uncompressed
+        if (startsWith(b, off, len, "FORM") && len >= 12
+                && (startsWith(b, off + 8, len - 8, "AIFF") || startsWith(b, off + 8, len - 8, "AIFC"))) return true;
+        if (startsWith(b, off, len, ASF_HEADER_GUID)) return true;
+        if (len >= 8) {
+            for (final String type : ISO_BOX_TYPES) {
+                if (startsWith(b, off + 4, len - 4, type)) return true;
+            }
+        }
+        // AC-3 sync word
+        if ((b[off] & 0xFF) == 0x0B && (b[off + 1] & 0xFF) == 0x77) return true;
+        return findFrames(b, off, len);
+    }
+
+    /**
+     * Looks for two consecutive MPEG audio or ADTS frames, tolerating leading junk.
+     */
+    private static boolean findFrames(final byte[] b, final int off, final int len) {
+        final int end = off + len;
+        for (int i = off; i < end - 4; i++) {
+            if ((b[i] & 0xFF) != 0xFF || (b[i + 1] & 0xE0) != 0xE0) continue;
+            int frameLength = mpegFrameLength(b, i);
+            if (frameLength <= 0) frameLength = adtsFrameLength(b, i, end);
+            if (frameLength <= 0) continue;
+            final int next = i + frameLength;
+            // a single frame that ends exactly with the file is fine, too
+            if (next == end && len < HEADER_LENGTH) return true;
+            if (next + 4 <= end && (b[next] & 0xFF) == 0xFF && (b[next + 1] & 0xE0) == 0xE0
+                    && (mpegFrameLength(b, next) > 0 || adtsFrameLength(b, next, end) > 0)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Length of the MPEG audio frame starting at the given offset, including its header.
+     * Free format frames are not supported.
+     *
+     * @param b buffer with at least 4 bytes starting at <code>off</code>
+     * @param off offset of the frame sync
+     * @return frame length in bytes or <code>-1</code>, if there is no valid frame header
+     */
+    static int mpegFrameLength(final byte[] b, final int off) {
+        if ((b[off] & 0xFF) != 0xFF || (b[off + 1] & 0xE0) != 0xE0) return -1;
+        final int version = (b[off + 1] >> 3) & 3;
+        final int layer = (b[off + 1] >> 1) & 3;
+        final int bitrateIndex = (b[off + 2] >> 4) & 0xF;
+        final int sampleRateIndex = (b[off + 2] >> 2) & 3;
+        final int padding = (b[off + 2] >> 1) & 1;
+        if (version == 1 || layer == 0 || bitrateIndex == 0 || bitrateIndex == 15 || sampleRateIndex == 3) return -1;
+        final boolean v1 = version == 3;
+        final int sampleRate = mpegSampleRate(b, off);
+        final int bitrate = mpegBitRate(b, off);
+        if (layer == 3) return (12 * bitrate / sampleRate + padding) * 4;
+        if (layer == 1 && !v1) return 72 * bitrate / sampleRate + padding;
+        return 144 * bitrate / sampleRate + padding;
+    }
+
+    /**
+     * Sample rate of the MPEG audio frame starting at the given offset.
+     *
+     * @param b buffer
+     * @param off offset of a valid frame header
+     * @return sample rate in Hz
+     */
+    static int mpegSampleRate(final byte[] b, final int off) {
+        final int version = (b[off + 1] >> 3) & 3;
+        return MPEG_SAMPLE_RATES[(b[off + 2] >> 2) & 3] >> (version == 3 ? 0 : version == 2 ? 1 : 2);
+    }
+
+    /**
+     * Bitrate of the MPEG audio frame starting at the given offset.
+     *
+     * @param b buffer
+     * @param off offset of a valid frame header
+     * @return bitrate in bit/s
+     */
+    static int mpegBitRate(final byte[] b, final int off) {
+        final int version = (b[off + 1] >> 3) & 3;
+        final int layer = (b[off + 1] >> 1) & 3;
+        final int table = version == 3 ? 3 - layer : layer == 3 ? 3 : 4;
+        return MPEG_BITRATES[table][(b[off + 2] >> 4) & 0xF] * 1000;
+    }
+
+    /**
+     * Length of the ADTS frame starting at the given offset, including its header.
+     *
+     * @param b buffer
+     * @param off offset of the frame sync
+     * @param end end of valid data in the buffer
+     * @return frame length in bytes or <code>-1</code>, if there is no valid frame header
+     */
+    static int adtsFrameLength(final byte[] b, final int off, final int end) {
+        if (off + 7 > end) return -1;
+        if ((b[off] & 0xFF) != 0xFF || (b[off + 1] & 0xF6) != 0xF0) return -1;
+        final int sampleRateIndex = (b[off + 2] >> 2) & 0xF;
+        if (sampleRateIndex >= ADTS_SAMPLE_RATES.length) return -1;
+        final int frameLength = ((b[off + 3] & 0x3) << 11) | ((b[off + 4] & 0xFF) << 3) | ((b[off + 5] & 0xE0) >> 5);
+        final int headerLength = (b[off + 1] & 1) == 0 ? 9 : 7;
+        return frameLength > headerLength ? frameLength : -1;
+    }
+
+    private static boolean startsWith(final byte[] b, final int off, final int len, final String magic) {
+        return startsWith(b, off, len, magic.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private static boolean startsWith(final byte[] b, final int off, final int len, final byte[] magic) {
+        if (len < magic.length) return false;
+        for (int i = 0; i < magic.length; i++) {
+            if (b[off + i] != magic[i]) return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,791 @@
+/*
+ * =================================================
+ * Copyright 2011 tagtraum industries incorporated
+ * This file is part of MFSampledSP.
+ *
+ * FFSampledSP is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * FFSampledSP is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with FFSampledSP; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ * =================================================
+ */
+package com.tagtraum.mfsampledsp;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Cache for completely decoded audio, keyed by {@link MFSourceIdentity} and output format.
+ * <p>
+ * The cache has two tiers, each bounded by a byte size and evicting the least recently used entry:
+ * <ul>
+ *     <li>an off-heap in-memory tier of direct buffers</li>
+ *     <li>an on-disk tier of files in a cache directory, which are memory-mapped when read
+ *     and survive restarts</li>
+ * </ul>
+ * Evicted cache files that are still in use, e.g. mapped by a stream on Windows, are deleted later
+ * and count towards the disk limit until then.
+ * Entries are created while a stream is being decoded anyway (see {@link #record(MFSourceIdentity, AudioFormat, long, MFNativePeerInputStream)}).
+ * Only streams that are read sequentially from start to end are cached, streams that are seeked or
+ * closed early are not. There is at most one recording per entry at a time. Cache hits are served by {@link MFCachedInputStream} straight from the
+ * cached buffer or mapping.
+ * <p>
+ * The shared instance used by {@link MFAudioFileReader} is configured with the system properties
+ * <code>com.tagtraum.mfsampledsp.pcmcache.memory</code> and <code>com.tagtraum.mfsampledsp.pcmcache.disk</code>
+ * (max bytes per tier, default 0, i.e. disabled) and <code>com.tagtraum.mfsampledsp.pcmcache.dir</code>
+ * (default <code>mfsampledsp-pcm</code> in the temp directory).
+ *
+ * @author <a href="mailto:hs@tagtraum.com">Hendrik Schreiber</a>
+ */
+public final class MFDecodedAudioCache {
+
+    private static final Logger LOG = Logger.getLogger(MFDecodedAudioCache.class.getName());
+    private static final int MAGIC = 0x4d465043; // MFPC
+    private static final int VERSION = 1;
+    /**
+     * Cache files start with a header of this size, so that the data is page aligned.
+     */
+    static final int HEADER_SIZE = 4096;
+    private static final String SUFFIX = ".pcm";
+    /**
+     * Memory recordings allocate their buffer in chunks of this size, as the audio comes in.
+     */
+    private static final int CHUNK_SIZE = 1024 * 1024;
+
+    private final long maxMemoryBytes;
+    private final long maxDiskBytes;
+    private final Path directory;
+    private final LinkedHashMap<String, MemoryEntry> memory = new LinkedHashMap<>(16, 0.75f, true);
+    private final LinkedHashMap<String, DiskEntry> disk = new LinkedHashMap<>(16, 0.75f, true);
+    /**
+     * Recordings in progress. Weak, so that streams that are never closed don't block their key forever.
+     */
+    private final Map<String, WeakReference<Recorder>> recordings = new HashMap<>();
+    /**
+     * Evicted cache files that could not be deleted yet, e.g. because they are still mapped on Windows,
+     * and their sizes. They count towards the disk limit until they are gone.
+     */
+    private final Map<Path, Long> undeleted = new HashMap<>();
+    private long memoryBytes;
+    private long diskBytes;
+    private long undeletedBytes;
+    private final AtomicLong memoryHits = new AtomicLong();
+    private final AtomicLong diskHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Creates a cache. Cache files already present in <code>directory</code> are picked up.
+     *
+     * @param maxMemoryBytes max size of the in-memory tier, 0 to disable it
+     * @param maxDiskBytes max size of the on-disk tier, 0 to disable it
+     * @param directory cache directory, may be <code>null</code>, if <code>maxDiskBytes</code> is 0
+     * @throws IOException if the cache directory cannot be created or read
+     */
+    public MFDecodedAudioCache(final long maxMemoryBytes, final long maxDiskBytes, final Path directory) throws IOException {
+        if (maxMemoryBytes < 0) throw new IllegalArgumentException("Max memory bytes must be greater than or equal to 0: " + maxMemoryBytes);
+        if (maxDiskBytes < 0) throw new IllegalArgumentException("Max disk bytes must be greater than or equal to 0: " + maxDiskBytes);
+        if (maxDiskBytes > 0 && directory == null) throw new NullPointerException("Directory must not be null");
+        this.maxMemoryBytes = maxMemoryBytes;
+        this.maxDiskBytes = maxDiskBytes;
+        this.directory = maxDiskBytes > 0 ? directory : null;
+        if (this.directory != null) {
+            Files.createDirectories(directory);
+            scanDirectory();
+        }
+    }
+
+    /**
+     * Creates a cache configured via system properties.
+     *
+     * @return cache or <code>null</code>, if both tiers are disabled or the cache directory is not usable
+     */
+    static MFDecodedAudioCache fromSystemProperties() {
+        final long maxMemoryBytes = Math.max(0, Long.getLong("com.tagtraum.mfsampledsp.pcmcache.memory", 0));
+        final long maxDiskBytes = Math.max(0, Long.getLong("com.tagtraum.mfsampledsp.pcmcache.disk", 0));
+        if (maxMemoryBytes == 0 && maxDiskBytes == 0) return null;
+        final String dir = System.getProperty("com.tagtraum.mfsampledsp.pcmcache.dir",
+                Paths.get(System.getProperty("java.io.tmpdir"), "mfsampledsp-pcm").toString());
+        try {
+            return new MFDecodedAudioCache(maxMemoryBytes, maxDiskBytes, Paths.get(dir));
+        } catch (IOException | RuntimeException e) {
+            LOG.log(Level.WARNING, "Failed to create decoded audio cache in " + dir + ": " + e.toString(), e);
+            return null;
+        }
+    }
+
+    /**
+     * Opens a stream on cached decoded audio.
+     *
+     * @param identity source identity
+     * @param format decoded format
+     * @param frameLength length in frames the stream should report
+     * @return stream or <code>null</code>, if the audio is not cached
+     * @throws IOException if something goes wrong
+     */
+    public MFAudioInputStream open(final MFSourceIdentity identity, final AudioFormat format, final long frameLength) throws IOException {
+        if (!isCacheable(identity)) return null;
+        final ByteBuffer data = get(key(identity, format));
+        if (data == null) return null;
+        try {
+            return new MFAudioInputStream(new MFCachedInputStream(data, format), format, frameLength);
+        } catch (UnsupportedAudioFileException e) {
+            // does not happen, there is nothing to open
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Wraps a freshly opened stream, so that the decoded audio is added to the cache,
+     * once the stream has been read from start to end.
+     *
+     * @param identity source identity
+     * @param format decoded format
+     * @param frameLength expected length in frames or {@link AudioSystem#NOT_SPECIFIED}
+     * @param stream freshly opened stream
+     * @return recording stream or <code>stream</code> itself, if the audio cannot be cached
+     * or is already being recorded
+     */
+    public MFNativePeerInputStream record(final MFSourceIdentity identity, final AudioFormat format,
+                                          final long frameLength, final MFNativePeerInputStream stream) {
+        if (!isCacheable(identity) || format.getFrameSize() <= 0) return stream;
+        final long expectedBytes = frameLength == AudioSystem.NOT_SPECIFIED ? -1 : frameLength * format.getFrameSize();
+        final String key = key(identity, format);
+        if (directory != null) {
+            if (expectedBytes > maxDiskBytes || expectedBytes > Integer.MAX_VALUE - HEADER_SIZE) return stream;
+        } else {
+            if (expectedBytes <= 0 || expectedBytes > maxMemoryBytes) return stream;
+        }
+        final Recorder recorder;
+        synchronized (recordings) {
+            final WeakReference<Recorder> current = recordings.get(key);
+            if (current != null && current.get() != null) return stream;
+            try {
+                recorder = directory != null
+                        ? new FileRecorder(key, format)
+                        : new MemoryRecorder(key, format, (int) expectedBytes);
+            } catch (IOException | RuntimeException e) {
+                LOG.log(Level.FINE, "Failed to start recording " + identity.getLocation() + ": " + e.toString(), e);
+                return stream;
+            }
+            recordings.put(key, new WeakReference<>(recorder));
+        }
+        try {
+            return new RecordingInputStream(stream, recorder, expectedBytes);
+        } catch (IOException | UnsupportedAudioFileException e) {
+            recorder.abandon();
+            return stream;
+        }
+    }
+
+    /**
+     * Removes all entries from both tiers and deletes all cache files.
+     */
+    public synchronized void clear() {
+        memory.clear();
+        memoryBytes = 0;
+        for (final DiskEntry entry : disk.values()) {
+            evict(entry);
+        }
+        disk.clear();
+        diskBytes = 0;
+        deleteUndeleted();
+    }
+
+    /**
+     * Bytes held by the in-memory tier.
+     *
+     * @return bytes
+     */
+    public synchronized long getMemoryBytes() {
+        return memoryBytes;
+    }
+
+    /**
+     * Bytes held by the on-disk tier, excluding file headers.
+     * This includes evicted files that could not be deleted yet, because they are still in use.
+     *
+     * @return bytes
+     */
+    public synchronized long getDiskBytes() {
+        return diskBytes + undeletedBytes;
+    }
+
+    /**
+     * Number of entries in the in-memory tier.
+     *
+     * @return entries
+     */
+    public synchronized int getMemoryEntryCount() {
+        return memory.size();
+    }
+
+    /**
+     * Number of entries in the on-disk tier.
+     *
+     * @return entries
+     */
+    public synchronized int getDiskEntryCount() {
+        return disk.size();
+    }
+
+    public long getMaxMemoryBytes() {
+        return maxMemoryBytes;
+    }
+
+    public long getMaxDiskBytes() {
+        return maxDiskBytes;
+    }
+
+    /**
+     * Number of lookups served from memory.
+     *
+     * @return hit count
+     */
+    public long getMemoryHitCount() {
+        return memoryHits.get();
+    }
+
+    /**
+     * Number of lookups served from disk.
+     *
+     * @return hit count
+     */
+    public long getDiskHitCount() {
+        return diskHits.get();
+    }
+
+    /**
+     * Number of lookups that found nothing.
+     *
+     * @return miss count
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    private void endRecording(final Recorder recorder) {
+        synchronized (recordings) {
+            final WeakReference<Recorder> current = recordings.get(recorder.key);
+            if (current != null && current.get() == recorder) recordings.remove(recorder.key);
+        }
+    }
+
+    private static boolean isCacheable(final MFSourceIdentity identity) {
+        // without length and mtime we can't tell whether the file changed
+        return identity.getLength() >= 0 && identity.getLastModified() >= 0;
+    }
+
+    private static String key(final MFSourceIdentity identity, final AudioFormat format) {
+        return identity.getLocation() + '\n' + identity.getLength() + '\n' + identity.getLastModified() + '\n' + format;
+    }
+
+    private ByteBuffer get(final String key) throws IOException {
+        final DiskEntry diskEntry;
+        synchronized (this) {
+            final MemoryEntry memoryEntry = memory.get(key);
+            if (memoryEntry != null) {
+                // keep both tiers in the same order
+                disk.get(key);
+                memoryHits.incrementAndGet();
+                return memoryEntry.data.duplicate();
+            }
+            diskEntry = disk.get(key);
+            if (diskEntry == null) {
+                misses.incrementAndGet();
+                return null;
+            }
+        }
+        final ByteBuffer data = diskEntry.map();
+        diskHits.incrementAndGet();
+        promote(key, data);
+        return data.duplicate();
+    }
+
+    private synchronized DiskEntry getDisk(final String key) {
+        return disk.get(key);
+    }
+
+    /**
+     * Copies data found on disk into the in-memory tier.
+     */
+    private void promote(final String key, final ByteBuffer data) {
+        if (data.remaining() > maxMemoryBytes) return;
+        final ByteBuffer copy = ByteBuffer.allocateDirect(data.remaining());
+        copy.put(data.duplicate()).flip();
+        putMemory(key, copy);
+    }
+
+    private synchronized void putMemory(final String key, final ByteBuffer data) {
+        final MemoryEntry old = memory.put(key, new MemoryEntry(data));
+        if (old != null) memoryBytes -= old.data.capacity();
+        memoryBytes += data.capacity();
+        final Iterator<MemoryEntry> iterator = memory.values().iterator();
+        while (memoryBytes > maxMemoryBytes && iterator.hasNext()) {
+            memoryBytes -= iterator.next().data.capacity();
+            iterator.remove();
+        }
+    }
+
+    private synchronized void putDisk(final String key, final DiskEntry entry) {
+        final Long replaced = undeleted.remove(entry.path);
+        if (replaced != null) undeletedBytes -= replaced;
+        deleteUndeleted();
+        final DiskEntry old = disk.put(key, entry);
+        if (old != null) {
+            diskBytes -= old.size;
+            if (old.path.equals(entry.path)) old.unmap();
+            else evict(old);
+        }
+        diskBytes += entry.size;
+        final Iterator<DiskEntry> iterator = disk.values().iterator();
+        while (diskBytes + undeletedBytes > maxDiskBytes && iterator.hasNext()) {
+            final DiskEntry eldest = iterator.next();
+            diskBytes -= eldest.size;
+            iterator.remove();
+            evict(eldest);
+        }
+    }
+
+    /**
+     * Drops the cached mapping of an entry that has been removed from the on-disk tier
+     * and deletes its file. Should the file still be in use, deletion is retried later.
+     */
+    private synchronized void evict(final DiskEntry entry) {
+        entry.unmap();
+        if (!delete(entry.path)) {
+            undeleted.put(entry.path, entry.size);
+            undeletedBytes += entry.size;
+        }
+    }
+
+    /**
+     * Retries deleting evicted files, whose mappings may have been collected by now.
+     */
+    private synchronized void deleteUndeleted() {
+        final Iterator<Map.Entry<Path, Long>> iterator = undeleted.entrySet().iterator();
+        while (iterator.hasNext()) {
+            final Map.Entry<Path, Long> file = iterator.next();
+            if (delete(file.getKey())) {
+                undeletedBytes -= file.getValue();
+                iterator.remove();
+            }
+        }
+    }
+
+    private void scanDirectory() throws IOException {
+        final List<Path> files = new ArrayList<>();
+        try (final DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+            for (final Path file : stream) {
+                files.add(file);
+            }
+        }
+        // oldest first, so that the most recently written files are least likely to be evicted
+        files.sort((a, b) -> Long.compare(lastModified(a), lastModified(b)));
+        for (final Path file : files) {
+            try (final FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                while (header.hasRemaining() && channel.read(header) >= 0) {
+                    // read the whole header
+                }
+                final String key = readHeader(header.array());
+                if (key == null || channel.size() < HEADER_SIZE) {
+                    delete(file);
+                    continue;
+                }
+                putDisk(key, new DiskEntry(file, channel.size() - HEADER_SIZE));
+            } catch (IOException e) {
+                LOG.log(Level.FINE, "Ignoring cache file " + file + ": " + e.toString(), e);
+                delete(file);
+            }
+        }
+    }
+
+    private static long lastModified(final Path file) {
+        try {
+            return Files.getLastModifiedTime(file).toMillis();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * @return true, if the file is gone
+     */
+    private static boolean delete(final Path file) {
+        try {
+            Files.deleteIfExists(file);
+            return true;
+        } catch (IOException e) {
+            // e.g. still mapped on Windows
+            LOG.log(Level.FINE, "Failed to delete cache file " + file + ": " + e.toString(), e);
+            return false;
+        }
+    }
+
+    private static byte[] writeHeader(final String key, final AudioFormat format) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(HEADER_SIZE);
+        try (final DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(key);
+            out.writeUTF(format.getEncoding().toString());
+            out.writeFloat(format.getSampleRate());
+            out.writeInt(format.getSampleSizeInBits());
+            out.writeInt(format.getChannels());
+            out.writeInt(format.getFrameSize());
+            out.writeFloat(format.getFrameRate());
+            out.writeBoolean(format.isBigEndian());
+        }
+        if (bytes.size() > HEADER_SIZE) throw new IOException("Cache key too long: " + key);
+        return Arrays.copyOf(bytes.toByteArray(), HEADER_SIZE);
+    }
+
+    /**
+     * @return key or <code>null</code>, if this is not a valid header
+     */
+    private static String readHeader(final byte[] header) throws IOException {
+        final DataInputStream in = new DataInputStream(new ByteArrayInputStream(header));
+        if (in.readInt() != MAGIC || in.readInt() != VERSION) return null;
+        return in.readUTF();
+    }
+
+    private static String fileName(final String key) {
+        try {
+            final byte[] digest = MessageDigest.getInstance("SHA-1").digest(key.getBytes(StandardCharsets.UTF_8));
+            final StringBuilder sb = new StringBuilder(digest.length * 2 + SUFFIX.length());
+            for (final byte b : digest) {
+                sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return sb.append(SUFFIX).toString();
+        } catch (NoSuchAlgorithmException e) {
+            // every JRE has SHA-1
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static class MemoryEntry {
+        private final ByteBuffer data;
+
+        private MemoryEntry(final ByteBuffer data) {
+            this.data = data;
+        }
+    }
+
+    private static class DiskEntry {
+        private final Path path;
+        private final long size;
+        private MappedByteBuffer mapping;
+
+        private DiskEntry(final Path path, final long size) {
+            this.path = path;
+            this.size = size;
+        }
+
+        private synchronized ByteBuffer map() throws IOException {
+            if (mapping == null) {
+                try (final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                    mapping = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE, size);
+                }
+            }
+            return mapping.duplicate();
+        }
+
+        /**
+         * Drops the cached mapping. The file is unmapped once all streams reading
+         * from it have been collected.
+         */
+        private synchronized void unmap() {
+            mapping = null;
+        }
+    }
+
+    /**
+     * Collects decoded audio while it is being read.
+     */
+    private abstract static class Recorder {
+
+        final String key;
+        final AudioFormat format;
+        long written;
+
+        Recorder(final String key, final AudioFormat format) {
+            this.key = key;
+            this.format = format;
+        }
+
+        abstract void write(ByteBuffer src) throws IOException;
+
+        abstract void commit() throws IOException;
+
+        abstract void abandon();
+    }
+
+    private class MemoryRecorder extends Recorder {
+
+        private final int expectedBytes;
+        private final List<ByteBuffer> chunks = new ArrayList<>();
+
+        MemoryRecorder(final String key, final AudioFormat format, final int expectedBytes) {
+            super(key, format);
+            this.expectedBytes = expectedBytes;
+        }
+
+        @Override
+        void write(final ByteBuffer src) throws IOException {
+            if (written + src.remaining() > expectedBytes) throw new IOException("More audio than expected.");
+            while (src.hasRemaining()) {
+                ByteBuffer chunk = chunks.isEmpty() ? null : chunks.get(chunks.size() - 1);
+                if (chunk == null || !chunk.hasRemaining()) {
+                    // allocated as needed, so that streams that are only partially read don't cost the whole length
+                    chunk = ByteBuffer.allocateDirect((int) Math.min(CHUNK_SIZE, expectedBytes - written));
+                    chunks.add(chunk);
+                }
+                final int length = Math.min(src.remaining(), chunk.remaining());
+                final ByteBuffer part = src.duplicate();
+                part.limit(part.position() + length);
+                chunk.put(part);
+                src.position(src.position() + length);
+                written += length;
+            }
+        }
+
+        @Override
+        void commit() {
+            try {
+                final ByteBuffer data;
+                if (chunks.size() == 1) {
+                    data = chunks.get(0);
+                    data.flip();
+                } else {
+                    data = ByteBuffer.allocateDirect((int) written);
+                    for (final ByteBuffer chunk : chunks) {
+                        chunk.flip();
+                        data.put(chunk);
+                    }
+                    data.flip();
+                }
+                chunks.clear();
+                putMemory(key, data.slice());
+            } finally {
+                endRecording(this);
+            }
+        }
+
+        @Override
+        void abandon() {
+            chunks.clear();
+            endRecording(this);
+        }
+    }
+
+    private class FileRecorder extends Recorder {
+
+        private final Path tempFile;
+        private final FileChannel channel;
+
+        FileRecorder(final String key, final AudioFormat format) throws IOException {
+            super(key, format);
+            this.tempFile = Files.createTempFile(directory, "mfsampledsp", ".tmp");
+            this.channel = FileChannel.open(tempFile, StandardOpenOption.WRITE);
+            try {
+                final ByteBuffer header = ByteBuffer.wrap(writeHeader(key, format));
+                while (header.hasRemaining()) channel.write(header);
+            } catch (IOException e) {
+                abandon();
+                throw e;
+            }
+        }
+
+        @Override
+        void write(final ByteBuffer src) throws IOException {
+            if (written + src.remaining() > Math.min(maxDiskBytes, Integer.MAX_VALUE - HEADER_SIZE)) {
+                throw new IOException("Too much audio to cache.");
+            }
+            written += src.remaining();
+            while (src.hasRemaining()) channel.write(src);
+        }
+
+        @Override
+        void commit() throws IOException {
+            try {
+                channel.close();
+                final Path file = directory.resolve(fileName(key));
+                // a mapped file cannot be replaced on Windows
+                final DiskEntry existing = getDisk(key);
+                if (existing != null) existing.unmap();
+                Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                final DiskEntry entry = new DiskEntry(file, written);
+                putDisk(key, entry);
+                if (maxMemoryBytes > 0) promote(key, entry.map());
+            } catch (IOException | RuntimeException e) {
+                abandon();
+                throw e;
+            } finally {
+                endRecording(this);
+            }
+        }
+
+        @Override
+        void abandon() {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                LOG.log(Level.FINE, e.toString(), e);
+            }
+            delete(tempFile);
+            endRecording(this);
+        }
+    }
+
+    /**
+     * Passes decoded audio through to the reader and hands a copy to a {@link Recorder}.
+     * Recording stops as soon as the stream is seeked, and is committed once the expected
+     * number of bytes has been seen. Anything beyond is not recorded.
+     */
+    private static class RecordingInputStream extends MFNativePeerInputStream {
+
+        private final MFNativePeerInputStream delegate;
+        private final long expectedBytes;
+        private Recorder recorder;
+        private boolean closed;
+
+        RecordingInputStream(final MFNativePeerInputStream delegate, final Recorder recorder,
+                             final long expectedBytes) throws IOException, UnsupportedAudioFileException {
+            this.delegate = delegate;
+            this.recorder = recorder;
+            this.expectedBytes = expectedBytes;
+            // we read straight from the delegate's buffer
+            setNativeBuffer(EMPTY_BUFFER);
+        }
+
+        @Override
+        protected void fillNativeBuffer() throws IOException {
+            if (closed) return;
+            delegate.sampleTime = -1;
+            delegate.fillNativeBuffer();
+            final ByteBuffer buffer = delegate.nativeBuffer;
+            setNativeBuffer(buffer);
+            sampleTime = delegate.sampleTime;
+            if (recorder == null) return;
+            try {
+                if (!buffer.hasRemaining()) {
+                    // end of stream
+                    stopRecording(true);
+                    return;
+                }
+                final ByteBuffer src = buffer.duplicate();
+                if (expectedBytes > 0) {
+                    // decoders usually deliver a little more than the expected, rounded down length,
+                    // which AudioInputStream never passes on anyway
+                    src.limit((int) Math.min(src.limit(), src.position() + expectedBytes - recorder.written));
+                }
+                recorder.write(src);
+                if (expectedBytes > 0 && recorder.written >= expectedBytes) stopRecording(true);
+            } catch (IOException | RuntimeException e) {
+                LOG.log(Level.FINE, "Failed to cache " + recorder.key + ": " + e.toString(), e);
+                stopRecording(false);
+            }
+        }
+
+        @Override
+        protected boolean canFillDirectly(final ByteBuffer dst) {
+            // we must see every byte
+            return false;
+        }
+
+        private void stopRecording(final boolean commit) {
+            final Recorder r = recorder;
+            recorder = null;
+            if (r == null) return;
+            if (!commit) {
+                r.abandon();
+                return;
+            }
+            try {
+                r.commit();
+            } catch (IOException | RuntimeException e) {
+                LOG.log(Level.FINE, "Failed to cache " + r.key + ": " + e.toString(), e);
+            }
+        }
+
+        @Override
+        public boolean isSeekable() {
+            return delegate.isSeekable();
+        }
+
+        @Override
+        public void seek(final long time, final TimeUnit timeUnit) throws UnsupportedOperationException, IOException {
+            stopRecording(false);
+            setNativeBuffer(EMPTY_BUFFER);
+            delegate.seek(time, timeUnit);
+        }
+
+        @Override
+        MFSeekIndex getSeekIndex() {
+            return delegate.getSeekIndex();
+        }
+
+        @Override
+        public boolean isOpen() {
+            return !closed;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) return;
+            closed = true;
+            // AudioInputStream stops at the frame length, which may be before the decoder reports the end
+            stopRecording(recorder != null && expectedBytes > 0 && recorder.written >= expectedBytes);
+            try {
+                delegate.close();
+            } finally {
+                setNativeBuffer(EMPTY_BUFFER);
+                super.close();
+            }
+        }
+
+        @Override
+        protected void close(final long pointer) throws IOException {
+            // the delegate owns the native peer
+        }
+    }
+}
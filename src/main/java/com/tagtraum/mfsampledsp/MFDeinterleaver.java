@@ -0,0 +1,264 @@
+/*
+ * =================================================
+ * Copyright 2011 tagtraum industries incorporated
+ * This file is part of MFSampledSP.
+ *
+ * FFSampledSP is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * FFSampledSP is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with FFSampledSP; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ * =================================================
+ */
+package com.tagtraum.mfsampledsp;
+
+import javax.sound.sampled.AudioFormat;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Converts interleaved PCM straight from a (native) buffer into planar per-channel arrays.
+ * <p>
+ * Channels are converted one after the other, so that writes are sequential, and the
+ * loops over frames are unrolled by four. 16 and 24 bit, the common decoder outputs,
+ * have their own loops, other sample sizes use a slower generic path.
+ *
+ * @author <a href="mailto:hs@tagtraum.com">Hendrik Schreiber</a>
+ * @see MFAudioInputStream#readPlanar(float[][], int, int)
+ */
+final class MFDeinterleaver {
+
+    private static final float SCALE_8 = 1f / 0x80;
+    private static final float SCALE_16 = 1f / 0x8000;
+    private static final float SCALE_24 = 1f / 0x800000;
+    private static final float SCALE_32 = 1f / 0x80000000L;
+
+    private MFDeinterleaver() {
+    }
+
+    /**
+     * Indicates whether the given format can be converted.
+     *
+     * @param format format
+     * @return true for signed 8, 16, 24 or 32 bit and 32 bit float PCM
+     */
+    static boolean isSupported(final AudioFormat format) {
+        final int sampleSize = format.getSampleSizeInBits();
+        if (AudioFormat.Encoding.PCM_FLOAT.equals(format.getEncoding())) return sampleSize == 32;
+        return AudioFormat.Encoding.PCM_SIGNED.equals(format.getEncoding())
+                && (sampleSize == 8 || sampleSize == 16 || sampleSize == 24 || sampleSize == 32);
+    }
+
+    /**
+     * Converts the given number of frames, starting at the buffer's position,
+     * and advances the position accordingly.
+     *
+     * @param src interleaved samples with at least <code>frames</code> frames remaining
+     * @param format format of the samples, see {@link #isSupported(AudioFormat)}
+     * @param dst <code>float[][]</code> (scaled to [-1,1]), <code>int[][]</code> (as is)
+     * or <code>short[][]</code> (most significant 16 bits), one array per channel
+     * @param off offset into the channel arrays
+     * @param frames number of frames
+     */
+    static void deinterleave(final ByteBuffer src, final AudioFormat format, final Object[] dst, final int off, final int frames) {
+        final ByteBuffer b = src.duplicate().order(format.isBigEndian() ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN);
+        final int start = src.position();
+        final int frameSize = format.getFrameSize();
+        final boolean floatSamples = AudioFormat.Encoding.PCM_FLOAT.equals(format.getEncoding());
+        final int sampleSize = format.getSampleSizeInBits();
+        final int bytesPerSample = sampleSize / 8;
+        for (int c = 0; c < dst.length; c++) {
+            final int p = start + c * bytesPerSample;
+            if (dst instanceof float[][]) {
+                final float[] channel = ((float[][]) dst)[c];
+                if (floatSamples) toFloatFromFloat(b, p, frameSize, channel, off, frames);
+                else if (sampleSize == 16) toFloat16(b, p, frameSize, channel, off, frames);
+                else if (sampleSize == 24) toFloat24(b, p, frameSize, channel, off, frames);
+                else toFloat(b, p, frameSize, sampleSize, channel, off, frames);
+            } else if (dst instanceof int[][]) {
+                final int[] channel = ((int[][]) dst)[c];
+                if (sampleSize == 16) toInt16(b, p, frameSize, channel, off, frames);
+                else if (sampleSize == 24) toInt24(b, p, frameSize, channel, off, frames);
+                else toInt(b, p, frameSize, sampleSize, channel, off, frames);
+            } else {
+                final short[] channel = ((short[][]) dst)[c];
+                if (sampleSize == 16) toShort16(b, p, frameSize, channel, off, frames);
+                else toShort(b, p, frameSize, sampleSize, channel, off, frames);
+            }
+        }
+        src.position(start + frames * frameSize);
+    }
+
+    // === float
+
+    private static void toFloat16(final ByteBuffer b, int p, final int stride, final float[] dst, final int off, final int frames) {
+        final int end = off + frames;
+        int i = off;
+        for (; i + 4 <= end; i += 4) {
+            dst[i] = b.getShort(p) * SCALE_16;
+            dst[i + 1] = b.getShort(p + stride) * SCALE_16;
+            dst[i + 2] = b.getShort(p + 2 * stride) * SCALE_16;
+            dst[i + 3] = b.getShort(p + 3 * stride) * SCALE_16;
+            p += 4 * stride;
+        }
+        for (; i < end; i++) {
+            dst[i] = b.getShort(p) * SCALE_16;
+            p += stride;
+        }
+    }
+
+    private static void toFloat24(final ByteBuffer b, int p, final int stride, final float[] dst, final int off, final int frames) {
+        final boolean bigEndian = b.order() == ByteOrder.BIG_ENDIAN;
+        final int end = off + frames;
+        int i = off;
+        if (bigEndian) {
+            for (; i < end; i++) {
+                dst[i] = int24BE(b, p) * SCALE_24;
+                p += stride;
+            }
+            return;
+        }
+        for (; i + 4 <= end; i += 4) {
+            dst[i] = int24LE(b, p) * SCALE_24;
+            dst[i + 1] = int24LE(b, p + stride) * SCALE_24;
+            dst[i + 2] = int24LE(b, p + 2 * stride) * SCALE_24;
+            dst[i + 3] = int24LE(b, p + 3 * stride) * SCALE_24;
+            p += 4 * stride;
+        }
+        for (; i < end; i++) {
+            dst[i] = int24LE(b, p) * SCALE_24;
+            p += stride;
+        }
+    }
+
+    private static void toFloatFromFloat(final ByteBuffer b, int p, final int stride, final float[] dst, final int off, final int frames) {
+        final int end = off + frames;
+        int i = off;
+        for (; i + 4 <= end; i += 4) {
+            dst[i] = b.getFloat(p);
+            dst[i + 1] = b.getFloat(p + stride);
+            dst[i + 2] = b.getFloat(p + 2 * stride);
+            dst[i + 3] = b.getFloat(p + 3 * stride);
+            p += 4 * stride;
+        }
+        for (; i < end; i++) {
+            dst[i] = b.getFloat(p);
+            p += stride;
+        }
+    }
+
+    private static void toFloat(final ByteBuffer b, int p, final int stride, final int sampleSize, final float[] dst, final int off, final int frames) {
+        final float scale = sampleSize == 8 ? SCALE_8 : sampleSize == 16 ? SCALE_16 : sampleSize == 24 ? SCALE_24 : SCALE_32;
+        for (int i = off; i < off + frames; i++) {
+            dst[i] = sample(b, p, sampleSize) * scale;
+            p += stride;
+        }
+    }
+
+    // === int
+
+    private static void toInt16(final ByteBuffer b, int p, final int stride, final int[] dst, final int off, final int frames) {
+        final int end = off + frames;
+        int i = off;
+        for (; i + 4 <= end; i += 4) {
+            dst[i] = b.getShort(p);
+            dst[i + 1] = b.getShort(p + stride);
+            dst[i + 2] = b.getShort(p + 2 * stride);
+            dst[i + 3] = b.getShort(p + 3 * stride);
+            p += 4 * stride;
+        }
+        for (; i < end; i++) {
+            dst[i] = b.getShort(p);
+            p += stride;
+        }
+    }
+
+    private static void toInt24(final ByteBuffer b, int p, final int stride, final int[] dst, final int off, final int frames) {
+        final boolean bigEndian = b.order() == ByteOrder.BIG_ENDIAN;
+        final int end = off + frames;
+        int i = off;
+        if (bigEndian) {
+            for (; i < end; i++) {
+                dst[i] = int24BE(b, p);
+                p += stride;
+            }
+            return;
+        }
+        for (; i + 4 <= end; i += 4) {
+            dst[i] = int24LE(b, p);
+            dst[i + 1] = int24LE(b, p + stride);
+            dst[i + 2] = int24LE(b, p + 2 * stride);
+            dst[i + 3] = int24LE(b, p + 3 * stride);
+            p += 4 * stride;
+        }
+        for (; i < end; i++) {
+            dst[i] = int24LE(b, p);
+            p += stride;
+        }
+    }
+
+    private static void toInt(final ByteBuffer b, int p, final int stride, final int sampleSize, final int[] dst, final int off, final int frames) {
+        for (int i = off; i < off + frames; i++) {
+            dst[i] = sample(b, p, sampleSize);
+            p += stride;
+        }
+    }
+
+    // === short
+
+    private static void toShort16(final ByteBuffer b, int p, final int stride, final short[] dst, final int off, final int frames) {
+        final int end = off + frames;
+        int i = off;
+        for (; i + 4 <= end; i += 4) {
+            dst[i] = b.getShort(p);
+            dst[i + 1] = b.getShort(p + stride);
+            dst[i + 2] = b.getShort(p + 2 * stride);
+            dst[i + 3] = b.getShort(p + 3 * stride);
+            p += 4 * stride;
+        }
+        for (; i < end; i++) {
+            dst[i] = b.getShort(p);
+            p += stride;
+        }
+    }
+
+    private static void toShort(final ByteBuffer b, int p, final int stride, final int sampleSize, final short[] dst, final int off, final int frames) {
+        final int shift = sampleSize - 16;
+        for (int i = off; i < off + frames; i++) {
+            final int sample = sample(b, p, sampleSize);
+            dst[i] = (short) (shift >= 0 ? sample >> shift : sample << -shift);
+            p += stride;
+        }
+    }
+
+    // === samples
+
+    private static int sample(final ByteBuffer b, final int p, final int sampleSize) {
+        switch (sampleSize) {
+            case 8:
+                return b.get(p);
+            case 16:
+                return b.getShort(p);
+            case 24:
+                return b.order() == ByteOrder.BIG_ENDIAN ? int24BE(b, p) : int24LE(b, p);
+            default:
+                return b.getInt(p);
+        }
+    }
+
+    private static int int24LE(final ByteBuffer b, final int p) {
+        return (b.get(p + 2) << 16) | (b.getShort(p) & 0xFFFF);
+    }
+
+    private static int int24BE(final ByteBuffer b, final int p) {
+        return (b.getShort(p) << 8) | (b.get(p + 2) & 0xFF);
+    }
+}
@@ -0,0 +1,227 @@
+/*
+ * =================================================
+ * Copyright 2011 tagtraum industries incorporated
+ * This file is part of MFSampledSP.
+ *
+ * FFSampledSP is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * FFSampledSP is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with FFSampledSP; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ * =================================================
+ */
+package com.tagtraum.mfsampledsp;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pool of direct {@link ByteBuffer}s, organized in power-of-two size classes.
+ * Native peer streams borrow their native buffer from the shared instance
+ * and return it, when they are closed. This avoids allocating and cleaning up
+ * direct memory for each short-lived stream.
+ * <p>
+ * The number of bytes held by idle buffers is bounded. Buffers that are returned
+ * while the pool is full are simply dropped and left to the garbage collector.
+ * Buffers are only acquired and released within this package, so that the pool never
+ * hands out memory that is also owned by someone else.
+ * The bound for the shared instance can be set with the system property
+ * <code>com.tagtraum.mfsampledsp.bufferpool.maxidlebytes</code> (default 8MB).
+ *
+ * @author <a href="mailto:hs@tagtraum.com">Hendrik Schreiber</a>
+ */
+public final class MFDirectBufferPool {
+
+    private static final int MIN_SHIFT = 10;
+    private static final int MAX_SHIFT = 30;
+    private static final long DEFAULT_MAX_IDLE_BYTES = 8L * 1024L * 1024L;
+    private static final MFDirectBufferPool INSTANCE = new MFDirectBufferPool(
+            Long.getLong("com.tagtraum.mfsampledsp.bufferpool.maxidlebytes", DEFAULT_MAX_IDLE_BYTES));
+
+    private final ConcurrentLinkedQueue<ByteBuffer>[] idleBuffers;
+    private final long maxIdleBytes;
+    private final AtomicLong idleBytes = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong drops = new AtomicLong();
+    private final AtomicLong borrowedBytes = new AtomicLong();
+    /**
+     * Identities of the buffers in {@link #idleBuffers}, to ignore repeated releases.
+     */
+    private final Set<ByteBuffer> idle = Collections.synchronizedSet(Collections.newSetFromMap(new IdentityHashMap<>()));
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    MFDirectBufferPool(final long maxIdleBytes) {
+        this.maxIdleBytes = maxIdleBytes;
+        this.idleBuffers = new ConcurrentLinkedQueue[MAX_SHIFT - MIN_SHIFT + 1];
+        for (int i=0; i<idleBuffers.length; i++) {
+            idleBuffers[i] = new ConcurrentLinkedQueue<>();
+        }
+    }
+
+    /**
+     * Shared pool instance.
+     *
+     * @return pool
+     */
+    public static MFDirectBufferPool getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Borrows a cleared direct buffer with at least the given capacity.
+     * The actual capacity is the next power of two.
+     *
+     * @param size minimal capacity in bytes
+     * @return direct buffer in big endian byte order
+     */
+    ByteBuffer acquire(final int size) {
+        if (size < 0) throw new IllegalArgumentException("Size must be greater than or equal to 0: " + size);
+        final int shift = shift(size);
+        if (shift > MAX_SHIFT) {
+            misses.incrementAndGet();
+            borrowedBytes.addAndGet(size);
+            return ByteBuffer.allocateDirect(size);
+        }
+        final ByteBuffer buffer = idleBuffers[shift - MIN_SHIFT].poll();
+        borrowedBytes.addAndGet(1 << shift);
+        if (buffer == null) {
+            misses.incrementAndGet();
+            return ByteBuffer.allocateDirect(1 << shift);
+        }
+        hits.incrementAndGet();
+        idle.remove(buffer);
+        idleBytes.addAndGet(-buffer.capacity());
+        buffer.clear();
+        buffer.order(ByteOrder.BIG_ENDIAN);
+        return buffer;
+    }
+
+    /**
+     * Returns a buffer acquired from this pool. Buffers that cannot have been acquired
+     * (heap, read-only buffers or buffers of the wrong capacity) and buffers that are already
+     * idle are ignored.
+     * Note that the caller must not use the buffer anymore after calling this method.
+     *
+     * @param buffer buffer
+     */
+    void release(final ByteBuffer buffer) {
+        if (buffer == null || !buffer.isDirect() || buffer.isReadOnly()) return;
+        final int capacity = buffer.capacity();
+        final int shift = Integer.numberOfTrailingZeros(capacity);
+        final boolean pooled = Integer.bitCount(capacity) == 1 && shift >= MIN_SHIFT && shift <= MAX_SHIFT;
+        // larger buffers are allocated with their exact size and never pooled
+        if (!pooled && capacity <= 1 << MAX_SHIFT) return;
+        if (!pooled) {
+            borrowedBytes.addAndGet(-capacity);
+            return;
+        }
+        // released twice
+        if (!idle.add(buffer)) return;
+        borrowedBytes.addAndGet(-capacity);
+
+        long current;
+        do {
+            current = idleBytes.get();
+            if (current + capacity > maxIdleBytes) {
+                idle.remove(buffer);
+                drops.incrementAndGet();
+                return;
+            }
+        } while (!idleBytes.compareAndSet(current, current + capacity));
+        idleBuffers[shift - MIN_SHIFT].offer(buffer);
+    }
+
+    /**
+     * Drops all idle buffers.
+     */
+    public void clear() {
+        for (final ConcurrentLinkedQueue<ByteBuffer> queue : idleBuffers) {
+            ByteBuffer buffer;
+            while ((buffer = queue.poll()) != null) {
+                idle.remove(buffer);
+                idleBytes.addAndGet(-buffer.capacity());
+            }
+        }
+    }
+
+    /**
+     * Number of {@link #acquire(int)} calls that could be served with an idle buffer.
+     *
+     * @return hit count
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * Number of {@link #acquire(int)} calls that required a new allocation.
+     *
+     * @return miss count
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * Number of released buffers that were dropped, because the pool was full.
+     *
+     * @return drop count
+     */
+    public long getDropCount() {
+        return drops.get();
+    }
+
+    /**
+     * Bytes currently held by idle buffers.
+     *
+     * @return bytes
+     */
+    public long getIdleBytes() {
+        return idleBytes.get();
+    }
+
+    /**
+     * Bytes held by buffers that have been acquired and not released yet,
+     * e.g. the native buffers of open streams.
+     *
+     * @return bytes
+     */
+    public long getBorrowedBytes() {
+        return borrowedBytes.get();
+    }
+
+    /**
+     * Maximum number of bytes held by idle buffers.
+     *
+     * @return bytes
+     */
+    public long getMaxIdleBytes() {
+        return maxIdleBytes;
+    }
+
+    /**
+     * Power of two that is greater than or equal to the given size, but at least
+     * the smallest size class.
+     *
+     * @param size size
+     * @return shift, i.e. the exponent of the power of two
+     */
+    static int shift(final int size) {
+        if (size <= 1 << MIN_SHIFT) return MIN_SHIFT;
+        return 32 - Integer.numberOfLeadingZeros(size - 1);
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * =================================================
+ * Copyright 2011 tagtraum industries incorporated
+ * This file is part of MFSampledSP.
+ *
+ * FFSampledSP is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * FFSampledSP is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with FFSampledSP; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ * =================================================
+ */
+package com.tagtraum.mfsampledsp;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * JDK Flight Recorder events. All events carry the source they refer to and, like all
+ * JFR events, their duration. When no recording is running, they cost next to nothing.
+ *
+ * @author <a href="mailto:hs@tagtraum.com">Hendrik Schreiber</a>
+ */
+final class MFEvents {
+
+    private static final String CATEGORY = "MFSampledSP";
+
+    private MFEvents() {
+    }
+
+    @Name("com.tagtraum.mfsampledsp.Probe")
+    @Label("Probe")
+    @Category(CATEGORY)
+    @Description("Determining the audio file format of a source")
+    static final class Probe extends Event {
+        @Label("Source")
+        String source;
+        @Label("Cache Hit")
+        boolean cacheHit;
+    }
+
+    @Name("com.tagtraum.mfsampledsp.Open")
+    @Label("Open")
+    @Category(CATEGORY)
+    @Description("Opening a source for decoding")
+    static final class Open extends Event {
+        @Label("Source")
+        String source;
+        @Label("Encoding")
+        String encoding;
+        @Label("Sample Size")
+        int sampleSizeInBits;
+    }
+
+    @Name("com.tagtraum.mfsampledsp.Fill")
+    @Label("Fill")
+    @Category(CATEGORY)
+    @Description("Decoding one sample into the native buffer")
+    @StackTrace(false)
+    static final class Fill extends Event {
+        @Label("Source")
+        String source;
+        @Label("Bytes")
+        @DataAmount
+        int bytes;
+        @Label("Buffer Grown")
+        @Description("Whether the decoder had to replace the native buffer with a larger one")
+        boolean bufferGrown;
+        @Label("Buffer Capacity")
+        @DataAmount
+        int bufferCapacity;
+    }
+
+    @Name("com.tagtraum.mfsampledsp.Seek")
+    @Label("Seek")
+    @Category(CATEGORY)
+    @Description("Positioning the decoder")
+    static final class Seek extends Event {
+        @Label("Source")
+        String source;
+        @Label("Position")
+        @Timespan(Timespan.MICROSECONDS)
+        long position;
+    }
+
+    @Name("com.tagtraum.mfsampledsp.Close")
+    @Label("Close")
+    @Category(CATEGORY)
+    @Description("Releasing the decoder")
+    static final class Close extends Event {
+        @Label("Source")
+        String source;
+    }
+}
@@ -20,9 +20,12 @@
  */
 package com.tagtraum.mfsampledsp;
 
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
 import javax.sound.sampled.UnsupportedAudioFileException;
 import java.io.IOException;
 import java.net.URL;
+import java.nio.ByteBuffer;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -33,19 +36,199 @@ import java.util.concurrent.TimeUnit;
 public class MFFileInputStream extends MFNativePeerInputStream {
 
     private final URL url;
+    private final MFByteSource byteSource;
+    private final AudioFormat.Encoding encoding;
     private final boolean seekable;
+    private MFSeekIndex seekIndex;
+    private final MFWorkers.Task<Void, IOException> fill = new MFWorkers.Task<Void, IOException>() {
+        @Override
+        public Void call() throws IOException {
+            fillNativeBuffer(pointer);
+            return null;
+        }
+    };
 
+    /**
+     * Opens the given URL for decoding to 16 bit signed PCM.
+     *
+     * @param url url
+     * @throws IOException if something goes wrong
+     * @throws UnsupportedAudioFileException if the format is not supported
+     */
     public MFFileInputStream(final URL url) throws IOException, UnsupportedAudioFileException {
+        this(url, AudioFormat.Encoding.PCM_SIGNED);
+    }
+
+    /**
+     * Opens the given URL for decoding to the given encoding.
+     *
+     * @param url url
+     * @param encoding either {@link AudioFormat.Encoding#PCM_SIGNED} for 16 bit signed integer samples or
+     * {@link AudioFormat.Encoding#PCM_FLOAT} for 32 bit IEEE float samples, both little endian
+     * @throws IOException if something goes wrong
+     * @throws UnsupportedAudioFileException if the format is not supported
+     */
+    public MFFileInputStream(final URL url, final AudioFormat.Encoding encoding) throws IOException, UnsupportedAudioFileException {
+        this(url, encoding, AudioSystem.NOT_SPECIFIED);
+    }
+
+    /**
+     * Opens the given URL for decoding to the given encoding and sample size.
+     *
+     * @param url url
+     * @param encoding either {@link AudioFormat.Encoding#PCM_SIGNED} or {@link AudioFormat.Encoding#PCM_FLOAT}
+     * @param sampleSizeInBits 16, 24 or 32 for signed samples, 32 for float samples, or
+     * {@link AudioSystem#NOT_SPECIFIED} for 16 bit signed or 32 bit float samples, respectively.
+     * Samples are always little endian.
+     * @throws IOException if something goes wrong
+     * @throws UnsupportedAudioFileException if the format is not supported
+     */
+    public MFFileInputStream(final URL url, final AudioFormat.Encoding encoding, final int sampleSizeInBits) throws IOException, UnsupportedAudioFileException {
+        this(url, null, encoding, sampleSizeInBits);
+    }
+
+    /**
+     * Opens the given byte source for decoding to the given encoding and sample size.
+     * The byte source is closed, when this stream is closed.
+     *
+     * @param byteSource byte source
+     * @param encoding either {@link AudioFormat.Encoding#PCM_SIGNED} or {@link AudioFormat.Encoding#PCM_FLOAT}
+     * @param sampleSizeInBits 16, 24 or 32 for signed samples, 32 for float samples, or
+     * {@link AudioSystem#NOT_SPECIFIED} for 16 bit signed or 32 bit float samples, respectively.
+     * @throws IOException if something goes wrong
+     * @throws UnsupportedAudioFileException if the format is not supported
+     */
+    public MFFileInputStream(final MFByteSource byteSource, final AudioFormat.Encoding encoding, final int sampleSizeInBits) throws IOException, UnsupportedAudioFileException {
+        this(null, byteSource, encoding, sampleSizeInBits);
+    }
+
+    private MFFileInputStream(final URL url, final MFByteSource byteSource, final AudioFormat.Encoding encoding, final int sampleSizeInBits) throws IOException, UnsupportedAudioFileException {
+        final boolean floatSamples = AudioFormat.Encoding.PCM_FLOAT.equals(encoding);
+        if (!AudioFormat.Encoding.PCM_SIGNED.equals(encoding) && !floatSamples) {
+            throw new IllegalArgumentException("Unsupported target encoding: " + encoding);
+        }
+        if (sampleSizeInBits != AudioSystem.NOT_SPECIFIED
+                && (floatSamples ? sampleSizeInBits != 32 : sampleSizeInBits != 16 && sampleSizeInBits != 24 && sampleSizeInBits != 32)) {
+            throw new IllegalArgumentException("Unsupported sample size for " + encoding + ": " + sampleSizeInBits);
+        }
         this.url = url;
+        this.byteSource = byteSource;
+        this.encoding = encoding;
         this.nativeBuffer.limit(0);
-        this.pointer = open(url.toString());
-        this.seekable = isSeekable(this.pointer);
+        pinToWorker(MFWorkers.getInstance().assign());
+        final int bitsPerSample = sampleSizeInBits == AudioSystem.NOT_SPECIFIED ? 0 : sampleSizeInBits;
+        final MFEvents.Open event = new MFEvents.Open();
+        event.begin();
+        try {
+            this.pointer = onWorker(new MFWorkers.Task<Long, Exception>() {
+                @Override
+                public Long call() throws IOException, UnsupportedAudioFileException {
+                    return byteSource == null
+                            ? open(url.toString(), floatSamples, bitsPerSample)
+                            : openByteSource(byteSource, byteSource.getName(), floatSamples, bitsPerSample);
+                }
+            });
+        } catch (IOException | UnsupportedAudioFileException | RuntimeException e) {
+            // return native buffer to pool
+            close();
+            throw e;
+        } catch (Exception e) {
+            close();
+            throw new IOException(e);
+        } finally {
+            if (event.shouldCommit()) {
+                event.source = getSourceName();
+                event.encoding = encoding.toString();
+                event.sampleSizeInBits = sampleSizeInBits;
+                event.commit();
+            }
+        }
+        registerNativePeer(MFFileInputStream::release, getSourceName());
+        final long openPointer = this.pointer;
+        this.seekable = onWorker(new MFWorkers.Task<Boolean, RuntimeException>() {
+            @Override
+            public Boolean call() {
+                return isSeekable(openPointer);
+            }
+        });
+    }
+
+    /**
+     * Encoding of the decoded samples.
+     *
+     * @return {@link AudioFormat.Encoding#PCM_SIGNED} or {@link AudioFormat.Encoding#PCM_FLOAT}
+     */
+    public AudioFormat.Encoding getEncoding() {
+        return encoding;
+    }
+
+    /**
+     * URL this stream was opened with.
+     *
+     * @return url or <code>null</code>, if opened with a {@link MFByteSource}
+     */
+    public URL getURL() {
+        return url;
+    }
+
+    /**
+     * Byte source this stream was opened with.
+     *
+     * @return byte source or <code>null</code>, if opened with a URL
+     */
+    public MFByteSource getByteSource() {
+        return byteSource;
+    }
+
+    /**
+     * Streams opened with a URL share the seek index of their source.
+     *
+     * @return seek index
+     */
+    @Override
+    synchronized MFSeekIndex getSeekIndex() {
+        if (url == null) return super.getSeekIndex();
+        if (seekIndex == null) seekIndex = MFSeekIndex.forSource(MFSourceIdentity.of(url));
+        return seekIndex;
+    }
+
+    @Override
+    public void close() throws IOException {
+        final boolean open = isOpen();
+        final MFEvents.Close event = new MFEvents.Close();
+        event.begin();
+        try {
+            super.close();
+        } finally {
+            try {
+                if (byteSource != null) byteSource.close();
+            } finally {
+                if (open && event.shouldCommit()) {
+                    event.source = getSourceName();
+                    event.commit();
+                }
+            }
+        }
     }
 
     @Override
     protected void fillNativeBuffer() throws IOException {
         if (isOpen()) {
-            fillNativeBuffer(pointer);
+            final MFEvents.Fill event = new MFEvents.Fill();
+            event.begin();
+            final ByteBuffer buffer = nativeBuffer;
+            try {
+                onWorker(fill);
+                MFMetrics.decoded(nativeBuffer.remaining());
+            } finally {
+                if (event.shouldCommit()) {
+                    event.source = getSourceName();
+                    event.bytes = nativeBuffer.remaining();
+                    event.bufferGrown = nativeBuffer != buffer;
+                    event.bufferCapacity = nativeBuffer.capacity();
+                    event.commit();
+                }
+            }
         }
     }
 
@@ -56,18 +239,44 @@ public class MFFileInputStream extends MFNativePeerInputStream {
 
     @Override
     public void seek(long time, TimeUnit timeUnit) throws UnsupportedOperationException, IOException {
-        if (!isOpen()) throw new IOException("Stream is already closed: " + url);
-        if (!isSeekable()) throw new UnsupportedOperationException("Seeking is not supported for " + url);
+        if (!isOpen()) throw new IOException("Stream is already closed: " + getSourceName());
+        if (!isSeekable()) throw new UnsupportedOperationException("Seeking is not supported for " + getSourceName());
         final long hundredNanoSeconds = timeUnit.toNanos(time) / 100L;
-        seek(pointer, hundredNanoSeconds);
+        final MFEvents.Seek event = new MFEvents.Seek();
+        event.begin();
+        try {
+            onWorker(new MFWorkers.Task<Void, IOException>() {
+                @Override
+                public Void call() throws IOException {
+                    seek(pointer, hundredNanoSeconds);
+                    return null;
+                }
+            });
+        } finally {
+            if (event.shouldCommit()) {
+                event.source = getSourceName();
+                event.position = timeUnit.toMicros(time);
+                event.commit();
+            }
+        }
         nativeBuffer.limit(0);
     }
 
+    private String getSourceName() {
+        return url != null ? url.toString() : byteSource.getName();
+    }
+
     private native void seek(final long audioFileID, final long hundredNanoSeconds) throws IOException;
     private native boolean isSeekable(final long audioFileID);
     private native void fillNativeBuffer(final long audioFileID) throws IOException;
-    private native long open(final String url) throws IOException;
-    protected native void close(final long audioFileID) throws IOException;
+    private native long open(final String url, final boolean floatSamples, final int bitsPerSample) throws IOException, UnsupportedAudioFileException;
+    private native long openByteSource(final MFByteSource byteSource, final String name, final boolean floatSamples, final int bitsPerSample) throws IOException, UnsupportedAudioFileException;
+    @Override
+    protected void close(final long audioFileID) throws IOException {
+        release(audioFileID);
+    }
+
+    private static native void release(final long audioFileID) throws IOException;
 
 
 }
@@ -0,0 +1,185 @@
+/*
+ * =================================================
+ * Copyright 2011 tagtraum industries incorporated
+ * This file is part of MFSampledSP.
+ *
+ * FFSampledSP is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * FFSampledSP is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with FFSampledSP; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ * =================================================
+ */
+package com.tagtraum.mfsampledsp;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+import javax.sound.sampled.spi.FormatConversionProvider;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Converts between linear PCM formats of the same frame rate (sample size, encoding,
+ * byte order and mono to/from multiple channels).
+ * <p>
+ * If the source is an {@link MFAudioInputStream} opened by {@link MFAudioFileReader},
+ * the file is re-opened and Media Foundation is asked to decode directly to the requested
+ * encoding and sample size. The source stream is closed in that case.
+ * Whatever Media Foundation cannot deliver (e.g. big endian or unsigned samples, other channel counts),
+ * or all conversions, if the native path is not available, are carried out by a block-based Java converter.
+ *
+ * @author <a href="mailto:hs@tagtraum.com">Hendrik Schreiber</a>
+ */
+public class MFFormatConversionProvider extends FormatConversionProvider {
+
+    private static final Logger LOG = Logger.getLogger(MFFormatConversionProvider.class.getName());
+    private static final AudioFormat.Encoding[] ENCODINGS = {
+            AudioFormat.Encoding.PCM_SIGNED, AudioFormat.Encoding.PCM_UNSIGNED, AudioFormat.Encoding.PCM_FLOAT
+    };
+    private static final int[] SAMPLE_SIZES = {8, 16, 24, 32};
+
+    @Override
+    public AudioFormat.Encoding[] getSourceEncodings() {
+        return ENCODINGS.clone();
+    }
+
+    @Override
+    public AudioFormat.Encoding[] getTargetEncodings() {
+        return ENCODINGS.clone();
+    }
+
+    @Override
+    public AudioFormat.Encoding[] getTargetEncodings(final AudioFormat sourceFormat) {
+        if (!MFPCMConverterInputStream.SampleCodec.isSupported(sourceFormat)) return new AudioFormat.Encoding[0];
+        return ENCODINGS.clone();
+    }
+
+    @Override
+    public AudioFormat[] getTargetFormats(final AudioFormat.Encoding targetEncoding, final AudioFormat sourceFormat) {
+        if (!MFPCMConverterInputStream.SampleCodec.isSupported(sourceFormat) || !isSupported(targetEncoding)) return new AudioFormat[0];
+        final List<AudioFormat> formats = new ArrayList<>();
+        final int sourceChannels = sourceFormat.getChannels();
+        final int[] channelCounts = sourceChannels == 1 ? new int[]{1, 2} : new int[]{sourceChannels, 1};
+        final boolean floatTarget = AudioFormat.Encoding.PCM_FLOAT.equals(targetEncoding);
+        for (final int channels : channelCounts) {
+            for (final int sampleSize : SAMPLE_SIZES) {
+                if (floatTarget && sampleSize != 32) continue;
+                formats.add(new AudioFormat(targetEncoding, sourceFormat.getSampleRate(), sampleSize, channels,
+                        channels * sampleSize / 8, sourceFormat.getFrameRate(), false));
+                if (sampleSize > 8) {
+                    formats.add(new AudioFormat(targetEncoding, sourceFormat.getSampleRate(), sampleSize, channels,
+                            channels * sampleSize / 8, sourceFormat.getFrameRate(), true));
+                }
+            }
+        }
+        return formats.toArray(new AudioFormat[formats.size()]);
+    }
+
+    @Override
+    public AudioInputStream getAudioInputStream(final AudioFormat.Encoding targetEncoding, final AudioInputStream sourceStream) {
+        final AudioFormat sourceFormat = sourceStream.getFormat();
+        if (sourceFormat.getEncoding().equals(targetEncoding)) return sourceStream;
+        final int sampleSize;
+        if (AudioFormat.Encoding.PCM_FLOAT.equals(targetEncoding)) {
+            sampleSize = 32;
+        } else if (AudioFormat.Encoding.PCM_FLOAT.equals(sourceFormat.getEncoding())) {
+            sampleSize = 16;
+        } else {
+            sampleSize = sourceFormat.getSampleSizeInBits();
+        }
+        final AudioFormat targetFormat = new AudioFormat(targetEncoding, sourceFormat.getSampleRate(), sampleSize,
+                sourceFormat.getChannels(), sourceFormat.getChannels() * sampleSize / 8, sourceFormat.getFrameRate(),
+                sampleSize > 8 && sourceFormat.isBigEndian());
+        return getAudioInputStream(targetFormat, sourceStream);
+    }
+
+    @Override
+    public AudioInputStream getAudioInputStream(final AudioFormat targetFormat, final AudioInputStream sourceStream) {
+        final AudioFormat sourceFormat = sourceStream.getFormat();
+        if (sourceFormat.matches(targetFormat)) return sourceStream;
+        if (!isConversionSupported(targetFormat, sourceFormat)) {
+            throw new IllegalArgumentException("Unsupported conversion: " + sourceFormat + " to " + targetFormat);
+        }
+        final AudioInputStream decodedStream = reopen(targetFormat, sourceStream);
+        final AudioFormat decodedFormat = decodedStream.getFormat();
+        if (decodedFormat.matches(targetFormat)) return decodedStream;
+        final long frameLength = decodedStream.getFrameLength() == AudioSystem.NOT_SPECIFIED
+                ? AudioSystem.NOT_SPECIFIED
+                : decodedStream.getFrameLength() - position(decodedStream);
+        return new AudioInputStream(new MFPCMConverterInputStream(decodedStream, decodedFormat, targetFormat),
+                targetFormat, frameLength);
+    }
+
+    /**
+     * Attempts to let Media Foundation decode to the encoding and sample size of the target format.
+     *
+     * @return a re-opened stream positioned where the source was, or the source, if re-opening
+     * is not possible or not beneficial
+     */
+    private static AudioInputStream reopen(final AudioFormat targetFormat, final AudioInputStream sourceStream) {
+        if (!(sourceStream instanceof MFAudioInputStream)) return sourceStream;
+        final MFAudioInputStream source = (MFAudioInputStream) sourceStream;
+        if (!(source.getNativePeerInputStream() instanceof MFFileInputStream)) return sourceStream;
+        final MFFileInputStream peer = (MFFileInputStream) source.getNativePeerInputStream();
+        final long framePosition = source.getFramePosition();
+        // byte sources can't be opened twice
+        if (peer.getURL() == null) return sourceStream;
+        if (!peer.isOpen() || framePosition != 0 && !peer.isSeekable()) return sourceStream;
+
+        final AudioFormat sourceFormat = source.getFormat();
+        final AudioFormat.Encoding encoding = AudioFormat.Encoding.PCM_FLOAT.equals(targetFormat.getEncoding())
+                ? AudioFormat.Encoding.PCM_FLOAT
+                : AudioFormat.Encoding.PCM_SIGNED;
+        final int sampleSize = Math.max(16, targetFormat.getSampleSizeInBits());
+        if (encoding.equals(sourceFormat.getEncoding()) && sampleSize == sourceFormat.getSampleSizeInBits()) {
+            // nothing to gain
+            return sourceStream;
+        }
+        MFFileInputStream stream = null;
+        try {
+            stream = new MFFileInputStream(peer.getURL(), encoding, sampleSize);
+            final MFAudioInputStream decodedStream = new MFAudioInputStream(stream,
+                    MFAudioFormat.derive(sourceFormat, encoding, sampleSize), source.getFrameLength());
+            if (framePosition != 0) {
+                decodedStream.seek((long) (framePosition * 1000000.0 / sourceFormat.getFrameRate()), TimeUnit.MICROSECONDS);
+            }
+            source.close();
+            return decodedStream;
+        } catch (IOException | UnsupportedAudioFileException | UnsatisfiedLinkError | RuntimeException e) {
+            if (LOG.isLoggable(Level.FINE)) LOG.log(Level.FINE, "Failed to re-open " + peer.getURL() + " as " + encoding + ", " + sampleSize + " bit. Converting in Java.", e);
+            if (stream != null) {
+                try {
+                    stream.close();
+                } catch (IOException e1) {
+                    LOG.log(Level.FINE, e1.toString(), e1);
+                }
+            }
+            return sourceStream;
+        }
+    }
+
+    private static long position(final AudioInputStream stream) {
+        return stream instanceof MFAudioInputStream ? ((MFAudioInputStream) stream).getFramePosition() : 0;
+    }
+
+    private static boolean isSupported(final AudioFormat.Encoding encoding) {
+        for (final AudioFormat.Encoding e : ENCODINGS) {
+            if (e.equals(encoding)) return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,580 @@
+/*
+ * =================================================
+ * Copyright 2011 tagtraum industries incorporated
+ * This file is part of MFSampledSP.
+ *
+ * FFSampledSP is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * FFSampledSP is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with FFSampledSP; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ * =================================================
+ */
+package com.tagtraum.mfsampledsp;
+
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads duration, sample rate, channels, bitrate and VBR flag of MP3, MP4/M4A, ASF, WAVE and AIFF
+ * files directly from their headers, so that most files can be probed with a few KB of
+ * reads instead of a native media source.
+ * <p>
+ * Values are computed the way Media Foundation computes them, e.g. CBR MP3 durations are
+ * derived from file size and bitrate. Whenever a header is missing or ambiguous
+ * (MP3 without Xing/VBRI header and varying bitrates, HE-AAC, video tracks, broadcast ASF, ...),
+ * {@link #parse(FileChannel, ByteBuffer, String)} returns <code>null</code> and the caller is
+ * expected to fall back to native probing.
+ * Parsing can be turned off with the system property <code>com.tagtraum.mfsampledsp.headerparsing=false</code>.
+ *
+ * @author <a href="mailto:hs@tagtraum.com">Hendrik Schreiber</a>
+ */
+final class MFHeaderParser {
+
+    static final boolean ENABLED = !"false".equalsIgnoreCase(System.getProperty("com.tagtraum.mfsampledsp.headerparsing"));
+
+    /**
+     * Compressed formats are decoded to 16 bit, just like native probing reports.
+     */
+    private static final int DECODED_SAMPLE_SIZE = 16;
+    private static final int MAX_MOOV_SIZE = 64 * 1024 * 1024;
+    private static final int MAX_ASF_HEADER_SIZE = 1024 * 1024;
+    private static final int[] AAC_SAMPLE_RATES = {96000, 88200, 64000, 48000, 44100, 32000, 24000, 22050, 16000, 12000, 11025, 8000, 7350};
+
+    private static final byte[] ASF_HEADER = guid("75B22630-668E-11CF-A6D9-00AA0062CE6C");
+    private static final byte[] ASF_FILE_PROPERTIES = guid("8CABDCA1-A947-11CF-8EE4-00C00C205365");
+    private static final byte[] ASF_STREAM_PROPERTIES = guid("B7DC0791-A9B7-11CF-8EE6-00C00C205365");
+    private static final byte[] ASF_AUDIO_MEDIA = guid("F8699E40-5B4D-11CF-A8FD-00805F5C442B");
+
+    private MFHeaderParser() {
+    }
+
+    /**
+     * Parses the headers of a local file.
+     *
+     * @param channel file
+     * @param header beginning of the file, position 0, limit set to the number of bytes read
+     * @param url url, used to determine the file type
+     * @return format or <code>null</code>, if the format cannot be determined reliably
+     * @throws IOException if the file cannot be read
+     */
+    static MFAudioFileFormat parse(final FileChannel channel, final ByteBuffer header, final String url) throws IOException {
+        try {
+            if (startsWith(header, 0, "RIFF") || startsWith(header, 0, "FORM")) return parsePCM(channel, header, url);
+            if (startsWith(header, 4, "ftyp")) return parseMP4(channel, url);
+            if (startsWith(header, 0, ASF_HEADER)) return parseASF(channel, url);
+            return parseMP3(channel, header, url);
+        } catch (UnsupportedAudioFileException | RuntimeException e) {
+            // no usable extension or inconsistent header, let Media Foundation decide
+            return null;
+        }
+    }
+
+    /**
+     * Reads up to <code>length</code> bytes.
+     *
+     * @param channel file
+     * @param position file position
+     * @param length max number of bytes
+     * @return flipped buffer, shorter than <code>length</code> only at the end of the file
+     * @throws IOException if the file cannot be read
+     */
+    static ByteBuffer read(final FileChannel channel, final long position, final int length) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(length);
+        int justRead;
+        while (buffer.hasRemaining() && (justRead = channel.read(buffer, position + buffer.position())) != -1) {
+            if (justRead == 0) break;
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    // === MP3
+
+    private static MFAudioFileFormat parseMP3(final FileChannel channel, final ByteBuffer header, final String url)
+            throws IOException, UnsupportedAudioFileException {
+        final long fileLength = channel.size();
+        long start = 0;
+        ByteBuffer buffer = header;
+        while (startsWith(buffer, 0, "ID3") && buffer.limit() >= 10) {
+            final int size = ((buffer.get(6) & 0x7F) << 21) | ((buffer.get(7) & 0x7F) << 14)
+                    | ((buffer.get(8) & 0x7F) << 7) | (buffer.get(9) & 0x7F);
+            final boolean footer = (buffer.get(5) & 0x10) != 0;
+            start += 10 + size + (footer ? 10 : 0);
+            buffer = read(channel, start, MFContentSniffer.HEADER_LENGTH);
+        }
+        final byte[] b = toArray(buffer);
+        final int first = firstFrame(b);
+        if (first < 0) return null;
+        start += first;
+
+        final int version = (b[first + 1] >> 3) & 3;
+        final int layer = (b[first + 1] >> 1) & 3;
+        final boolean mono = ((b[first + 3] >> 6) & 3) == 3;
+        final int sampleRate = MFContentSniffer.mpegSampleRate(b, first);
+        final int bitRate = MFContentSniffer.mpegBitRate(b, first);
+        final int samplesPerFrame = layer == 3 ? 384 : layer == 1 && version != 3 ? 576 : 1152;
+        final int channels = mono ? 1 : 2;
+
+        // Xing or Info (LAME CBR) header follows the side information of the first frame
+        final int xing = first + 4 + (version == 3 ? (mono ? 17 : 32) : (mono ? 9 : 17));
+        final int vbri = first + 4 + 32;
+        long frames = -1;
+        long bytes = -1;
+        boolean vbr = false;
+        if (startsWith(b, xing, "Xing") || startsWith(b, xing, "Info")) {
+            final int flags = intBE(b, xing + 4);
+            int offset = xing + 8;
+            if ((flags & 1) != 0) {
+                frames = intBE(b, offset) & 0xFFFFFFFFL;
+                offset += 4;
+            }
+            if ((flags & 2) != 0) bytes = intBE(b, offset) & 0xFFFFFFFFL;
+            vbr = startsWith(b, xing, "Xing");
+        } else if (startsWith(b, vbri, "VBRI")) {
+            bytes = intBE(b, vbri + 10) & 0xFFFFFFFFL;
+            frames = intBE(b, vbri + 14) & 0xFFFFFFFFL;
+            vbr = true;
+        }
+
+        final long durationInMs;
+        final int averageBitRate;
+        if (frames > 0) {
+            if (bytes <= 0) bytes = audioBytes(channel, fileLength, start);
+            durationInMs = frames * samplesPerFrame * 1000L / sampleRate;
+            averageBitRate = vbr ? (int) (bytes * 8L * sampleRate / (frames * samplesPerFrame)) : bitRate;
+        } else {
+            // without header, a constant bitrate is only plausible, if all frames we can see agree
+            if (!isConstantBitRate(b, first)) return null;
+            durationInMs = audioBytes(channel, fileLength, start) * 8L * 1000L / bitRate;
+            averageBitRate = bitRate;
+        }
+        return new MFAudioFileFormat(url, sampleRate, DECODED_SAMPLE_SIZE, channels, DECODED_SAMPLE_SIZE * channels / 8,
+                sampleRate, false, durationInMs, averageBitRate, vbr);
+    }
+
+    private static int firstFrame(final byte[] b) {
+        for (int i = 0; i < b.length - 4; i++) {
+            final int frameLength = MFContentSniffer.mpegFrameLength(b, i);
+            if (frameLength <= 0) continue;
+            final int next = i + frameLength;
+            if (next + 4 <= b.length && MFContentSniffer.mpegFrameLength(b, next) > 0) return i;
+        }
+        return -1;
+    }
+
+    private static boolean isConstantBitRate(final byte[] b, final int first) {
+        final int bitRate = MFContentSniffer.mpegBitRate(b, first);
+        int i = first;
+        int frameLength;
+        while (i + 4 <= b.length && (frameLength = MFContentSniffer.mpegFrameLength(b, i)) > 0) {
+            if (MFContentSniffer.mpegBitRate(b, i) != bitRate) return false;
+            i += frameLength;
+        }
+        return true;
+    }
+
+    /**
+     * Length of the audio data, excluding leading tags and a trailing ID3v1 tag.
+     */
+    private static long audioBytes(final FileChannel channel, final long fileLength, final long start) throws IOException {
+        long end = fileLength;
+        if (fileLength - start >= 128 && startsWith(read(channel, fileLength - 128, 3), 0, "TAG")) end -= 128;
+        return end - start;
+    }
+
+    // === MP4
+
+    private static MFAudioFileFormat parseMP4(final FileChannel channel, final String url)
+            throws IOException, UnsupportedAudioFileException {
+        final long fileLength = channel.size();
+        ByteBuffer moov = null;
+        long position = 0;
+        while (position + 8 <= fileLength) {
+            final ByteBuffer box = read(channel, position, 16);
+            long size = box.getInt(0) & 0xFFFFFFFFL;
+            if (size == 1) size = box.getLong(8);
+            else if (size == 0) size = fileLength - position;
+            if (size < 8) return null;
+            if (startsWith(box, 4, "moov")) {
+                if (size > MAX_MOOV_SIZE) return null;
+                moov = read(channel, position, (int) size);
+                break;
+            }
+            position += size;
+        }
+        if (moov == null || findBox(moov, 8, moov.limit(), "mvex") >= 0) return null;
+
+        int audio = -1;
+        for (int trak = findBox(moov, 8, moov.limit(), "trak"); trak >= 0; trak = findBox(moov, trak + boxSize(moov, trak), moov.limit(), "trak")) {
+            final int mdia = findBox(moov, trak + 8, trak + boxSize(moov, trak), "mdia");
+            if (mdia < 0) continue;
+            final int hdlr = findBox(moov, mdia + 8, mdia + boxSize(moov, mdia), "hdlr");
+            if (hdlr < 0) continue;
+            if (startsWith(moov, hdlr + 16, "vide")) return null;
+            if (startsWith(moov, hdlr + 16, "soun")) {
+                // more than one audio track is ambiguous
+                if (audio >= 0) return null;
+                audio = mdia;
+            }
+        }
+        if (audio < 0) return null;
+        final int mdiaEnd = audio + boxSize(moov, audio);
+        final int mdhd = findBox(moov, audio + 8, mdiaEnd, "mdhd");
+        final int minf = findBox(moov, audio + 8, mdiaEnd, "minf");
+        if (mdhd < 0 || minf < 0) return null;
+        final int stbl = findBox(moov, minf + 8, minf + boxSize(moov, minf), "stbl");
+        if (stbl < 0) return null;
+        final int stblEnd = stbl + boxSize(moov, stbl);
+        final int stsd = findBox(moov, stbl + 8, stblEnd, "stsd");
+        final int stsz = findBox(moov, stbl + 8, stblEnd, "stsz");
+        if (stsd < 0 || stsz < 0) return null;
+
+        final long timeScale;
+        final long duration;
+        if (moov.get(mdhd + 8) == 1) {
+            timeScale = moov.getInt(mdhd + 28) & 0xFFFFFFFFL;
+            duration = moov.getLong(mdhd + 32);
+        } else {
+            timeScale = moov.getInt(mdhd + 20) & 0xFFFFFFFFL;
+            duration = moov.getInt(mdhd + 24) & 0xFFFFFFFFL;
+        }
+        if (timeScale == 0 || duration <= 0 || duration == 0xFFFFFFFFL) return null;
+
+        // first sample entry must be plain AAC
+        final int entry = stsd + 16;
+        if (moov.getInt(stsd + 12) != 1 || !startsWith(moov, entry + 4, "mp4a")) return null;
+        final int soundVersion = moov.getShort(entry + 16);
+        if (soundVersion != 0 && soundVersion != 1) return null;
+        final int entryChannels = moov.getShort(entry + 24) & 0xFFFF;
+        final int esds = findBox(moov, entry + (soundVersion == 0 ? 36 : 52), entry + boxSize(moov, entry), "esds");
+        if (esds < 0) return null;
+        final byte[] config = audioSpecificConfig(moov, esds + 12, esds + boxSize(moov, esds));
+        if (config == null || config.length < 2) return null;
+        final int objectType = (config[0] & 0xFF) >> 3;
+        final int sampleRateIndex = ((config[0] & 7) << 1) | ((config[1] & 0xFF) >> 7);
+        final int channelConfiguration = (config[1] >> 3) & 0xF;
+        // HE-AAC and explicit rates are ambiguous
+        if (objectType == 5 || objectType == 29 || objectType == 31 || sampleRateIndex >= AAC_SAMPLE_RATES.length) return null;
+        final int sampleRate = AAC_SAMPLE_RATES[sampleRateIndex];
+        final int channels = channelConfiguration == 0 ? entryChannels : channelConfiguration == 7 ? 8 : channelConfiguration;
+        if (channels <= 0 || channelConfiguration > 7) return null;
+
+        final long sampleCount = moov.getInt(stsz + 16) & 0xFFFFFFFFL;
+        final long sampleSize = moov.getInt(stsz + 12) & 0xFFFFFFFFL;
+        long bytes = sampleSize * sampleCount;
+        if (sampleSize == 0) {
+            if (stsz + 20 + sampleCount * 4 > stsz + boxSize(moov, stsz)) return null;
+            for (int i = 0; i < sampleCount; i++) {
+                bytes += moov.getInt(stsz + 20 + i * 4) & 0xFFFFFFFFL;
+            }
+        }
+        final long durationInMs = duration * 1000L / timeScale;
+        // bytes per whole second, like Media Foundation
+        final long bitRate = durationInMs >= 1000 ? bytes / (durationInMs / 1000) * 8 : bytes * 8000L / durationInMs;
+        // the sample table does not tell us, so report it like Media Foundation
+        return new MFAudioFileFormat(url, sampleRate, DECODED_SAMPLE_SIZE, channels, DECODED_SAMPLE_SIZE * channels / 8,
+                sampleRate, false, durationInMs, (int) bitRate, false);
+    }
+
+    private static int findBox(final ByteBuffer buffer, final int start, final int end, final String type) {
+        int offset = start;
+        while (offset + 8 <= end) {
+            final int size = boxSize(buffer, offset);
+            if (size < 8 || offset + size > end) return -1;
+            if (startsWith(buffer, offset + 4, type)) return offset;
+            offset += size;
+        }
+        return -1;
+    }
+
+    private static int boxSize(final ByteBuffer buffer, final int offset) {
+        return buffer.getInt(offset);
+    }
+
+    /**
+     * Finds the DecoderSpecificInfo in an ES_Descriptor, if the object type is AAC.
+     */
+    private static byte[] audioSpecificConfig(final ByteBuffer buffer, final int start, final int end) {
+        int offset = start;
+        while (offset < end) {
+            final int tag = buffer.get(offset++) & 0xFF;
+            int length = 0;
+            for (int i = 0; i < 4; i++) {
+                final int b = buffer.get(offset++) & 0xFF;
+                length = (length << 7) | (b & 0x7F);
+                if ((b & 0x80) == 0) break;
+            }
+            if (tag == 3) {
+                final int flags = buffer.get(offset + 2) & 0xFF;
+                offset += 3;
+                if ((flags & 0x80) != 0) offset += 2;
+                if ((flags & 0x40) != 0) offset += 1 + (buffer.get(offset) & 0xFF);
+                if ((flags & 0x20) != 0) offset += 2;
+            } else if (tag == 4) {
+                // MPEG-4 audio
+                if ((buffer.get(offset) & 0xFF) != 0x40) return null;
+                offset += 13;
+            } else if (tag == 5) {
+                if (offset + length > end) return null;
+                final byte[] config = new byte[length];
+                for (int i = 0; i < length; i++) {
+                    config[i] = buffer.get(offset + i);
+                }
+                return config;
+            } else {
+                offset += length;
+            }
+        }
+        return null;
+    }
+
+    // === ASF
+
+    private static MFAudioFileFormat parseASF(final FileChannel channel, final String url)
+            throws IOException, UnsupportedAudioFileException {
+        final ByteBuffer start = read(channel, 0, 30).order(ByteOrder.LITTLE_ENDIAN);
+        final long headerSize = start.getLong(16);
+        if (headerSize < 30 || headerSize > MAX_ASF_HEADER_SIZE) return null;
+        final ByteBuffer header = read(channel, 0, (int) headerSize).order(ByteOrder.LITTLE_ENDIAN);
+
+        long durationInMs = -1;
+        int sampleRate = -1;
+        int channels = -1;
+        int sampleSize = -1;
+        int bitRate = -1;
+        int offset = 30;
+        while (offset + 24 <= header.limit()) {
+            final long size = header.getLong(offset + 16);
+            if (size < 24 || offset + size > header.limit()) return null;
+            if (startsWith(header, offset, ASF_FILE_PROPERTIES)) {
+                final long playDuration = header.getLong(offset + 64);
+                final long preroll = header.getLong(offset + 80);
+                final boolean broadcast = (header.getInt(offset + 88) & 1) != 0;
+                if (broadcast) return null;
+                durationInMs = playDuration / 10000L - preroll;
+            } else if (startsWith(header, offset, ASF_STREAM_PROPERTIES)) {
+                // video or more than one audio stream is ambiguous
+                if (!startsWith(header, offset + 24, ASF_AUDIO_MEDIA) || sampleRate != -1) return null;
+                final int format = offset + 78;
+                channels = header.getShort(format + 2) & 0xFFFF;
+                sampleRate = header.getInt(format + 4);
+                bitRate = header.getInt(format + 8) * 8;
+                sampleSize = header.getShort(format + 14) & 0xFFFF;
+            }
+            offset += (int) size;
+        }
+        if (durationInMs <= 0 || sampleRate <= 0 || channels <= 0) return null;
+        if (sampleSize <= 0) sampleSize = DECODED_SAMPLE_SIZE;
+        return new MFAudioFileFormat(url, sampleRate, sampleSize, channels, sampleSize * channels / 8,
+                sampleRate, false, durationInMs, bitRate, false);
+    }
+
+    // === WAVE and AIFF
+
+    /**
+     * Location and layout of uncompressed, integer sample data in a WAVE or AIFF file.
+     */
+    static final class PCMData {
+
+        final long offset;
+        final long length;
+        final int sampleRate;
+        final int sampleSize;
+        final int channels;
+        final int frameSize;
+        final boolean bigEndian;
+
+        private PCMData(final long offset, final long length, final int sampleRate, final int sampleSize,
+                        final int channels, final int frameSize, final boolean bigEndian) {
+            this.offset = offset;
+            // never a partial frame
+            this.length = length / frameSize * frameSize;
+            this.sampleRate = sampleRate;
+            this.sampleSize = sampleSize;
+            this.channels = channels;
+            this.frameSize = frameSize;
+            this.bigEndian = bigEndian;
+        }
+
+        long getFrameLength() {
+            return length / frameSize;
+        }
+    }
+
+    private static MFAudioFileFormat parsePCM(final FileChannel channel, final ByteBuffer header, final String url)
+            throws IOException, UnsupportedAudioFileException {
+        final PCMData data = findPCMData(channel, header);
+        if (data == null) return null;
+        final long durationInMs = data.getFrameLength() * 1000L / data.sampleRate;
+        return new MFAudioFileFormat(url, data.sampleRate, data.sampleSize, data.channels, data.frameSize,
+                data.sampleRate, data.bigEndian, durationInMs, data.sampleRate * data.frameSize * 8, false);
+    }
+
+    /**
+     * Locates the sample data of a WAVE or AIFF file, if it is signed integer PCM
+     * that can be served as is, i.e. 16, 24 or 32 bit WAVE or 8 to 32 bit AIFF.
+     *
+     * @param channel file
+     * @param header beginning of the file, position 0, limit set to the number of bytes read
+     * @return sample data or <code>null</code>, if there is none or it needs decoding
+     * @throws IOException if the file cannot be read
+     */
+    static PCMData findPCMData(final FileChannel channel, final ByteBuffer header) throws IOException {
+        try {
+            if (startsWith(header, 0, "RIFF") && startsWith(header, 8, "WAVE")) return findWaveData(channel);
+            if (startsWith(header, 0, "FORM") && (startsWith(header, 8, "AIFF") || startsWith(header, 8, "AIFC"))) {
+                return findAIFFData(channel, startsWith(header, 8, "AIFC"));
+            }
+            return null;
+        } catch (RuntimeException e) {
+            // inconsistent header
+            return null;
+        }
+    }
+
+    private static PCMData findWaveData(final FileChannel channel) throws IOException {
+        final long fileLength = channel.size();
+        ByteBuffer format = null;
+        long dataOffset = -1;
+        long dataSize = -1;
+        long position = 12;
+        while (position + 8 <= fileLength) {
+            final ByteBuffer chunk = read(channel, position, 8).order(ByteOrder.LITTLE_ENDIAN);
+            final long size = chunk.getInt(4) & 0xFFFFFFFFL;
+            if (startsWith(chunk, 0, "fmt ")) {
+                if (size < 16) return null;
+                format = read(channel, position + 8, (int) Math.min(size, 40)).order(ByteOrder.LITTLE_ENDIAN);
+            } else if (startsWith(chunk, 0, "data")) {
+                dataOffset = position + 8;
+                // size may be bogus for streamed recordings
+                dataSize = Math.min(size, fileLength - dataOffset);
+                break;
+            }
+            position += 8 + size + (size & 1);
+        }
+        if (format == null || dataOffset < 0) return null;
+        int formatTag = format.getShort(0) & 0xFFFF;
+        if (formatTag == 0xFFFE && format.limit() >= 26) formatTag = format.getShort(24) & 0xFFFF;
+        final int channels = format.getShort(2) & 0xFFFF;
+        final int sampleRate = format.getInt(4);
+        final int blockAlign = format.getShort(12) & 0xFFFF;
+        final int sampleSize = format.getShort(14) & 0xFFFF;
+        // only signed integer PCM, 8 bit WAVE is unsigned, everything else is up to Media Foundation
+        if (formatTag != 1 || sampleSize < 16 || sampleSize > 32 || sampleSize % 8 != 0) return null;
+        if (channels == 0 || sampleRate <= 0 || blockAlign != channels * sampleSize / 8) return null;
+        return new PCMData(dataOffset, dataSize, sampleRate, sampleSize, channels, blockAlign, false);
+    }
+
+    private static PCMData findAIFFData(final FileChannel channel, final boolean aifc) throws IOException {
+        final long fileLength = channel.size();
+        ByteBuffer common = null;
+        long dataOffset = -1;
+        long dataSize = -1;
+        long position = 12;
+        while (position + 8 <= fileLength) {
+            final ByteBuffer chunk = read(channel, position, 16);
+            final long size = chunk.getInt(4) & 0xFFFFFFFFL;
+            if (startsWith(chunk, 0, "COMM")) {
+                if (size < 18) return null;
+                common = read(channel, position + 8, (int) Math.min(size, 22));
+            } else if (startsWith(chunk, 0, "SSND")) {
+                final long offset = chunk.getInt(8) & 0xFFFFFFFFL;
+                dataOffset = position + 16 + offset;
+                dataSize = Math.min(size - 8 - offset, fileLength - dataOffset);
+            }
+            position += 8 + size + (size & 1);
+        }
+        if (common == null || dataOffset < 0 || dataSize < 0) return null;
+        final int channels = common.getShort(0) & 0xFFFF;
+        final long frames = common.getInt(2) & 0xFFFFFFFFL;
+        final int sampleSize = common.getShort(6) & 0xFFFF;
+        final double sampleRate = extendedToDouble(common, 8);
+        boolean bigEndian = true;
+        if (aifc) {
+            if (startsWith(common, 18, "sowt")) bigEndian = false;
+            else if (!startsWith(common, 18, "NONE") && !startsWith(common, 18, "twos")) return null;
+        }
+        if (channels == 0 || sampleSize < 8 || sampleSize > 32 || sampleSize % 8 != 0) return null;
+        // fractional rates are not supported
+        if (sampleRate <= 0 || sampleRate != Math.rint(sampleRate) || sampleRate > Integer.MAX_VALUE) return null;
+        final int frameSize = channels * sampleSize / 8;
+        return new PCMData(dataOffset, Math.min(dataSize, frames * frameSize), (int) sampleRate, sampleSize, channels, frameSize, bigEndian);
+    }
+
+    /**
+     * Converts an 80 bit IEEE 754 extended precision number, as used for the AIFF sample rate.
+     */
+    private static double extendedToDouble(final ByteBuffer buffer, final int offset) {
+        final int exponent = buffer.getShort(offset) & 0x7FFF;
+        final long mantissa = buffer.getLong(offset + 2);
+        if (exponent == 0 && mantissa == 0) return 0;
+        final double value = (mantissa >>> 1) * Math.pow(2, exponent - 16383 - 62);
+        return (buffer.get(offset) & 0x80) != 0 ? -value : value;
+    }
+
+    // === utilities
+
+    private static byte[] toArray(final ByteBuffer buffer) {
+        final byte[] b = new byte[buffer.limit()];
+        final ByteBuffer duplicate = buffer.duplicate();
+        duplicate.position(0);
+        duplicate.get(b);
+        return b;
+    }
+
+    private static int intBE(final byte[] b, final int off) {
+        return ((b[off] & 0xFF) << 24) | ((b[off + 1] & 0xFF) << 16) | ((b[off + 2] & 0xFF) << 8) | (b[off + 3] & 0xFF);
+    }
+
+    private static boolean startsWith(final byte[] b, final int off, final String magic) {
+        if (off < 0 || off + magic.length() > b.length) return false;
+        for (int i = 0; i < magic.length(); i++) {
+            if (b[off + i] != magic.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    private static boolean startsWith(final ByteBuffer buffer, final int off, final String magic) {
+        return startsWith(buffer, off, magic.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private static boolean startsWith(final ByteBuffer buffer, final int off, final byte[] magic) {
+        if (off < 0 || off + magic.length > buffer.limit()) return false;
+        for (int i = 0; i < magic.length; i++) {
+            if (buffer.get(off + i) != magic[i]) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Converts a GUID in registry format to its little endian byte representation.
+     */
+    private static byte[] guid(final String s) {
+        final String hex = s.replace("-", "");
+        final byte[] b = new byte[16];
+        for (int i = 0; i < 16; i++) {
+            b[i] = (byte) Integer.parseInt(hex.substring(i * 2, i * 2 + 2), 16);
+        }
+        // Data1, Data2 and Data3 are little endian
+        final byte[] guid = b.clone();
+        for (int i = 0; i < 4; i++) guid[i] = b[3 - i];
+        guid[4] = b[5];
+        guid[5] = b[4];
+        guid[6] = b[7];
+        guid[7] = b[6];
+        return guid;
+    }
+}
@@ -0,0 +1,221 @@
+/*
+ * =================================================
+ * Copyright 2011 tagtraum industries incorporated
+ * This file is part of MFSampledSP.
+ *
+ * FFSampledSP is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * FFSampledSP is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with FFSampledSP; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ * =================================================
+ */
+package com.tagtraum.mfsampledsp;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * {@link MFByteSource} backed by a plain {@link InputStream}, e.g. an upload that is still arriving.
+ * <p>
+ * Bytes are pulled from the stream only when the decoder asks for them. The most recently
+ * pulled bytes are kept in an in-memory window. Because an {@link InputStream} cannot be rewound,
+ * bytes that drop out of the window are spilled to a memory-mapped temporary file, from which
+ * backward seeks beyond the window are served. Sources that fit into the window never touch the disk.
+ * The temporary file is deleted when the source is closed.
+ *
+ * @author <a href="mailto:hs@tagtraum.com">Hendrik Schreiber</a>
+ */
+public class MFInputStreamByteSource extends MFByteSource {
+
+    private static final int DEFAULT_WINDOW_SIZE = 8 * 1024 * 1024;
+    private static final int SPILL_CHUNK_SIZE = 16 * 1024 * 1024;
+    private static final int MAX_PULL = 64 * 1024;
+
+    private final InputStream in;
+    private final long expectedLength;
+    private final byte[] window;
+    private final Path spillDirectory;
+    private final List<MappedByteBuffer> spillChunks = new ArrayList<>();
+    private FileChannel spillChannel;
+    /** Absolute position of the oldest byte still in the window; all bytes before it are spilled. */
+    private long windowStart;
+    /** Number of bytes pulled from the stream so far. */
+    private long pulled;
+    private boolean eof;
+    private boolean closed;
+
+    /**
+     * Creates a source with an 8 MB window, spilling to the default temp directory.
+     *
+     * @param in stream, closed when this source is closed
+     * @param name name used as hint for the container format, e.g. <code>upload.mp3</code>
+     */
+    public MFInputStreamByteSource(final InputStream in, final String name) {
+        this(in, name, -1, DEFAULT_WINDOW_SIZE, null);
+    }
+
+    /**
+     * Creates a source.
+     *
+     * @param in stream, closed when this source is closed
+     * @param name name used as hint for the container format, e.g. <code>upload.mp3</code>
+     * @param expectedLength total length of the stream, if known (e.g. from a <code>Content-Length</code> header), otherwise <code>-1</code>
+     * @param windowSize size of the in-memory window in bytes
+     * @param spillDirectory directory for the spill file or <code>null</code> for the default temp directory
+     */
+    public MFInputStreamByteSource(final InputStream in, final String name, final long expectedLength,
+                                   final int windowSize, final Path spillDirectory) {
+        super(name);
+        if (windowSize < 1) throw new IllegalArgumentException("Window size must be at least 1: " + windowSize);
+        this.in = in;
+        this.expectedLength = expectedLength;
+        this.window = new byte[windowSize];
+        this.spillDirectory = spillDirectory;
+    }
+
+    @Override
+    public synchronized long length() throws IOException {
+        return eof ? pulled : expectedLength;
+    }
+
+    @Override
+    public synchronized int read(final long position, final ByteBuffer dst) throws IOException {
+        if (closed) throw new IOException("Byte source is already closed: " + getName());
+        if (position < 0) throw new IllegalArgumentException("Position must be greater than or equal to 0: " + position);
+        if (!dst.hasRemaining()) return 0;
+        long pos = position;
+        while (dst.hasRemaining()) {
+            while (pos >= pulled && !eof) {
+                pull();
+            }
+            if (pos >= pulled) break;
+            final int length = (int) Math.min(dst.remaining(), pulled - pos);
+            if (pos < windowStart) {
+                pos += readSpill(pos, dst, (int) Math.min(length, windowStart - pos));
+            } else {
+                pos += readWindow(pos, dst, length);
+            }
+        }
+        final int bytesRead = (int) (pos - position);
+        return bytesRead == 0 ? -1 : bytesRead;
+    }
+
+    /**
+     * Indicates whether bytes had to be spilled to disk.
+     *
+     * @return true, if there is a spill file
+     */
+    public synchronized boolean isSpilled() {
+        return spillChannel != null;
+    }
+
+    /**
+     * Number of bytes spilled to disk.
+     *
+     * @return spilled bytes
+     */
+    public synchronized long getSpilledBytes() {
+        return windowStart;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) return;
+        closed = true;
+        spillChunks.clear();
+        try {
+            in.close();
+        } finally {
+            if (spillChannel != null) {
+                // DELETE_ON_CLOSE
+                spillChannel.close();
+                spillChannel = null;
+            }
+        }
+    }
+
+    /**
+     * Pulls at least one byte from the stream, unless the stream has ended.
+     */
+    private void pull() throws IOException {
+        final int index = (int) (pulled % window.length);
+        final int length = Math.min(MAX_PULL, window.length - index);
+        final long overflow = pulled + length - windowStart - window.length;
+        if (overflow > 0) {
+            spill((int) overflow);
+        }
+        final int justRead = in.read(window, index, length);
+        if (justRead == -1) {
+            eof = true;
+        } else {
+            pulled += justRead;
+        }
+    }
+
+    private int readWindow(final long position, final ByteBuffer dst, final int length) {
+        final int index = (int) (position % window.length);
+        final int chunk = Math.min(length, window.length - index);
+        dst.put(window, index, chunk);
+        return chunk;
+    }
+
+    /**
+     * Moves the oldest <code>length</code> bytes of the window to the spill file.
+     */
+    private void spill(final int length) throws IOException {
+        int remaining = length;
+        while (remaining > 0) {
+            final int index = (int) (windowStart % window.length);
+            final ByteBuffer chunk = spillChunk(windowStart);
+            final int n = Math.min(Math.min(remaining, window.length - index), chunk.remaining());
+            chunk.put(window, index, n);
+            windowStart += n;
+            remaining -= n;
+        }
+    }
+
+    private int readSpill(final long position, final ByteBuffer dst, final int length) throws IOException {
+        final ByteBuffer chunk = spillChunk(position);
+        final int n = Math.min(length, chunk.remaining());
+        chunk.limit(chunk.position() + n);
+        dst.put(chunk);
+        return n;
+    }
+
+    /**
+     * View of the spill file, positioned at the given absolute position, up to the end of its mapped chunk.
+     */
+    private ByteBuffer spillChunk(final long position) throws IOException {
+        if (spillChannel == null) {
+            final Path file = spillDirectory == null
+                    ? Files.createTempFile("mfsampledsp", ".spill")
+                    : Files.createTempFile(spillDirectory, "mfsampledsp", ".spill");
+            spillChannel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                    StandardOpenOption.DELETE_ON_CLOSE);
+        }
+        final int chunkIndex = (int) (position / SPILL_CHUNK_SIZE);
+        while (spillChunks.size() <= chunkIndex) {
+            spillChunks.add(spillChannel.map(FileChannel.MapMode.READ_WRITE, (long) spillChunks.size() * SPILL_CHUNK_SIZE, SPILL_CHUNK_SIZE));
+        }
+        final ByteBuffer chunk = spillChunks.get(chunkIndex).duplicate();
+        chunk.position((int) (position % SPILL_CHUNK_SIZE));
+        return chunk;
+    }
+}
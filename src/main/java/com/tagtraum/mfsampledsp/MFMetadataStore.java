@@ -0,0 +1,442 @@
+/*
+ * =================================================
+ * Copyright 2011 tagtraum industries incorporated
+ * This file is part of MFSampledSP.
+ *
+ * FFSampledSP is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * FFSampledSP is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with FFSampledSP; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ * =================================================
+ */
+package com.tagtraum.mfsampledsp;
+
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Persistent, memory-mapped store for the results of native probing, i.e. what is needed
+ * to re-create an {@link MFAudioFileFormat} without asking Media Foundation again.
+ * <p>
+ * The file consists of a small header followed by an open-addressing hash table with
+ * fixed-width records. A record is keyed by two independent 64 bit hashes of the normalized
+ * path, plus file length and modification time. Records for files that changed on disk are
+ * ignored when reading and overwritten when writing. Nothing but the header is kept on the heap.
+ * <p>
+ * When the table is half full, it is doubled by copying all records into a new table appended
+ * to the file. The header then points to the new table. Mapped files cannot be truncated
+ * or renamed on Windows, so the space of the old table is simply left behind, which at most
+ * doubles the file size.
+ * <p>
+ * {@link MFAudioFileReader} consults the store set via {@link MFAudioFileReader#setMetadataStore(MFMetadataStore)}
+ * or the system property <code>com.tagtraum.mfsampledsp.metadatastore</code> (path to the store file)
+ * before probing natively.
+ * Instances are thread-safe, but a store file must not be shared by multiple processes.
+ *
+ * @author <a href="mailto:hs@tagtraum.com">Hendrik Schreiber</a>
+ */
+public final class MFMetadataStore implements Closeable {
+
+    private static final long MAGIC = 0x4d4653414d455441L; // "MFSAMETA"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 64;
+    private static final int MAGIC_OFFSET = 0;
+    private static final int VERSION_OFFSET = 8;
+    private static final int CAPACITY_OFFSET = 12;
+    private static final int COUNT_OFFSET = 16;
+    private static final int TABLE_OFFSET_OFFSET = 24;
+
+    /**
+     * Record layout.
+     */
+    static final int RECORD_SIZE = 72;
+    private static final int HASH1 = 0;
+    private static final int HASH2 = 8;
+    private static final int LENGTH = 16;
+    private static final int LAST_MODIFIED = 24;
+    private static final int DURATION = 32;
+    private static final int SAMPLE_RATE = 40;
+    private static final int FRAME_RATE = 44;
+    private static final int SAMPLE_SIZE = 48;
+    private static final int CHANNELS = 52;
+    private static final int FRAME_SIZE = 56;
+    private static final int BIT_RATE = 60;
+    private static final int FLAGS = 64;
+
+    private static final int FLAG_BIG_ENDIAN = 1;
+    private static final int FLAG_VBR = 2;
+
+    private static final int CHUNK_SHIFT = 20;
+    private static final int CHUNK_SLOTS = 1 << CHUNK_SHIFT;
+    private static final int MIN_CAPACITY = 1024;
+    private static final int MAX_CAPACITY = 1 << 30;
+
+    private final Path path;
+    private final FileChannel channel;
+    private final MappedByteBuffer header;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private ByteBuffer[] chunks;
+    private int capacity;
+    private int count;
+    private long tableOffset;
+    private boolean closed;
+
+    private MFMetadataStore(final Path path) throws IOException {
+        this.path = path;
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        boolean success = false;
+        try {
+            // validate before mapping anything, as mapped files cannot be truncated on Windows
+            final boolean valid = readHeader();
+            if (!valid) {
+                // new, damaged or of another version, start over
+                channel.truncate(0);
+            }
+            this.header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+            if (valid) {
+                this.chunks = map(tableOffset, capacity);
+            } else {
+                initialize();
+            }
+            success = true;
+        } finally {
+            if (!success) channel.close();
+        }
+    }
+
+    /**
+     * Opens or creates a store.
+     *
+     * @param path store file
+     * @return store
+     * @throws IOException if the file cannot be opened or mapped
+     */
+    public static MFMetadataStore open(final Path path) throws IOException {
+        return new MFMetadataStore(path);
+    }
+
+    /**
+     * Reads the header of an existing file with a plain read.
+     *
+     * @return true, if the header is valid and describes a table that is part of the file
+     */
+    private boolean readHeader() throws IOException {
+        final ByteBuffer existing = ByteBuffer.allocate(HEADER_SIZE);
+        while (existing.hasRemaining() && channel.read(existing, existing.position()) != -1) {
+            // read the whole header
+        }
+        if (existing.hasRemaining()
+                || existing.getLong(MAGIC_OFFSET) != MAGIC || existing.getInt(VERSION_OFFSET) != VERSION) return false;
+        this.capacity = existing.getInt(CAPACITY_OFFSET);
+        this.count = existing.getInt(COUNT_OFFSET);
+        this.tableOffset = existing.getLong(TABLE_OFFSET_OFFSET);
+        return Integer.bitCount(capacity) == 1 && capacity >= MIN_CAPACITY && count >= 0 && count <= capacity
+                && tableOffset >= HEADER_SIZE && tableOffset + (long) capacity * RECORD_SIZE <= channel.size();
+    }
+
+    /**
+     * Sets up an empty table in an empty file.
+     */
+    private void initialize() throws IOException {
+        capacity = MIN_CAPACITY;
+        count = 0;
+        tableOffset = HEADER_SIZE;
+        chunks = map(tableOffset, capacity);
+        writeHeader();
+    }
+
+    private void writeHeader() {
+        header.putLong(MAGIC_OFFSET, MAGIC);
+        header.putInt(VERSION_OFFSET, VERSION);
+        header.putInt(CAPACITY_OFFSET, capacity);
+        header.putInt(COUNT_OFFSET, count);
+        header.putLong(TABLE_OFFSET_OFFSET, tableOffset);
+    }
+
+    private ByteBuffer[] map(final long offset, final int slots) throws IOException {
+        final int chunkCount = Math.max(1, slots >>> CHUNK_SHIFT);
+        final int slotsPerChunk = Math.min(slots, CHUNK_SLOTS);
+        final ByteBuffer[] mapped = new ByteBuffer[chunkCount];
+        for (int i=0; i<chunkCount; i++) {
+            mapped[i] = channel.map(FileChannel.MapMode.READ_WRITE,
+                    offset + (long) i * CHUNK_SLOTS * RECORD_SIZE, (long) slotsPerChunk * RECORD_SIZE);
+        }
+        return mapped;
+    }
+
+    /**
+     * Store file.
+     *
+     * @return path
+     */
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * Number of records in the store.
+     *
+     * @return count
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return count;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Number of slots in the hash table.
+     *
+     * @return capacity
+     */
+    int getCapacity() {
+        lock.readLock().lock();
+        try {
+            return capacity;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Looks up the format for the given source.
+     *
+     * @param identity identity of a local file
+     * @param url URL of the file, used to create the format object
+     * @return format or <code>null</code>, if there is no up-to-date record
+     */
+    public AudioFileFormat get(final MFSourceIdentity identity, final URL url) {
+        if (identity.getLength() < 0) return null;
+        final long hash1 = hash1(identity.getLocation());
+        final long hash2 = hash2(identity.getLocation());
+        lock.readLock().lock();
+        try {
+            if (closed) return null;
+            final int slot = find(chunks, capacity, hash1, hash2);
+            final ByteBuffer chunk = chunks[slot >>> CHUNK_SHIFT];
+            final int offset = (slot & (CHUNK_SLOTS - 1)) * RECORD_SIZE;
+            if (chunk.getLong(offset + HASH1) == 0
+                    || chunk.getLong(offset + LENGTH) != identity.getLength()
+                    || chunk.getLong(offset + LAST_MODIFIED) != identity.getLastModified()) {
+                return null;
+            }
+            final int flags = chunk.getInt(offset + FLAGS);
+            return new MFAudioFileFormat(url.toString(),
+                    chunk.getFloat(offset + SAMPLE_RATE),
+                    chunk.getInt(offset + SAMPLE_SIZE),
+                    chunk.getInt(offset + CHANNELS),
+                    chunk.getInt(offset + FRAME_SIZE),
+                    chunk.getFloat(offset + FRAME_RATE),
+                    (flags & FLAG_BIG_ENDIAN) != 0,
+                    chunk.getLong(offset + DURATION),
+                    chunk.getInt(offset + BIT_RATE),
+                    (flags & FLAG_VBR) != 0);
+        } catch (UnsupportedAudioFileException e) {
+            // unknown type, treat as miss
+            return null;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Stores the format for the given source. Only formats created by {@link MFAudioFileReader}
+     * for local files are stored.
+     *
+     * @param identity identity of a local file
+     * @param fileFormat format
+     * @throws IOException if the store cannot grow
+     */
+    public void put(final MFSourceIdentity identity, final AudioFileFormat fileFormat) throws IOException {
+        if (identity.getLength() < 0 || !(fileFormat instanceof MFAudioFileFormat)) return;
+        final long hash1 = hash1(identity.getLocation());
+        final long hash2 = hash2(identity.getLocation());
+        lock.writeLock().lock();
+        try {
+            if (closed) throw new IOException("Store is already closed: " + path);
+            int slot = find(chunks, capacity, hash1, hash2);
+            if (isEmpty(chunks, slot)) {
+                if ((count + 1) * 2L > capacity) {
+                    grow();
+                    slot = find(chunks, capacity, hash1, hash2);
+                }
+                count++;
+            }
+            final ByteBuffer chunk = chunks[slot >>> CHUNK_SHIFT];
+            final int offset = (slot & (CHUNK_SLOTS - 1)) * RECORD_SIZE;
+            final AudioFormat format = fileFormat.getFormat();
+            final Object duration = fileFormat.getProperty("duration");
+            final Object bitRate = format.getProperty("bitrate");
+            int flags = 0;
+            if (format.isBigEndian()) flags |= FLAG_BIG_ENDIAN;
+            if (Boolean.TRUE.equals(format.getProperty("vbr"))) flags |= FLAG_VBR;
+            // write the key last, so that a record is only ever visible completely
+            chunk.putLong(offset + LENGTH, identity.getLength());
+            chunk.putLong(offset + LAST_MODIFIED, identity.getLastModified());
+            chunk.putLong(offset + DURATION, duration instanceof Long ? (Long) duration / 1000L : -1);
+            // native code reports unknown sample rates as 0, MFAudioFormat turns them into NOT_SPECIFIED
+            chunk.putFloat(offset + SAMPLE_RATE, format.getSampleRate() == AudioSystem.NOT_SPECIFIED ? 0f : format.getSampleRate());
+            chunk.putFloat(offset + FRAME_RATE, format.getFrameRate());
+            chunk.putInt(offset + SAMPLE_SIZE, format.getSampleSizeInBits());
+            chunk.putInt(offset + CHANNELS, format.getChannels());
+            chunk.putInt(offset + FRAME_SIZE, format.getFrameSize());
+            chunk.putInt(offset + BIT_RATE, bitRate instanceof Integer ? (Integer) bitRate : AudioSystem.NOT_SPECIFIED);
+            chunk.putInt(offset + FLAGS, flags);
+            chunk.putLong(offset + HASH2, hash2);
+            chunk.putLong(offset + HASH1, hash1);
+            header.putInt(COUNT_OFFSET, count);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Doubles the table by appending a new one to the file and re-inserting all records.
+     */
+    private void grow() throws IOException {
+        if (capacity >= MAX_CAPACITY) throw new IOException("Store is full: " + path);
+        final int newCapacity = capacity * 2;
+        final long newTableOffset = Math.max(channel.size(), tableOffset + (long) capacity * RECORD_SIZE);
+        final ByteBuffer[] newChunks = map(newTableOffset, newCapacity);
+        final byte[] record = new byte[RECORD_SIZE];
+        for (int slot=0; slot<capacity; slot++) {
+            final ByteBuffer chunk = chunks[slot >>> CHUNK_SHIFT];
+            final int offset = (slot & (CHUNK_SLOTS - 1)) * RECORD_SIZE;
+            final long hash1 = chunk.getLong(offset + HASH1);
+            if (hash1 == 0) continue;
+            final long hash2 = chunk.getLong(offset + HASH2);
+            final int newSlot = find(newChunks, newCapacity, hash1, hash2);
+            final ByteBuffer source = chunk.duplicate();
+            source.position(offset);
+            source.get(record);
+            final ByteBuffer target = newChunks[newSlot >>> CHUNK_SHIFT].duplicate();
+            target.position((newSlot & (CHUNK_SLOTS - 1)) * RECORD_SIZE);
+            target.put(record);
+        }
+        for (final ByteBuffer newChunk : newChunks) {
+            ((MappedByteBuffer) newChunk).force();
+        }
+        // switch over
+        chunks = newChunks;
+        capacity = newCapacity;
+        tableOffset = newTableOffset;
+        writeHeader();
+        header.force();
+    }
+
+    /**
+     * Finds the slot holding the given key or the empty slot where it would be inserted.
+     */
+    private static int find(final ByteBuffer[] chunks, final int capacity, final long hash1, final long hash2) {
+        final int mask = capacity - 1;
+        int slot = (int) (hash1 ^ (hash1 >>> 32)) & mask;
+        while (true) {
+            final ByteBuffer chunk = chunks[slot >>> CHUNK_SHIFT];
+            final int offset = (slot & (CHUNK_SLOTS - 1)) * RECORD_SIZE;
+            final long storedHash1 = chunk.getLong(offset + HASH1);
+            if (storedHash1 == 0 || storedHash1 == hash1 && chunk.getLong(offset + HASH2) == hash2) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    private static boolean isEmpty(final ByteBuffer[] chunks, final int slot) {
+        return chunks[slot >>> CHUNK_SHIFT].getLong((slot & (CHUNK_SLOTS - 1)) * RECORD_SIZE + HASH1) == 0;
+    }
+
+    /**
+     * 64 bit FNV-1a hash. Never 0, as 0 marks empty slots.
+     */
+    static long hash1(final String s) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i=0; i<s.length(); i++) {
+            hash ^= s.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash == 0 ? 1 : hash;
+    }
+
+    /**
+     * Independent 64 bit hash, using the finalizer of MurmurHash3.
+     */
+    static long hash2(final String s) {
+        long hash = 0x9e3779b97f4a7c15L;
+        for (int i=0; i<s.length(); i++) {
+            hash = (hash ^ s.charAt(i)) * 0xc6a4a7935bd1e995L;
+            hash ^= hash >>> 47;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    /**
+     * Writes all changes to disk.
+     */
+    public void flush() {
+        lock.writeLock().lock();
+        try {
+            if (closed) return;
+            for (final ByteBuffer chunk : chunks) {
+                ((MappedByteBuffer) chunk).force();
+            }
+            header.force();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        lock.writeLock().lock();
+        try {
+            if (closed) return;
+            for (final ByteBuffer chunk : chunks) {
+                ((MappedByteBuffer) chunk).force();
+            }
+            header.force();
+            closed = true;
+            chunks = null;
+            channel.close();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "MFMetadataStore{" +
+                "path=" + path +
+                ", count=" + count +
+                ", capacity=" + capacity +
+                '}';
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * =================================================
+ * Copyright 2011 tagtraum industries incorporated
+ * This file is part of MFSampledSP.
+ *
+ * FFSampledSP is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * FFSampledSP is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with FFSampledSP; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ * =================================================
+ */
+package com.tagtraum.mfsampledsp;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Collects the metrics exposed via {@link MFMetricsMXBean}.
+ *
+ * @author <a href="mailto:hs@tagtraum.com">Hendrik Schreiber</a>
+ */
+final class MFMetrics implements MFMetricsMXBean {
+
+    static final String OBJECT_NAME = "com.tagtraum.mfsampledsp:type=Metrics";
+    private static final Logger LOG = Logger.getLogger(MFMetrics.class.getName());
+    private static final LongAdder bytesDecoded = new LongAdder();
+    private static final LongAdder nativeCalls = new LongAdder();
+    private static final LongAdder nativeCallNanos = new LongAdder();
+    private static final LongAdder nativeBufferGrowths = new LongAdder();
+    private static boolean registered;
+
+    private MFMetrics() {
+    }
+
+    /**
+     * Registers the MBean with the platform MBean server, unless it is registered already.
+     */
+    static synchronized void register() {
+        if (registered) return;
+        registered = true;
+        try {
+            final ObjectName name = new ObjectName(OBJECT_NAME);
+            // e.g. loaded by another class loader
+            if (!ManagementFactory.getPlatformMBeanServer().isRegistered(name)) {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(new MFMetrics(), name);
+            }
+        } catch (JMException | RuntimeException e) {
+            LOG.log(Level.FINE, "Failed to register " + OBJECT_NAME + ": " + e.toString(), e);
+        }
+    }
+
+    /**
+     * Runs a native call and accounts for it.
+     *
+     * @param task task
+     * @param <T> result type
+     * @param <E> exception type
+     * @return result
+     * @throws E if the task fails
+     */
+    static <T, E extends Exception> T timeNativeCall(final MFWorkers.Task<T, E> task) throws E {
+        final long start = System.nanoTime();
+        try {
+            return task.call();
+        } finally {
+            nativeCallNanos.add(System.nanoTime() - start);
+            nativeCalls.increment();
+        }
+    }
+
+    static void decoded(final int bytes) {
+        bytesDecoded.add(bytes);
+    }
+
+    static void nativeBufferGrown() {
+        nativeBufferGrowths.increment();
+    }
+
+    @Override
+    public int getOpenNativePeers() {
+        return MFNativePeerTracker.getLiveCount();
+    }
+
+    @Override
+    public long getLeakedNativePeers() {
+        return MFNativePeerTracker.getLeakCount();
+    }
+
+    @Override
+    public long getBytesDecoded() {
+        return bytesDecoded.sum();
+    }
+
+    @Override
+    public long getNativeCalls() {
+        return nativeCalls.sum();
+    }
+
+    @Override
+    public long getNativeCallTimeMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(nativeCallNanos.sum());
+    }
+
+    @Override
+    public int getFormatCacheSize() {
+        return MFAudioFileReader.getCache().size();
+    }
+
+    @Override
+    public double getFormatCacheHitRatio() {
+        final MFAudioFileFormatCache cache = MFAudioFileReader.getCache();
+        final long hits = cache.getHitCount();
+        final long lookups = hits + cache.getMissCount();
+        return lookups == 0 ? 0 : hits / (double) lookups;
+    }
+
+    @Override
+    public long getNativeBufferBytes() {
+        return MFDirectBufferPool.getInstance().getBorrowedBytes();
+    }
+
+    @Override
+    public long getIdleBufferBytes() {
+        return MFDirectBufferPool.getInstance().getIdleBytes();
+    }
+
+    @Override
+    public long getNativeBufferGrowths() {
+        return nativeBufferGrowths.sum();
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * =================================================
+ * Copyright 2011 tagtraum industries incorporated
+ * This file is part of MFSampledSP.
+ *
+ * FFSampledSP is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * FFSampledSP is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with FFSampledSP; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ * =================================================
+ */
+package com.tagtraum.mfsampledsp;
+
+/**
+ * Live metrics of MFSampledSP, registered with the platform MBean server as
+ * <code>com.tagtraum.mfsampledsp:type=Metrics</code>, when the library is first used.
+ *
+ * @author <a href="mailto:hs@tagtraum.com">Hendrik Schreiber</a>
+ */
+public interface MFMetricsMXBean {
+
+    /**
+     * Number of native peers, i.e. decoders, that are currently open.
+     *
+     * @return open native peers
+     * @see MFNativePeerTracker#getLiveCount()
+     */
+    int getOpenNativePeers();
+
+    /**
+     * Number of native peers that were released without having been closed.
+     *
+     * @return leaked native peers
+     * @see MFNativePeerTracker#getLeakCount()
+     */
+    long getLeakedNativePeers();
+
+    /**
+     * Total number of bytes decoded by Media Foundation.
+     *
+     * @return bytes
+     */
+    long getBytesDecoded();
+
+    /**
+     * Total number of calls into native code (open, probe, fill, seek, close).
+     *
+     * @return calls
+     */
+    long getNativeCalls();
+
+    /**
+     * Total time spent in native calls.
+     *
+     * @return time in ms
+     */
+    long getNativeCallTimeMillis();
+
+    /**
+     * Current number of entries in the audio file format cache.
+     *
+     * @return entries
+     * @see MFAudioFileReader#getCache()
+     */
+    int getFormatCacheSize();
+
+    /**
+     * Share of format cache lookups that found an entry.
+     *
+     * @return ratio between 0 and 1, 0 if there were no lookups yet
+     */
+    double getFormatCacheHitRatio();
+
+    /**
+     * Direct buffer bytes currently borrowed from the {@link MFDirectBufferPool},
+     * mostly held as native buffers by open streams.
+     *
+     * @return bytes
+     */
+    long getNativeBufferBytes();
+
+    /**
+     * Direct buffer bytes held idle by the {@link MFDirectBufferPool}.
+     *
+     * @return bytes
+     */
+    long getIdleBufferBytes();
+
+    /**
+     * Number of times a decoder needed a larger native buffer.
+     *
+     * @return growth events
+     */
+    long getNativeBufferGrowths();
+}
@@ -47,7 +47,7 @@ public final class MFNativeLibraryLoader {
     private static final Set<String> LOADED = new HashSet<>();
     private static final String VERSION = readProjectVersion();
 
-    private static Boolean mfSampledSPLibraryLoaded;
+    private static volatile Boolean mfSampledSPLibraryLoaded;
 
     private MFNativeLibraryLoader() {
     }
@@ -57,7 +57,15 @@ public final class MFNativeLibraryLoader {
      *
      * @return true, if loading was successful
      */
-    public static synchronized boolean loadLibrary() {
+    public static boolean loadLibrary() {
+        final Boolean loaded = mfSampledSPLibraryLoaded;
+        if (loaded != null) {
+            return loaded;
+        }
+        return loadMFSampledSPLibrary();
+    }
+
+    private static synchronized boolean loadMFSampledSPLibrary() {
         if (mfSampledSPLibraryLoaded != null) {
             return mfSampledSPLibraryLoaded;
         }
@@ -69,6 +77,7 @@ public final class MFNativeLibraryLoader {
             Logger.getLogger(MFNativeLibraryLoader.class.getName()).severe("Failed to load native library 'mfsampledsp'. Please check your library path. MFSampledSP will be dysfunctional.");
         }
         mfSampledSPLibraryLoaded = loaded;
+        MFMetrics.register();
         return mfSampledSPLibraryLoaded;
     }
 
@@ -24,14 +24,21 @@ import javax.sound.sampled.UnsupportedAudioFileException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
 
 /**
  * Audio stream backed by Microsoft Windows Media Foundation.
+ * <p>
+ * Besides the usual {@link InputStream} methods, this stream can also be read
+ * like a {@link ReadableByteChannel}. When reading into a direct {@link ByteBuffer}
+ * that is large enough to hold a whole decoded sample, the decoder writes straight into the
+ * given buffer, saving a copy.
  *
  * @author <a href="mailto:hs@tagtraum.com">Hendrik Schreiber</a>
  */
-public abstract class MFNativePeerInputStream extends InputStream {
+public abstract class MFNativePeerInputStream extends InputStream implements ReadableByteChannel {
 
     static {
         // Ensure JNI library is loaded
@@ -43,25 +50,217 @@ public abstract class MFNativePeerInputStream extends InputStream {
      */
     protected long pointer;
 
+    /**
+     * Empty buffer used once the stream is closed.
+     */
+    static final ByteBuffer EMPTY_BUFFER = ByteBuffer.allocate(0);
+
     /**
      * Native audio buffer.
      */
-    protected ByteBuffer nativeBuffer = ByteBuffer.allocateDirect(32 * 1024);
+    protected ByteBuffer nativeBuffer;
+
+    /**
+     * Buffer borrowed from the {@link MFDirectBufferPool}, usually the same as {@link #nativeBuffer}.
+     */
+    private ByteBuffer pooledBuffer;
+
+    /**
+     * Sample time of the first frame in {@link #nativeBuffer} in 100ns units, or <code>-1</code>, if unknown.
+     * Set by {@link #fillNativeBuffer()}.
+     */
+    protected long sampleTime = -1;
+
+    private MFSeekIndex seekIndex;
+
+    /**
+     * Registration of the native peer, if any.
+     */
+    private MFNativePeerTracker.Registration registration;
+
+    /**
+     * Worker all native calls for this stream are made on, <code>null</code> for the calling thread.
+     */
+    private MFWorkers.Worker worker;
+
+    private CompletableFuture<?> lastAsyncRead = CompletableFuture.completedFuture(null);
 
     protected MFNativePeerInputStream() throws IOException, UnsupportedAudioFileException {
+        this.pooledBuffer = MFDirectBufferPool.getInstance().acquire(32 * 1024);
+        this.nativeBuffer = pooledBuffer;
+    }
+
+    /**
+     * Pins this stream to the given worker. Must be called before the native peer is opened.
+     *
+     * @param worker worker or <code>null</code> to make native calls on the calling thread
+     * @see MFWorkers
+     */
+    void pinToWorker(final MFWorkers.Worker worker) {
+        this.worker = worker;
+    }
+
+    /**
+     * Worker this stream is pinned to.
+     *
+     * @return worker or <code>null</code>
+     */
+    MFWorkers.Worker getWorker() {
+        return worker;
     }
 
     /**
-     * Replaces the current native buffer with a new buffer of the given size.
+     * Runs the given native call on this stream's worker, or directly, if it has none.
+     *
+     * @param task task
+     * @param <T> result type
+     * @param <E> exception type
+     * @return result
+     * @throws E if the task fails
+     */
+    <T, E extends Exception> T onWorker(final MFWorkers.Task<T, E> task) throws E {
+        return MFWorkers.call(worker, task);
+    }
+
+    /**
+     * Replaces the current native buffer with a buffer of at least the given size,
+     * borrowed from the {@link MFDirectBufferPool}.
      * You can only call this method when the current native buffer has no remaining data,
      * i.e. its {@link java.nio.ByteBuffer#hasRemaining()} must return <code>false</code>.
+     * Called from native code, when a sample does not fit into the current buffer.
      *
      * @param size size in bytes
      * @throws IllegalStateException if the old buffer still has data
      */
-    private void setNativeBufferCapacity(final int size) {
+    protected void setNativeBufferCapacity(final int size) {
         if (nativeBuffer.hasRemaining()) throw new IllegalStateException("Can't change buffer size while it still has remaining data");
-        nativeBuffer = ByteBuffer.allocateDirect(size);
+        MFMetrics.nativeBufferGrown();
+        final MFDirectBufferPool pool = MFDirectBufferPool.getInstance();
+        pool.release(pooledBuffer);
+        pooledBuffer = pool.acquire(size);
+        nativeBuffer = pooledBuffer;
+    }
+
+    /**
+     * Returns the native buffer to the pool.
+     * Afterwards, the native buffer is empty and cannot be filled anymore.
+     */
+    private void releaseNativeBuffer() {
+        setNativeBuffer(EMPTY_BUFFER);
+    }
+
+    /**
+     * Replaces the native buffer with a buffer that is <em>not</em> owned by this stream,
+     * i.e. it will never be returned to the pool by this stream.
+     * A previously borrowed buffer is returned to the pool.
+     *
+     * @param buffer buffer
+     */
+    void setNativeBuffer(final ByteBuffer buffer) {
+        final ByteBuffer pooled = pooledBuffer;
+        pooledBuffer = null;
+        nativeBuffer = buffer;
+        if (pooled != buffer) {
+            MFDirectBufferPool.getInstance().release(pooled);
+        }
+    }
+
+    /**
+     * Replaces the native buffer with a buffer that is owned by this stream from now on,
+     * i.e. it will be returned to the pool, when the stream is closed.
+     * A previously borrowed buffer is returned to the pool.
+     *
+     * @param buffer buffer
+     */
+    void adoptNativeBuffer(final ByteBuffer buffer) {
+        setNativeBuffer(buffer);
+        pooledBuffer = buffer;
+    }
+
+    /**
+     * Removes the native buffer from this stream and hands it to the caller,
+     * who is responsible for returning it to the pool.
+     * Afterwards, the native buffer is empty.
+     *
+     * @return the former native buffer
+     */
+    ByteBuffer takeNativeBuffer() {
+        final ByteBuffer buffer = nativeBuffer;
+        pooledBuffer = null;
+        nativeBuffer = EMPTY_BUFFER;
+        return buffer;
+    }
+
+    /**
+     * Decodes the first sample after a seek, if it isn't decoded yet, and reports its sample time.
+     *
+     * @return sample time of the current position in 100ns units, or <code>-1</code>, if unknown
+     * or the end of the stream is reached
+     * @throws IOException if something goes wrong
+     */
+    long fillAfterSeek() throws IOException {
+        if (!nativeBuffer.hasRemaining()) {
+            sampleTime = -1;
+            fillNativeBuffer();
+        }
+        return nativeBuffer.hasRemaining() && nativeBuffer.position() == 0 ? sampleTime : -1;
+    }
+
+    /**
+     * Decodes the next sample, if the native buffer is empty, so that callers can
+     * convert straight from the native buffer instead of copying it first.
+     * Callers consume data by advancing the buffer's position.
+     *
+     * @return native buffer, without remaining data only at the end of the stream
+     * @throws IOException if something goes wrong
+     */
+    ByteBuffer fillIfEmpty() throws IOException {
+        if (!nativeBuffer.hasRemaining()) {
+            fillNativeBuffer();
+            if (!nativeBuffer.hasRemaining()) {
+                // we're at the end
+                close();
+            }
+        }
+        return nativeBuffer;
+    }
+
+    /**
+     * Decodes and drops the given number of bytes.
+     *
+     * @param bytes bytes to drop
+     * @return bytes actually dropped, less than requested, if the end of the stream was reached
+     * @throws IOException if something goes wrong
+     */
+    long discard(final long bytes) throws IOException {
+        long discarded = 0;
+        while (discarded < bytes) {
+            if (!nativeBuffer.hasRemaining()) {
+                fillNativeBuffer();
+                if (!nativeBuffer.hasRemaining()) break;
+            }
+            final int chunkSize = (int) Math.min(bytes - discarded, nativeBuffer.remaining());
+            nativeBuffer.position(nativeBuffer.position() + chunkSize);
+            discarded += chunkSize;
+        }
+        return discarded;
+    }
+
+    /**
+     * Seek points learned for this stream's source.
+     * Unless overridden, each stream has its own index.
+     *
+     * @return seek index
+     */
+    synchronized MFSeekIndex getSeekIndex() {
+        if (seekIndex == null) seekIndex = new MFSeekIndex();
+        return seekIndex;
+    }
+
+    @Override
+    public long skip(final long n) throws IOException {
+        if (n <= 0) return 0;
+        return discard(n);
     }
 
     @Override
@@ -101,6 +300,117 @@ public abstract class MFNativePeerInputStream extends InputStream {
         return bytesRead == 0 ? -1 : bytesRead;
     }
 
+    /**
+     * Reads decoded audio into the given buffer.
+     * Like {@link #read(byte[], int, int)}, this method blocks until the buffer is full
+     * or the end of the stream is reached.
+     * If <code>dst</code> is a direct buffer with at least as much space as the current native buffer,
+     * data is decoded directly into <code>dst</code>.
+     * Unlike specified for {@link ReadableByteChannel}, reading from a closed stream does not
+     * cause an exception, but simply returns <code>-1</code>.
+     *
+     * @param dst buffer
+     * @return number of bytes read or <code>-1</code>, if the end of the stream is reached
+     * @throws IOException if something goes wrong
+     */
+    @Override
+    public int read(final ByteBuffer dst) throws IOException {
+        if (!dst.hasRemaining()) return 0;
+
+        int bytesRead = 0;
+        while (dst.hasRemaining()) {
+            if (!nativeBuffer.hasRemaining()) {
+                if (canFillDirectly(dst)) {
+                    final int justRead = fillDirectly(dst);
+                    if (justRead == 0 && !nativeBuffer.hasRemaining()) {
+                        // we're at the end
+                        close();
+                        break;
+                    }
+                    bytesRead += justRead;
+                    continue;
+                }
+                fillNativeBuffer();
+                if (!nativeBuffer.hasRemaining()) {
+                    // we're at the end
+                    close();
+                    break;
+                }
+            }
+            final int chunkSize = Math.min(dst.remaining(), nativeBuffer.remaining());
+            if (chunkSize == nativeBuffer.remaining()) {
+                dst.put(nativeBuffer);
+            } else {
+                final int limit = nativeBuffer.limit();
+                nativeBuffer.limit(nativeBuffer.position() + chunkSize);
+                dst.put(nativeBuffer);
+                nativeBuffer.limit(limit);
+            }
+            bytesRead += chunkSize;
+        }
+        return bytesRead == 0 ? -1 : bytesRead;
+    }
+
+    /**
+     * Like {@link #read(ByteBuffer)}, but the blocking native read happens on a bounded pool of
+     * platform threads, so the caller, e.g. a virtual thread, is never blocked inside native code.
+     * Async reads are carried out in the order they were issued.
+     * <code>dst</code> must not be touched until the returned future has completed.
+     *
+     * @param dst buffer
+     * @return future number of bytes read or <code>-1</code>, if the end of the stream is reached
+     */
+    public synchronized CompletableFuture<Integer> readAsync(final ByteBuffer dst) {
+        final CompletableFuture<Integer> future = MFAsync.after(lastAsyncRead, () -> read(dst));
+        lastAsyncRead = future;
+        return future;
+    }
+
+    /**
+     * Indicates whether the next sample can be decoded directly into the given buffer.
+     * This is the case, if the buffer is direct and has at least as much space left
+     * as the native buffer's capacity, which in turn is at least as large as the largest
+     * sample seen so far.
+     *
+     * @param dst destination buffer
+     * @return true, if {@link #fillNativeBuffer()} may write directly into <code>dst</code>
+     */
+    protected boolean canFillDirectly(final ByteBuffer dst) {
+        return dst.isDirect() && dst.remaining() >= nativeBuffer.capacity();
+    }
+
+    /**
+     * Temporarily replaces the native buffer with a slice of the given direct buffer
+     * and fills it. Should the decoder need a larger buffer, it replaces the slice with
+     * a new native buffer via {@link #setNativeBufferCapacity(int)}. In that case, the
+     * data remains in the new native buffer and nothing is written to <code>dst</code>.
+     * Because the slice is never borrowed from the pool, it is never returned to it either.
+     *
+     * @param dst direct buffer
+     * @return number of bytes written to <code>dst</code>
+     * @throws IOException if something goes wrong
+     */
+    private int fillDirectly(final ByteBuffer dst) throws IOException {
+        final ByteBuffer buffer = nativeBuffer;
+        final ByteBuffer target = dst.slice();
+        target.limit(0);
+        nativeBuffer = target;
+        try {
+            fillNativeBuffer();
+        } finally {
+            if (nativeBuffer == target) {
+                nativeBuffer = buffer;
+            }
+        }
+        if (nativeBuffer != buffer) {
+            // decoder needed more space, data is in the new native buffer
+            return 0;
+        }
+        final int justRead = target.remaining();
+        dst.position(dst.position() + justRead);
+        return justRead;
+    }
+
     /**
      * @see com.tagtraum.mfsampledsp.MFAudioInputStream#isSeekable()
      */
@@ -111,18 +421,45 @@ public abstract class MFNativePeerInputStream extends InputStream {
      */
     public abstract void seek(final long time, final TimeUnit timeUnit) throws UnsupportedOperationException, IOException;
 
-    protected boolean isOpen() {
+    @Override
+    public boolean isOpen() {
         return pointer != 0;
     }
 
+    /**
+     * Registers the native peer {@link #pointer} with the {@link MFNativePeerTracker}, so that it is released
+     * even if this stream becomes unreachable without being closed. Once registered, {@link #close()}
+     * releases the peer through <code>releaser</code> instead of {@link #close(long)}.
+     *
+     * @param releaser releases the peer, must not reference this stream, e.g. a static method
+     * @param description description used when reporting a leak
+     */
+    protected void registerNativePeer(final MFNativePeerTracker.Releaser releaser, final String description) {
+        this.registration = MFNativePeerTracker.register(this, pointer, releaser, description);
+    }
+
     @Override
     public void close() throws IOException {
-        if (isOpen()) {
-            try {
-                close(pointer);
-            } finally {
-                pointer = 0;
+        try {
+            if (isOpen()) {
+                final long closePointer = pointer;
+                final MFNativePeerTracker.Registration closeRegistration = registration;
+                try {
+                    onWorker(new MFWorkers.Task<Void, IOException>() {
+                        @Override
+                        public Void call() throws IOException {
+                            if (closeRegistration != null) closeRegistration.release();
+                            else close(closePointer);
+                            return null;
+                        }
+                    });
+                } finally {
+                    pointer = 0;
+                    registration = null;
+                }
             }
+        } finally {
+            releaseNativeBuffer();
         }
     }
 
@@ -130,14 +467,4 @@ public abstract class MFNativePeerInputStream extends InputStream {
 
     protected abstract void close(final long pointer) throws IOException;
 
-    @Override
-    protected void finalize() throws Throwable {
-        try {
-            close();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-        super.finalize();
-    }
-
 }
@@ -0,0 +1,182 @@
+/*
+ * =================================================
+ * Copyright 2011 tagtraum industries incorporated
+ * This file is part of MFSampledSP.
+ *
+ * FFSampledSP is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * FFSampledSP is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with FFSampledSP; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ * =================================================
+ */
+package com.tagtraum.mfsampledsp;
+
+import java.io.IOException;
+import java.lang.ref.Cleaner;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Keeps track of native peers and releases those whose owner became unreachable without being closed.
+ * <p>
+ * Instead of finalization, a {@link Cleaner} with a single Media Foundation initialized thread
+ * (see {@link MFThreadFactory}) is used, so that unreachable streams are collected in one GC cycle
+ * and don't have to pass through the finalizer thread.
+ * <p>
+ * Peers that had to be released by the cleaner are counted as leaks. In leak tracking mode,
+ * the stack trace of the code that opened a leaked peer is logged as a warning.
+ * Leak tracking captures a stack trace for every opened peer and can be turned on with
+ * {@link #setLeakTracking(boolean)} or the system property <code>com.tagtraum.mfsampledsp.leaktracking=true</code>.
+ *
+ * @author <a href="mailto:hs@tagtraum.com">Hendrik Schreiber</a>
+ */
+public final class MFNativePeerTracker {
+
+    private static final Logger LOG = Logger.getLogger(MFNativePeerTracker.class.getName());
+    private static final Cleaner CLEANER = Cleaner.create(new MFThreadFactory("cleaner"));
+    private static final AtomicInteger live = new AtomicInteger();
+    private static final AtomicLong leaks = new AtomicLong();
+    private static volatile boolean leakTracking = Boolean.getBoolean("com.tagtraum.mfsampledsp.leaktracking");
+
+    private MFNativePeerTracker() {
+    }
+
+    /**
+     * Registers a native peer.
+     *
+     * @param owner object whose reachability determines the peer's lifetime
+     * @param pointer native pointer
+     * @param releaser releases the pointer, must not reference <code>owner</code>
+     * @param description description used when reporting a leak, e.g. the URL
+     * @return registration
+     */
+    static Registration register(final Object owner, final long pointer, final Releaser releaser, final String description) {
+        final State state = new State(pointer, releaser, description,
+                leakTracking ? new Throwable("Native peer for " + description + " opened here") : null);
+        live.incrementAndGet();
+        return new Registration(state, CLEANER.register(owner, state));
+    }
+
+    /**
+     * Number of native peers that are currently open.
+     *
+     * @return live peers
+     */
+    public static int getLiveCount() {
+        return live.get();
+    }
+
+    /**
+     * Number of native peers that were released, because their owner was collected without being closed.
+     *
+     * @return leaks
+     */
+    public static long getLeakCount() {
+        return leaks.get();
+    }
+
+    /**
+     * Indicates whether the opening stack trace of each peer is recorded.
+     *
+     * @return true or false
+     */
+    public static boolean isLeakTracking() {
+        return leakTracking;
+    }
+
+    /**
+     * Turns leak tracking on or off. Only affects peers opened afterwards.
+     *
+     * @param leakTracking true or false
+     */
+    public static void setLeakTracking(final boolean leakTracking) {
+        MFNativePeerTracker.leakTracking = leakTracking;
+    }
+
+    /**
+     * Releases a native pointer.
+     */
+    interface Releaser {
+        void release(long pointer) throws IOException;
+    }
+
+    /**
+     * Registered peer.
+     */
+    static final class Registration {
+
+        private final State state;
+        private final Cleaner.Cleanable cleanable;
+
+        private Registration(final State state, final Cleaner.Cleanable cleanable) {
+            this.state = state;
+            this.cleanable = cleanable;
+        }
+
+        /**
+         * Releases the peer, unless it has been released already.
+         *
+         * @throws IOException if releasing fails
+         */
+        void release() throws IOException {
+            state.closed = true;
+            cleanable.clean();
+            final IOException failure = state.failure;
+            state.failure = null;
+            if (failure != null) throw failure;
+        }
+    }
+
+    /**
+     * Cleaning action. Must not reference the owner.
+     */
+    private static class State implements Runnable {
+
+        private final long pointer;
+        private final Releaser releaser;
+        private final String description;
+        private final Throwable openedAt;
+        private final AtomicBoolean released = new AtomicBoolean();
+        private volatile boolean closed;
+        private volatile IOException failure;
+
+        private State(final long pointer, final Releaser releaser, final String description, final Throwable openedAt) {
+            this.pointer = pointer;
+            this.releaser = releaser;
+            this.description = description;
+            this.openedAt = openedAt;
+        }
+
+        @Override
+        public void run() {
+            if (!released.compareAndSet(false, true)) return;
+            live.decrementAndGet();
+            if (!closed) {
+                leaks.incrementAndGet();
+                if (openedAt != null) {
+                    LOG.log(Level.WARNING, "Native peer for " + description + " was not closed.", openedAt);
+                } else if (LOG.isLoggable(Level.FINE)) {
+                    LOG.fine("Native peer for " + description + " was not closed.");
+                }
+            }
+            try {
+                releaser.release(pointer);
+            } catch (IOException e) {
+                if (closed) failure = e;
+                else LOG.log(Level.WARNING, "Failed to release native peer for " + description + ": " + e.toString(), e);
+            }
+        }
+    }
+}
@@ -0,0 +1,333 @@
+/*
+ * =================================================
+ * Copyright 2011 tagtraum industries incorporated
+ * This file is part of MFSampledSP.
+ *
+ * FFSampledSP is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * FFSampledSP is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with FFSampledSP; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ * =================================================
+ */
+package com.tagtraum.mfsampledsp;
+
+import javax.sound.sampled.AudioFormat;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Converts between linear PCM formats of the same frame rate in Java.
+ * Supports signed, unsigned and float encodings, 8, 16, 24 and 32 bit samples,
+ * both byte orders, and conversions from mono to multiple channels and vice versa.
+ * <p>
+ * Samples are converted block-wise via a 32 bit integer intermediate representation,
+ * i.e. conversions between integer formats are lossless, if the target is at least as wide
+ * as the source.
+ *
+ * @author <a href="mailto:hs@tagtraum.com">Hendrik Schreiber</a>
+ * @see MFFormatConversionProvider
+ */
+class MFPCMConverterInputStream extends InputStream {
+
+    private static final int BLOCK_FRAMES = 4096;
+
+    private final InputStream source;
+    private final SampleCodec decoder;
+    private final SampleCodec encoder;
+    private final int sourceChannels;
+    private final int targetChannels;
+    private final int sourceFrameSize;
+    private final byte[] sourceBuffer;
+    private final int[] sourceSamples;
+    private final int[] targetSamples;
+    private final byte[] targetBuffer;
+    private int sourceBytes;
+    private int position;
+    private int limit;
+    private boolean endOfStream;
+
+    /**
+     * Creates a converter.
+     *
+     * @param source source stream delivering data in <code>sourceFormat</code>
+     * @param sourceFormat source format
+     * @param targetFormat target format
+     * @throws IllegalArgumentException if the conversion is not supported
+     */
+    MFPCMConverterInputStream(final InputStream source, final AudioFormat sourceFormat, final AudioFormat targetFormat) {
+        if (!isConversionSupported(sourceFormat, targetFormat)) {
+            throw new IllegalArgumentException("Unsupported conversion: " + sourceFormat + " to " + targetFormat);
+        }
+        this.source = source;
+        this.decoder = new SampleCodec(sourceFormat);
+        this.encoder = new SampleCodec(targetFormat);
+        this.sourceChannels = sourceFormat.getChannels();
+        this.targetChannels = targetFormat.getChannels();
+        this.sourceFrameSize = sourceFormat.getFrameSize();
+        this.sourceBuffer = new byte[BLOCK_FRAMES * sourceFrameSize];
+        this.sourceSamples = new int[BLOCK_FRAMES * sourceChannels];
+        this.targetSamples = sourceChannels == targetChannels ? sourceSamples : new int[BLOCK_FRAMES * targetChannels];
+        this.targetBuffer = new byte[BLOCK_FRAMES * targetFormat.getFrameSize()];
+    }
+
+    /**
+     * Indicates whether the given conversion can be carried out by this class.
+     *
+     * @param sourceFormat source format
+     * @param targetFormat target format
+     * @return true, if supported
+     */
+    static boolean isConversionSupported(final AudioFormat sourceFormat, final AudioFormat targetFormat) {
+        if (!SampleCodec.isSupported(sourceFormat) || !SampleCodec.isSupported(targetFormat)) return false;
+        if (Math.abs(sourceFormat.getSampleRate() - targetFormat.getSampleRate()) > 0.00001f) return false;
+        final int sourceChannels = sourceFormat.getChannels();
+        final int targetChannels = targetFormat.getChannels();
+        return sourceChannels == targetChannels || sourceChannels == 1 || targetChannels == 1;
+    }
+
+    @Override
+    public int read() throws IOException {
+        final byte[] b = new byte[1];
+        final int justRead = read(b, 0, 1);
+        return justRead == -1 ? -1 : b[0] & 0xff;
+    }
+
+    @Override
+    public int read(final byte[] b, final int off, final int len) throws IOException {
+        if (len == 0) return 0;
+        if (len < 0) throw new IllegalArgumentException("Length must be greater than or equal to 0: " + len);
+        if (off < 0) throw new IllegalArgumentException("Offset must be greater than or equal to 0: " + off);
+        if (b.length - off < len) throw new IllegalArgumentException("There must be more space than "  + len + " bytes left in the buffer. Offset is " + off);
+        int bytesRead = 0;
+        while (bytesRead < len) {
+            if (position == limit && !fill()) break;
+            final int chunkSize = Math.min(len - bytesRead, limit - position);
+            System.arraycopy(targetBuffer, position, b, off + bytesRead, chunkSize);
+            position += chunkSize;
+            bytesRead += chunkSize;
+        }
+        return bytesRead == 0 ? -1 : bytesRead;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return limit - position;
+    }
+
+    @Override
+    public void close() throws IOException {
+        source.close();
+    }
+
+    /**
+     * Reads and converts the next block.
+     *
+     * @return false, if the end of the stream was reached
+     */
+    private boolean fill() throws IOException {
+        if (endOfStream) return false;
+        // read at least one frame
+        while (sourceBytes < sourceFrameSize || sourceBytes < sourceBuffer.length && source.available() > 0) {
+            final int justRead = source.read(sourceBuffer, sourceBytes, sourceBuffer.length - sourceBytes);
+            if (justRead == -1) {
+                endOfStream = true;
+                break;
+            }
+            sourceBytes += justRead;
+        }
+        final int frames = sourceBytes / sourceFrameSize;
+        if (frames == 0) return false;
+
+        decoder.decode(sourceBuffer, sourceSamples, frames * sourceChannels);
+        mix(frames);
+        encoder.encode(targetSamples, targetBuffer, frames * targetChannels);
+
+        // keep partial frame
+        final int consumed = frames * sourceFrameSize;
+        sourceBytes -= consumed;
+        System.arraycopy(sourceBuffer, consumed, sourceBuffer, 0, sourceBytes);
+        position = 0;
+        limit = frames * targetChannels * encoder.bytesPerSample;
+        return true;
+    }
+
+    private void mix(final int frames) {
+        if (sourceChannels == targetChannels) return;
+        if (sourceChannels == 1) {
+            // duplicate mono
+            for (int frame=0, i=0; frame<frames; frame++) {
+                final int sample = sourceSamples[frame];
+                for (int channel=0; channel<targetChannels; channel++) {
+                    targetSamples[i++] = sample;
+                }
+            }
+        } else {
+            // average into mono
+            for (int frame=0, i=0; frame<frames; frame++) {
+                long sum = 0;
+                for (int channel=0; channel<sourceChannels; channel++) {
+                    sum += sourceSamples[i++];
+                }
+                targetSamples[frame] = (int) (sum / sourceChannels);
+            }
+        }
+    }
+
+    /**
+     * Converts samples of one specific format from and to left-aligned 32 bit signed integers.
+     */
+    static class SampleCodec {
+
+        private final int bytesPerSample;
+        private final boolean bigEndian;
+        private final boolean unsigned;
+        private final boolean floatingPoint;
+
+        SampleCodec(final AudioFormat format) {
+            this.bytesPerSample = format.getSampleSizeInBits() / 8;
+            this.bigEndian = format.isBigEndian();
+            this.unsigned = AudioFormat.Encoding.PCM_UNSIGNED.equals(format.getEncoding());
+            this.floatingPoint = AudioFormat.Encoding.PCM_FLOAT.equals(format.getEncoding());
+        }
+
+        static boolean isSupported(final AudioFormat format) {
+            final AudioFormat.Encoding encoding = format.getEncoding();
+            final int sampleSize = format.getSampleSizeInBits();
+            if (format.getChannels() <= 0 || format.getFrameSize() != format.getChannels() * sampleSize / 8) return false;
+            if (AudioFormat.Encoding.PCM_FLOAT.equals(encoding)) return sampleSize == 32;
+            return (AudioFormat.Encoding.PCM_SIGNED.equals(encoding) || AudioFormat.Encoding.PCM_UNSIGNED.equals(encoding))
+                    && (sampleSize == 8 || sampleSize == 16 || sampleSize == 24 || sampleSize == 32);
+        }
+
+        void decode(final byte[] in, final int[] out, final int samples) {
+            if (floatingPoint) {
+                for (int s=0, i=0; s<samples; s++, i+=4) {
+                    // saturating cast
+                    out[s] = (int) (Float.intBitsToFloat(readInt32(in, i)) * 2147483648f);
+                }
+                return;
+            }
+            switch (bytesPerSample) {
+                case 1:
+                    for (int s=0; s<samples; s++) {
+                        out[s] = in[s] << 24;
+                    }
+                    break;
+                case 2:
+                    if (bigEndian) {
+                        for (int s=0, i=0; s<samples; s++, i+=2) {
+                            out[s] = in[i] << 24 | (in[i+1] & 0xff) << 16;
+                        }
+                    } else {
+                        for (int s=0, i=0; s<samples; s++, i+=2) {
+                            out[s] = in[i+1] << 24 | (in[i] & 0xff) << 16;
+                        }
+                    }
+                    break;
+                case 3:
+                    if (bigEndian) {
+                        for (int s=0, i=0; s<samples; s++, i+=3) {
+                            out[s] = in[i] << 24 | (in[i+1] & 0xff) << 16 | (in[i+2] & 0xff) << 8;
+                        }
+                    } else {
+                        for (int s=0, i=0; s<samples; s++, i+=3) {
+                            out[s] = in[i+2] << 24 | (in[i+1] & 0xff) << 16 | (in[i] & 0xff) << 8;
+                        }
+                    }
+                    break;
+                default:
+                    for (int s=0, i=0; s<samples; s++, i+=4) {
+                        out[s] = readInt32(in, i);
+                    }
+            }
+            if (unsigned) {
+                for (int s=0; s<samples; s++) {
+                    out[s] ^= 0x80000000;
+                }
+            }
+        }
+
+        void encode(final int[] in, final byte[] out, final int samples) {
+            if (floatingPoint) {
+                for (int s=0, i=0; s<samples; s++, i+=4) {
+                    writeInt32(Float.floatToRawIntBits(in[s] / 2147483648f), out, i);
+                }
+                return;
+            }
+            final int flip = unsigned ? 0x80000000 : 0;
+            switch (bytesPerSample) {
+                case 1:
+                    for (int s=0; s<samples; s++) {
+                        out[s] = (byte) ((in[s] ^ flip) >> 24);
+                    }
+                    break;
+                case 2:
+                    if (bigEndian) {
+                        for (int s=0, i=0; s<samples; s++, i+=2) {
+                            final int sample = in[s] ^ flip;
+                            out[i] = (byte) (sample >> 24);
+                            out[i+1] = (byte) (sample >> 16);
+                        }
+                    } else {
+                        for (int s=0, i=0; s<samples; s++, i+=2) {
+                            final int sample = in[s] ^ flip;
+                            out[i] = (byte) (sample >> 16);
+                            out[i+1] = (byte) (sample >> 24);
+                        }
+                    }
+                    break;
+                case 3:
+                    if (bigEndian) {
+                        for (int s=0, i=0; s<samples; s++, i+=3) {
+                            final int sample = in[s] ^ flip;
+                            out[i] = (byte) (sample >> 24);
+                            out[i+1] = (byte) (sample >> 16);
+                            out[i+2] = (byte) (sample >> 8);
+                        }
+                    } else {
+                        for (int s=0, i=0; s<samples; s++, i+=3) {
+                            final int sample = in[s] ^ flip;
+                            out[i] = (byte) (sample >> 8);
+                            out[i+1] = (byte) (sample >> 16);
+                            out[i+2] = (byte) (sample >> 24);
+                        }
+                    }
+                    break;
+                default:
+                    for (int s=0, i=0; s<samples; s++, i+=4) {
+                        writeInt32(in[s] ^ flip, out, i);
+                    }
+            }
+        }
+
+        private int readInt32(final byte[] in, final int i) {
+            if (bigEndian) {
+                return in[i] << 24 | (in[i+1] & 0xff) << 16 | (in[i+2] & 0xff) << 8 | in[i+3] & 0xff;
+            }
+            return in[i+3] << 24 | (in[i+2] & 0xff) << 16 | (in[i+1] & 0xff) << 8 | in[i] & 0xff;
+        }
+
+        private void writeInt32(final int value, final byte[] out, final int i) {
+            if (bigEndian) {
+                out[i] = (byte) (value >> 24);
+                out[i+1] = (byte) (value >> 16);
+                out[i+2] = (byte) (value >> 8);
+                out[i+3] = (byte) value;
+            } else {
+                out[i] = (byte) value;
+                out[i+1] = (byte) (value >> 8);
+                out[i+2] = (byte) (value >> 16);
+                out[i+3] = (byte) (value >> 24);
+            }
+        }
+    }
+}
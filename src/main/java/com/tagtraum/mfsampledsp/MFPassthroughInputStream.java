@@ -0,0 +1,127 @@
+/*
+ * =================================================
+ * Copyright 2011 tagtraum industries incorporated
+ * This file is part of MFSampledSP.
+ *
+ * FFSampledSP is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * FFSampledSP is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with FFSampledSP; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ * =================================================
+ */
+package com.tagtraum.mfsampledsp;
+
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serves the sample data of an uncompressed WAVE or AIFF file straight from the file,
+ * bypassing Media Foundation altogether.
+ * Data is read with positional reads into the native buffer (or directly into a large enough
+ * direct target buffer), and seeking is sample-exact and O(1).
+ * <p>
+ * The stream owns the file channel it was opened with and closes it in {@link #close()},
+ * so that the file is no longer locked afterwards.
+ * Passthrough can be turned off with the system property <code>com.tagtraum.mfsampledsp.passthrough=false</code>.
+ *
+ * @author <a href="mailto:hs@tagtraum.com">Hendrik Schreiber</a>
+ * @see MFAudioFileReader#getAudioInputStream(java.net.URL)
+ */
+public class MFPassthroughInputStream extends MFNativePeerInputStream {
+
+    static final boolean ENABLED = !"false".equalsIgnoreCase(System.getProperty("com.tagtraum.mfsampledsp.passthrough"));
+
+    private final FileChannel channel;
+    private final long offset;
+    private final long length;
+    private final int frameSize;
+    private final float frameRate;
+    private long position;
+
+    private MFPassthroughInputStream(final FileChannel channel, final MFHeaderParser.PCMData data)
+            throws IOException, UnsupportedAudioFileException {
+        this.channel = channel;
+        this.offset = data.offset;
+        this.length = data.length;
+        this.frameSize = data.frameSize;
+        this.frameRate = data.sampleRate;
+        // nothing read yet
+        nativeBuffer.limit(0);
+        // there is no native peer, but we are open
+        this.pointer = 1;
+    }
+
+    /**
+     * Indicates whether files of the given type may be served by this class at all,
+     * so that other files, e.g. MP3s, are never opened just to find out.
+     *
+     * @param type probed file type
+     * @return true for WAVE, AIFF and AIFC
+     */
+    static boolean isCandidate(final AudioFileFormat.Type type) {
+        return AudioFileFormat.Type.WAVE.equals(type)
+                || AudioFileFormat.Type.AIFF.equals(type)
+                || AudioFileFormat.Type.AIFC.equals(type);
+    }
+
+    /**
+     * Opens a stream for the sample data of the given file.
+     *
+     * @param channel file, owned and eventually closed by the returned stream
+     * @param data location and layout of the sample data
+     * @return stream
+     * @throws IOException if something goes wrong
+     * @throws UnsupportedAudioFileException never
+     */
+    static MFPassthroughInputStream open(final FileChannel channel, final MFHeaderParser.PCMData data) throws IOException, UnsupportedAudioFileException {
+        return new MFPassthroughInputStream(channel, data);
+    }
+
+    @Override
+    protected void fillNativeBuffer() throws IOException {
+        nativeBuffer.clear();
+        // never split frames
+        final long size = Math.min(nativeBuffer.capacity() / frameSize * frameSize, length - position);
+        if (!isOpen() || size <= 0) {
+            nativeBuffer.limit(0);
+            return;
+        }
+        nativeBuffer.limit((int) size);
+        sampleTime = Math.round(position / frameSize * 10000000.0 / frameRate);
+        while (nativeBuffer.hasRemaining()) {
+            if (channel.read(nativeBuffer, offset + position + nativeBuffer.position()) == -1) break;
+        }
+        nativeBuffer.flip();
+        position += nativeBuffer.remaining();
+    }
+
+    @Override
+    public boolean isSeekable() {
+        return true;
+    }
+
+    @Override
+    public void seek(final long time, final TimeUnit timeUnit) throws UnsupportedOperationException, IOException {
+        if (!isOpen()) throw new IOException("Stream is already closed.");
+        final long frame = Math.round(timeUnit.toNanos(time) * (double) frameRate / 1000000000.0);
+        position = Math.max(0, Math.min(length, frame * frameSize));
+        nativeBuffer.limit(0);
+    }
+
+    @Override
+    protected void close(final long pointer) throws IOException {
+        channel.close();
+    }
+}
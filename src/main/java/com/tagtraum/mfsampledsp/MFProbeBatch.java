@@ -0,0 +1,246 @@
+/*
+ * =================================================
+ * Copyright 2011 tagtraum industries incorporated
+ * This file is part of MFSampledSP.
+ *
+ * FFSampledSP is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * FFSampledSP is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with FFSampledSP; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ * =================================================
+ */
+package com.tagtraum.mfsampledsp;
+
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Probes many sources concurrently and delivers their {@link MFProbeResult}s in completion order.
+ * <p>
+ * At most <code>parallelism</code> sources are probed at the same time, each on a thread
+ * created by a {@link MFThreadFactory}. Results can be consumed either by iterating over the batch
+ * (blocking until the next result is available) or via an {@link MFProbeListener}, or both.
+ * A failure to probe one source does not affect any other source.
+ * <p>
+ * After {@link #cancel()}, no further sources are started. Probes already in progress
+ * run to completion and are still delivered, after which iteration ends.
+ *
+ * @param <S> source type
+ * @author <a href="mailto:hs@tagtraum.com">Hendrik Schreiber</a>
+ * @see MFAudioFileReader#probeURLs(java.util.Collection, int, MFProbeListener)
+ * @see MFAudioFileReader#probePaths(java.util.Collection, int, MFProbeListener)
+ */
+public final class MFProbeBatch<S> implements Iterable<MFProbeResult<S>> {
+
+    private static final Logger LOG = Logger.getLogger(MFProbeBatch.class.getName());
+    private static final MFProbeResult<Object> END = new MFProbeResult<>(null, null, null);
+
+    private final List<S> sources;
+    private final Prober<S> prober;
+    private final MFProbeListener<S> listener;
+    private final BlockingQueue<MFProbeResult<?>> results = new LinkedBlockingQueue<>();
+    private final AtomicInteger nextSource = new AtomicInteger();
+    private final AtomicInteger activeWorkers;
+    private final AtomicInteger completed = new AtomicInteger();
+    private volatile boolean cancelled;
+    private boolean iterated;
+
+    /**
+     * Starts probing.
+     *
+     * @param sources sources to probe
+     * @param parallelism max number of concurrent probes
+     * @param prober prober
+     * @param listener listener or <code>null</code>
+     * @param threadFactory factory for probing threads
+     */
+    MFProbeBatch(final Collection<? extends S> sources, final int parallelism, final Prober<S> prober,
+                 final MFProbeListener<S> listener, final ThreadFactory threadFactory) {
+        if (parallelism < 1) throw new IllegalArgumentException("Parallelism must be at least 1: " + parallelism);
+        this.sources = new ArrayList<>(sources);
+        this.prober = prober;
+        this.listener = listener;
+        final int workers = Math.max(1, Math.min(parallelism, this.sources.size()));
+        this.activeWorkers = new AtomicInteger(workers);
+        for (int i=0; i<workers; i++) {
+            threadFactory.newThread(new Runnable() {
+                @Override
+                public void run() {
+                    work();
+                }
+            }).start();
+        }
+    }
+
+    private void work() {
+        try {
+            int index;
+            while (!cancelled && (index = nextSource.getAndIncrement()) < sources.size()) {
+                final S source = sources.get(index);
+                MFProbeResult<S> result;
+                try {
+                    result = new MFProbeResult<>(source, prober.probe(source), null);
+                } catch (Exception e) {
+                    result = new MFProbeResult<>(source, null, e);
+                }
+                completed.incrementAndGet();
+                results.add(result);
+                if (listener != null) {
+                    try {
+                        listener.probed(result);
+                    } catch (RuntimeException e) {
+                        LOG.log(Level.WARNING, "Probe listener failed: " + e.toString(), e);
+                    }
+                }
+            }
+        } finally {
+            if (activeWorkers.decrementAndGet() == 0) {
+                results.add(END);
+            }
+        }
+    }
+
+    /**
+     * Stops starting new probes.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Indicates whether all probing threads have finished.
+     *
+     * @return true, if no more results will be produced
+     */
+    public boolean isDone() {
+        return activeWorkers.get() == 0;
+    }
+
+    /**
+     * Number of sources in this batch.
+     *
+     * @return size
+     */
+    public int size() {
+        return sources.size();
+    }
+
+    /**
+     * Number of sources probed so far.
+     *
+     * @return number of results produced so far
+     */
+    public int getCompletedCount() {
+        return completed.get();
+    }
+
+    /**
+     * Waits for all running probes to finish and returns all results not consumed via {@link #iterator()} yet.
+     *
+     * @return remaining results, in completion order
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public List<MFProbeResult<S>> awaitAll() throws InterruptedException {
+        final List<MFProbeResult<S>> list = new ArrayList<>();
+        MFProbeResult<S> result;
+        while ((result = take()) != null) {
+            list.add(result);
+        }
+        return list;
+    }
+
+    /**
+     * Blocks until the next result is available.
+     *
+     * @return next result or <code>null</code>, if all results have been consumed
+     * @throws InterruptedException if interrupted while waiting
+     */
+    @SuppressWarnings("unchecked")
+    public MFProbeResult<S> take() throws InterruptedException {
+        final MFProbeResult<?> result = results.take();
+        if (result == END) {
+            // leave marker for other consumers
+            results.add(END);
+            return null;
+        }
+        return (MFProbeResult<S>) result;
+    }
+
+    /**
+     * Iterates over results in completion order, blocking until the next one is available.
+     * Can only be called once.
+     * If the iterating thread is interrupted, iteration ends early and the interrupt flag is set.
+     *
+     * @return iterator
+     */
+    @Override
+    public synchronized Iterator<MFProbeResult<S>> iterator() {
+        if (iterated) throw new IllegalStateException("Batch results can only be iterated once");
+        iterated = true;
+        return new Iterator<MFProbeResult<S>>() {
+
+            private MFProbeResult<S> next;
+            private boolean end;
+
+            @Override
+            public boolean hasNext() {
+                if (next != null) return true;
+                if (end) return false;
+                try {
+                    next = take();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                end = next == null;
+                return !end;
+            }
+
+            @Override
+            public MFProbeResult<S> next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                final MFProbeResult<S> result = next;
+                next = null;
+                return result;
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    /**
+     * Probes a single source.
+     *
+     * @param <S> source type
+     */
+    interface Prober<S> {
+        AudioFileFormat probe(S source) throws UnsupportedAudioFileException, IOException;
+    }
+}
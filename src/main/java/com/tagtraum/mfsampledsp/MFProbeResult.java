@@ -0,0 +1,89 @@
+/*
+ * =================================================
+ * Copyright 2011 tagtraum industries incorporated
+ * This file is part of MFSampledSP.
+ *
+ * FFSampledSP is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * FFSampledSP is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with FFSampledSP; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ * =================================================
+ */
+package com.tagtraum.mfsampledsp;
+
+import javax.sound.sampled.AudioFileFormat;
+
+/**
+ * Outcome of probing a single source as part of an {@link MFProbeBatch}.
+ * Either carries a format or the exception that prevented probing.
+ *
+ * @param <S> source type, e.g. {@link java.net.URL} or {@link java.nio.file.Path}
+ * @author <a href="mailto:hs@tagtraum.com">Hendrik Schreiber</a>
+ */
+public final class MFProbeResult<S> {
+
+    private final S source;
+    private final AudioFileFormat audioFileFormat;
+    private final Exception exception;
+
+    MFProbeResult(final S source, final AudioFileFormat audioFileFormat, final Exception exception) {
+        this.source = source;
+        this.audioFileFormat = audioFileFormat;
+        this.exception = exception;
+    }
+
+    /**
+     * Probed source.
+     *
+     * @return source
+     */
+    public S getSource() {
+        return source;
+    }
+
+    /**
+     * Probed format.
+     *
+     * @return format or <code>null</code>, if probing failed
+     */
+    public AudioFileFormat getAudioFileFormat() {
+        return audioFileFormat;
+    }
+
+    /**
+     * Reason for failure, typically an {@link java.io.IOException} or a
+     * {@link javax.sound.sampled.UnsupportedAudioFileException}.
+     *
+     * @return exception or <code>null</code>, if probing succeeded
+     */
+    public Exception getException() {
+        return exception;
+    }
+
+    /**
+     * Indicates whether a format could be determined.
+     *
+     * @return true, if probing succeeded
+     */
+    public boolean isSuccess() {
+        return exception == null;
+    }
+
+    @Override
+    public String toString() {
+        return "MFProbeResult{" +
+                "source=" + source +
+                ", audioFileFormat=" + audioFileFormat +
+                ", exception=" + exception +
+                '}';
+    }
+}
@@ -0,0 +1,275 @@
+/*
+ * =================================================
+ * Copyright 2011 tagtraum industries incorporated
+ * This file is part of MFSampledSP.
+ *
+ * FFSampledSP is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * FFSampledSP is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with FFSampledSP; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ * =================================================
+ */
+package com.tagtraum.mfsampledsp;
+
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Decodes ahead of the consumer on a background thread.
+ * <p>
+ * A producer thread keeps filling the native buffer of the wrapped stream and publishes
+ * each decoded sample into a bounded single-producer/single-consumer ring of buffers.
+ * When the consumer runs out of data, it simply takes the next ready buffer from the ring,
+ * instead of waiting for the decoder. Ring positions are plain counters published via
+ * volatile writes, i.e. the ring is lock-free.
+ * <p>
+ * To use it, wrap a freshly opened stream, e.g.:
+ * <pre>
+ * new MFAudioInputStream(new MFReadAheadInputStream(new MFFileInputStream(url), 4), format, frameLength)
+ * </pre>
+ * Once wrapped, the original stream must not be used directly anymore.
+ *
+ * @author <a href="mailto:hs@tagtraum.com">Hendrik Schreiber</a>
+ */
+public class MFReadAheadInputStream extends MFNativePeerInputStream {
+
+    private static final long PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private final MFNativePeerInputStream delegate;
+    private final ByteBuffer[] slots;
+    /**
+     * Sample times of the slots' first frames.
+     */
+    private final long[] slotTimes;
+    private final int depth;
+    /**
+     * Number of slots consumed so far. Only written by the consumer.
+     */
+    private final AtomicLong head = new AtomicLong();
+    /**
+     * Number of slots produced so far. Only written by the producer.
+     */
+    private final AtomicLong tail = new AtomicLong();
+    private volatile boolean running;
+    private volatile boolean producerDone;
+    private volatile Exception failure;
+    private volatile Thread waitingConsumer;
+    private Thread producer;
+    private boolean holdingSlot;
+    private boolean closed;
+
+    /**
+     * Creates a read-ahead stream.
+     *
+     * @param delegate freshly opened stream that does the actual decoding
+     * @param depth number of decoded samples to buffer, at least 2
+     */
+    public MFReadAheadInputStream(final MFNativePeerInputStream delegate, final int depth) throws IOException, UnsupportedAudioFileException {
+        if (depth < 2) throw new IllegalArgumentException("Depth must be at least 2: " + depth);
+        this.delegate = delegate;
+        this.depth = depth;
+        this.slots = new ByteBuffer[depth];
+        this.slotTimes = new long[depth];
+        final MFDirectBufferPool pool = MFDirectBufferPool.getInstance();
+        final ByteBuffer delegateBuffer = delegate.takeNativeBuffer();
+        for (int i=0; i<depth; i++) {
+            slots[i] = pool.acquire(Math.max(delegateBuffer.capacity(), 32 * 1024));
+        }
+        // take over whatever the delegate has already decoded
+        adoptNativeBuffer(delegateBuffer);
+        this.sampleTime = delegate.sampleTime;
+    }
+
+    /**
+     * Number of decoded samples that are buffered ahead of the consumer.
+     *
+     * @return depth
+     */
+    public int getDepth() {
+        return depth;
+    }
+
+    @Override
+    protected void fillNativeBuffer() throws IOException {
+        if (closed) return;
+        if (holdingSlot) {
+            // hand the consumed slot back to the producer
+            holdingSlot = false;
+            setNativeBuffer(EMPTY_BUFFER);
+            head.set(head.get() + 1);
+            LockSupport.unpark(producer);
+        }
+        if (producer == null) {
+            startProducer();
+        }
+        final long h = head.get();
+        while (tail.get() == h) {
+            if (producerDone) {
+                if (tail.get() != h) break;
+                final Exception e = failure;
+                if (e instanceof IOException) throw (IOException)e;
+                if (e != null) throw (RuntimeException)e;
+                // end of stream
+                return;
+            }
+            waitingConsumer = Thread.currentThread();
+            if (tail.get() == h && !producerDone) {
+                LockSupport.parkNanos(this, PARK_NANOS);
+            }
+            waitingConsumer = null;
+        }
+        setNativeBuffer(slots[(int) (h % depth)]);
+        sampleTime = slotTimes[(int) (h % depth)];
+        holdingSlot = true;
+    }
+
+    @Override
+    protected boolean canFillDirectly(final ByteBuffer dst) {
+        // data is already decoded, by the time we get it
+        return false;
+    }
+
+    @Override
+    public boolean isSeekable() {
+        return delegate.isSeekable();
+    }
+
+    /**
+     * Stops the producer, discards all data decoded ahead, seeks the underlying stream
+     * and lets the producer continue from the new position.
+     */
+    @Override
+    public void seek(final long time, final TimeUnit timeUnit) throws UnsupportedOperationException, IOException {
+        if (closed) throw new IOException("Stream is already closed.");
+        stopProducer();
+        holdingSlot = false;
+        setNativeBuffer(EMPTY_BUFFER);
+        head.set(tail.get());
+        delegate.seek(time, timeUnit);
+    }
+
+    @Override
+    MFSeekIndex getSeekIndex() {
+        return delegate.getSeekIndex();
+    }
+
+    @Override
+    public boolean isOpen() {
+        return !closed;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) return;
+        closed = true;
+        try {
+            stopProducer();
+        } finally {
+            try {
+                delegate.close();
+            } finally {
+                setNativeBuffer(EMPTY_BUFFER);
+                final MFDirectBufferPool pool = MFDirectBufferPool.getInstance();
+                for (int i=0; i<slots.length; i++) {
+                    pool.release(slots[i]);
+                    slots[i] = null;
+                }
+                super.close();
+            }
+        }
+    }
+
+    @Override
+    protected void close(final long pointer) throws IOException {
+        // we don't have a native peer of our own
+    }
+
+    private void startProducer() {
+        running = true;
+        producerDone = false;
+        failure = null;
+        producer = new Thread(new Producer(), "MFSampledSP Read-Ahead");
+        producer.setDaemon(true);
+        producer.start();
+    }
+
+    /**
+     * Stops the producer and waits for it to finish.
+     * Waiting is not interruptible, because the producer may still be writing into a slot;
+     * the interrupt status is restored afterwards.
+     */
+    private void stopProducer() {
+        final Thread thread = producer;
+        if (thread == null) return;
+        running = false;
+        LockSupport.unpark(thread);
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    thread.join();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        } finally {
+            producer = null;
+            if (interrupted) Thread.currentThread().interrupt();
+        }
+    }
+
+    private class Producer implements Runnable {
+
+        @Override
+        public void run() {
+            try {
+                while (running) {
+                    final long t = tail.get();
+                    if (t - head.get() >= depth) {
+                        // ring is full
+                        LockSupport.parkNanos(this, PARK_NANOS);
+                        continue;
+                    }
+                    final int index = (int) (t % depth);
+                    final ByteBuffer slot = slots[index];
+                    slot.clear().limit(0);
+                    delegate.setNativeBuffer(slot);
+                    delegate.sampleTime = -1;
+                    delegate.fillNativeBuffer();
+                    slotTimes[index] = delegate.sampleTime;
+                    final ByteBuffer filled = delegate.takeNativeBuffer();
+                    if (filled != slot) {
+                        // the decoder needed a bigger buffer
+                        MFDirectBufferPool.getInstance().release(slot);
+                        slots[index] = filled;
+                    }
+                    if (!filled.hasRemaining()) {
+                        // end of stream
+                        break;
+                    }
+                    tail.set(t + 1);
+                    LockSupport.unpark(waitingConsumer);
+                }
+            } catch (IOException | RuntimeException e) {
+                failure = e;
+            } finally {
+                producerDone = true;
+                LockSupport.unpark(waitingConsumer);
+            }
+        }
+    }
+}
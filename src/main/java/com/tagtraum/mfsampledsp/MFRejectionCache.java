@@ -0,0 +1,102 @@
+/*
+ * =================================================
+ * Copyright 2011 tagtraum industries incorporated
+ * This file is part of MFSampledSP.
+ *
+ * FFSampledSP is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * FFSampledSP is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with FFSampledSP; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ * =================================================
+ */
+package com.tagtraum.mfsampledsp;
+
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded LRU cache of recent {@link UnsupportedAudioFileException}s, keyed by {@link MFSourceIdentity},
+ * so that files Media Foundation has rejected once are not probed natively again and again,
+ * e.g. when {@link javax.sound.sampled.AudioSystem} asks all providers about the same file.
+ * Only local files are cached, because their identity changes when they change.
+ * The size can be set with the system property <code>com.tagtraum.mfsampledsp.rejectioncache.size</code>
+ * (default 1024, <code>0</code> disables caching).
+ *
+ * @author <a href="mailto:hs@tagtraum.com">Hendrik Schreiber</a>
+ */
+final class MFRejectionCache {
+
+    private static final int DEFAULT_MAX_SIZE = 1024;
+
+    private final int maxSize;
+    private final Map<MFSourceIdentity, String> rejections;
+
+    MFRejectionCache(final int maxSize) {
+        if (maxSize < 0) throw new IllegalArgumentException("Max size must be greater than or equal to 0: " + maxSize);
+        this.maxSize = maxSize;
+        this.rejections = new LinkedHashMap<MFSourceIdentity, String>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<MFSourceIdentity, String> eldest) {
+                return size() > MFRejectionCache.this.maxSize;
+            }
+        };
+    }
+
+    static MFRejectionCache fromSystemProperties() {
+        return new MFRejectionCache(Math.max(0, Integer.getInteger("com.tagtraum.mfsampledsp.rejectioncache.size", DEFAULT_MAX_SIZE)));
+    }
+
+    /**
+     * Throws a new {@link UnsupportedAudioFileException} with the message of the cached one, if any.
+     *
+     * @param identity source identity
+     * @throws UnsupportedAudioFileException if the source has been rejected before
+     */
+    void check(final MFSourceIdentity identity) throws UnsupportedAudioFileException {
+        if (!isCacheable(identity)) return;
+        final String message;
+        synchronized (rejections) {
+            message = rejections.get(identity);
+        }
+        if (message != null) throw new UnsupportedAudioFileException(message);
+    }
+
+    /**
+     * Remembers a rejection.
+     *
+     * @param identity source identity
+     * @param e rejection
+     */
+    void put(final MFSourceIdentity identity, final UnsupportedAudioFileException e) {
+        if (!isCacheable(identity)) return;
+        synchronized (rejections) {
+            rejections.put(identity, e.getMessage());
+        }
+    }
+
+    void clear() {
+        synchronized (rejections) {
+            rejections.clear();
+        }
+    }
+
+    int size() {
+        synchronized (rejections) {
+            return rejections.size();
+        }
+    }
+
+    private boolean isCacheable(final MFSourceIdentity identity) {
+        return maxSize > 0 && identity.getLength() != -1;
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * =================================================
+ * Copyright 2011 tagtraum industries incorporated
+ * This file is part of MFSampledSP.
+ *
+ * FFSampledSP is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * FFSampledSP is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with FFSampledSP; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ * =================================================
+ */
+package com.tagtraum.mfsampledsp;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Learned seek points of one source.
+ * <p>
+ * Media Foundation does not seek sample-exact, but lands on a nearby decodable position.
+ * Every time a seek lands, {@link MFAudioInputStream#seek(long, java.util.concurrent.TimeUnit)} records
+ * the frame it landed on together with the sample time reported by the decoder. Seeking to such a
+ * sample time again lands exactly on the recorded frame, so later seeks close to a known point
+ * don't have to guess. Additionally, the index remembers how far seeks landed before or after the
+ * requested position, so that seeks to unknown positions can be biased to land before their target.
+ * <p>
+ * Indices of files and URLs are shared by all streams opened on the same {@link MFSourceIdentity}.
+ * The number of shared indices can be set with the system property
+ * <code>com.tagtraum.mfsampledsp.seekindex.size</code> (default 256, least recently used indices are dropped).
+ *
+ * @author <a href="mailto:hs@tagtraum.com">Hendrik Schreiber</a>
+ */
+final class MFSeekIndex {
+
+    private static final int MAX_SOURCES = Math.max(0, Integer.getInteger("com.tagtraum.mfsampledsp.seekindex.size", 256));
+    private static final int DEFAULT_MAX_POINTS = 4096;
+    private static final Map<MFSourceIdentity, MFSeekIndex> INDICES = new LinkedHashMap<MFSourceIdentity, MFSeekIndex>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<MFSourceIdentity, MFSeekIndex> eldest) {
+            return size() > MAX_SOURCES;
+        }
+    };
+
+    /**
+     * Frame -&gt; sample time in 100ns units.
+     */
+    private final TreeMap<Long, Long> points = new TreeMap<>();
+    private final int maxPoints;
+    private long maxLag;
+    private long maxLead;
+
+    /**
+     * Creates an index that is not shared.
+     */
+    MFSeekIndex() {
+        this(DEFAULT_MAX_POINTS);
+    }
+
+    /**
+     * @param maxPoints max number of seek points to remember
+     */
+    MFSeekIndex(final int maxPoints) {
+        if (maxPoints < 1) throw new IllegalArgumentException("Max points must be greater than 0: " + maxPoints);
+        this.maxPoints = maxPoints;
+    }
+
+    /**
+     * Shared index for the given source.
+     *
+     * @param identity source identity
+     * @return index
+     */
+    static MFSeekIndex forSource(final MFSourceIdentity identity) {
+        synchronized (INDICES) {
+            MFSeekIndex index = INDICES.get(identity);
+            if (index == null) {
+                index = new MFSeekIndex();
+                INDICES.put(identity, index);
+            }
+            return index;
+        }
+    }
+
+    /**
+     * Records where a seek landed.
+     *
+     * @param requestedFrame frame the seek was aimed at
+     * @param landedFrame frame the decoder actually delivered first
+     * @param sampleTime sample time of the landed frame in 100ns units
+     */
+    synchronized void add(final long requestedFrame, final long landedFrame, final long sampleTime) {
+        if (landedFrame > requestedFrame) maxLead = Math.max(maxLead, landedFrame - requestedFrame);
+        else maxLag = Math.max(maxLag, requestedFrame - landedFrame);
+        if (points.containsKey(landedFrame)) return;
+        if (points.size() >= maxPoints) {
+            // make room by thinning out the neighborhood of the new point
+            final Map.Entry<Long, Long> neighbor = points.lowerEntry(landedFrame);
+            points.remove(neighbor != null ? neighbor.getKey() : points.higherKey(landedFrame));
+        }
+        points.put(landedFrame, sampleTime);
+    }
+
+    /**
+     * Known seek point at or before the given frame.
+     *
+     * @param frame frame
+     * @return entry of frame and sample time in 100ns units, or <code>null</code>
+     */
+    synchronized Map.Entry<Long, Long> floor(final long frame) {
+        return points.floorEntry(frame);
+    }
+
+    /**
+     * Largest distance observed so far by which a seek landed <em>before</em> the requested frame.
+     *
+     * @return frames
+     */
+    synchronized long getMaxLag() {
+        return maxLag;
+    }
+
+    /**
+     * Largest distance observed so far by which a seek landed <em>after</em> the requested frame.
+     *
+     * @return frames
+     */
+    synchronized long getMaxLead() {
+        return maxLead;
+    }
+
+    /**
+     * Number of known seek points.
+     *
+     * @return size
+     */
+    synchronized int size() {
+        return points.size();
+    }
+}
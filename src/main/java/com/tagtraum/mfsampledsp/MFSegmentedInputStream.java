@@ -0,0 +1,595 @@
+/*
+ * =================================================
+ * Copyright 2011 tagtraum industries incorporated
+ * This file is part of MFSampledSP.
+ *
+ * FFSampledSP is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * FFSampledSP is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with FFSampledSP; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ * =================================================
+ */
+package com.tagtraum.mfsampledsp;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decodes a seekable source in parallel and stitches the results back together
+ * into one ordered PCM stream.
+ * <p>
+ * The timeline is split into segments. Each segment is decoded by its own stream,
+ * opened on the same source and positioned via {@link MFNativePeerInputStream#seek(long, TimeUnit)}.
+ * Because seeking is not sample-exact and decoders need some time to prime,
+ * each segment starts decoding a little before its nominal start and its predecessor
+ * keeps decoding a little beyond its nominal end. When stitching, a short probe taken from
+ * the primed part of a segment is searched in the overlapping tail of its predecessor.
+ * The predecessor is emitted up to the match, the segment from the probe on. Thus the output
+ * is exactly what a sequential decode would produce. Probes without variation (e.g. digital silence)
+ * and probes that match more than once are not trusted. Should no unique match be found, the two
+ * segments are decoded again as one, sequentially. If the source turns out not to be seekable,
+ * all of it is decoded sequentially.
+ * <p>
+ * At most <code>parallelism</code> segments are decoded ahead of the reader. Decoded segments are
+ * held in memory until read, i.e. memory consumption is roughly bounded by <code>parallelism</code>
+ * times the decoded size of a segment. The last segment is not buffered, but read straight from its
+ * decoder.
+ *
+ * @author <a href="mailto:hs@tagtraum.com">Hendrik Schreiber</a>
+ * @see MFAudioFileReader#getSegmentedAudioInputStream(java.net.URL, int, int, java.util.concurrent.ExecutorService)
+ */
+public class MFSegmentedInputStream extends InputStream {
+
+    /**
+     * Number of frames used to find the position of a segment in its predecessor.
+     */
+    static final int PROBE_FRAMES = 1024;
+    /**
+     * Max decoded size of a buffered segment.
+     */
+    private static final long MAX_SEGMENT_BYTES = 256L * 1024L * 1024L;
+    private static final int NO_MATCH = -1;
+    private static final int AMBIGUOUS = -2;
+
+    private final Opener opener;
+    private final int frameSize;
+    private final float frameRate;
+    private final int overlap;
+    private final int parallelism;
+    private final ExecutorService executor;
+    private Segment[] segments;
+
+    private int current = -1;
+    private Chunk chunk;
+    private long chunkStartFrame;
+    private int position;
+    private int end;
+    private volatile boolean closed;
+
+    /**
+     * Creates a segmented stream.
+     *
+     * @param url source
+     * @param format format of the decoded audio, must have a known frame size and frame rate
+     * @param frameLength (estimated) length of the source in frames
+     * @param segments desired number of segments
+     * @param parallelism max number of segments decoded ahead of the reader
+     * @param executor executor to decode segments with
+     */
+    public MFSegmentedInputStream(final URL url, final AudioFormat format, final long frameLength,
+                                  final int segments, final int parallelism, final ExecutorService executor) {
+        this(new Opener() {
+            @Override
+            public MFNativePeerInputStream open() throws IOException, UnsupportedAudioFileException {
+                return new MFFileInputStream(url);
+            }
+        }, format, frameLength, segments, parallelism, executor);
+    }
+
+    MFSegmentedInputStream(final Opener opener, final AudioFormat format, final long frameLength,
+                           final int segments, final int parallelism, final ExecutorService executor) {
+        if (format.getFrameSize() <= 0) throw new IllegalArgumentException("Frame size must be known: " + format);
+        if (format.getFrameRate() <= 0) throw new IllegalArgumentException("Frame rate must be known: " + format);
+        if (segments < 1) throw new IllegalArgumentException("Number of segments must be at least 1: " + segments);
+        if (parallelism < 1) throw new IllegalArgumentException("Parallelism must be at least 1: " + parallelism);
+        this.opener = opener;
+        this.frameSize = format.getFrameSize();
+        this.frameRate = format.getFrameRate();
+        this.overlap = Math.max(2 * PROBE_FRAMES, Math.round(frameRate));
+        this.parallelism = parallelism;
+        this.executor = executor;
+        this.segments = plan(frameLength, segments);
+        submit();
+    }
+
+    /**
+     * Splits the timeline into segments. Segments that are too short to be stitched
+     * reliably are avoided, so are segments that are too large to be buffered.
+     */
+    private Segment[] plan(final long frameLength, final int desiredSegments) {
+        final int count;
+        if (frameLength == AudioSystem.NOT_SPECIFIED || frameLength <= 0) {
+            count = 1;
+        } else {
+            final long minSegments = (frameLength * frameSize + MAX_SEGMENT_BYTES - 1) / MAX_SEGMENT_BYTES;
+            final long maxSegments = frameLength / (4L * overlap);
+            count = (int) Math.max(1, Math.min(Math.max(desiredSegments, minSegments), maxSegments));
+        }
+        final Segment[] plan = new Segment[count];
+        for (int i=0; i<count; i++) {
+            final long start = i * frameLength / count;
+            final boolean last = i == count - 1;
+            final long requestFrame = i == 0 ? 0 : start - overlap;
+            final long frames = last ? -1 : (i + 1) * frameLength / count - requestFrame + 2L * overlap;
+            plan[i] = new Segment(requestFrame, frames, last);
+        }
+        return plan;
+    }
+
+    /**
+     * Number of segments actually used. May decrease while reading, if two segments
+     * could not be stitched and had to be decoded as one.
+     *
+     * @return segment count
+     */
+    public int getSegmentCount() {
+        return segments.length;
+    }
+
+    /**
+     * Makes sure that the segments in the window ahead of the reader are being decoded.
+     */
+    private void submit() {
+        final int limit = Math.min(segments.length, Math.max(current, 0) + parallelism + 1);
+        for (int i=0; i<limit; i++) {
+            final Segment segment = segments[i];
+            if (segment.future == null && i >= current) {
+                segment.future = executor.submit(new Callable<Chunk>() {
+                    @Override
+                    public Chunk call() throws Exception {
+                        final Chunk decoded = decode(segment.requestFrame, segment.frames);
+                        if (!segment.handOver(decoded)) {
+                            // discarded while decoding, nobody is going to close the stream
+                            decoded.close();
+                            return null;
+                        }
+                        return decoded;
+                    }
+                });
+            }
+        }
+    }
+
+    /**
+     * Decodes the given number of frames, starting at (or around) the given frame.
+     * When decoding to the end, only the first <code>2*overlap</code> frames are
+     * decoded right away, the rest is read from the still open stream, when needed.
+     *
+     * @param requestFrame frame to seek to, 0 to decode from the beginning without seeking
+     * @param frames number of frames or -1 to decode to the end
+     * @return decoded data
+     * @throws NotSeekableException if the source cannot seek to <code>requestFrame</code>
+     */
+    private Chunk decode(final long requestFrame, final long frames) throws IOException, UnsupportedAudioFileException {
+        final boolean streaming = frames < 0;
+        final int maxBytes = (int) Math.min(Integer.MAX_VALUE - 8, (streaming ? 2L * overlap : frames) * frameSize);
+        byte[] bytes = new byte[Math.min(maxBytes, 1024 * 1024)];
+        int length = 0;
+        final MFNativePeerInputStream in = opener.open();
+        try {
+            if (requestFrame > 0) {
+                try {
+                    in.seek((long) (requestFrame * 1000000.0 / frameRate), TimeUnit.MICROSECONDS);
+                } catch (UnsupportedOperationException e) {
+                    throw new NotSeekableException(e);
+                }
+            }
+            boolean endOfStream = false;
+            while (length < maxBytes) {
+                if (Thread.interrupted()) throw new InterruptedIOException("Decoding of segment was interrupted.");
+                if (length == bytes.length) {
+                    bytes = Arrays.copyOf(bytes, (int) Math.min(maxBytes, bytes.length * 2L));
+                }
+                final int justRead = in.read(bytes, length, bytes.length - length);
+                if (justRead == -1) {
+                    endOfStream = true;
+                    break;
+                }
+                length += justRead;
+            }
+            if (streaming && !endOfStream && !closed) {
+                // the rest is read from the stream
+                return new Chunk(bytes, length, in);
+            }
+        } catch (IOException | RuntimeException e) {
+            in.close();
+            throw e;
+        }
+        in.close();
+        return new Chunk(bytes, length - length % frameSize, null);
+    }
+
+    /**
+     * Moves on to the next segment and determines which part of it to emit.
+     *
+     * @return false, if there is no more segment
+     */
+    private boolean nextSegment() throws IOException {
+        final int next = current + 1;
+        if (next >= segments.length) return false;
+        if (current < 0) {
+            chunk = await(segments[0]);
+            chunkStartFrame = 0;
+            position = 0;
+        } else {
+            final Segment segment = segments[next];
+            chunkStartFrame += segments[current].nextOffset - segment.startOffset;
+            chunk = segment.chunk;
+            position = segment.startOffset * frameSize;
+            segments[current].release();
+        }
+        current = next;
+        submit();
+        end = findEnd();
+        return true;
+    }
+
+    /**
+     * Finds the end of the current chunk, i.e. where the next segment takes over.
+     * If necessary, merges the current segment with the next one.
+     *
+     * @return end in bytes
+     */
+    private int findEnd() throws IOException {
+        while (true) {
+            final Segment segment = segments[current];
+            if (segment.last) return chunk.length;
+
+            final Segment nextSegment = segments[current + 1];
+            final Chunk nextChunk;
+            try {
+                nextChunk = await(nextSegment);
+            } catch (NotSeekableException e) {
+                decodeRest(segment);
+                continue;
+            }
+            // move the probe, if it is not unique
+            int match = NO_MATCH;
+            int probeStart = overlap / 2;
+            for (; probeStart + PROBE_FRAMES <= 2 * overlap; probeStart += overlap / 4) {
+                final long expected = nextSegment.requestFrame + probeStart - chunkStartFrame;
+                match = find(chunk, nextChunk, probeStart, expected, position / frameSize);
+                if (match != AMBIGUOUS) break;
+            }
+            if (match >= 0) {
+                nextSegment.chunk = nextChunk;
+                nextSegment.startOffset = probeStart;
+                segment.nextOffset = match;
+                return match * frameSize;
+            }
+            // no overlap found: decode both segments sequentially, as if they were one
+            final long frames = nextSegment.last ? -1 : nextSegment.requestFrame + nextSegment.frames - segment.requestFrame;
+            if (frames < 0 || frames * frameSize > 2 * MAX_SEGMENT_BYTES) {
+                decodeRest(segment);
+                continue;
+            }
+            discard(nextSegment);
+            redecode(segment, frames, false);
+            // drop the merged segment
+            final Segment[] remaining = new Segment[segments.length - 1];
+            System.arraycopy(segments, 0, remaining, 0, current + 1);
+            System.arraycopy(segments, current + 2, remaining, current + 1, segments.length - current - 2);
+            segments = remaining;
+            submit();
+        }
+    }
+
+    /**
+     * Decodes everything from the current segment on sequentially, without buffering.
+     */
+    private void decodeRest(final Segment segment) throws IOException {
+        for (int i = current + 1; i < segments.length; i++) {
+            discard(segments[i]);
+        }
+        redecode(segment, -1, true);
+        segments = Arrays.copyOf(segments, current + 1);
+    }
+
+    /**
+     * Decodes the current segment again, with a new length.
+     */
+    private void redecode(final Segment segment, final long frames, final boolean last) throws IOException {
+        chunk.close();
+        try {
+            chunk = decode(segment.requestFrame, frames);
+        } catch (UnsupportedAudioFileException e) {
+            throw new IOException(e.toString(), e);
+        }
+        segment.frames = frames;
+        segment.last = last;
+    }
+
+    /**
+     * Cancels decoding of the given segment and closes its stream, if it has one.
+     * A decode that is already running cannot be stopped by cancelling it; it closes
+     * its stream itself, once it sees that the segment has been discarded.
+     */
+    private static void discard(final Segment segment) {
+        final Future<Chunk> future = segment.future;
+        if (future == null) return;
+        future.cancel(true);
+        final Chunk decoded = segment.discard();
+        if (decoded != null) decoded.close();
+        if (segment.chunk != null) segment.chunk.close();
+    }
+
+    /**
+     * Searches for the probe taken from <code>next</code> in <code>chunk</code>, starting
+     * at the expected position and moving outwards, at most by the overlap.
+     *
+     * @return matching frame in <code>chunk</code>, {@link #NO_MATCH} or {@link #AMBIGUOUS},
+     * if the probe has no variation or matches more than once
+     */
+    private int find(final Chunk chunk, final Chunk next, final int probeStart, final long expected, final int minFrame) {
+        final int chunkFrames = chunk.length / frameSize;
+        final int nextFrames = next.length / frameSize;
+        final int probeFrames = Math.min(PROBE_FRAMES, nextFrames - probeStart);
+        if (probeFrames < PROBE_FRAMES / 4) return NO_MATCH;
+        final int probeOffset = probeStart * frameSize;
+        final int probeLength = probeFrames * frameSize;
+        if (isConstant(next.bytes, probeOffset, probeLength)) return AMBIGUOUS;
+        final int maxFrame = chunkFrames - probeFrames;
+        // seek errors beyond the overlap cannot be stitched anyway
+        final long maxDistance = overlap;
+        int match = NO_MATCH;
+        for (long distance = 0; distance <= maxDistance; distance++) {
+            final long later = expected + distance;
+            if (later >= minFrame && later <= maxFrame
+                    && matches(chunk.bytes, (int) later * frameSize, next.bytes, probeOffset, probeLength)) {
+                if (match != NO_MATCH) return AMBIGUOUS;
+                match = (int) later;
+            }
+            final long earlier = expected - distance;
+            if (distance > 0 && earlier >= minFrame && earlier <= maxFrame
+                    && matches(chunk.bytes, (int) earlier * frameSize, next.bytes, probeOffset, probeLength)) {
+                if (match != NO_MATCH) return AMBIGUOUS;
+                match = (int) earlier;
+            }
+        }
+        return match;
+    }
+
+    /**
+     * Indicates whether all frames in the given range are the same.
+     */
+    private boolean isConstant(final byte[] b, final int offset, final int length) {
+        for (int i=offset + frameSize; i<offset + length; i++) {
+            if (b[i] != b[i - frameSize]) return false;
+        }
+        return true;
+    }
+
+    private static boolean matches(final byte[] a, final int aOffset, final byte[] b, final int bOffset, final int length) {
+        for (int i=0; i<length; i++) {
+            if (a[aOffset + i] != b[bOffset + i]) return false;
+        }
+        return true;
+    }
+
+    private Chunk await(final Segment segment) throws IOException {
+        try {
+            return segment.future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            final InterruptedIOException interruptedIOException = new InterruptedIOException("Interrupted while waiting for segment.");
+            interruptedIOException.initCause(e);
+            throw interruptedIOException;
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof IOException) throw (IOException) cause;
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            if (cause instanceof Error) throw (Error) cause;
+            throw new IOException(cause.toString(), cause);
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        final byte[] b = new byte[1];
+        final int justRead = read(b, 0, 1);
+        return justRead == -1 ? -1 : b[0] & 0xff;
+    }
+
+    @Override
+    public int read(final byte[] b, final int off, final int len) throws IOException {
+        if (len == 0) return 0;
+        if (len < 0) throw new IllegalArgumentException("Length must be greater than or equal to 0: " + len);
+        if (off < 0) throw new IllegalArgumentException("Offset must be greater than or equal to 0: " + off);
+        if (b.length - off < len) throw new IllegalArgumentException("There must be more space than "  + len + " bytes left in the buffer. Offset is " + off);
+        if (closed) return -1;
+
+        int bytesRead = 0;
+        while (bytesRead < len) {
+            if (chunk != null && position >= end && chunk.stream != null) {
+                // tail of the last segment, straight from its decoder
+                final int justRead = chunk.read(position - end, b, off + bytesRead, len - bytesRead);
+                if (justRead == -1) {
+                    chunk.close();
+                    continue;
+                }
+                position = end;
+                bytesRead += justRead;
+                continue;
+            }
+            if (chunk == null || position >= end) {
+                if (!nextSegment()) {
+                    chunk = null;
+                    break;
+                }
+                continue;
+            }
+            final int chunkSize = Math.min(len - bytesRead, end - position);
+            System.arraycopy(chunk.bytes, position, b, off + bytesRead, chunkSize);
+            position += chunkSize;
+            bytesRead += chunkSize;
+        }
+        return bytesRead == 0 ? -1 : bytesRead;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) return;
+        closed = true;
+        if (chunk != null) chunk.close();
+        chunk = null;
+        for (final Segment segment : segments) {
+            if (segment != null) discard(segment);
+        }
+    }
+
+    /**
+     * Opens streams on the source to decode.
+     */
+    interface Opener {
+        MFNativePeerInputStream open() throws IOException, UnsupportedAudioFileException;
+    }
+
+    /**
+     * Signals that a segment could not be positioned.
+     */
+    @SuppressWarnings("serial")
+    private static class NotSeekableException extends IOException {
+        private NotSeekableException(final UnsupportedOperationException cause) {
+            super(cause.toString(), cause);
+        }
+    }
+
+    private static class Chunk {
+        private final byte[] bytes;
+        private final int length;
+        /**
+         * Stream to read the data following <code>bytes</code> from, if still open.
+         */
+        private MFNativePeerInputStream stream;
+
+        private Chunk(final byte[] bytes, final int length, final MFNativePeerInputStream stream) {
+            this.bytes = bytes;
+            this.length = length;
+            this.stream = stream;
+        }
+
+        /**
+         * Reads from the stream following the buffered data.
+         *
+         * @param skip bytes to skip first
+         * @return bytes read or -1, if the end of the stream is reached
+         */
+        private int read(final int skip, final byte[] b, final int off, final int len) throws IOException {
+            for (int skipped = 0; skipped < skip; ) {
+                final int justRead = stream.read(b, off, Math.min(len, skip - skipped));
+                if (justRead == -1) return -1;
+                skipped += justRead;
+            }
+            return stream.read(b, off, len);
+        }
+
+        private void close() {
+            final MFNativePeerInputStream in = stream;
+            stream = null;
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // nothing we can do
+                }
+            }
+        }
+    }
+
+    private static class Segment {
+        /**
+         * Frame to seek to.
+         */
+        private final long requestFrame;
+        /**
+         * Frames to decode, -1 to decode to the end.
+         */
+        private long frames;
+        private boolean last;
+        private Future<Chunk> future;
+        /**
+         * Aligned data, set when the predecessor has been stitched.
+         */
+        private Chunk chunk;
+        /**
+         * First frame of this segment's chunk to emit.
+         */
+        private int startOffset;
+        /**
+         * Frame in this segment's chunk at which the next segment takes over.
+         */
+        private int nextOffset;
+
+        /**
+         * Result of the decode task, once it is done.
+         */
+        private Chunk decoded;
+        private boolean discarded;
+
+        private Segment(final long requestFrame, final long frames, final boolean last) {
+            this.requestFrame = requestFrame;
+            this.frames = frames;
+            this.last = last;
+        }
+
+        /**
+         * Called by the decode task with its result.
+         *
+         * @return false, if the segment has already been discarded
+         */
+        private synchronized boolean handOver(final Chunk chunk) {
+            if (discarded) return false;
+            this.decoded = chunk;
+            return true;
+        }
+
+        /**
+         * Marks this segment as discarded.
+         *
+         * @return decoded chunk, if the decode task is already done
+         */
+        private synchronized Chunk discard() {
+            discarded = true;
+            return decoded;
+        }
+
+        /**
+         * Drops all references to the data of this segment, once it has been emitted.
+         */
+        private synchronized void release() {
+            chunk = null;
+            decoded = null;
+            future = null;
+        }
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * =================================================
+ * Copyright 2011 tagtraum industries incorporated
+ * This file is part of MFSampledSP.
+ *
+ * FFSampledSP is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * FFSampledSP is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with FFSampledSP; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ * =================================================
+ */
+package com.tagtraum.mfsampledsp;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * Identifies a source by its normalized location and, for local files,
+ * by its length and last modification time. If a file changes on disk,
+ * its identity changes, too.
+ * <p>
+ * Unlike {@link URL}, this class never resolves host names in {@link #equals(Object)}
+ * or {@link #hashCode()}.
+ *
+ * @author <a href="mailto:hs@tagtraum.com">Hendrik Schreiber</a>
+ */
+public final class MFSourceIdentity {
+
+    private final String location;
+    private final long length;
+    private final long lastModified;
+    private final int hashCode;
+
+    MFSourceIdentity(final String location, final long length, final long lastModified) {
+        this.location = location;
+        this.length = length;
+        this.lastModified = lastModified;
+        int result = location.hashCode();
+        result = 31 * result + (int) (length ^ (length >>> 32));
+        result = 31 * result + (int) (lastModified ^ (lastModified >>> 32));
+        this.hashCode = result;
+    }
+
+    /**
+     * Identity of a local file.
+     *
+     * @param path path
+     * @return identity
+     */
+    public static MFSourceIdentity of(final Path path) {
+        final Path normalized = path.toAbsolutePath().normalize();
+        try {
+            final BasicFileAttributes attributes = Files.readAttributes(normalized, BasicFileAttributes.class);
+            return new MFSourceIdentity(normalized.toString(), attributes.size(), attributes.lastModifiedTime().toMillis());
+        } catch (IOException e) {
+            // does not exist (anymore) or is not accessible
+            return new MFSourceIdentity(normalized.toString(), -1, -1);
+        }
+    }
+
+    /**
+     * Identity of a URL. <code>file:</code> URLs are treated like local files,
+     * all other URLs are identified by their external form only.
+     *
+     * @param url url
+     * @return identity
+     */
+    public static MFSourceIdentity of(final URL url) {
+        if ("file".equalsIgnoreCase(url.getProtocol())) {
+            try {
+                return of(new File(url.toURI()).toPath());
+            } catch (URISyntaxException | RuntimeException e) {
+                // e.g. UNC path with authority, fall through
+            }
+        }
+        return new MFSourceIdentity(url.toExternalForm(), -1, -1);
+    }
+
+    /**
+     * Normalized path or URL.
+     *
+     * @return location
+     */
+    public String getLocation() {
+        return location;
+    }
+
+    /**
+     * Length in bytes, if known.
+     *
+     * @return length or -1
+     */
+    public long getLength() {
+        return length;
+    }
+
+    /**
+     * Last modification time in ms since 1970, if known.
+     *
+     * @return time or -1
+     */
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        final MFSourceIdentity that = (MFSourceIdentity) o;
+        return hashCode == that.hashCode
+                && length == that.length
+                && lastModified == that.lastModified
+                && location.equals(that.location);
+    }
+
+    @Override
+    public int hashCode() {
+        return hashCode;
+    }
+
+    @Override
+    public String toString() {
+        return "MFSourceIdentity{" +
+                "location='" + location + '\'' +
+                ", length=" + length +
+                ", lastModified=" + lastModified +
+                '}';
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * =================================================
+ * Copyright 2011 tagtraum industries incorporated
+ * This file is part of MFSampledSP.
+ *
+ * FFSampledSP is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * FFSampledSP is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with FFSampledSP; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ * =================================================
+ */
+package com.tagtraum.mfsampledsp;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Controls when the JNI library is loaded and Media Foundation is started.
+ * <p>
+ * {@link javax.sound.sampled.AudioSystem} instantiates all installed providers as soon as it is
+ * asked about any file, i.e. {@link MFAudioFileReader} is loaded even in JVMs that never decode
+ * anything with Media Foundation. The startup mode can be set with the system property
+ * <code>com.tagtraum.mfsampledsp.startup</code>:
+ * <ul>
+ *     <li><code>eager</code> (default): load the library, when the provider is loaded</li>
+ *     <li><code>lazy</code>: load the library with the first actual probe or open</li>
+ *     <li><code>prewarm</code>: load the library and instantiate the most common decoders on a daemon
+ *     thread, when the provider is loaded, so that the first real decode does not pay for it</li>
+ * </ul>
+ *
+ * @author <a href="mailto:hs@tagtraum.com">Hendrik Schreiber</a>
+ */
+public final class MFStartup {
+
+    /**
+     * Startup mode.
+     */
+    public enum Mode {
+        /**
+         * Load the library when the provider is loaded.
+         */
+        EAGER,
+        /**
+         * Load the library when it is first needed.
+         */
+        LAZY,
+        /**
+         * Load the library and instantiate decoders in the background, when the provider is loaded.
+         */
+        PREWARM
+    }
+
+    private static final Logger LOG = Logger.getLogger(MFStartup.class.getName());
+    private static final Mode MODE = mode(System.getProperty("com.tagtraum.mfsampledsp.startup"));
+    private static CompletableFuture<Boolean> prewarm;
+
+    private MFStartup() {
+    }
+
+    static Mode mode(final String value) {
+        if (value == null || value.isEmpty()) return Mode.EAGER;
+        try {
+            return Mode.valueOf(value.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            LOG.warning("Unknown startup mode '" + value + "', using " + Mode.EAGER.name().toLowerCase() + ".");
+            return Mode.EAGER;
+        }
+    }
+
+    /**
+     * Configured startup mode.
+     *
+     * @return mode
+     */
+    public static Mode getMode() {
+        return MODE;
+    }
+
+    /**
+     * Called, when {@link MFAudioFileReader} is loaded.
+     */
+    static void providerLoaded() {
+        switch (MODE) {
+            case EAGER:
+                MFNativeLibraryLoader.loadLibrary();
+                break;
+            case PREWARM:
+                prewarm();
+                break;
+            default:
+                // wait for the first probe or open
+                break;
+        }
+    }
+
+    /**
+     * Loads the library and instantiates the MP3 and AAC decoders on a daemon thread,
+     * unless this has been done already. Independent of the startup mode, services may call
+     * this method explicitly to avoid a latency spike with their first request.
+     *
+     * @return future that completes with <code>true</code>, if the library could be loaded
+     */
+    public static synchronized CompletableFuture<Boolean> prewarm() {
+        if (prewarm == null) {
+            prewarm = new CompletableFuture<>();
+            final CompletableFuture<Boolean> future = prewarm;
+            new MFThreadFactory("prewarm").newThread(() -> {
+                try {
+                    final boolean loaded = MFNativeLibraryLoader.loadLibrary();
+                    if (loaded) prewarmDecoders();
+                    future.complete(loaded);
+                } catch (RuntimeException | Error e) {
+                    LOG.log(Level.WARNING, "Failed to prewarm Media Foundation: " + e.toString(), e);
+                    future.complete(false);
+                }
+            }).start();
+        }
+        return prewarm;
+    }
+
+    private static native void prewarmDecoders();
+}
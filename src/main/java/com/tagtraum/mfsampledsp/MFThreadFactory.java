@@ -0,0 +1,81 @@
+/*
+ * =================================================
+ * Copyright 2011 tagtraum industries incorporated
+ * This file is part of MFSampledSP.
+ *
+ * FFSampledSP is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * FFSampledSP is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with FFSampledSP; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ * =================================================
+ */
+package com.tagtraum.mfsampledsp;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates daemon threads that initialize COM (multithreaded apartment) and Media Foundation
+ * before running their task and uninitialize both when done.
+ * Use it for any executor that calls into MFSampledSP from many threads.
+ *
+ * @author <a href="mailto:hs@tagtraum.com">Hendrik Schreiber</a>
+ */
+public final class MFThreadFactory implements ThreadFactory {
+
+    private final AtomicInteger count = new AtomicInteger();
+    private final String namePrefix;
+
+    /**
+     * Creates a factory.
+     *
+     * @param name name used as prefix for the names of created threads
+     */
+    public MFThreadFactory(final String name) {
+        this.namePrefix = "MFSampledSP-" + name + "-";
+    }
+
+    @Override
+    public Thread newThread(final Runnable runnable) {
+        final Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                runInitialized(runnable);
+            }
+        }, namePrefix + count.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    /**
+     * Runs the given task with COM and Media Foundation initialized for the current thread.
+     *
+     * @param runnable task
+     */
+    static void runInitialized(final Runnable runnable) {
+        // loaded on the new thread, not when the factory is created
+        if (!MFNativeLibraryLoader.loadLibrary()) {
+            runnable.run();
+            return;
+        }
+        final int hr = initThread();
+        try {
+            runnable.run();
+        } finally {
+            // S_OK or S_FALSE must be balanced, RPC_E_CHANGED_MODE (negative) must not
+            uninitThread(hr >= 0);
+        }
+    }
+
+    private static native int initThread();
+    private static native void uninitThread(final boolean uninitializeCOM);
+}
@@ -0,0 +1,203 @@
+/*
+ * =================================================
+ * Copyright 2011 tagtraum industries incorporated
+ * This file is part of MFSampledSP.
+ *
+ * FFSampledSP is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * FFSampledSP is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with FFSampledSP; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ * =================================================
+ */
+package com.tagtraum.mfsampledsp;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Fixed set of worker threads that make all calls into Media Foundation.
+ * <p>
+ * Each worker is a single thread created by an {@link MFThreadFactory}, i.e. it initializes
+ * COM and Media Foundation exactly once. Native streams are pinned to one worker when they are opened,
+ * so all calls for one stream are made on the same thread and in order. Probing uses any worker.
+ * <p>
+ * The number of workers of the shared instance is set with the system property
+ * <code>com.tagtraum.mfsampledsp.workers</code>. The default <code>0</code> disables workers,
+ * i.e. native calls are made directly on the calling thread, which avoids the hand-off latency
+ * for applications that decode on few, long-lived threads anyway.
+ *
+ * @author <a href="mailto:hs@tagtraum.com">Hendrik Schreiber</a>
+ */
+public final class MFWorkers {
+
+    private static final MFWorkers instance = new MFWorkers(Math.max(0, Integer.getInteger("com.tagtraum.mfsampledsp.workers", 0)),
+            new MFThreadFactory("worker"));
+
+    private final Worker[] workers;
+    private final AtomicInteger next = new AtomicInteger();
+
+    /**
+     * Creates workers.
+     *
+     * @param size number of worker threads, <code>0</code> for direct calls
+     * @param threadFactory thread factory
+     */
+    MFWorkers(final int size, final ThreadFactory threadFactory) {
+        if (size < 0) throw new IllegalArgumentException("Size must be greater than or equal to 0: " + size);
+        this.workers = new Worker[size];
+        for (int i=0; i<size; i++) {
+            workers[i] = new Worker(threadFactory);
+        }
+    }
+
+    /**
+     * Shared instance.
+     *
+     * @return workers
+     */
+    public static MFWorkers getInstance() {
+        return instance;
+    }
+
+    /**
+     * Number of worker threads.
+     *
+     * @return size, <code>0</code> if native calls are made directly
+     */
+    public int getSize() {
+        return workers.length;
+    }
+
+    /**
+     * Picks the worker a new native stream is pinned to.
+     *
+     * @return worker or <code>null</code>, if there are no workers
+     */
+    Worker assign() {
+        if (workers.length == 0) return null;
+        return workers[(next.getAndIncrement() & Integer.MAX_VALUE) % workers.length];
+    }
+
+    /**
+     * Runs the task on any worker.
+     *
+     * @param task task
+     * @param <T> result type
+     * @param <E> exception type
+     * @return result
+     * @throws E if the task fails
+     */
+    <T, E extends Exception> T call(final Task<T, E> task) throws E {
+        return call(assign(), task);
+    }
+
+    /**
+     * Runs the task on the given worker and waits for its result.
+     * When called without worker or from the worker's own thread, the task is run directly.
+     * Waiting is not interruptible, because the native peer may still be in use;
+     * the interrupt status is restored afterwards.
+     *
+     * @param worker worker or <code>null</code>
+     * @param task task
+     * @param <T> result type
+     * @param <E> exception type
+     * @return result
+     * @throws E if the task fails
+     */
+    @SuppressWarnings("unchecked")
+    static <T, E extends Exception> T call(final Worker worker, final Task<T, E> task) throws E {
+        if (worker == null || worker.thread == Thread.currentThread()) {
+            return MFMetrics.timeNativeCall(task);
+        }
+        final Future<T> future = worker.executor.submit(new Callable<T>() {
+            @Override
+            public T call() throws Exception {
+                return MFMetrics.timeNativeCall(task);
+            }
+        });
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return future.get();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            if (cause instanceof Error) throw (Error) cause;
+            // task only throws E or unchecked exceptions
+            throw (E) cause;
+        } finally {
+            if (interrupted) Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Stops all workers once their pending tasks are done.
+     */
+    void shutdown() {
+        for (final Worker worker : workers) {
+            worker.executor.shutdown();
+        }
+    }
+
+    /**
+     * Native call.
+     *
+     * @param <T> result type
+     * @param <E> exception type
+     */
+    interface Task<T, E extends Exception> {
+        T call() throws E;
+    }
+
+    /**
+     * Single worker thread.
+     */
+    static final class Worker {
+
+        private final ThreadPoolExecutor executor;
+        private volatile Thread thread;
+
+        private Worker(final ThreadFactory threadFactory) {
+            this.executor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(),
+                    new ThreadFactory() {
+                        @Override
+                        public Thread newThread(final Runnable runnable) {
+                            // remember the thread, also if it's replaced after an Error
+                            final Thread newThread = threadFactory.newThread(runnable);
+                            thread = newThread;
+                            return newThread;
+                        }
+                    });
+            this.executor.prestartCoreThread();
+        }
+
+        /**
+         * Thread this worker runs on.
+         *
+         * @return thread
+         */
+        Thread getThread() {
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * =================================================
+ * Copyright 2011 tagtraum industries incorporated
+ * All rights reserved.
+ * =================================================
+ */
+package com.tagtraum.mfsampledsp;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Java stand-in for a native peer stream. Instead of asking Media Foundation
+ * for samples, {@link #fillNativeBuffer()} copies synthetic 16 bit little endian PCM
+ * into the native buffer, one "sample" of {@link #getFramesPerFill()} frames at a time.
+ * <p>
+ * The content only depends on the frame position, i.e. the same frame always has the
+ * same value, no matter how it was reached (sequential reading or seeking).
+ * Seeking can be made imprecise by specifying a seek granularity. In that case the stream
+ * lands on the closest granule boundary at or before the requested position,
+ * similar to what some decoders do. Like Media Foundation, each fill reports the
+ * sample time of its first frame.
+ *
+ * @author <a href="mailto:hs@tagtraum.com">Hendrik Schreiber</a>
+ */
+public class SyntheticPCMInputStream extends MFNativePeerInputStream {
+
+    private static final int PATTERN_FRAMES = 256 * 1024 - 1;
+
+    private final float frameRate;
+    private final int channels;
+    private final long frames;
+    private final int framesPerFill;
+    private final int seekGranularity;
+    private final byte[] pattern;
+    private long framePosition;
+
+    /**
+     * Creates a seekable, precise stream producing 1152 frames per fill.
+     *
+     * @param frameRate frame rate
+     * @param channels channels
+     * @param frames total number of frames
+     */
+    public SyntheticPCMInputStream(final float frameRate, final int channels, final long frames)
+            throws IOException, UnsupportedAudioFileException {
+        this(frameRate, channels, frames, 1152, 1);
+    }
+
+    /**
+     * @param frameRate frame rate
+     * @param channels channels
+     * @param frames total number of frames
+     * @param framesPerFill frames produced by each call to {@link #fillNativeBuffer()}
+     * @param seekGranularity granularity in frames to which seek positions are rounded down
+     */
+    public SyntheticPCMInputStream(final float frameRate, final int channels, final long frames,
+                                   final int framesPerFill, final int seekGranularity)
+            throws IOException, UnsupportedAudioFileException {
+        this.frameRate = frameRate;
+        this.channels = channels;
+        this.frames = frames;
+        this.framesPerFill = framesPerFill;
+        this.seekGranularity = seekGranularity;
+        this.pattern = createPattern(channels);
+        this.nativeBuffer.limit(0);
+        // pretend we have a native peer
+        this.pointer = 1;
+    }
+
+    private static byte[] createPattern(final int channels) {
+        // white noise, so that no two positions look alike
+        final byte[] pattern = new byte[PATTERN_FRAMES * channels * 2];
+        new Random(4711).nextBytes(pattern);
+        return pattern;
+    }
+
+    public AudioFormat getFormat() {
+        return new AudioFormat(AudioFormat.Encoding.PCM_SIGNED, frameRate, 16, channels, channels * 2, frameRate, false);
+    }
+
+    public int getFramesPerFill() {
+        return framesPerFill;
+    }
+
+    public long getFrameLength() {
+        return frames;
+    }
+
+    /**
+     * Expected content of the given frame.
+     *
+     * @param frame frame position
+     * @param channel channel
+     * @return 16 bit sample value
+     */
+    public short getSample(final long frame, final int channel) {
+        final int index = (int) (frame % PATTERN_FRAMES) * channels * 2 + channel * 2;
+        return (short) ((pattern[index] & 0xff) | (pattern[index + 1] << 8));
+    }
+
+    @Override
+    protected void fillNativeBuffer() throws IOException {
+        if (!isOpen()) return;
+        final int frameSize = channels * 2;
+        final int framesToProduce = (int) Math.min(framesPerFill, frames - framePosition);
+        if (framesToProduce <= 0) {
+            nativeBuffer.rewind();
+            nativeBuffer.limit(0);
+            return;
+        }
+        final int bytes = framesToProduce * frameSize;
+        if (nativeBuffer.capacity() < bytes) {
+            setNativeBufferCapacity(bytes);
+        }
+        nativeBuffer.clear();
+        int patternFrame = (int) (framePosition % PATTERN_FRAMES);
+        int remaining = framesToProduce;
+        while (remaining > 0) {
+            final int chunk = Math.min(remaining, PATTERN_FRAMES - patternFrame);
+            nativeBuffer.put(pattern, patternFrame * frameSize, chunk * frameSize);
+            remaining -= chunk;
+            patternFrame = 0;
+        }
+        nativeBuffer.flip();
+        sampleTime = Math.round(framePosition * 10000000.0 / frameRate);
+        framePosition += framesToProduce;
+    }
+
+    @Override
+    public boolean isSeekable() {
+        return true;
+    }
+
+    @Override
+    public void seek(final long time, final TimeUnit timeUnit) throws UnsupportedOperationException, IOException {
+        if (!isOpen()) throw new IOException("Stream is already closed");
+        final long frame = (long) (timeUnit.toNanos(time) * (double) frameRate / 1000000000.0);
+        framePosition = Math.min(frames, frame - frame % seekGranularity);
+        nativeBuffer.limit(0);
+    }
+
+    @Override
+    protected void close(final long pointer) throws IOException {
+        // nothing to release
+    }
+}
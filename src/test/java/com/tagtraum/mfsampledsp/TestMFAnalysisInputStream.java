@@ -0,0 +1,177 @@
+/*
+ * =================================================
+ * Copyright 2011 tagtraum industries incorporated
+ * All rights reserved.
+ * =================================================
+ */
+package com.tagtraum.mfsampledsp;
+
+import org.junit.Test;
+
+import javax.sound.sampled.AudioFormat;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * TestMFAnalysisInputStream.
+ *
+ * @author <a href="mailto:hs@tagtraum.com">Hendrik Schreiber</a>
+ */
+public class TestMFAnalysisInputStream {
+
+    private static final int FRAMES = 44100 * 2;
+
+    @Test
+    public void testPassband() throws Exception {
+        final AudioFormat format = format(44100f, 2);
+        final ByteBuffer data = sine(format, 1000, FRAMES);
+        for (final int rate : new int[] {11025, 16000, 22050}) {
+            try (final MFAnalysisInputStream in = open(data, format, rate)) {
+                final float[] samples = readAll(in);
+                assertEquals((FRAMES * (long) rate + 44099) / 44100, samples.length);
+                assertEquals(samples.length, in.getFrameLength());
+                assertEquals(samples.length, in.getFramePosition());
+                // no delay, unity gain
+                double maxError = 0;
+                for (int i = rate / 10; i < samples.length - rate / 10; i++) {
+                    maxError = Math.max(maxError, Math.abs(samples[i] - 0.5 * Math.sin(2 * Math.PI * 1000 * i / rate)));
+                }
+                assertTrue("Max error at " + rate + " Hz: " + maxError, maxError < 0.0001);
+            }
+        }
+    }
+
+    @Test
+    public void testStopband() throws Exception {
+        // above the output's Nyquist frequency, would alias to 3025 Hz
+        final AudioFormat format = format(44100f, 2);
+        try (final MFAnalysisInputStream in = open(sine(format, 8000, FRAMES), format, 11025)) {
+            final float[] samples = readAll(in);
+            double sum = 0;
+            for (int i = 1000; i < samples.length - 1000; i++) {
+                sum += samples[i] * samples[i];
+            }
+            final double rms = Math.sqrt(sum / (samples.length - 2000));
+            // -80 dB relative to the input
+            assertTrue("RMS: " + rms, rms < 0.5 / Math.sqrt(2) * Math.pow(10, -80 / 20.0));
+        }
+    }
+
+    @Test
+    public void testDownmix() throws Exception {
+        final AudioFormat format = format(44100f, 2);
+        final ByteBuffer data = ByteBuffer.allocateDirect(1000 * 4).order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < 1000; i++) {
+            data.putShort((short) 8192).putShort((short) -4096);
+        }
+        data.flip();
+        try (final MFAnalysisInputStream in = open(data, format, 44100f)) {
+            final float[] samples = readAll(in);
+            assertEquals(1000, samples.length);
+            for (final float sample : samples) {
+                assertEquals(0.0625f, sample, 0f);
+            }
+        }
+    }
+
+    @Test
+    public void testSeek() throws Exception {
+        final AudioFormat format = format(44100f, 2);
+        final ByteBuffer data = sine(format, 440, FRAMES);
+        final float[] all;
+        try (final MFAnalysisInputStream in = open(data, format, 16000)) {
+            all = readAll(in);
+        }
+        try (final MFAnalysisInputStream in = open(data, format, 16000)) {
+            assertTrue(in.isSeekable());
+            final float[] samples = new float[500];
+            for (final long frame : new long[] {16000, 3, 20001, 0, 31999}) {
+                in.seek(frame * 1000000L / 16000, TimeUnit.MICROSECONDS);
+                assertEquals(frame, in.getFramePosition());
+                final int justRead = in.read(samples, 0, samples.length);
+                assertEquals(Math.min(samples.length, all.length - frame), justRead);
+                assertEquals(frame + justRead, in.getFramePosition());
+                for (int i = 0; i < justRead; i++) {
+                    assertEquals("Frame " + (frame + i), all[(int) frame + i], samples[i], 0.00001f);
+                }
+            }
+            in.seek(10, TimeUnit.SECONDS);
+            assertEquals(-1, in.read(samples, 0, samples.length));
+        }
+    }
+
+    @Test
+    public void testReadBytes() throws Exception {
+        final AudioFormat format = format(48000f, 1);
+        final ByteBuffer data = sine(format, 440, 10000);
+        final float[] all;
+        try (final MFAnalysisInputStream in = open(data, format, 16000)) {
+            all = readAll(in);
+        }
+        try (final MFAnalysisInputStream in = open(data, format, 16000)) {
+            assertEquals(new AudioFormat(AudioFormat.Encoding.PCM_FLOAT, 16000f, 32, 1, 4, 16000f, false).toString(),
+                    in.getFormat().toString());
+            final byte[] b = new byte[all.length * 4 + 8];
+            int bytesRead = 0;
+            int justRead;
+            while ((justRead = in.read(b, bytesRead, Math.min(1001, b.length - bytesRead))) > 0) {
+                bytesRead += justRead;
+            }
+            assertEquals(all.length * 4, bytesRead);
+            final ByteBuffer floats = ByteBuffer.wrap(b).order(ByteOrder.LITTLE_ENDIAN);
+            for (final float sample : all) {
+                assertEquals(sample, floats.getFloat(), 0f);
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNonIntegralRate() throws Exception {
+        final AudioFormat format = format(44100f, 1);
+        open(sine(format, 440, 100), format, 11025.5f);
+    }
+
+    private static MFAnalysisInputStream open(final ByteBuffer data, final AudioFormat format, final float sampleRate) throws Exception {
+        final long frames = data.remaining() / format.getFrameSize();
+        return new MFAnalysisInputStream(new MFAudioInputStream(new MFCachedInputStream(data, format), format, frames), sampleRate);
+    }
+
+    private static AudioFormat format(final float sampleRate, final int channels) {
+        return new AudioFormat(sampleRate, 16, channels, true, false);
+    }
+
+    /**
+     * Creates a 16 bit sine at half scale, same in all channels.
+     */
+    private static ByteBuffer sine(final AudioFormat format, final double frequency, final int frames) {
+        final ByteBuffer data = ByteBuffer.allocateDirect(frames * format.getFrameSize()).order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < frames; i++) {
+            final short sample = (short) Math.round(16384 * Math.sin(2 * Math.PI * frequency * i / format.getSampleRate()));
+            for (int c = 0; c < format.getChannels(); c++) {
+                data.putShort(sample);
+            }
+        }
+        data.flip();
+        return data;
+    }
+
+    private static float[] readAll(final MFAnalysisInputStream in) throws Exception {
+        float[] samples = new float[1024];
+        int samplesRead = 0;
+        int justRead;
+        while ((justRead = in.read(samples, samplesRead, Math.min(777, samples.length - samplesRead))) != -1) {
+            samplesRead += justRead;
+            if (samplesRead == samples.length) {
+                final float[] grown = new float[samples.length * 2];
+                System.arraycopy(samples, 0, grown, 0, samplesRead);
+                samples = grown;
+            }
+        }
+        final float[] result = new float[samplesRead];
+        System.arraycopy(samples, 0, result, 0, samplesRead);
+        return result;
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ * =================================================
+ * Copyright 2011 tagtraum industries incorporated
+ * All rights reserved.
+ * =================================================
+ */
+package com.tagtraum.mfsampledsp;
+
+import org.junit.Test;
+
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * TestMFAudioChunkPublisher.
+ *
+ * @author <a href="mailto:hs@tagtraum.com">Hendrik Schreiber</a>
+ */
+public class TestMFAudioChunkPublisher {
+
+    @Test
+    public void testPublishAll() throws IOException, UnsupportedAudioFileException, InterruptedException {
+        final byte[] expected = readFully(new SyntheticPCMInputStream(44100f, 2, 100000));
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final RecordingSubscriber subscriber = new RecordingSubscriber(true) {
+            @Override
+            public void onNext(final MFAudioChunk chunk) {
+                final ByteBuffer buffer = chunk.getBuffer();
+                assertEquals(out.size() / 4, chunk.getFramePosition());
+                final byte[] bytes = new byte[buffer.remaining()];
+                buffer.get(bytes);
+                out.write(bytes, 0, bytes.length);
+                super.onNext(chunk);
+            }
+        };
+        final SyntheticPCMInputStream peer = new SyntheticPCMInputStream(44100f, 2, 100000);
+        new MFAudioChunkPublisher(new MFAudioInputStream(peer, peer.getFormat(), peer.getFrameLength()), 4096, 2)
+                .subscribe(subscriber);
+        subscriber.subscription.request(Long.MAX_VALUE);
+        assertTrue(subscriber.completed.await(10, TimeUnit.SECONDS));
+        assertNull(subscriber.error);
+        assertArrayEquals(expected, out.toByteArray());
+        assertFalse(peer.isOpen());
+    }
+
+    @Test
+    public void testDecodesOnlyOnDemand() throws IOException, UnsupportedAudioFileException, InterruptedException {
+        final SyntheticPCMInputStream peer = new SyntheticPCMInputStream(44100f, 2, 100000);
+        final MFAudioInputStream stream = new MFAudioInputStream(peer, peer.getFormat(), peer.getFrameLength());
+        final RecordingSubscriber subscriber = new RecordingSubscriber(true);
+        new MFAudioChunkPublisher(stream, 1000, 8).subscribe(subscriber);
+        subscriber.subscription.request(2);
+        assertTrue(subscriber.awaitChunks(2));
+        Thread.sleep(50);
+        assertEquals(2, subscriber.chunks.size());
+        assertEquals(2000, stream.getFramePosition());
+        subscriber.subscription.request(1);
+        assertTrue(subscriber.awaitChunks(3));
+        assertEquals(2000, subscriber.chunks.get(2).getFramePosition());
+        subscriber.subscription.cancel();
+    }
+
+    @Test
+    public void testUnreleasedChunksLimitDecoding() throws IOException, UnsupportedAudioFileException, InterruptedException {
+        final SyntheticPCMInputStream peer = new SyntheticPCMInputStream(44100f, 2, 100000);
+        final RecordingSubscriber subscriber = new RecordingSubscriber(false);
+        new MFAudioChunkPublisher(new MFAudioInputStream(peer, peer.getFormat(), peer.getFrameLength()), 1000, 3)
+                .subscribe(subscriber);
+        subscriber.subscription.request(Long.MAX_VALUE);
+        assertTrue(subscriber.awaitChunks(3));
+        Thread.sleep(50);
+        assertEquals(3, subscriber.chunks.size());
+        final ByteBuffer firstBuffer = subscriber.chunks.get(0).getBuffer();
+        subscriber.chunks.get(0).release();
+        assertTrue(subscriber.awaitChunks(4));
+        // buffer was recycled
+        assertSame(firstBuffer, subscriber.chunks.get(3).getBuffer());
+        try {
+            subscriber.chunks.get(0).getBuffer();
+            fail("Expected IllegalStateException");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        subscriber.subscription.cancel();
+    }
+
+    @Test
+    public void testCancelClosesStream() throws IOException, UnsupportedAudioFileException, InterruptedException {
+        final SyntheticPCMInputStream peer = new SyntheticPCMInputStream(44100f, 2, 100000);
+        final RecordingSubscriber subscriber = new RecordingSubscriber(true);
+        new MFAudioChunkPublisher(new MFAudioInputStream(peer, peer.getFormat(), peer.getFrameLength()), 1000, 2)
+                .subscribe(subscriber);
+        subscriber.subscription.request(1);
+        assertTrue(subscriber.awaitChunks(1));
+        subscriber.subscription.cancel();
+        final long deadline = System.currentTimeMillis() + 10000;
+        while (peer.isOpen() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertFalse(peer.isOpen());
+        assertEquals(1, subscriber.completed.getCount());
+    }
+
+    @Test
+    public void testSingleSubscriber() throws IOException, UnsupportedAudioFileException {
+        final SyntheticPCMInputStream peer = new SyntheticPCMInputStream(44100f, 2, 100000);
+        final MFAudioChunkPublisher publisher = new MFAudioChunkPublisher(new MFAudioInputStream(peer, peer.getFormat(), peer.getFrameLength()), 1000, 2);
+        publisher.subscribe(new RecordingSubscriber(true));
+        final RecordingSubscriber second = new RecordingSubscriber(true);
+        publisher.subscribe(second);
+        assertTrue(second.error instanceof IllegalStateException);
+    }
+
+    @Test
+    public void testInvalidRequest() throws IOException, UnsupportedAudioFileException, InterruptedException {
+        final SyntheticPCMInputStream peer = new SyntheticPCMInputStream(44100f, 2, 100000);
+        final RecordingSubscriber subscriber = new RecordingSubscriber(true);
+        new MFAudioChunkPublisher(new MFAudioInputStream(peer, peer.getFormat(), peer.getFrameLength()), 1000, 2)
+                .subscribe(subscriber);
+        subscriber.subscription.request(0);
+        assertTrue(subscriber.failed.await(10, TimeUnit.SECONDS));
+        assertTrue(subscriber.error instanceof IllegalArgumentException);
+        assertFalse(peer.isOpen());
+    }
+
+    private static byte[] readFully(final MFNativePeerInputStream in) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            final byte[] buf = new byte[4096];
+            int justRead;
+            while ((justRead = in.read(buf)) != -1) {
+                out.write(buf, 0, justRead);
+            }
+        } finally {
+            in.close();
+        }
+        return out.toByteArray();
+    }
+
+    private static class RecordingSubscriber implements Flow.Subscriber<MFAudioChunk> {
+
+        private final boolean release;
+        private final List<MFAudioChunk> chunks = new CopyOnWriteArrayList<>();
+        private final CountDownLatch completed = new CountDownLatch(1);
+        private final CountDownLatch failed = new CountDownLatch(1);
+        private volatile Flow.Subscription subscription;
+        private volatile Throwable error;
+
+        private RecordingSubscriber(final boolean release) {
+            this.release = release;
+        }
+
+        @Override
+        public void onSubscribe(final Flow.Subscription subscription) {
+            this.subscription = subscription;
+        }
+
+        @Override
+        public void onNext(final MFAudioChunk chunk) {
+            chunks.add(chunk);
+            if (release) chunk.release();
+        }
+
+        @Override
+        public void onError(final Throwable throwable) {
+            error = throwable;
+            failed.countDown();
+        }
+
+        @Override
+        public void onComplete() {
+            completed.countDown();
+        }
+
+        private boolean awaitChunks(final int count) throws InterruptedException {
+            final long deadline = System.currentTimeMillis() + 10000;
+            while (chunks.size() < count && System.currentTimeMillis() < deadline) {
+                Thread.sleep(1);
+            }
+            return chunks.size() >= count;
+        }
+    }
+}
@@ -0,0 +1,41 @@
+/*
+ * =================================================
+ * Copyright 2011 tagtraum industries incorporated
+ * All rights reserved.
+ * =================================================
+ */
+package com.tagtraum.mfsampledsp;
+
+import org.junit.Test;
+
+import javax.sound.sampled.AudioFileFormat;
+
+import static org.junit.Assert.*;
+
+/**
+ * TestMFAudioFileFormat.
+ *
+ * @author <a href="mailto:hs@tagtraum.com">Hendrik Schreiber</a>
+ */
+public class TestMFAudioFileFormat {
+
+    @Test
+    public void testTypeFromExtension() throws Exception {
+        assertEquals(AudioFileFormat.Type.WAVE, create("file:/music/a.WAV").getType());
+        assertEquals("mp3", create("file:/music/a.mp3").getType().getExtension());
+        assertEquals("flac", create("upload.flac").getType().getExtension());
+    }
+
+    @Test
+    public void testNoExtension() throws Exception {
+        // e.g. byte sources and InputStreams, which are named "stream"
+        assertEquals("", create("stream").getType().getExtension());
+        assertEquals("", create("http://www.tagtraum.com/stream").getType().getExtension());
+        assertEquals("", create("file:/music.dir/stream").getType().getExtension());
+        assertEquals("", create("C:\\music.dir\\stream").getType().getExtension());
+    }
+
+    private static MFAudioFileFormat create(final String url) throws Exception {
+        return new MFAudioFileFormat(url, 44100f, 16, 2, 4, 44100f, false, 1000L, 1411, false);
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * =================================================
+ * Copyright 2011 tagtraum industries incorporated
+ * All rights reserved.
+ * =================================================
+ */
+package com.tagtraum.mfsampledsp;
+
+import org.junit.Test;
+
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioFormat;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URL;
+import java.nio.file.Path;
+
+import static org.junit.Assert.*;
+
+/**
+ * TestMFAudioFileFormatCache.
+ *
+ * @author <a href="mailto:hs@tagtraum.com">Hendrik Schreiber</a>
+ */
+public class TestMFAudioFileFormatCache {
+
+    private static final AudioFileFormat FORMAT = new AudioFileFormat(new AudioFileFormat.Type("MP3", "mp3"),
+            new AudioFormat(44100f, 16, 2, true, false), 1000);
+
+    @Test
+    public void testHitAndMiss() {
+        final MFAudioFileFormatCache cache = new MFAudioFileFormatCache(10, MFAudioFileFormatCache.Policy.LRU);
+        final MFSourceIdentity identity = new MFSourceIdentity("/a.mp3", 10, 20);
+        assertNull(cache.get(identity));
+        cache.put(identity, FORMAT);
+        assertSame(FORMAT, cache.get(new MFSourceIdentity("/a.mp3", 10, 20)));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void testLRUEviction() {
+        final MFAudioFileFormatCache cache = new MFAudioFileFormatCache(2, MFAudioFileFormatCache.Policy.LRU);
+        final MFSourceIdentity a = new MFSourceIdentity("/a.mp3", 1, 1);
+        final MFSourceIdentity b = new MFSourceIdentity("/b.mp3", 1, 1);
+        final MFSourceIdentity c = new MFSourceIdentity("/c.mp3", 1, 1);
+        cache.put(a, FORMAT);
+        cache.put(b, FORMAT);
+        // touch a
+        assertNotNull(cache.get(a));
+        cache.put(c, FORMAT);
+        assertNotNull(cache.get(a));
+        assertNull(cache.get(b));
+        assertNotNull(cache.get(c));
+        assertEquals(1, cache.getEvictionCount());
+    }
+
+    @Test
+    public void testFIFOEviction() {
+        final MFAudioFileFormatCache cache = new MFAudioFileFormatCache(2, MFAudioFileFormatCache.Policy.FIFO);
+        final MFSourceIdentity a = new MFSourceIdentity("/a.mp3", 1, 1);
+        final MFSourceIdentity b = new MFSourceIdentity("/b.mp3", 1, 1);
+        final MFSourceIdentity c = new MFSourceIdentity("/c.mp3", 1, 1);
+        cache.put(a, FORMAT);
+        cache.put(b, FORMAT);
+        assertNotNull(cache.get(a));
+        cache.put(c, FORMAT);
+        assertNull(cache.get(a));
+        assertNotNull(cache.get(b));
+        assertNotNull(cache.get(c));
+    }
+
+    @Test
+    public void testManyEntriesStayBounded() {
+        final MFAudioFileFormatCache cache = new MFAudioFileFormatCache(1000, MFAudioFileFormatCache.Policy.LRU);
+        for (int i=0; i<10000; i++) {
+            cache.put(new MFSourceIdentity("/" + i + ".mp3", i, i), FORMAT);
+        }
+        assertTrue(cache.size() <= 1000);
+        assertTrue(cache.size() > 900);
+        assertEquals(10000 - cache.size(), cache.getEvictionCount());
+    }
+
+    @Test
+    public void testDisabled() {
+        final MFAudioFileFormatCache cache = new MFAudioFileFormatCache(0, MFAudioFileFormatCache.Policy.LRU);
+        final MFSourceIdentity identity = new MFSourceIdentity("/a.mp3", 10, 20);
+        cache.put(identity, FORMAT);
+        assertNull(cache.get(identity));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testIdentityChangesWithFile() throws IOException {
+        final File file = File.createTempFile("testIdentityChangesWithFile", ".mp3");
+        try {
+            write(file, 10);
+            final Path path = file.toPath();
+            final URL url = MFAudioFileReader.fileToURL(file);
+            final MFSourceIdentity identity = MFSourceIdentity.of(path);
+            assertEquals(10, identity.getLength());
+            assertEquals(identity, MFSourceIdentity.of(url));
+            assertEquals(identity, MFSourceIdentity.of(path.getParent().resolve("x").resolve("..").resolve(path.getFileName())));
+
+            write(file, 20);
+            final MFSourceIdentity changed = MFSourceIdentity.of(path);
+            assertEquals(20, changed.getLength());
+            assertFalse(identity.equals(changed));
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testIdentityOfRemoteURL() throws IOException {
+        final MFSourceIdentity identity = MFSourceIdentity.of(new URL("http://www.tagtraum.com/test.mp3"));
+        assertEquals("http://www.tagtraum.com/test.mp3", identity.getLocation());
+        assertEquals(-1, identity.getLength());
+    }
+
+    private static void write(final File file, final int length) throws IOException {
+        try (final OutputStream out = new FileOutputStream(file)) {
+            out.write(new byte[length]);
+        }
+    }
+}
@@ -10,11 +10,14 @@ import org.junit.Test;
 
 import javax.sound.sampled.AudioFileFormat;
 import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
 import javax.sound.sampled.UnsupportedAudioFileException;
 import java.io.*;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.Random;
+import java.util.concurrent.ExecutionException;
 
 import static org.junit.Assert.*;
 
@@ -184,16 +187,38 @@ public class TestMFAudioFileReader {
         final String filename = "test.mp3";
         final File file = File.createTempFile("testGetAudioFileFormatInputStream", filename);
         extractFile(filename, file);
-        try {
-            final AudioFileFormat fileFormat = new MFAudioFileReader().getAudioFileFormat(new BufferedInputStream(new FileInputStream(file)));
-            fail("Expected UnsupportedAudioFileException");
-        } catch (UnsupportedAudioFileException e) {
-            // expected this
+        try (final InputStream in = new BufferedInputStream(new FileInputStream(file))) {
+            final AudioFileFormat fileFormat = new MFAudioFileReader().getAudioFileFormat(in);
+            assertEquals(2, fileFormat.getFormat().getChannels());
+            assertEquals(44100f, fileFormat.getFormat().getSampleRate(), 0.01f);
+            // the whole stream fits into the probed prefix
+            assertTrue(fileFormat.getFrameLength() > 130000);
+            // reset
+            assertEquals(file.length(), in.available());
         } finally {
             file.delete();
         }
     }
 
+    @Test
+    public void testGetAudioFileFormatLongInputStream() throws IOException, UnsupportedAudioFileException {
+        final ByteArrayOutputStream mp3 = new ByteArrayOutputStream();
+        // more than the probed prefix
+        while (mp3.size() <= 1024 * 1024) {
+            try (final InputStream resource = getClass().getResourceAsStream("test.mp3")) {
+                final byte[] buf = new byte[8192];
+                int justRead;
+                while ((justRead = resource.read(buf)) != -1) {
+                    mp3.write(buf, 0, justRead);
+                }
+            }
+        }
+        final AudioFileFormat fileFormat = new MFAudioFileReader().getAudioFileFormat(new ByteArrayInputStream(mp3.toByteArray()));
+        assertEquals(2, fileFormat.getFormat().getChannels());
+        // the prefix's length is not the stream's length
+        assertEquals(AudioSystem.NOT_SPECIFIED, fileFormat.getFrameLength());
+    }
+
     @Test
     public void testBogusFile() throws IOException {
         final String filename = "test.mp3";
@@ -214,6 +239,49 @@ public class TestMFAudioFileReader {
         }
     }
 
+    @Test
+    public void testGetAudioInputStreamFromInputStream() throws IOException, UnsupportedAudioFileException {
+        final InputStream resource = new BufferedInputStream(getClass().getResourceAsStream("test.mp3"));
+        try (final AudioInputStream in = new MFAudioFileReader().getAudioInputStream(resource)) {
+            final AudioFormat format = in.getFormat();
+            assertEquals(2, format.getChannels());
+            assertEquals(44100f, format.getSampleRate(), 0.01f);
+            final byte[] buf = new byte[4096];
+            long total = 0;
+            int justRead;
+            while ((justRead = in.read(buf)) != -1) {
+                total += justRead;
+            }
+            assertTrue(total / format.getFrameSize() > 130000);
+        }
+    }
+
+    @Test
+    public void testGetAudioInputStreamFromUnmarkableInputStream() throws IOException, UnsupportedAudioFileException {
+        try (final InputStream resource = getClass().getResourceAsStream("test.mp3")) {
+            final int available = resource.available();
+            try {
+                new MFAudioFileReader().getAudioInputStream(resource);
+                fail("Expected IOException");
+            } catch (IOException | UnsupportedAudioFileException e) {
+                // expected, the latter without native library
+            }
+            // nothing consumed, other readers can still try
+            assertEquals(available, resource.available());
+        }
+    }
+
+    @Test
+    public void testAsyncProbeOfMissingFileCompletesExceptionally() throws InterruptedException {
+        final File file = new File("does_not_exist.mp3");
+        try {
+            new MFAudioFileReader().getAudioFileFormatAsync(file.toPath()).get();
+            fail("Expected ExecutionException");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IOException || e.getCause() instanceof UnsupportedAudioFileException);
+        }
+    }
+
     @Test
     public void testFileWithPunctuationToURL() throws MalformedURLException {
         final File file = new File("c:\\someDir\\;:&=+@[]?\\name.txt");
@@ -3,9 +3,14 @@ package com.tagtraum.mfsampledsp;
 import org.junit.Test;
 
 import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
 import javax.sound.sampled.AudioSystem;
 import javax.sound.sampled.UnsupportedAudioFileException;
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
 import java.util.concurrent.TimeUnit;
 
 import static org.junit.Assert.assertEquals;
@@ -66,6 +71,70 @@ public class TestMFAudioInputStream {
         }
     }
 
+    @Test
+    public void testReadFloats() throws IOException, UnsupportedAudioFileException {
+        final int frames = 100000;
+        // interpret 16 bit stereo as 32 bit float mono
+        final AudioFormat format = new AudioFormat(AudioFormat.Encoding.PCM_FLOAT, 44100f, 32, 1, 4, 44100f, false);
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (final InputStream in = new SyntheticPCMInputStream(44100f, 2, frames)) {
+            final byte[] buf = new byte[4096];
+            int justRead;
+            while ((justRead = in.read(buf)) != -1) {
+                bytes.write(buf, 0, justRead);
+            }
+        }
+        final FloatBuffer expected = ByteBuffer.wrap(bytes.toByteArray()).order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+
+        try (final MFAudioInputStream in = new MFAudioInputStream(new SyntheticPCMInputStream(44100f, 2, frames), format, frames)) {
+            final float[] buf = new float[3000];
+            int samples = 0;
+            int justRead;
+            while ((justRead = in.read(buf, 0, buf.length)) != -1) {
+                for (int i=0; i<justRead; i++) {
+                    assertEquals(Float.floatToRawIntBits(expected.get(samples + i)), Float.floatToRawIntBits(buf[i]));
+                }
+                samples += justRead;
+            }
+            assertEquals(frames, samples);
+        }
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testReadFloatsFromIntegerPCM() throws IOException, UnsupportedAudioFileException {
+        final SyntheticPCMInputStream stream = new SyntheticPCMInputStream(44100f, 2, 1000);
+        try (final MFAudioInputStream in = new MFAudioInputStream(stream, stream.getFormat(), 1000)) {
+            in.read(new float[100], 0, 100);
+        }
+    }
+
+    @Test
+    public void testReadFloatsFromMP3() throws IOException, UnsupportedAudioFileException {
+        final String filename = "test.mp3";
+        final File file = File.createTempFile("testReadFloatsFromMP3", filename);
+        extractFile(filename, file);
+        try {
+            final AudioFileFormat fileFormat = new MFAudioFileReader().getAudioFileFormat(file);
+            try (final AudioInputStream in = new MFAudioFileReader().getAudioInputStream(file.toURI().toURL(), AudioFormat.Encoding.PCM_FLOAT)) {
+                assertEquals(AudioFormat.Encoding.PCM_FLOAT, in.getFormat().getEncoding());
+                assertEquals(32, in.getFormat().getSampleSizeInBits());
+                assertEquals(8, in.getFormat().getFrameSize());
+                final float[] buf = new float[4096];
+                long samples = 0;
+                int justRead;
+                while ((justRead = ((MFAudioInputStream)in).read(buf, 0, buf.length)) != -1) {
+                    for (int i=0; i<justRead; i++) {
+                        assertTrue(buf[i] >= -1.5f && buf[i] <= 1.5f);
+                    }
+                    samples += justRead;
+                }
+                assertEquals(fileFormat.getFrameLength() * 2L, samples);
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
     private void extractFile(final String filename, final File file) throws IOException {
         try (final InputStream in = getClass().getResourceAsStream(filename);
              final OutputStream out = new FileOutputStream(file)) {
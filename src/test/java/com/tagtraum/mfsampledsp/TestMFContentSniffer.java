@@ -0,0 +1,114 @@
+/*
+ * =================================================
+ * Copyright 2011 tagtraum industries incorporated
+ * All rights reserved.
+ * =================================================
+ */
+package com.tagtraum.mfsampledsp;
+
+import org.junit.Test;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * TestMFContentSniffer.
+ *
+ * @author <a href="mailto:hs@tagtraum.com">Hendrik Schreiber</a>
+ */
+public class TestMFContentSniffer {
+
+    @Test
+    public void testResources() throws IOException, URISyntaxException {
+        for (final String name : new String[] {"test.mp3", "test.m4a", "test.wav"}) {
+            try (final FileChannel channel = FileChannel.open(Paths.get(getClass().getResource(name).toURI()))) {
+                final ByteBuffer header = MFHeaderParser.read(channel, 0, MFContentSniffer.HEADER_LENGTH);
+                assertTrue(name, MFContentSniffer.isSupported(header.array(), 0, header.limit()));
+            }
+        }
+    }
+
+    @Test
+    public void testContainers() {
+        assertTrue(sniff(ascii("RIFF\0\0\0\0WAVEfmt ")));
+        assertFalse(sniff(ascii("RIFF\0\0\0\0AVI LIST")));
+        assertTrue(sniff(ascii("\0\0\0 ftypM4A ")));
+        assertTrue(sniff(ascii("ID3\u0004\0\0\0\0\0\0")));
+        assertTrue(sniff(ascii("fLaC\0\0\0\0")));
+        assertTrue(sniff(new byte[]{0x30, 0x26, (byte) 0xB2, 0x75, (byte) 0x8E, 0x66, (byte) 0xCF, 0x11,
+                (byte) 0xA6, (byte) 0xD9, 0x00, (byte) 0xAA, 0x00, 0x62, (byte) 0xCE, 0x6C}));
+        assertTrue(sniff(ascii("FORM\0\0\0\0AIFFCOMM")));
+        assertFalse(sniff(ascii("FORM\0\0\0\08SVXVHDR")));
+        assertFalse(sniff(ascii("%PDF-1.4")));
+        assertFalse(sniff(new byte[0]));
+    }
+
+    @Test
+    public void testMPEGFrames() {
+        // MPEG-1 layer III, 128 kbit/s, 44.1 kHz -> 417 bytes
+        final byte[] header = {(byte) 0xFF, (byte) 0xFB, (byte) 0x90, 0x00};
+        assertEquals(417, MFContentSniffer.mpegFrameLength(header, 0));
+        final byte[] b = new byte[100 + 417 * 3];
+        for (int i=0; i<3; i++) {
+            System.arraycopy(header, 0, b, 100 + i * 417, header.length);
+        }
+        // leading junk is tolerated
+        assertTrue(sniff(b));
+        // a single sync word is not enough
+        final byte[] single = new byte[1000];
+        System.arraycopy(header, 0, single, 10, header.length);
+        assertFalse(sniff(single));
+    }
+
+    @Test
+    public void testADTSFrames() {
+        // AAC LC, 44.1 kHz, stereo, 371 bytes
+        final int length = 371;
+        final byte[] header = {(byte) 0xFF, (byte) 0xF1, 0x50, (byte) (0x80 | (length >> 11)),
+                (byte) ((length >> 3) & 0xFF), (byte) (((length & 7) << 5) | 0x1F), (byte) 0xFC};
+        assertEquals(length, MFContentSniffer.adtsFrameLength(header, 0, header.length));
+        final byte[] b = new byte[length * 2 + 7];
+        System.arraycopy(header, 0, b, 0, header.length);
+        System.arraycopy(header, 0, b, length, header.length);
+        assertTrue(sniff(b));
+    }
+
+    @Test
+    public void testRandom() {
+        final Random random = new Random(0);
+        final byte[] b = new byte[MFContentSniffer.HEADER_LENGTH];
+        for (int i=0; i<10; i++) {
+            random.nextBytes(b);
+            assertFalse(sniff(b));
+        }
+    }
+
+    @Test
+    public void testStreamIsReset() throws IOException {
+        try (final InputStream in = new BufferedInputStream(getClass().getResourceAsStream("test.mp3"))) {
+            in.mark(MFContentSniffer.HEADER_LENGTH);
+            final int first = in.read();
+            in.reset();
+            in.mark(MFContentSniffer.HEADER_LENGTH);
+            assertTrue(MFContentSniffer.isSupportedAndReset(in));
+            assertEquals(first, in.read());
+        }
+    }
+
+    private static boolean sniff(final byte[] b) {
+        return MFContentSniffer.isSupported(b, 0, b.length);
+    }
+
+    private static byte[] ascii(final String s) {
+        return s.getBytes(StandardCharsets.ISO_8859_1);
+    }
+}
@@ -0,0 +1,275 @@
+/*
+ * =================================================
+ * Copyright 2011 tagtraum industries incorporated
+ * All rights reserved.
+ * =================================================
+ */
+package com.tagtraum.mfsampledsp;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+/**
+ * TestMFDecodedAudioCache.
+ *
+ * @author <a href="mailto:hs@tagtraum.com">Hendrik Schreiber</a>
+ */
+public class TestMFDecodedAudioCache {
+
+    private static final long FRAMES = 100000;
+    private static final long BYTES = FRAMES * 4;
+
+    private Path directory;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("TestMFDecodedAudioCache");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (final Stream<Path> files = Files.list(directory)) {
+            files.forEach(file -> file.toFile().delete());
+        }
+        Files.delete(directory);
+    }
+
+    @Test
+    public void testMemoryTier() throws IOException, UnsupportedAudioFileException {
+        final MFDecodedAudioCache cache = new MFDecodedAudioCache(10 * BYTES, 0, null);
+        final MFSourceIdentity identity = new MFSourceIdentity("/music/a.mp3", 1, 1);
+        final SyntheticPCMInputStream peer = new SyntheticPCMInputStream(44100f, 2, FRAMES);
+        final AudioFormat format = peer.getFormat();
+        assertNull(cache.open(identity, format, FRAMES));
+        final byte[] expected = decode(cache, identity, peer);
+        assertEquals(1, cache.getMemoryEntryCount());
+        assertEquals(BYTES, cache.getMemoryBytes());
+
+        try (final MFAudioInputStream in = cache.open(identity, format, FRAMES)) {
+            assertNotNull(in);
+            assertArrayEquals(expected, readFully(in));
+        }
+        assertEquals(1, cache.getMemoryHitCount());
+        // different format, different entry
+        assertNull(cache.open(identity, new AudioFormat(AudioFormat.Encoding.PCM_FLOAT, 44100f, 32, 2, 8, 44100f, false), FRAMES));
+    }
+
+    @Test
+    public void testSeekInCachedStream() throws IOException, UnsupportedAudioFileException {
+        final MFDecodedAudioCache cache = new MFDecodedAudioCache(10 * BYTES, 0, null);
+        final MFSourceIdentity identity = new MFSourceIdentity("/music/a.mp3", 1, 1);
+        final SyntheticPCMInputStream peer = new SyntheticPCMInputStream(44100f, 2, FRAMES);
+        decode(cache, identity, peer);
+        try (final MFAudioInputStream in = cache.open(identity, peer.getFormat(), FRAMES)) {
+            in.seek(1234567, TimeUnit.MICROSECONDS);
+            final long frame = (long) (44100f * 1234567L / 1000000L);
+            assertEquals(frame, in.getFramePosition());
+            final ByteBuffer buffer = ByteBuffer.allocate(4 * 100).order(ByteOrder.LITTLE_ENDIAN);
+            in.read(buffer);
+            buffer.flip();
+            for (long f = frame; buffer.hasRemaining(); f++) {
+                assertEquals(peer.getSample(f, 0), buffer.getShort());
+                assertEquals(peer.getSample(f, 1), buffer.getShort());
+            }
+        }
+    }
+
+    @Test
+    public void testDiskTierSurvivesRestart() throws IOException, UnsupportedAudioFileException {
+        final MFSourceIdentity identity = new MFSourceIdentity("/music/a.mp3", 1, 1);
+        final SyntheticPCMInputStream peer = new SyntheticPCMInputStream(44100f, 2, FRAMES);
+        final byte[] expected = decode(new MFDecodedAudioCache(0, 10 * BYTES, directory), identity, peer);
+
+        final MFDecodedAudioCache cache = new MFDecodedAudioCache(10 * BYTES, 10 * BYTES, directory);
+        assertEquals(1, cache.getDiskEntryCount());
+        assertEquals(BYTES, cache.getDiskBytes());
+        try (final MFAudioInputStream in = cache.open(identity, peer.getFormat(), FRAMES)) {
+            assertArrayEquals(expected, readFully(in));
+        }
+        assertEquals(1, cache.getDiskHitCount());
+        // promoted to memory
+        assertEquals(1, cache.getMemoryEntryCount());
+        try (final MFAudioInputStream in = cache.open(identity, peer.getFormat(), FRAMES)) {
+            assertArrayEquals(expected, readFully(in));
+        }
+        assertEquals(1, cache.getMemoryHitCount());
+    }
+
+    @Test
+    public void testLRUEvictionBySize() throws IOException, UnsupportedAudioFileException {
+        final MFDecodedAudioCache cache = new MFDecodedAudioCache(2 * BYTES, 2 * BYTES, directory);
+        final MFSourceIdentity a = new MFSourceIdentity("/music/a.mp3", 1, 1);
+        final MFSourceIdentity b = new MFSourceIdentity("/music/b.mp3", 1, 1);
+        final MFSourceIdentity c = new MFSourceIdentity("/music/c.mp3", 1, 1);
+        final AudioFormat format = new SyntheticPCMInputStream(44100f, 2, FRAMES).getFormat();
+        decode(cache, a, new SyntheticPCMInputStream(44100f, 2, FRAMES));
+        decode(cache, b, new SyntheticPCMInputStream(44100f, 2, FRAMES));
+        // touch a
+        cache.open(a, format, FRAMES).close();
+        decode(cache, c, new SyntheticPCMInputStream(44100f, 2, FRAMES));
+        assertEquals(2, cache.getMemoryEntryCount());
+        assertEquals(2, cache.getDiskEntryCount());
+        assertEquals(2 * BYTES, cache.getDiskBytes());
+        assertNull(cache.open(b, format, FRAMES));
+        assertNotNull(cache.open(a, format, FRAMES));
+        assertNotNull(cache.open(c, format, FRAMES));
+        try (final Stream<Path> files = Files.list(directory)) {
+            assertEquals(2, files.count());
+        }
+    }
+
+    @Test
+    public void testMoreAudioThanExpected() throws IOException, UnsupportedAudioFileException {
+        final MFDecodedAudioCache cache = new MFDecodedAudioCache(10 * BYTES, 0, null);
+        final MFSourceIdentity identity = new MFSourceIdentity("/music/a.mp3", 1, 1);
+        // decoders usually deliver a little more than the length derived from the duration
+        final SyntheticPCMInputStream peer = new SyntheticPCMInputStream(44100f, 2, FRAMES + 1000);
+        final byte[] expected = decode(cache, identity, peer);
+        assertEquals(1, cache.getMemoryEntryCount());
+        assertEquals(BYTES, cache.getMemoryBytes());
+        try (final MFAudioInputStream in = cache.open(identity, peer.getFormat(), FRAMES)) {
+            assertNotNull(in);
+            assertArrayEquals(expected, readFully(in));
+        }
+    }
+
+    @Test
+    public void testMemoryTierSeveralChunks() throws IOException, UnsupportedAudioFileException {
+        // more than a single recording chunk
+        final long frames = 10 * FRAMES;
+        final MFDecodedAudioCache cache = new MFDecodedAudioCache(frames * 4, 0, null);
+        final MFSourceIdentity identity = new MFSourceIdentity("/music/a.mp3", 1, 1);
+        final SyntheticPCMInputStream peer = new SyntheticPCMInputStream(44100f, 2, frames);
+        final ByteBuffer expected = ByteBuffer.allocate((int) frames * 4);
+        try (final MFAudioInputStream in = new MFAudioInputStream(cache.record(identity, peer.getFormat(), frames, peer), peer.getFormat(), frames)) {
+            while (in.read(expected) > 0) {
+                // keep reading
+            }
+        }
+        assertEquals(frames * 4, cache.getMemoryBytes());
+        final ByteBuffer cached = ByteBuffer.allocate((int) frames * 4);
+        try (final MFAudioInputStream in = cache.open(identity, peer.getFormat(), frames)) {
+            while (in.read(cached) > 0) {
+                // keep reading
+            }
+        }
+        assertEquals(expected.flip(), cached.flip());
+    }
+
+    @Test
+    public void testOneRecordingPerKey() throws IOException, UnsupportedAudioFileException {
+        final MFDecodedAudioCache cache = new MFDecodedAudioCache(10 * BYTES, 0, null);
+        final MFSourceIdentity identity = new MFSourceIdentity("/music/a.mp3", 1, 1);
+        final SyntheticPCMInputStream first = new SyntheticPCMInputStream(44100f, 2, FRAMES);
+        final SyntheticPCMInputStream second = new SyntheticPCMInputStream(44100f, 2, FRAMES);
+        final MFNativePeerInputStream recording = cache.record(identity, first.getFormat(), FRAMES, first);
+        assertNotSame(first, recording);
+        // already being recorded
+        assertSame(second, cache.record(identity, second.getFormat(), FRAMES, second));
+        // a different key may be recorded at the same time
+        final SyntheticPCMInputStream other = new SyntheticPCMInputStream(44100f, 2, FRAMES);
+        final MFNativePeerInputStream otherRecording = cache.record(new MFSourceIdentity("/music/b.mp3", 1, 1), other.getFormat(), FRAMES, other);
+        assertNotSame(other, otherRecording);
+        otherRecording.close();
+        // closing early abandons the recording and frees the key
+        recording.close();
+        second.close();
+        decode(cache, identity, new SyntheticPCMInputStream(44100f, 2, FRAMES));
+        assertEquals(1, cache.getMemoryEntryCount());
+        assertEquals(BYTES, cache.getMemoryBytes());
+    }
+
+    @Test
+    public void testUndeletableFilesCountTowardsLimit() throws IOException, UnsupportedAudioFileException {
+        final MFDecodedAudioCache cache = new MFDecodedAudioCache(0, 2 * BYTES, directory);
+        final MFSourceIdentity a = new MFSourceIdentity("/music/a.mp3", 1, 1);
+        final MFSourceIdentity b = new MFSourceIdentity("/music/b.mp3", 1, 1);
+        final MFSourceIdentity c = new MFSourceIdentity("/music/c.mp3", 1, 1);
+        final MFSourceIdentity d = new MFSourceIdentity("/music/d.mp3", 1, 1);
+        final AudioFormat format = new SyntheticPCMInputStream(44100f, 2, FRAMES).getFormat();
+        decode(cache, a, new SyntheticPCMInputStream(44100f, 2, FRAMES));
+        // make a's file undeletable, like a file that is still mapped on Windows
+        final Path file;
+        try (final Stream<Path> files = Files.list(directory)) {
+            file = files.findFirst().get();
+        }
+        Files.delete(file);
+        Files.createDirectory(file);
+        final Path blocker = Files.createFile(file.resolve("blocker"));
+
+        decode(cache, b, new SyntheticPCMInputStream(44100f, 2, FRAMES));
+        decode(cache, c, new SyntheticPCMInputStream(44100f, 2, FRAMES));
+        assertNull(cache.open(a, format, FRAMES));
+        assertTrue(Files.exists(file));
+        // a's file still takes up space, so only one entry fits
+        assertEquals(1, cache.getDiskEntryCount());
+        assertEquals(2 * BYTES, cache.getDiskBytes());
+
+        // once it can be deleted, it is
+        Files.delete(blocker);
+        decode(cache, d, new SyntheticPCMInputStream(44100f, 2, FRAMES));
+        assertFalse(Files.exists(file));
+        assertEquals(2, cache.getDiskEntryCount());
+        assertEquals(2 * BYTES, cache.getDiskBytes());
+        assertNotNull(cache.open(c, format, FRAMES));
+        assertNotNull(cache.open(d, format, FRAMES));
+    }
+
+    @Test
+    public void testIncompleteReadsAreNotCached() throws IOException, UnsupportedAudioFileException {
+        final MFDecodedAudioCache cache = new MFDecodedAudioCache(10 * BYTES, 10 * BYTES, directory);
+        final MFSourceIdentity identity = new MFSourceIdentity("/music/a.mp3", 1, 1);
+        final SyntheticPCMInputStream peer = new SyntheticPCMInputStream(44100f, 2, FRAMES);
+        try (final MFAudioInputStream in = new MFAudioInputStream(cache.record(identity, peer.getFormat(), FRAMES, peer), peer.getFormat(), FRAMES)) {
+            in.read(new byte[4096]);
+        }
+        final SyntheticPCMInputStream seeked = new SyntheticPCMInputStream(44100f, 2, FRAMES);
+        try (final MFAudioInputStream in = new MFAudioInputStream(cache.record(identity, seeked.getFormat(), FRAMES, seeked), seeked.getFormat(), FRAMES)) {
+            in.seek(1, TimeUnit.SECONDS);
+            while (in.read(ByteBuffer.allocate(4096)) > 0) {
+                // read to the end
+            }
+        }
+        assertNull(cache.open(identity, peer.getFormat(), FRAMES));
+        try (final Stream<Path> files = Files.list(directory)) {
+            assertEquals(0, files.count());
+        }
+        // unknown identities are never cached
+        final SyntheticPCMInputStream remote = new SyntheticPCMInputStream(44100f, 2, FRAMES);
+        assertSame(remote, cache.record(new MFSourceIdentity("http://www.tagtraum.com/a.mp3", -1, -1), remote.getFormat(), FRAMES, remote));
+    }
+
+    private static byte[] decode(final MFDecodedAudioCache cache, final MFSourceIdentity identity,
+                                 final SyntheticPCMInputStream peer) throws IOException {
+        final MFNativePeerInputStream recording = cache.record(identity, peer.getFormat(), FRAMES, peer);
+        assertNotSame(peer, recording);
+        try (final MFAudioInputStream in = new MFAudioInputStream(recording, peer.getFormat(), FRAMES)) {
+            return readFully(in);
+        }
+    }
+
+    private static byte[] readFully(final MFAudioInputStream in) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate((int) BYTES + 1);
+        while (in.read(buffer) > 0) {
+            // keep reading
+        }
+        assertEquals(BYTES, buffer.position());
+        final byte[] bytes = new byte[buffer.position()];
+        buffer.flip();
+        buffer.get(bytes);
+        return bytes;
+    }
+}
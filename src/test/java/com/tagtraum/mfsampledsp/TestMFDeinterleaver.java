@@ -0,0 +1,134 @@
+/*
+ * =================================================
+ * Copyright 2011 tagtraum industries incorporated
+ * All rights reserved.
+ * =================================================
+ */
+package com.tagtraum.mfsampledsp;
+
+import org.junit.Test;
+
+import javax.sound.sampled.AudioFormat;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * TestMFDeinterleaver.
+ *
+ * @author <a href="mailto:hs@tagtraum.com">Hendrik Schreiber</a>
+ */
+public class TestMFDeinterleaver {
+
+    @Test
+    public void testReadPlanarAcrossFills() throws Exception {
+        // 1000 frames per fill, so reads span several native buffers
+        final SyntheticPCMInputStream synthetic = new SyntheticPCMInputStream(44100f, 2, 10000, 1000, 1);
+        try (final MFAudioInputStream in = new MFAudioInputStream(synthetic, synthetic.getFormat(), 10000)) {
+            final float[][] channels = new float[2][2500];
+            long frame = 0;
+            int justRead;
+            while ((justRead = in.readPlanar(channels, 0, 2500)) != -1) {
+                for (int i=0; i<justRead; i++, frame++) {
+                    assertEquals(synthetic.getSample(frame, 0) / 32768f, channels[0][i], 0f);
+                    assertEquals(synthetic.getSample(frame, 1) / 32768f, channels[1][i], 0f);
+                }
+            }
+            assertEquals(10000, frame);
+            assertEquals(10000, in.getFramePosition());
+        }
+    }
+
+    @Test
+    public void testFormats() throws Exception {
+        for (final int sampleSize : new int[] {8, 16, 24, 32}) {
+            for (final int channels : new int[] {1, 2, 3, 6, 8}) {
+                for (final boolean bigEndian : new boolean[] {false, true}) {
+                    final AudioFormat format = new AudioFormat(AudioFormat.Encoding.PCM_SIGNED, 48000f, sampleSize,
+                            channels, channels * sampleSize / 8, 48000f, bigEndian);
+                    assertFormat(format);
+                }
+            }
+        }
+        assertFormat(new AudioFormat(AudioFormat.Encoding.PCM_FLOAT, 48000f, 32, 2, 8, 48000f, false));
+    }
+
+    @Test
+    public void testFrameLengthAndOffset() throws Exception {
+        final AudioFormat format = new AudioFormat(44100f, 16, 2, true, false);
+        final ByteBuffer data = random(format, 100);
+        try (final MFAudioInputStream in = new MFAudioInputStream(new MFCachedInputStream(data, format), format, 50)) {
+            final short[][] channels = new short[2][60];
+            assertEquals(50, in.readPlanar(channels, 10, 50));
+            assertEquals(data.order(ByteOrder.LITTLE_ENDIAN).getShort(0), channels[0][10]);
+            assertEquals(0, channels[0][9]);
+            assertEquals(-1, in.readPlanar(channels, 0, 10));
+        }
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testFloatIntoInt() throws Exception {
+        final AudioFormat format = new AudioFormat(AudioFormat.Encoding.PCM_FLOAT, 48000f, 32, 2, 8, 48000f, false);
+        try (final MFAudioInputStream in = new MFAudioInputStream(new MFCachedInputStream(random(format, 10), format), format, 10)) {
+            in.readPlanar(new int[2][10], 0, 10);
+        }
+    }
+
+    private static void assertFormat(final AudioFormat format) throws Exception {
+        final int frames = 1001;
+        final ByteBuffer data = random(format, frames);
+        final int channelCount = format.getChannels();
+        final float[][] floats = new float[channelCount][frames];
+        final int[][] ints = new int[channelCount][frames];
+        final short[][] shorts = new short[channelCount][frames];
+        final boolean floatSamples = AudioFormat.Encoding.PCM_FLOAT.equals(format.getEncoding());
+        try (final MFAudioInputStream in = new MFAudioInputStream(new MFCachedInputStream(data, format), format, frames)) {
+            assertEquals(frames, in.readPlanar(floats, 0, frames));
+        }
+        if (!floatSamples) {
+            try (final MFAudioInputStream in = new MFAudioInputStream(new MFCachedInputStream(data, format), format, frames)) {
+                assertEquals(frames, in.readPlanar(ints, 0, frames));
+            }
+            try (final MFAudioInputStream in = new MFAudioInputStream(new MFCachedInputStream(data, format), format, frames)) {
+                assertEquals(frames, in.readPlanar(shorts, 0, frames));
+            }
+        }
+        final int bytes = format.getSampleSizeInBits() / 8;
+        final float scale = (float) Math.pow(2, format.getSampleSizeInBits() - 1);
+        for (int frame = 0; frame < frames; frame++) {
+            for (int c = 0; c < channelCount; c++) {
+                final int p = frame * format.getFrameSize() + c * bytes;
+                final String message = format + ", frame " + frame + ", channel " + c;
+                if (floatSamples) {
+                    assertEquals(message, data.order(ByteOrder.LITTLE_ENDIAN).getFloat(p), floats[c][frame], 0f);
+                    continue;
+                }
+                // reference: assemble the sample byte by byte
+                int sample = 0;
+                for (int i = 0; i < bytes; i++) {
+                    final int b = data.get(format.isBigEndian() ? p + i : p + bytes - 1 - i) & 0xFF;
+                    sample = (sample << 8) | b;
+                }
+                sample = sample << (32 - bytes * 8) >> (32 - bytes * 8);
+                assertEquals(message, sample, ints[c][frame]);
+                assertEquals(message, sample / scale, floats[c][frame], 0f);
+                assertEquals(message, (short) (bytes >= 2 ? sample >> (bytes * 8 - 16) : sample << 8), shorts[c][frame]);
+            }
+        }
+    }
+
+    private static ByteBuffer random(final AudioFormat format, final int frames) {
+        final byte[] b = new byte[frames * format.getFrameSize()];
+        final Random random = new Random(format.hashCode());
+        random.nextBytes(b);
+        if (AudioFormat.Encoding.PCM_FLOAT.equals(format.getEncoding())) {
+            final ByteBuffer floats = ByteBuffer.wrap(b).order(ByteOrder.LITTLE_ENDIAN);
+            for (int i = 0; i < b.length; i += 4) {
+                floats.putFloat(i, random.nextFloat() * 2 - 1);
+            }
+        }
+        return ByteBuffer.wrap(b);
+    }
+}
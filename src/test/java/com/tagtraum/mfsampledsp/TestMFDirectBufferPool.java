@@ -0,0 +1,110 @@
+/*
+ * =================================================
+ * Copyright 2011 tagtraum industries incorporated
+ * All rights reserved.
+ * =================================================
+ */
+package com.tagtraum.mfsampledsp;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+/**
+ * TestMFDirectBufferPool.
+ *
+ * @author <a href="mailto:hs@tagtraum.com">Hendrik Schreiber</a>
+ */
+public class TestMFDirectBufferPool {
+
+    @Test
+    public void testSizeClasses() {
+        final MFDirectBufferPool pool = new MFDirectBufferPool(1024 * 1024);
+        assertEquals(1024, pool.acquire(0).capacity());
+        assertEquals(1024, pool.acquire(1024).capacity());
+        assertEquals(2048, pool.acquire(1025).capacity());
+        assertEquals(32 * 1024, pool.acquire(32 * 1024).capacity());
+        assertEquals(64 * 1024, pool.acquire(32 * 1024 + 1).capacity());
+        assertTrue(pool.acquire(10).isDirect());
+    }
+
+    @Test
+    public void testHitsAndMisses() {
+        final MFDirectBufferPool pool = new MFDirectBufferPool(1024 * 1024);
+        final ByteBuffer buffer = pool.acquire(4000);
+        assertEquals(0, pool.getHitCount());
+        assertEquals(1, pool.getMissCount());
+        buffer.put((byte) 1).flip();
+        pool.release(buffer);
+        assertEquals(4096, pool.getIdleBytes());
+
+        // different size class
+        assertNotSame(buffer, pool.acquire(5000));
+        assertEquals(2, pool.getMissCount());
+
+        // same size class
+        final ByteBuffer reused = pool.acquire(3000);
+        assertSame(buffer, reused);
+        assertEquals(0, reused.position());
+        assertEquals(reused.capacity(), reused.limit());
+        assertEquals(1, pool.getHitCount());
+        assertEquals(0, pool.getIdleBytes());
+    }
+
+    @Test
+    public void testMaxIdleBytes() {
+        final MFDirectBufferPool pool = new MFDirectBufferPool(8 * 1024);
+        final ByteBuffer a = pool.acquire(4096);
+        final ByteBuffer b = pool.acquire(4096);
+        final ByteBuffer c = pool.acquire(4096);
+        pool.release(a);
+        pool.release(b);
+        pool.release(c);
+        assertEquals(8 * 1024, pool.getIdleBytes());
+        assertEquals(1, pool.getDropCount());
+        pool.clear();
+        assertEquals(0, pool.getIdleBytes());
+    }
+
+    @Test
+    public void testIgnoreForeignBuffers() {
+        final MFDirectBufferPool pool = new MFDirectBufferPool(1024 * 1024);
+        final ByteBuffer acquired = pool.acquire(4096);
+        pool.release(ByteBuffer.allocate(4096));
+        pool.release(ByteBuffer.allocateDirect(4000));
+        pool.release(acquired.asReadOnlyBuffer());
+        pool.release(null);
+        assertEquals(0, pool.getIdleBytes());
+        assertEquals(4096, pool.getBorrowedBytes());
+        pool.release(acquired);
+        assertEquals(4096, pool.getIdleBytes());
+        assertEquals(0, pool.getBorrowedBytes());
+    }
+
+    @Test
+    public void testDoubleRelease() {
+        final MFDirectBufferPool pool = new MFDirectBufferPool(1024 * 1024);
+        final ByteBuffer buffer = pool.acquire(4096);
+        pool.release(buffer);
+        pool.release(buffer);
+        assertEquals(4096, pool.getIdleBytes());
+        assertEquals(0, pool.getBorrowedBytes());
+        assertSame(buffer, pool.acquire(4096));
+        assertNotSame(buffer, pool.acquire(4096));
+    }
+
+    @Test
+    public void testStreamsReturnBuffers() throws Exception {
+        final MFDirectBufferPool pool = MFDirectBufferPool.getInstance();
+        new SyntheticPCMInputStream(44100f, 2, 1000).close();
+        final long hits = pool.getHitCount();
+        final SyntheticPCMInputStream in = new SyntheticPCMInputStream(44100f, 2, 1000);
+        assertEquals(hits + 1, pool.getHitCount());
+        in.close();
+        // reading after close is harmless
+        assertEquals(-1, in.read());
+        assertEquals(-1, in.read(ByteBuffer.allocateDirect(1024)));
+    }
+}
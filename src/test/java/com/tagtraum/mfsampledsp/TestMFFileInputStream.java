@@ -6,12 +6,19 @@
  */
 package com.tagtraum.mfsampledsp;
 
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
 import org.junit.Test;
 
 import javax.sound.sampled.UnsupportedAudioFileException;
 import java.io.*;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.Random;
+import java.util.Set;
 import java.util.concurrent.TimeUnit;
 
 import static org.junit.Assert.*;
@@ -81,6 +88,34 @@ public class TestMFFileInputStream {
         System.out.println("Read " + bytesRead + " bytes.");
     }
 
+    @Test
+    public void testReadThroughMP3FileIntoDirectByteBuffer() throws IOException, UnsupportedAudioFileException {
+        final String filename = "test.mp3";
+        final File file = File.createTempFile("testReadThroughMP3FileIntoDirectByteBuffer", filename);
+        extractFile(filename, file);
+        long bytesRead = 0;
+        try (final MFFileInputStream in = new MFFileInputStream(MFAudioFileReader.fileToURL(file))) {
+            final byte[] buf = new byte[1024];
+            int justRead;
+            while ((justRead = in.read(buf)) != -1) {
+                bytesRead += justRead;
+            }
+        }
+        long directBytesRead = 0;
+        try (final MFFileInputStream in = new MFFileInputStream(MFAudioFileReader.fileToURL(file))) {
+            final ByteBuffer buf = ByteBuffer.allocateDirect(1024 * 64);
+            int justRead;
+            while ((justRead = in.read(buf)) != -1) {
+                assertTrue(justRead > 0);
+                directBytesRead += justRead;
+                buf.clear();
+            }
+        } finally {
+            file.delete();
+        }
+        assertEquals(bytesRead, directBytesRead);
+    }
+
     @Test
     public void testReadThroughMP3FileWithPunctuation() throws IOException, UnsupportedAudioFileException {
         final String filename = "test.mp3";
@@ -228,6 +263,41 @@ public class TestMFFileInputStream {
         }
     }
 
+    @Test
+    public void testFlightRecorderEvents() throws IOException, UnsupportedAudioFileException {
+        final String filename = "test.mp3";
+        final File file = File.createTempFile("testFlightRecorderEvents", filename);
+        final File recordingFile = File.createTempFile("testFlightRecorderEvents", ".jfr");
+        extractFile(filename, file);
+        try (final Recording recording = new Recording()) {
+            recording.enable("com.tagtraum.mfsampledsp.Open");
+            recording.enable("com.tagtraum.mfsampledsp.Fill");
+            recording.enable("com.tagtraum.mfsampledsp.Seek");
+            recording.enable("com.tagtraum.mfsampledsp.Close");
+            recording.start();
+            try (final MFFileInputStream in = new MFFileInputStream(file.toURI().toURL())) {
+                in.read(new byte[1024 * 4]);
+                in.seek(1, TimeUnit.SECONDS);
+                in.read(new byte[1024 * 4]);
+            }
+            recording.stop();
+            recording.dump(recordingFile.toPath());
+            final Set<String> names = new HashSet<>();
+            for (final RecordedEvent event : RecordingFile.readAllEvents(recordingFile.toPath())) {
+                names.add(event.getEventType().getName());
+                assertEquals(file.toURI().toURL().toString(), event.getString("source"));
+                if ("com.tagtraum.mfsampledsp.Fill".equals(event.getEventType().getName())) {
+                    assertTrue(event.getInt("bytes") > 0);
+                }
+            }
+            assertEquals(new HashSet<>(Arrays.asList("com.tagtraum.mfsampledsp.Open", "com.tagtraum.mfsampledsp.Fill",
+                    "com.tagtraum.mfsampledsp.Seek", "com.tagtraum.mfsampledsp.Close")), names);
+        } finally {
+            file.delete();
+            recordingFile.delete();
+        }
+    }
+
     private void extractFile(final String filename, final File file) throws IOException {
         try (final InputStream in = getClass().getResourceAsStream(filename);
              final OutputStream out = new FileOutputStream(file)) {
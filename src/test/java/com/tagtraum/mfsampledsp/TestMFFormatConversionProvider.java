@@ -0,0 +1,168 @@
+/*
+ * =================================================
+ * Copyright 2011 tagtraum industries incorporated
+ * All rights reserved.
+ * =================================================
+ */
+package com.tagtraum.mfsampledsp;
+
+import org.junit.Test;
+
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * TestMFFormatConversionProvider.
+ *
+ * @author <a href="mailto:hs@tagtraum.com">Hendrik Schreiber</a>
+ */
+public class TestMFFormatConversionProvider {
+
+    private static final AudioFormat SIGNED_16_LE_STEREO = new AudioFormat(AudioFormat.Encoding.PCM_SIGNED, 44100f, 16, 2, 4, 44100f, false);
+
+    @Test
+    public void testTargetFormats() {
+        final MFFormatConversionProvider provider = new MFFormatConversionProvider();
+        assertTrue(provider.isConversionSupported(new AudioFormat(AudioFormat.Encoding.PCM_SIGNED, 44100f, 24, 2, 6, 44100f, true), SIGNED_16_LE_STEREO));
+        assertTrue(provider.isConversionSupported(new AudioFormat(AudioFormat.Encoding.PCM_UNSIGNED, 44100f, 8, 1, 1, 44100f, false), SIGNED_16_LE_STEREO));
+        assertTrue(provider.isConversionSupported(new AudioFormat(AudioFormat.Encoding.PCM_FLOAT, 44100f, 32, 2, 8, 44100f, false), SIGNED_16_LE_STEREO));
+        // no sample rate conversion
+        assertFalse(provider.isConversionSupported(new AudioFormat(AudioFormat.Encoding.PCM_SIGNED, 48000f, 16, 2, 4, 48000f, false), SIGNED_16_LE_STEREO));
+        // no 64 bit float
+        assertFalse(provider.isConversionSupported(new AudioFormat(AudioFormat.Encoding.PCM_FLOAT, 44100f, 64, 2, 16, 44100f, false), SIGNED_16_LE_STEREO));
+    }
+
+    @Test
+    public void testLosslessRoundTrips() throws IOException {
+        final byte[] source = createSignal(10000);
+        final AudioFormat[] formats = {
+                new AudioFormat(AudioFormat.Encoding.PCM_SIGNED, 44100f, 16, 2, 4, 44100f, true),
+                new AudioFormat(AudioFormat.Encoding.PCM_UNSIGNED, 44100f, 16, 2, 4, 44100f, false),
+                new AudioFormat(AudioFormat.Encoding.PCM_SIGNED, 44100f, 24, 2, 6, 44100f, false),
+                new AudioFormat(AudioFormat.Encoding.PCM_UNSIGNED, 44100f, 24, 2, 6, 44100f, true),
+                new AudioFormat(AudioFormat.Encoding.PCM_SIGNED, 44100f, 32, 2, 8, 44100f, true),
+                new AudioFormat(AudioFormat.Encoding.PCM_FLOAT, 44100f, 32, 2, 8, 44100f, false),
+                new AudioFormat(AudioFormat.Encoding.PCM_FLOAT, 44100f, 32, 2, 8, 44100f, true),
+        };
+        final MFFormatConversionProvider provider = new MFFormatConversionProvider();
+        for (final AudioFormat format : formats) {
+            final AudioInputStream converted = provider.getAudioInputStream(format, stream(source, SIGNED_16_LE_STEREO));
+            assertEquals(format.toString(), 10000, converted.getFrameLength());
+            final byte[] intermediate = readFully(converted);
+            assertEquals(format.toString(), 10000 * format.getFrameSize(), intermediate.length);
+            final byte[] back = readFully(provider.getAudioInputStream(SIGNED_16_LE_STEREO, stream(intermediate, format)));
+            assertArrayEquals(format.toString(), source, back);
+        }
+    }
+
+    @Test
+    public void testKnownValues() throws IOException {
+        // -32768, 0, 32767, 256
+        final byte[] source = {0x00, (byte) 0x80, 0x00, 0x00, (byte) 0xff, 0x7f, 0x00, 0x01};
+        final AudioFormat mono = new AudioFormat(AudioFormat.Encoding.PCM_SIGNED, 44100f, 16, 1, 2, 44100f, false);
+        final MFFormatConversionProvider provider = new MFFormatConversionProvider();
+
+        final AudioFormat unsigned8 = new AudioFormat(AudioFormat.Encoding.PCM_UNSIGNED, 44100f, 8, 1, 1, 44100f, false);
+        assertArrayEquals(new byte[]{0x00, (byte) 0x80, (byte) 0xff, (byte) 0x81},
+                readFully(provider.getAudioInputStream(unsigned8, stream(source, mono))));
+
+        final AudioFormat signed24BigEndian = new AudioFormat(AudioFormat.Encoding.PCM_SIGNED, 44100f, 24, 1, 3, 44100f, true);
+        assertArrayEquals(new byte[]{(byte) 0x80, 0x00, 0x00, 0x00, 0x00, 0x00, 0x7f, (byte) 0xff, 0x00, 0x01, 0x00, 0x00},
+                readFully(provider.getAudioInputStream(signed24BigEndian, stream(source, mono))));
+
+        final AudioFormat stereo = new AudioFormat(AudioFormat.Encoding.PCM_SIGNED, 44100f, 16, 2, 4, 44100f, false);
+        assertArrayEquals(new byte[]{0x00, (byte) 0x80, 0x00, (byte) 0x80, 0x00, 0x00, 0x00, 0x00,
+                        (byte) 0xff, 0x7f, (byte) 0xff, 0x7f, 0x00, 0x01, 0x00, 0x01},
+                readFully(provider.getAudioInputStream(stereo, stream(source, mono))));
+    }
+
+    @Test
+    public void testDownmix() throws IOException {
+        // (1000, 3000), (-1000, -3001)
+        final byte[] source = {(byte) 0xe8, 0x03, (byte) 0xb8, 0x0b, 0x18, (byte) 0xfc, 0x47, (byte) 0xf4};
+        final AudioFormat mono = new AudioFormat(AudioFormat.Encoding.PCM_SIGNED, 44100f, 16, 1, 2, 44100f, false);
+        final byte[] result = readFully(new MFFormatConversionProvider().getAudioInputStream(mono, stream(source, SIGNED_16_LE_STEREO)));
+        assertEquals(4, result.length);
+        assertEquals(2000, (short) ((result[0] & 0xff) | result[1] << 8));
+        assertEquals(-2000, (short) ((result[2] & 0xff) | result[3] << 8), 1);
+    }
+
+    @Test
+    public void testFloatClipping() throws IOException {
+        final AudioFormat floatMono = new AudioFormat(AudioFormat.Encoding.PCM_FLOAT, 44100f, 32, 1, 4, 44100f, true);
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(bytes);
+        out.writeFloat(2f);
+        out.writeFloat(-2f);
+        out.writeFloat(0.5f);
+        final AudioFormat mono = new AudioFormat(AudioFormat.Encoding.PCM_SIGNED, 44100f, 16, 1, 2, 44100f, true);
+        final DataInputStream in = new DataInputStream(new ByteArrayInputStream(
+                readFully(new MFFormatConversionProvider().getAudioInputStream(mono, stream(bytes.toByteArray(), floatMono)))));
+        assertEquals(Short.MAX_VALUE, in.readShort());
+        assertEquals(Short.MIN_VALUE, in.readShort());
+        assertEquals(16384, in.readShort());
+    }
+
+    @Test
+    public void testReopenMP3As24Bit() throws IOException, UnsupportedAudioFileException {
+        final String filename = "test.mp3";
+        final File file = File.createTempFile("testReopenMP3As24Bit", filename);
+        extractFile(filename, file);
+        try {
+            final AudioFileFormat fileFormat = new MFAudioFileReader().getAudioFileFormat(file);
+            final AudioFormat target = new AudioFormat(AudioFormat.Encoding.PCM_SIGNED, 44100f, 24, 2, 6, 44100f, false);
+            try (final AudioInputStream in = AudioSystem.getAudioInputStream(target, AudioSystem.getAudioInputStream(file))) {
+                assertTrue(in instanceof MFAudioInputStream);
+                assertTrue(in.getFormat().matches(target));
+                assertEquals(fileFormat.getFrameLength() * 6L, readFully(in).length);
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    private static byte[] createSignal(final int frames) {
+        final byte[] signal = new byte[frames * 4];
+        for (int frame=0; frame<frames; frame++) {
+            final short left = (short) (Math.sin(frame / 10.0) * 32767);
+            final short right = (short) (frame * 7);
+            signal[frame * 4] = (byte) left;
+            signal[frame * 4 + 1] = (byte) (left >> 8);
+            signal[frame * 4 + 2] = (byte) right;
+            signal[frame * 4 + 3] = (byte) (right >> 8);
+        }
+        return signal;
+    }
+
+    private static AudioInputStream stream(final byte[] data, final AudioFormat format) {
+        return new AudioInputStream(new ByteArrayInputStream(data), format, data.length / format.getFrameSize());
+    }
+
+    private static byte[] readFully(final InputStream in) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final byte[] buf = new byte[1000];
+        int justRead;
+        while ((justRead = in.read(buf)) != -1) {
+            out.write(buf, 0, justRead);
+        }
+        in.close();
+        return out.toByteArray();
+    }
+
+    private void extractFile(final String filename, final File file) throws IOException {
+        try (final InputStream in = getClass().getResourceAsStream(filename);
+             final OutputStream out = new FileOutputStream(file)) {
+            final byte[] buf = new byte[1024*64];
+            int justRead;
+            while ((justRead = in.read(buf)) != -1) {
+                out.write(buf, 0, justRead);
+            }
+        }
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * =================================================
+ * Copyright 2011 tagtraum industries incorporated
+ * All rights reserved.
+ * =================================================
+ */
+package com.tagtraum.mfsampledsp;
+
+import org.junit.Test;
+
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioFormat;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import static org.junit.Assert.*;
+
+/**
+ * TestMFHeaderParser.
+ *
+ * @author <a href="mailto:hs@tagtraum.com">Hendrik Schreiber</a>
+ */
+public class TestMFHeaderParser {
+
+    // MPEG-1 layer III, 128 kbit/s, 44.1 kHz, joint stereo
+    private static final byte[] FRAME_128 = {(byte) 0xFF, (byte) 0xFB, (byte) 0x90, 0x44};
+    // MPEG-1 layer III, 160 kbit/s, 44.1 kHz, joint stereo
+    private static final byte[] FRAME_160 = {(byte) 0xFF, (byte) 0xFB, (byte) 0xA0, 0x44};
+
+    @Test
+    public void testMP3() throws IOException, URISyntaxException {
+        final AudioFileFormat fileFormat = parse(resource("test.mp3"));
+        assertNotNull(fileFormat);
+        assertEquals("mp3", fileFormat.getType().getExtension());
+        assertEquals(134769, fileFormat.getFrameLength());
+        assertEquals(3056000L, fileFormat.getProperty("duration"));
+        final AudioFormat format = fileFormat.getFormat();
+        assertEquals(2, format.getChannels());
+        assertEquals(44100f, format.getSampleRate(), 0.01f);
+        assertEquals(4, format.getFrameSize());
+        assertEquals(192000, format.getProperty("bitrate"));
+        assertEquals(false, format.getProperty("vbr"));
+    }
+
+    @Test
+    public void testM4A() throws IOException, URISyntaxException {
+        final AudioFileFormat fileFormat = parse(resource("test.m4a"));
+        assertNotNull(fileFormat);
+        assertEquals("m4a", fileFormat.getType().getExtension());
+        assertEquals(136180, fileFormat.getFrameLength());
+        assertEquals(3088000L, fileFormat.getProperty("duration"));
+        final AudioFormat format = fileFormat.getFormat();
+        assertEquals(2, format.getChannels());
+        assertEquals(44100f, format.getSampleRate(), 0.01f);
+        assertEquals(4, format.getFrameSize());
+        assertEquals(92760, format.getProperty("bitrate"));
+    }
+
+    @Test
+    public void testWave() throws IOException, URISyntaxException {
+        final AudioFileFormat fileFormat = parse(resource("test.wav"));
+        assertNotNull(fileFormat);
+        assertEquals("wav", fileFormat.getType().getExtension());
+        assertEquals(133623, fileFormat.getFrameLength());
+        assertEquals(3030000L, fileFormat.getProperty("duration"));
+        final AudioFormat format = fileFormat.getFormat();
+        assertEquals(2, format.getChannels());
+        assertEquals(44100f, format.getSampleRate(), 0.01f);
+        assertEquals(4, format.getFrameSize());
+    }
+
+    @Test
+    public void testXingHeader() throws IOException {
+        // 1000 frames of 1152 samples at 44.1 kHz, 3200000 bytes
+        final byte[] b = frames(FRAME_128, 417, 4);
+        final int xing = 4 + 32;
+        System.arraycopy("Xing".getBytes("ASCII"), 0, b, xing, 4);
+        b[xing + 7] = 3;
+        putIntBE(b, xing + 8, 1000);
+        putIntBE(b, xing + 12, 3200000);
+        final File file = write("testXingHeader", b);
+        try {
+            final AudioFileFormat fileFormat = parse(file.toPath());
+            assertNotNull(fileFormat);
+            assertEquals(26122000L, fileFormat.getProperty("duration"));
+            assertEquals(980000, fileFormat.getFormat().getProperty("bitrate"));
+            assertEquals(true, fileFormat.getFormat().getProperty("vbr"));
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testVaryingBitRateWithoutHeader() throws IOException {
+        final byte[] b = new byte[417 + 522 + 417];
+        System.arraycopy(FRAME_128, 0, b, 0, 4);
+        System.arraycopy(FRAME_160, 0, b, 417, 4);
+        System.arraycopy(FRAME_128, 0, b, 417 + 522, 4);
+        final File file = write("testVaryingBitRateWithoutHeader", b);
+        try {
+            // ambiguous, needs native probing
+            assertNull(parse(file.toPath()));
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testUnknownContainer() throws IOException {
+        final File file = write("testUnknownContainer", "fLaC\0\0\0\0".getBytes("ASCII"));
+        try {
+            assertNull(parse(file.toPath()));
+        } finally {
+            file.delete();
+        }
+    }
+
+    private static AudioFileFormat parse(final Path path) throws IOException {
+        try (final FileChannel channel = FileChannel.open(path)) {
+            final ByteBuffer header = MFHeaderParser.read(channel, 0, MFContentSniffer.HEADER_LENGTH);
+            return MFHeaderParser.parse(channel, header, MFAudioFileReader.fileToURL(path.toFile()).toString());
+        }
+    }
+
+    private Path resource(final String name) throws URISyntaxException {
+        return Paths.get(getClass().getResource(name).toURI());
+    }
+
+    private static byte[] frames(final byte[] header, final int frameLength, final int count) {
+        final byte[] b = new byte[frameLength * count];
+        for (int i=0; i<count; i++) {
+            System.arraycopy(header, 0, b, i * frameLength, header.length);
+        }
+        return b;
+    }
+
+    private static void putIntBE(final byte[] b, final int off, final int value) {
+        b[off] = (byte) (value >>> 24);
+        b[off + 1] = (byte) (value >>> 16);
+        b[off + 2] = (byte) (value >>> 8);
+        b[off + 3] = (byte) value;
+    }
+
+    private static File write(final String prefix, final byte[] b) throws IOException {
+        final File file = File.createTempFile(prefix, ".mp3");
+        try (final FileOutputStream out = new FileOutputStream(file)) {
+            out.write(b);
+        }
+        return file;
+    }
+}
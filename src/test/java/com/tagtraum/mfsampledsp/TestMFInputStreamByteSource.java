@@ -0,0 +1,132 @@
+/*
+ * =================================================
+ * Copyright 2011 tagtraum industries incorporated
+ * All rights reserved.
+ * =================================================
+ */
+package com.tagtraum.mfsampledsp;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * TestMFInputStreamByteSource.
+ *
+ * @author <a href="mailto:hs@tagtraum.com">Hendrik Schreiber</a>
+ */
+public class TestMFInputStreamByteSource {
+
+    @Test
+    public void testSmallSourceStaysInMemory() throws IOException {
+        final byte[] data = randomBytes(10000);
+        try (final MFInputStreamByteSource source = new MFInputStreamByteSource(new ByteArrayInputStream(data), "test.mp3")) {
+            assertEquals(-1, source.length());
+            assertArrayEquals(slice(data, 5000, 100), read(source, 5000, 100));
+            assertArrayEquals(slice(data, 0, 100), read(source, 0, 100));
+            // beyond the end
+            final ByteBuffer buffer = ByteBuffer.allocate(100);
+            assertEquals(-1, source.read(20000, buffer));
+            assertEquals(10000, source.length());
+            assertEquals(50, source.read(9950, buffer));
+            assertFalse(source.isSpilled());
+            assertEquals("test.mp3", source.getName());
+        }
+    }
+
+    @Test
+    public void testBackwardSeekBeyondWindowIsServedFromSpill() throws IOException {
+        final byte[] data = randomBytes(200000);
+        final Path directory = Files.createTempDirectory("TestMFInputStreamByteSource");
+        try {
+            try (final MFInputStreamByteSource source = new MFInputStreamByteSource(new ByteArrayInputStream(data),
+                    "test.m4a", data.length, 4096, directory)) {
+                assertEquals(data.length, source.length());
+                // read the end first, like for an MP4 with the index at the end
+                assertArrayEquals(slice(data, 199000, 1000), read(source, 199000, 1000));
+                assertTrue(source.isSpilled());
+                assertTrue(source.getSpilledBytes() >= 200000 - 4096);
+                // now everything again, in odd chunks spanning spill and window
+                final Random random = new Random(0);
+                for (int i=0; i<200; i++) {
+                    final int position = random.nextInt(data.length);
+                    final int length = Math.min(data.length - position, 1 + random.nextInt(10000));
+                    assertArrayEquals("Position " + position, slice(data, position, length), read(source, position, length));
+                }
+            }
+            // spill file is gone
+            assertEquals(0, directory.toFile().list().length);
+        } finally {
+            final File[] files = directory.toFile().listFiles();
+            if (files != null) for (final File file : files) file.delete();
+            Files.delete(directory);
+        }
+    }
+
+    @Test
+    public void testReadWhileArriving() throws IOException, InterruptedException {
+        final byte[] data = randomBytes(100000);
+        final PipedOutputStream out = new PipedOutputStream();
+        final PipedInputStream in = new PipedInputStream(out, 1024);
+        final Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    for (int i=0; i<data.length; i+=1000) {
+                        out.write(data, i, 1000);
+                    }
+                    out.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        });
+        producer.start();
+        try (final MFInputStreamByteSource source = new MFInputStreamByteSource(in, "upload.mp3")) {
+            assertArrayEquals(slice(data, 0, 4000), read(source, 0, 4000));
+            assertArrayEquals(slice(data, 50000, 50000), read(source, 50000, 50000));
+            assertEquals(-1, source.length());
+            assertEquals(-1, source.read(100000, ByteBuffer.allocate(10)));
+            assertEquals(100000, source.length());
+        }
+        producer.join();
+    }
+
+    @Test(expected = IOException.class)
+    public void testReadAfterClose() throws IOException {
+        final MFInputStreamByteSource source = new MFInputStreamByteSource(new ByteArrayInputStream(new byte[10]), null);
+        source.close();
+        source.read(0, ByteBuffer.allocate(10));
+    }
+
+    private static byte[] read(final MFByteSource source, final long position, final int length) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(length);
+        assertEquals(length, source.read(position, buffer));
+        buffer.flip();
+        final byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    private static byte[] slice(final byte[] data, final int position, final int length) {
+        final byte[] bytes = new byte[length];
+        System.arraycopy(data, position, bytes, 0, length);
+        return bytes;
+    }
+
+    private static byte[] randomBytes(final int length) {
+        final byte[] data = new byte[length];
+        new Random(4711).nextBytes(data);
+        return data;
+    }
+}
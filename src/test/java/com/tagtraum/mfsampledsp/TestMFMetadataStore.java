@@ -0,0 +1,150 @@
+/*
+ * =================================================
+ * Copyright 2011 tagtraum industries incorporated
+ * All rights reserved.
+ * =================================================
+ */
+package com.tagtraum.mfsampledsp;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.URL;
+import java.nio.file.Path;
+
+import static org.junit.Assert.*;
+
+/**
+ * TestMFMetadataStore.
+ *
+ * @author <a href="mailto:hs@tagtraum.com">Hendrik Schreiber</a>
+ */
+public class TestMFMetadataStore {
+
+    private File storeFile;
+
+    @Before
+    public void setUp() throws IOException {
+        storeFile = File.createTempFile("TestMFMetadataStore", ".mfmeta");
+        storeFile.delete();
+    }
+
+    @After
+    public void tearDown() {
+        storeFile.delete();
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException, UnsupportedAudioFileException {
+        final URL url = new URL("file:/music/test.mp3");
+        final MFSourceIdentity identity = new MFSourceIdentity("/music/test.mp3", 12345, 67890);
+        final MFAudioFileFormat format = new MFAudioFileFormat(url.toString(), 44100f, 16, 2, 4, 44100f, false, 3056, 192000, true);
+        try (final MFMetadataStore store = MFMetadataStore.open(storeFile.toPath())) {
+            assertNull(store.get(identity, url));
+            store.put(identity, format);
+            assertEquals(1, store.size());
+            assertSameFormat(format, store.get(identity, url));
+        }
+    }
+
+    @Test
+    public void testStaleRecordsAreIgnored() throws IOException, UnsupportedAudioFileException {
+        final URL url = new URL("file:/music/test.mp3");
+        final MFAudioFileFormat format = new MFAudioFileFormat(url.toString(), 44100f, 16, 2, 4, 44100f, false, 3056, 192000, false);
+        try (final MFMetadataStore store = MFMetadataStore.open(storeFile.toPath())) {
+            store.put(new MFSourceIdentity("/music/test.mp3", 100, 1000), format);
+            assertNull(store.get(new MFSourceIdentity("/music/test.mp3", 100, 2000), url));
+            assertNull(store.get(new MFSourceIdentity("/music/test.mp3", 101, 1000), url));
+            // overwrite
+            store.put(new MFSourceIdentity("/music/test.mp3", 101, 2000), format);
+            assertEquals(1, store.size());
+            assertNotNull(store.get(new MFSourceIdentity("/music/test.mp3", 101, 2000), url));
+        }
+    }
+
+    @Test
+    public void testGrowAndReopen() throws IOException, UnsupportedAudioFileException {
+        final int entries = 5000;
+        final Path path = storeFile.toPath();
+        try (final MFMetadataStore store = MFMetadataStore.open(path)) {
+            for (int i=0; i<entries; i++) {
+                final String url = "file:/music/" + i + ".m4a";
+                store.put(new MFSourceIdentity("/music/" + i + ".m4a", i, i * 2L),
+                        new MFAudioFileFormat(url, 44100f + i, 16, 2, 4, 44100f + i, false, 1000 + i, 128000 + i, false));
+            }
+            assertEquals(entries, store.size());
+            assertTrue(store.getCapacity() >= 2 * entries);
+        }
+        try (final MFMetadataStore store = MFMetadataStore.open(path)) {
+            assertEquals(entries, store.size());
+            for (int i=0; i<entries; i++) {
+                final AudioFileFormat format = store.get(new MFSourceIdentity("/music/" + i + ".m4a", i, i * 2L),
+                        new URL("file:/music/" + i + ".m4a"));
+                assertNotNull("Missing " + i, format);
+                assertEquals(44100f + i, format.getFormat().getSampleRate(), 0.001f);
+                assertEquals(128000 + i, format.getFormat().getProperty("bitrate"));
+                assertEquals((1000L + i) * 1000L, format.getProperty("duration"));
+            }
+        }
+    }
+
+    @Test
+    public void testDamagedHeader() throws IOException, UnsupportedAudioFileException {
+        final URL url = new URL("file:/music/test.mp3");
+        final MFSourceIdentity identity = new MFSourceIdentity("/music/test.mp3", 12345, 67890);
+        final long freshLength;
+        try (final MFMetadataStore store = MFMetadataStore.open(storeFile.toPath())) {
+            freshLength = storeFile.length();
+            store.put(identity, new MFAudioFileFormat(url.toString(), 44100f, 16, 2, 4, 44100f, false, 3056, 192000, true));
+            // grow the table
+            for (int i=0; i<1000; i++) {
+                store.put(new MFSourceIdentity("/music/" + i + ".m4a", i, i), new MFAudioFileFormat("file:/music/" + i + ".m4a",
+                        44100f, 16, 2, 4, 44100f, false, 1000, 128000, false));
+            }
+        }
+        assertTrue(storeFile.length() > freshLength);
+        try (final RandomAccessFile file = new RandomAccessFile(storeFile, "rw")) {
+            file.writeLong(0);
+        }
+        try (final MFMetadataStore store = MFMetadataStore.open(storeFile.toPath())) {
+            assertEquals(0, store.size());
+            assertNull(store.get(identity, url));
+            // the old table is gone, the file is as large as a new one
+            assertEquals(freshLength, storeFile.length());
+            store.put(identity, new MFAudioFileFormat(url.toString(), 44100f, 16, 2, 4, 44100f, false, 3056, 192000, true));
+        }
+        try (final MFMetadataStore store = MFMetadataStore.open(storeFile.toPath())) {
+            assertEquals(1, store.size());
+            assertNotNull(store.get(identity, url));
+        }
+    }
+
+    @Test
+    public void testUnknownValues() throws IOException, UnsupportedAudioFileException {
+        final URL url = new URL("file:/music/test.wma");
+        final MFSourceIdentity identity = new MFSourceIdentity("/music/test.wma", 1, 1);
+        final MFAudioFileFormat format = new MFAudioFileFormat(url.toString(), 0f, 16, -1, -1, -1f, false, -1, 0, false);
+        try (final MFMetadataStore store = MFMetadataStore.open(storeFile.toPath())) {
+            store.put(identity, format);
+            assertSameFormat(format, store.get(identity, url));
+        }
+    }
+
+    private static void assertSameFormat(final AudioFileFormat expected, final AudioFileFormat actual) {
+        assertNotNull(actual);
+        assertEquals(expected.getType(), actual.getType());
+        assertEquals(expected.getFrameLength(), actual.getFrameLength());
+        assertEquals(expected.properties(), actual.properties());
+        final AudioFormat expectedFormat = expected.getFormat();
+        final AudioFormat actualFormat = actual.getFormat();
+        assertEquals(expectedFormat.toString(), actualFormat.toString());
+        assertEquals(expectedFormat.properties(), actualFormat.properties());
+    }
+}
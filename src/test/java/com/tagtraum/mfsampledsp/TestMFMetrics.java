@@ -0,0 +1,74 @@
+/*
+ * =================================================
+ * Copyright 2011 tagtraum industries incorporated
+ * All rights reserved.
+ * =================================================
+ */
+package com.tagtraum.mfsampledsp;
+
+import org.junit.Test;
+
+import javax.management.JMX;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+/**
+ * TestMFMetrics.
+ *
+ * @author <a href="mailto:hs@tagtraum.com">Hendrik Schreiber</a>
+ */
+public class TestMFMetrics {
+
+    @Test
+    public void testRegisteredOnFirstUse() throws Exception {
+        MFNativeLibraryLoader.loadLibrary();
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        final ObjectName name = new ObjectName(MFMetrics.OBJECT_NAME);
+        assertTrue(server.isRegistered(name));
+        assertTrue((Long) server.getAttribute(name, "NativeCalls") >= 0);
+        assertTrue((Integer) server.getAttribute(name, "OpenNativePeers") >= 0);
+        final double ratio = (Double) server.getAttribute(name, "FormatCacheHitRatio");
+        assertTrue(ratio >= 0 && ratio <= 1);
+    }
+
+    @Test
+    public void testNativeCallsAreCounted() throws Exception {
+        final MFMetricsMXBean metrics = metrics();
+        final long calls = metrics.getNativeCalls();
+        final String result = MFWorkers.call(null, new MFWorkers.Task<String, Exception>() {
+            @Override
+            public String call() throws Exception {
+                Thread.sleep(20);
+                return "done";
+            }
+        });
+        assertEquals("done", result);
+        assertTrue(metrics.getNativeCalls() >= calls + 1);
+        assertTrue(metrics.getNativeCallTimeMillis() >= 20);
+    }
+
+    @Test
+    public void testNativeBufferGrowthAndBytes() throws Exception {
+        final MFMetricsMXBean metrics = metrics();
+        final long growths = metrics.getNativeBufferGrowths();
+        final long borrowed = metrics.getNativeBufferBytes();
+        // 16k frames * 4 bytes do not fit into the default 32k buffer
+        final SyntheticPCMInputStream in = new SyntheticPCMInputStream(44100f, 2, 44100, 16 * 1024, 1);
+        assertEquals(borrowed + 32 * 1024, metrics.getNativeBufferBytes());
+        in.read(ByteBuffer.allocate(1024));
+        assertEquals(growths + 1, metrics.getNativeBufferGrowths());
+        assertEquals(borrowed + 64 * 1024, metrics.getNativeBufferBytes());
+        in.close();
+        assertEquals(borrowed, metrics.getNativeBufferBytes());
+    }
+
+    private static MFMetricsMXBean metrics() throws Exception {
+        MFNativeLibraryLoader.loadLibrary();
+        return JMX.newMXBeanProxy(ManagementFactory.getPlatformMBeanServer(),
+                new ObjectName(MFMetrics.OBJECT_NAME), MFMetricsMXBean.class);
+    }
+}
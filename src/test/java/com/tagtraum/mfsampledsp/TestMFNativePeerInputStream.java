@@ -0,0 +1,134 @@
+/*
+ * =================================================
+ * Copyright 2011 tagtraum industries incorporated
+ * All rights reserved.
+ * =================================================
+ */
+package com.tagtraum.mfsampledsp;
+
+import org.junit.Test;
+
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import static org.junit.Assert.*;
+
+/**
+ * TestMFNativePeerInputStream.
+ *
+ * @author <a href="mailto:hs@tagtraum.com">Hendrik Schreiber</a>
+ */
+public class TestMFNativePeerInputStream {
+
+    @Test
+    public void testReadDirectByteBuffer() throws IOException, UnsupportedAudioFileException {
+        final byte[] expected = readFully(new SyntheticPCMInputStream(44100f, 2, 100000));
+        final byte[] actual = readFully(new SyntheticPCMInputStream(44100f, 2, 100000), ByteBuffer.allocateDirect(64 * 1024));
+        assertArrayEquals(expected, actual);
+    }
+
+    @Test
+    public void testReadSmallDirectByteBuffer() throws IOException, UnsupportedAudioFileException {
+        final byte[] expected = readFully(new SyntheticPCMInputStream(44100f, 2, 100000));
+        final byte[] actual = readFully(new SyntheticPCMInputStream(44100f, 2, 100000), ByteBuffer.allocateDirect(1000));
+        assertArrayEquals(expected, actual);
+    }
+
+    @Test
+    public void testReadHeapByteBuffer() throws IOException, UnsupportedAudioFileException {
+        final byte[] expected = readFully(new SyntheticPCMInputStream(44100f, 2, 100000));
+        final byte[] actual = readFully(new SyntheticPCMInputStream(44100f, 2, 100000), ByteBuffer.allocate(64 * 1024));
+        assertArrayEquals(expected, actual);
+    }
+
+    @Test
+    public void testReadDirectByteBufferWithGrowingSamples() throws IOException, UnsupportedAudioFileException {
+        // 16384 frames per fill do not fit into the initial native buffer
+        final byte[] expected = readFully(new SyntheticPCMInputStream(44100f, 2, 100000, 16384, 1));
+        final byte[] actual = readFully(new SyntheticPCMInputStream(44100f, 2, 100000, 16384, 1), ByteBuffer.allocateDirect(64 * 1024));
+        assertArrayEquals(expected, actual);
+    }
+
+    @Test
+    public void testReadDirectByteBufferWritesDirectly() throws IOException, UnsupportedAudioFileException {
+        // each fill produces exactly 32k, i.e. as much as the native buffer holds
+        try (final SyntheticPCMInputStream in = new SyntheticPCMInputStream(44100f, 2, 100000, 8192, 1)) {
+            final ByteBuffer nativeBuffer = in.nativeBuffer;
+            final ByteBuffer dst = ByteBuffer.allocateDirect(64 * 1024);
+            assertEquals(dst.capacity(), in.read(dst));
+            // data went straight into dst, the native buffer was never used
+            assertSame(nativeBuffer, in.nativeBuffer);
+            assertFalse(in.nativeBuffer.hasRemaining());
+        }
+    }
+
+    @Test
+    public void testReadByteBufferAfterEnd() throws IOException, UnsupportedAudioFileException {
+        final SyntheticPCMInputStream in = new SyntheticPCMInputStream(44100f, 2, 10);
+        final ByteBuffer dst = ByteBuffer.allocateDirect(64 * 1024);
+        assertEquals(40, in.read(dst));
+        assertEquals(-1, in.read(dst));
+        assertFalse(in.isOpen());
+    }
+
+    @Test
+    public void testReadAsyncInOrder() throws IOException, UnsupportedAudioFileException, ExecutionException, InterruptedException {
+        final byte[] expected = readFully(new SyntheticPCMInputStream(44100f, 2, 100000));
+        final SyntheticPCMInputStream in = new SyntheticPCMInputStream(44100f, 2, 100000);
+        // issue all reads at once, they must be carried out one after the other
+        final List<ByteBuffer> buffers = new ArrayList<>();
+        final List<CompletableFuture<Integer>> futures = new ArrayList<>();
+        for (int i=0; i<expected.length / 8192 + 2; i++) {
+            final ByteBuffer buf = ByteBuffer.allocate(8192);
+            buffers.add(buf);
+            futures.add(in.readAsync(buf));
+        }
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int i=0; i<futures.size(); i++) {
+            final int justRead = futures.get(i).get();
+            if (justRead == -1) break;
+            out.write(buffers.get(i).array(), 0, justRead);
+        }
+        assertArrayEquals(expected, out.toByteArray());
+        assertEquals(-1, futures.get(futures.size() - 1).get().intValue());
+        assertFalse(in.isOpen());
+    }
+
+    private static byte[] readFully(final MFNativePeerInputStream in) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            final byte[] buf = new byte[4096];
+            int justRead;
+            while ((justRead = in.read(buf)) != -1) {
+                out.write(buf, 0, justRead);
+            }
+        } finally {
+            in.close();
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] readFully(final MFNativePeerInputStream in, final ByteBuffer buf) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            final byte[] bytes = new byte[buf.capacity()];
+            int justRead;
+            while ((justRead = in.read(buf)) != -1) {
+                assertTrue(justRead > 0);
+                buf.flip();
+                buf.get(bytes, 0, justRead);
+                out.write(bytes, 0, justRead);
+                buf.clear();
+            }
+        } finally {
+            in.close();
+        }
+        return out.toByteArray();
+    }
+}
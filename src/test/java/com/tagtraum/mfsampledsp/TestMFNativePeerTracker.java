@@ -0,0 +1,119 @@
+/*
+ * =================================================
+ * Copyright 2011 tagtraum industries incorporated
+ * All rights reserved.
+ * =================================================
+ */
+package com.tagtraum.mfsampledsp;
+
+import org.junit.Test;
+
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+import static org.junit.Assert.*;
+
+/**
+ * TestMFNativePeerTracker.
+ *
+ * @author <a href="mailto:hs@tagtraum.com">Hendrik Schreiber</a>
+ */
+public class TestMFNativePeerTracker {
+
+    @Test
+    public void testCloseReleasesOnce() throws IOException, UnsupportedAudioFileException {
+        final List<Long> released = Collections.synchronizedList(new ArrayList<Long>());
+        final int liveBefore = MFNativePeerTracker.getLiveCount();
+        final long leaksBefore = MFNativePeerTracker.getLeakCount();
+        final TrackedStream stream = new TrackedStream(released::add);
+        assertEquals(liveBefore + 1, MFNativePeerTracker.getLiveCount());
+        stream.close();
+        stream.close();
+        assertEquals(Collections.singletonList(42L), released);
+        assertEquals(liveBefore, MFNativePeerTracker.getLiveCount());
+        assertEquals(leaksBefore, MFNativePeerTracker.getLeakCount());
+    }
+
+    @Test
+    public void testCloseReportsFailure() throws IOException, UnsupportedAudioFileException {
+        final TrackedStream stream = new TrackedStream(pointer -> {
+            throw new IOException("Failed on purpose");
+        });
+        try {
+            stream.close();
+            fail("Expected IOException");
+        } catch (IOException e) {
+            assertEquals("Failed on purpose", e.getMessage());
+        }
+        assertFalse(stream.isOpen());
+    }
+
+    @Test
+    public void testUnreachableStreamIsReleased() throws Exception {
+        final CountDownLatch released = new CountDownLatch(1);
+        final List<LogRecord> records = Collections.synchronizedList(new ArrayList<LogRecord>());
+        final Handler handler = new Handler() {
+            @Override
+            public void publish(final LogRecord record) {
+                records.add(record);
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        final Logger logger = Logger.getLogger(MFNativePeerTracker.class.getName());
+        logger.addHandler(handler);
+        final boolean leakTracking = MFNativePeerTracker.isLeakTracking();
+        MFNativePeerTracker.setLeakTracking(true);
+        try {
+            final long leaksBefore = MFNativePeerTracker.getLeakCount();
+            openAndForget(released);
+            for (int i=0; i<50 && released.getCount() > 0; i++) {
+                System.gc();
+                released.await(100, TimeUnit.MILLISECONDS);
+            }
+            assertEquals("Peer was not released", 0, released.getCount());
+            assertEquals(leaksBefore + 1, MFNativePeerTracker.getLeakCount());
+            boolean found = false;
+            for (final LogRecord record : records.toArray(new LogRecord[0])) {
+                if (record.getThrown() == null) continue;
+                for (final StackTraceElement element : record.getThrown().getStackTrace()) {
+                    found |= "openAndForget".equals(element.getMethodName());
+                }
+            }
+            assertTrue("Opening stack trace was not logged", found);
+        } finally {
+            MFNativePeerTracker.setLeakTracking(leakTracking);
+            logger.removeHandler(handler);
+        }
+    }
+
+    private static void openAndForget(final CountDownLatch released) throws IOException, UnsupportedAudioFileException {
+        new TrackedStream(pointer -> released.countDown());
+    }
+
+    /**
+     * Pretends to own a native peer and registers it with the tracker.
+     */
+    private static class TrackedStream extends SyntheticPCMInputStream {
+
+        private TrackedStream(final MFNativePeerTracker.Releaser releaser) throws IOException, UnsupportedAudioFileException {
+            super(44100f, 2, 44100);
+            this.pointer = 42;
+            registerNativePeer(releaser, "test");
+        }
+    }
+}
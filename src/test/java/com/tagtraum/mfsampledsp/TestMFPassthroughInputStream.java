@@ -0,0 +1,158 @@
+/*
+ * =================================================
+ * Copyright 2011 tagtraum industries incorporated
+ * All rights reserved.
+ * =================================================
+ */
+package com.tagtraum.mfsampledsp;
+
+import org.junit.Test;
+
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * TestMFPassthroughInputStream.
+ *
+ * @author <a href="mailto:hs@tagtraum.com">Hendrik Schreiber</a>
+ */
+public class TestMFPassthroughInputStream {
+
+    @Test
+    public void testWave() throws Exception {
+        final Path path = Paths.get(getClass().getResource("test.wav").toURI());
+        final byte[] file = Files.readAllBytes(path);
+        try (final MFAudioInputStream in = open(path)) {
+            assertEquals(133632, in.getFrameLength());
+            final byte[] samples = readAll(in);
+            assertArrayEquals(Arrays.copyOfRange(file, 44, file.length), samples);
+        }
+    }
+
+    @Test
+    public void testSeek() throws Exception {
+        final Path path = Paths.get(getClass().getResource("test.wav").toURI());
+        final byte[] file = Files.readAllBytes(path);
+        try (final MFAudioInputStream in = open(path)) {
+            assertTrue(in.isSeekable());
+            in.seek(1, TimeUnit.SECONDS);
+            final byte[] b = new byte[4096];
+            assertEquals(b.length, in.read(b));
+            assertArrayEquals(Arrays.copyOfRange(file, 44 + 44100 * 4, 44 + 44100 * 4 + b.length), b);
+            // and back
+            in.seek(0, TimeUnit.SECONDS);
+            assertEquals(b.length, in.read(b));
+            assertArrayEquals(Arrays.copyOfRange(file, 44, 44 + b.length), b);
+        }
+    }
+
+    @Test
+    public void testAIFF() throws Exception {
+        final byte[] samples = new byte[1000 * 4];
+        for (int i=0; i<samples.length; i++) {
+            samples[i] = (byte) i;
+        }
+        final AudioFormat format = new AudioFormat(44100f, 16, 2, true, true);
+        final File file = File.createTempFile("testAIFF", ".aif");
+        try {
+            AudioSystem.write(new AudioInputStream(new ByteArrayInputStream(samples), format, 1000), AudioFileFormat.Type.AIFF, file);
+            try (final MFAudioInputStream in = open(file.toPath())) {
+                assertTrue(in.getFormat().isBigEndian());
+                assertEquals(1000, in.getFrameLength());
+                assertArrayEquals(samples, readAll(in));
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testCompressedIsNotPassedThrough() throws Exception {
+        final Path path = Paths.get(getClass().getResource("test.mp3").toURI());
+        try (final FileChannel channel = FileChannel.open(path)) {
+            assertNull(MFHeaderParser.findPCMData(channel, MFHeaderParser.read(channel, 0, MFContentSniffer.HEADER_LENGTH)));
+        }
+    }
+
+    @Test
+    public void testReadDirect() throws Exception {
+        final Path path = Paths.get(getClass().getResource("test.wav").toURI());
+        final byte[] file = Files.readAllBytes(path);
+        try (final MFAudioInputStream in = open(path)) {
+            final ByteBuffer direct = ByteBuffer.allocateDirect(64 * 1024);
+            assertEquals(direct.capacity(), in.read(direct));
+            direct.flip();
+            final byte[] b = new byte[direct.remaining()];
+            direct.get(b);
+            assertArrayEquals(Arrays.copyOfRange(file, 44, 44 + b.length), b);
+        }
+    }
+
+    @Test
+    public void testReleasesFileOnClose() throws Exception {
+        final Path source = Paths.get(getClass().getResource("test.wav").toURI());
+        final Path path = Files.createTempFile("testReleasesFileOnClose", ".wav");
+        try {
+            Files.copy(source, path, StandardCopyOption.REPLACE_EXISTING);
+            final MFAudioInputStream in = open(path);
+            assertEquals(4096, in.read(new byte[4096]));
+            in.close();
+            // would fail on Windows, if the file was still open or mapped
+            Files.delete(path);
+            assertFalse(Files.exists(path));
+        } finally {
+            Files.deleteIfExists(path);
+        }
+    }
+
+    @Test
+    public void testIsCandidate() throws Exception {
+        assertTrue(MFPassthroughInputStream.isCandidate(AudioFileFormat.Type.WAVE));
+        assertTrue(MFPassthroughInputStream.isCandidate(AudioFileFormat.Type.AIFF));
+        assertTrue(MFPassthroughInputStream.isCandidate(AudioFileFormat.Type.AIFC));
+        assertTrue(MFPassthroughInputStream.isCandidate(new MFAudioFileFormat("file:/test.aiff", 44100f, 16, 2, 4, 44100f, false, 1000L, 1411, false).getType()));
+        assertFalse(MFPassthroughInputStream.isCandidate(new MFAudioFileFormat("file:/test.mp3", 44100f, 16, 2, 4, 44100f, false, 1000L, 1411, false).getType()));
+        assertFalse(MFPassthroughInputStream.isCandidate(new MFAudioFileFormat("file:/test.m4a", 44100f, 16, 2, 4, 44100f, false, 1000L, 1411, false).getType()));
+    }
+
+    private static MFAudioInputStream open(final Path path) throws Exception {
+        final FileChannel channel = FileChannel.open(path);
+        try {
+            final ByteBuffer header = MFHeaderParser.read(channel, 0, MFContentSniffer.HEADER_LENGTH);
+            final AudioFileFormat fileFormat = MFHeaderParser.parse(channel, header, MFAudioFileReader.fileToURL(path.toFile()).toString());
+            final MFHeaderParser.PCMData data = MFHeaderParser.findPCMData(channel, header);
+            assertNotNull(fileFormat);
+            assertNotNull(data);
+            // the stream now owns the channel
+            return new MFAudioInputStream(MFPassthroughInputStream.open(channel, data), fileFormat.getFormat(), data.getFrameLength());
+        } catch (Exception | AssertionError e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private static byte[] readAll(final AudioInputStream in) throws Exception {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final byte[] b = new byte[8192];
+        int justRead;
+        while ((justRead = in.read(b)) != -1) {
+            out.write(b, 0, justRead);
+        }
+        return out.toByteArray();
+    }
+}
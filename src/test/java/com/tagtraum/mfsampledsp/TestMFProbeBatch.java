@@ -0,0 +1,147 @@
+/*
+ * =================================================
+ * Copyright 2011 tagtraum industries incorporated
+ * All rights reserved.
+ * =================================================
+ */
+package com.tagtraum.mfsampledsp;
+
+import org.junit.Test;
+
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * TestMFProbeBatch.
+ *
+ * @author <a href="mailto:hs@tagtraum.com">Hendrik Schreiber</a>
+ */
+public class TestMFProbeBatch {
+
+    private static final AudioFileFormat FORMAT = new AudioFileFormat(new AudioFileFormat.Type("MP3", "mp3"),
+            new AudioFormat(44100f, 16, 2, true, false), 1000);
+
+    @Test
+    public void testAllResultsWithFailures() throws InterruptedException {
+        final List<Integer> sources = new ArrayList<>();
+        for (int i=0; i<100; i++) sources.add(i);
+        final AtomicInteger listened = new AtomicInteger();
+        final MFProbeBatch<Integer> batch = new MFProbeBatch<>(sources, 4, new MFProbeBatch.Prober<Integer>() {
+            @Override
+            public AudioFileFormat probe(final Integer source) throws UnsupportedAudioFileException, IOException {
+                if (source % 10 == 0) throw new UnsupportedAudioFileException("Unsupported " + source);
+                return FORMAT;
+            }
+        }, new MFProbeListener<Integer>() {
+            @Override
+            public void probed(final MFProbeResult<Integer> result) {
+                listened.incrementAndGet();
+            }
+        }, new MFThreadFactory("test"));
+
+        final Set<Integer> seen = new HashSet<>();
+        int failures = 0;
+        for (final MFProbeResult<Integer> result : batch) {
+            assertTrue(seen.add(result.getSource()));
+            if (result.isSuccess()) {
+                assertSame(FORMAT, result.getAudioFileFormat());
+            } else {
+                failures++;
+                assertNull(result.getAudioFileFormat());
+                assertTrue(result.getException() instanceof UnsupportedAudioFileException);
+                assertEquals(0, result.getSource() % 10);
+            }
+        }
+        assertEquals(100, seen.size());
+        assertEquals(10, failures);
+        assertEquals(100, listened.get());
+        assertEquals(100, batch.getCompletedCount());
+        assertTrue(batch.isDone());
+        assertTrue(batch.awaitAll().isEmpty());
+    }
+
+    @Test
+    public void testBoundedParallelism() throws InterruptedException {
+        final List<Integer> sources = new ArrayList<>();
+        for (int i=0; i<50; i++) sources.add(i);
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        final MFProbeBatch<Integer> batch = new MFProbeBatch<>(sources, 3, new MFProbeBatch.Prober<Integer>() {
+            @Override
+            public AudioFileFormat probe(final Integer source) throws UnsupportedAudioFileException, IOException {
+                final int now = running.incrementAndGet();
+                synchronized (maxRunning) {
+                    if (now > maxRunning.get()) maxRunning.set(now);
+                }
+                try {
+                    Thread.sleep(2);
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                } finally {
+                    running.decrementAndGet();
+                }
+                return FORMAT;
+            }
+        }, null, new MFThreadFactory("test"));
+        assertEquals(50, batch.awaitAll().size());
+        assertTrue("Max concurrency: " + maxRunning.get(), maxRunning.get() <= 3);
+        assertTrue(maxRunning.get() >= 1);
+    }
+
+    @Test
+    public void testCancel() throws InterruptedException {
+        final List<Integer> sources = new ArrayList<>();
+        for (int i=0; i<100; i++) sources.add(i);
+        final CountDownLatch started = new CountDownLatch(2);
+        final CountDownLatch release = new CountDownLatch(1);
+        final MFProbeBatch<Integer> batch = new MFProbeBatch<>(sources, 2, new MFProbeBatch.Prober<Integer>() {
+            @Override
+            public AudioFileFormat probe(final Integer source) throws UnsupportedAudioFileException, IOException {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+                return FORMAT;
+            }
+        }, null, new MFThreadFactory("test"));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        batch.cancel();
+        release.countDown();
+        final List<MFProbeResult<Integer>> results = batch.awaitAll();
+        // the two probes in progress are still delivered
+        assertEquals(2, results.size());
+        assertTrue(batch.isCancelled());
+        assertTrue(batch.isDone());
+    }
+
+    @Test
+    public void testEmpty() throws InterruptedException {
+        final MFProbeBatch<Integer> batch = new MFProbeBatch<>(Collections.<Integer>emptyList(), 4, new MFProbeBatch.Prober<Integer>() {
+            @Override
+            public AudioFileFormat probe(final Integer source) {
+                throw new AssertionError();
+            }
+        }, null, new MFThreadFactory("test"));
+        assertFalse(batch.iterator().hasNext());
+        assertEquals(0, batch.size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidParallelism() {
+        new MFAudioFileReader().probeURLs(Collections.<java.net.URL>emptyList(), 0);
+    }
+}
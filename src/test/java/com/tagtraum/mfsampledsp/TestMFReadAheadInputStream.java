@@ -0,0 +1,166 @@
+/*
+ * =================================================
+ * Copyright 2011 tagtraum industries incorporated
+ * All rights reserved.
+ * =================================================
+ */
+package com.tagtraum.mfsampledsp;
+
+import org.junit.Test;
+
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * TestMFReadAheadInputStream.
+ *
+ * @author <a href="mailto:hs@tagtraum.com">Hendrik Schreiber</a>
+ */
+public class TestMFReadAheadInputStream {
+
+    @Test
+    public void testReadThrough() throws IOException, UnsupportedAudioFileException {
+        final byte[] expected = readFully(new SyntheticPCMInputStream(44100f, 2, 200000));
+        final byte[] actual = readFully(new MFReadAheadInputStream(new SyntheticPCMInputStream(44100f, 2, 200000), 4));
+        assertArrayEquals(expected, actual);
+    }
+
+    @Test
+    public void testReadThroughGrowingSamples() throws IOException, UnsupportedAudioFileException {
+        final byte[] expected = readFully(new SyntheticPCMInputStream(44100f, 2, 200000, 20000, 1));
+        final byte[] actual = readFully(new MFReadAheadInputStream(new SyntheticPCMInputStream(44100f, 2, 200000, 20000, 1), 2));
+        assertArrayEquals(expected, actual);
+    }
+
+    @Test
+    public void testReadThroughByteBuffer() throws IOException, UnsupportedAudioFileException {
+        final byte[] expected = readFully(new SyntheticPCMInputStream(44100f, 2, 200000));
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (final MFReadAheadInputStream in = new MFReadAheadInputStream(new SyntheticPCMInputStream(44100f, 2, 200000), 3)) {
+            final ByteBuffer buf = ByteBuffer.allocateDirect(64 * 1024);
+            final byte[] bytes = new byte[buf.capacity()];
+            int justRead;
+            while ((justRead = in.read(buf)) != -1) {
+                buf.flip();
+                buf.get(bytes, 0, justRead);
+                out.write(bytes, 0, justRead);
+                buf.clear();
+            }
+        }
+        assertArrayEquals(expected, out.toByteArray());
+    }
+
+    @Test
+    public void testSeek() throws IOException, UnsupportedAudioFileException {
+        final SyntheticPCMInputStream synthetic = new SyntheticPCMInputStream(44100f, 2, 200000);
+        try (final MFReadAheadInputStream in = new MFReadAheadInputStream(synthetic, 4)) {
+            final byte[] buf = new byte[4];
+            // read some, so that the producer is running
+            for (int i=0; i<10000; i++) {
+                assertEquals(4, in.read(buf));
+            }
+            in.seek(1, TimeUnit.SECONDS);
+            assertEquals(4, in.read(buf));
+            assertEquals(synthetic.getSample(44100, 0), (short)((buf[0] & 0xff) | (buf[1] << 8)));
+            assertEquals(synthetic.getSample(44100, 1), (short)((buf[2] & 0xff) | (buf[3] << 8)));
+
+            in.seek(0, TimeUnit.SECONDS);
+            long frame = 0;
+            while (in.read(buf) != -1) {
+                assertEquals(synthetic.getSample(frame, 0), (short)((buf[0] & 0xff) | (buf[1] << 8)));
+                frame++;
+            }
+            assertEquals(200000, frame);
+        }
+    }
+
+    @Test
+    public void testClose() throws IOException, UnsupportedAudioFileException {
+        final SyntheticPCMInputStream synthetic = new SyntheticPCMInputStream(44100f, 2, 200000);
+        final MFReadAheadInputStream in = new MFReadAheadInputStream(synthetic, 4);
+        in.read(new byte[1024]);
+        in.close();
+        assertFalse(in.isOpen());
+        assertFalse(synthetic.isOpen());
+        assertEquals(-1, in.read());
+    }
+
+    @Test
+    public void testInterruptedClose() throws IOException, UnsupportedAudioFileException {
+        final CountDownLatch filling = new CountDownLatch(1);
+        final SyntheticPCMInputStream slow = new SyntheticPCMInputStream(44100f, 2, 200000) {
+            @Override
+            protected void fillNativeBuffer() throws IOException {
+                filling.countDown();
+                // a long native fill, that ignores interrupts
+                final long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(50);
+                while (System.nanoTime() < end) {
+                    Thread.yield();
+                }
+                super.fillNativeBuffer();
+            }
+        };
+        final MFReadAheadInputStream in = new MFReadAheadInputStream(slow, 2);
+        in.read(new byte[1024]);
+        try {
+            filling.await();
+        } catch (InterruptedException e) {
+            fail(e.toString());
+        }
+        Thread.currentThread().interrupt();
+        try {
+            in.close();
+            // interrupt status is kept
+            assertTrue(Thread.interrupted());
+        } finally {
+            Thread.interrupted();
+        }
+        assertFalse(in.isOpen());
+        assertFalse(slow.isOpen());
+    }
+
+    @Test
+    public void testFailure() throws IOException, UnsupportedAudioFileException {
+        final SyntheticPCMInputStream failing = new SyntheticPCMInputStream(44100f, 2, 200000) {
+            private int fills;
+
+            @Override
+            protected void fillNativeBuffer() throws IOException {
+                if (fills++ == 10) throw new IOException("Decoding failed");
+                super.fillNativeBuffer();
+            }
+        };
+        try (final MFReadAheadInputStream in = new MFReadAheadInputStream(failing, 4)) {
+            readFully(in);
+            fail("Expected IOException");
+        } catch (IOException e) {
+            assertEquals("Decoding failed", e.getMessage());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testIllegalDepth() throws IOException, UnsupportedAudioFileException {
+        new MFReadAheadInputStream(new SyntheticPCMInputStream(44100f, 2, 200000), 1);
+    }
+
+    private static byte[] readFully(final InputStream in) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            final byte[] buf = new byte[1000];
+            int justRead;
+            while ((justRead = in.read(buf)) != -1) {
+                out.write(buf, 0, justRead);
+            }
+        } finally {
+            in.close();
+        }
+        return out.toByteArray();
+    }
+}
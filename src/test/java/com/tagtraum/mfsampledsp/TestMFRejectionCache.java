@@ -0,0 +1,52 @@
+/*
+ * =================================================
+ * Copyright 2011 tagtraum industries incorporated
+ * All rights reserved.
+ * =================================================
+ */
+package com.tagtraum.mfsampledsp;
+
+import org.junit.Test;
+
+import javax.sound.sampled.UnsupportedAudioFileException;
+
+import static org.junit.Assert.*;
+
+/**
+ * TestMFRejectionCache.
+ *
+ * @author <a href="mailto:hs@tagtraum.com">Hendrik Schreiber</a>
+ */
+public class TestMFRejectionCache {
+
+    @Test
+    public void testRejectionIsRemembered() throws UnsupportedAudioFileException {
+        final MFRejectionCache cache = new MFRejectionCache(10);
+        final MFSourceIdentity identity = new MFSourceIdentity("/a.txt", 10, 20);
+        cache.check(identity);
+        cache.put(identity, new UnsupportedAudioFileException("Unrecognized content (0xC00D36C4)"));
+        try {
+            cache.check(new MFSourceIdentity("/a.txt", 10, 20));
+            fail("Expected UnsupportedAudioFileException");
+        } catch (UnsupportedAudioFileException e) {
+            assertEquals("Unrecognized content (0xC00D36C4)", e.getMessage());
+        }
+        // file changed
+        cache.check(new MFSourceIdentity("/a.txt", 11, 30));
+    }
+
+    @Test
+    public void testBoundedAndRemoteNotCached() throws UnsupportedAudioFileException {
+        final MFRejectionCache cache = new MFRejectionCache(2);
+        for (int i=0; i<5; i++) {
+            cache.put(new MFSourceIdentity("/" + i + ".txt", i, i), new UnsupportedAudioFileException("" + i));
+        }
+        assertEquals(2, cache.size());
+        final MFSourceIdentity remote = new MFSourceIdentity("http://www.tagtraum.com/a.txt", -1, -1);
+        cache.put(remote, new UnsupportedAudioFileException("remote"));
+        assertEquals(2, cache.size());
+        cache.check(remote);
+        cache.clear();
+        assertEquals(0, cache.size());
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * =================================================
+ * Copyright 2011 tagtraum industries incorporated
+ * All rights reserved.
+ * =================================================
+ */
+package com.tagtraum.mfsampledsp;
+
+import org.junit.Test;
+
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * TestMFSeekIndex.
+ *
+ * @author <a href="mailto:hs@tagtraum.com">Hendrik Schreiber</a>
+ */
+public class TestMFSeekIndex {
+
+    private static final long FRAMES = 1000000;
+
+    @Test
+    public void testImpreciseSeekLandsOnExactFrame() throws IOException, UnsupportedAudioFileException {
+        final SyntheticPCMInputStream peer = new SyntheticPCMInputStream(44100f, 2, FRAMES, 1152, 4096);
+        try (final MFAudioInputStream in = new MFAudioInputStream(peer, peer.getFormat(), FRAMES)) {
+            final Random random = new Random(7);
+            for (int i=0; i<50; i++) {
+                final long micros = (long) (random.nextDouble() * 20000000L);
+                in.seek(micros, TimeUnit.MICROSECONDS);
+                final long target = (long) (44100f * micros / 1000000L);
+                assertEquals(target, in.getFramePosition());
+                assertFramesAt(peer, in, target);
+            }
+        }
+    }
+
+    @Test
+    public void testLateSeekLandsOnExactFrame() throws IOException, UnsupportedAudioFileException {
+        final RecordingStream peer = new RecordingStream(1, 3000);
+        try (final MFAudioInputStream in = new MFAudioInputStream(peer, peer.getFormat(), FRAMES)) {
+            in.seek(10, TimeUnit.SECONDS);
+            assertEquals(441000, in.getFramePosition());
+            assertFramesAt(peer, in, 441000);
+            assertTrue(peer.seeks.size() > 1);
+            assertEquals(3000, peer.getSeekIndex().getMaxLead());
+
+            // now we know better and aim early right away
+            peer.seeks.clear();
+            in.seek(5, TimeUnit.SECONDS);
+            assertEquals(220500, in.getFramePosition());
+            assertFramesAt(peer, in, 220500);
+            assertEquals(1, peer.seeks.size());
+        }
+    }
+
+    @Test
+    public void testKnownPointsAreReused() throws IOException, UnsupportedAudioFileException {
+        final RecordingStream peer = new RecordingStream(4096, 0);
+        try (final MFAudioInputStream in = new MFAudioInputStream(peer, peer.getFormat(), FRAMES)) {
+            // lands on 40960, 3140 frames early
+            in.seek(1000, TimeUnit.MILLISECONDS);
+            final MFSeekIndex index = peer.getSeekIndex();
+            assertEquals(1, index.size());
+            assertEquals(3140, index.getMaxLag());
+            assertEquals(40960L, (long) index.floor(44100).getKey());
+            // close enough to the known point, which is used directly
+            peer.seeks.clear();
+            in.seek(999, TimeUnit.MILLISECONDS);
+            assertEquals(44055, in.getFramePosition());
+            assertFramesAt(peer, in, 44055);
+            assertEquals(1, peer.seeks.size());
+            assertEquals(Math.round(40960 * 1000000.0 / 44100.0), (long) peer.seeks.get(0));
+            assertEquals(1, index.size());
+        }
+    }
+
+    @Test
+    public void testSharedAndBounded() {
+        final MFSourceIdentity identity = new MFSourceIdentity("/music/test.mp3", 100, 1000);
+        assertSame(MFSeekIndex.forSource(identity), MFSeekIndex.forSource(new MFSourceIdentity("/music/test.mp3", 100, 1000)));
+        assertNotSame(MFSeekIndex.forSource(identity), MFSeekIndex.forSource(new MFSourceIdentity("/music/test.mp3", 100, 2000)));
+
+        final MFSeekIndex index = new MFSeekIndex(3);
+        for (int i=0; i<10; i++) {
+            index.add(i * 1000 + 10, i * 1000, i * 10000L);
+        }
+        assertEquals(3, index.size());
+        assertEquals(10, index.getMaxLag());
+        assertEquals(0, index.getMaxLead());
+        assertEquals(9000L, (long) index.floor(9500).getKey());
+        assertEquals(90000L, (long) index.floor(9500).getValue());
+    }
+
+    private static void assertFramesAt(final SyntheticPCMInputStream peer, final MFAudioInputStream in, final long frame) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(4 * 3000).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            if (in.read(buffer) < 0) break;
+        }
+        buffer.flip();
+        for (long f = frame; buffer.hasRemaining(); f++) {
+            assertEquals("Frame " + f + ", left", peer.getSample(f, 0), buffer.getShort());
+            assertEquals("Frame " + f + ", right", peer.getSample(f, 1), buffer.getShort());
+        }
+    }
+
+    /**
+     * Records requested seek positions and optionally lands a fixed number of frames
+     * <em>after</em> the requested position.
+     */
+    private static class RecordingStream extends SyntheticPCMInputStream {
+
+        private final long lateFrames;
+        private final List<Long> seeks = new ArrayList<>();
+
+        private RecordingStream(final int seekGranularity, final long lateFrames) throws IOException, UnsupportedAudioFileException {
+            super(44100f, 2, FRAMES, 1152, seekGranularity);
+            this.lateFrames = lateFrames;
+        }
+
+        @Override
+        public void seek(final long time, final TimeUnit timeUnit) throws UnsupportedOperationException, IOException {
+            seeks.add(timeUnit.toMicros(time));
+            final long lateNanos = lateFrames == 0 ? 0 : lateFrames * 1000000000L / 44100L + 1;
+            super.seek(timeUnit.toNanos(time) + lateNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+}
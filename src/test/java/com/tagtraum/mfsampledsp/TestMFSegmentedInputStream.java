@@ -0,0 +1,264 @@
+/*
+ * =================================================
+ * Copyright 2011 tagtraum industries incorporated
+ * All rights reserved.
+ * =================================================
+ */
+package com.tagtraum.mfsampledsp;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * TestMFSegmentedInputStream.
+ *
+ * @author <a href="mailto:hs@tagtraum.com">Hendrik Schreiber</a>
+ */
+public class TestMFSegmentedInputStream {
+
+    private static final long FRAMES = 1000000;
+    private static final AudioFormat FORMAT = new AudioFormat(AudioFormat.Encoding.PCM_SIGNED, 44100f, 16, 2, 4, 44100f, false);
+
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() {
+        executor = Executors.newFixedThreadPool(4);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testPreciseSeek() throws IOException, UnsupportedAudioFileException {
+        final byte[] expected = readFully(new SyntheticPCMInputStream(44100f, 2, FRAMES));
+        try (final MFSegmentedInputStream in = new MFSegmentedInputStream(opener(1, 0), FORMAT, FRAMES, 4, 4, executor)) {
+            assertEquals(4, in.getSegmentCount());
+            assertArrayEquals(expected, readFully(in));
+            assertEquals(4, in.getSegmentCount());
+        }
+    }
+
+    @Test
+    public void testImpreciseSeek() throws IOException, UnsupportedAudioFileException {
+        final byte[] expected = readFully(new SyntheticPCMInputStream(44100f, 2, FRAMES));
+        try (final MFSegmentedInputStream in = new MFSegmentedInputStream(opener(1152, 0), FORMAT, FRAMES, 4, 2, executor)) {
+            assertArrayEquals(expected, readFully(in));
+            assertEquals(4, in.getSegmentCount());
+        }
+    }
+
+    @Test
+    public void testParallelismOne() throws IOException, UnsupportedAudioFileException {
+        final byte[] expected = readFully(new SyntheticPCMInputStream(44100f, 2, FRAMES));
+        try (final MFSegmentedInputStream in = new MFSegmentedInputStream(opener(1024, 0), FORMAT, FRAMES, 3, 1, executor)) {
+            assertArrayEquals(expected, readFully(in));
+        }
+    }
+
+    @Test
+    public void testShortFileUsesSingleSegment() throws IOException, UnsupportedAudioFileException {
+        final byte[] expected = readFully(new SyntheticPCMInputStream(44100f, 2, 10000));
+        try (final MFSegmentedInputStream in = new MFSegmentedInputStream(new MFSegmentedInputStream.Opener() {
+            @Override
+            public MFNativePeerInputStream open() throws IOException, UnsupportedAudioFileException {
+                return new SyntheticPCMInputStream(44100f, 2, 10000);
+            }
+        }, FORMAT, 10000, 8, 8, executor)) {
+            assertEquals(1, in.getSegmentCount());
+            assertArrayEquals(expected, readFully(in));
+        }
+    }
+
+    @Test
+    public void testFallbackWhenSegmentsDoNotOverlap() throws IOException, UnsupportedAudioFileException {
+        final byte[] expected = readFully(new SyntheticPCMInputStream(44100f, 2, FRAMES));
+        // seeks land 3s too late, way beyond the overlap
+        try (final MFSegmentedInputStream in = new MFSegmentedInputStream(opener(1, 3 * 44100), FORMAT, FRAMES, 4, 4, executor)) {
+            assertArrayEquals(expected, readFully(in));
+            assertEquals(1, in.getSegmentCount());
+        }
+    }
+
+    @Test
+    public void testSilenceAtBoundary() throws IOException, UnsupportedAudioFileException {
+        // the first probe of the second segment is silent, the second is not
+        final byte[] expected = readFully(silent(1, 200000, 235000).open());
+        try (final MFSegmentedInputStream in = new MFSegmentedInputStream(silent(1152, 200000, 235000), FORMAT, FRAMES, 4, 4, executor)) {
+            assertArrayEquals(expected, readFully(in));
+            assertEquals(4, in.getSegmentCount());
+        }
+    }
+
+    @Test
+    public void testSilenceAroundBoundary() throws IOException, UnsupportedAudioFileException {
+        // all probes of the second segment are silent
+        final byte[] expected = readFully(silent(1, 200000, 300000).open());
+        try (final MFSegmentedInputStream in = new MFSegmentedInputStream(silent(1152, 200000, 300000), FORMAT, FRAMES, 4, 4, executor)) {
+            assertArrayEquals(expected, readFully(in));
+            assertEquals(3, in.getSegmentCount());
+        }
+    }
+
+    @Test
+    public void testNotSeekable() throws IOException, UnsupportedAudioFileException {
+        final byte[] expected = readFully(new SyntheticPCMInputStream(44100f, 2, FRAMES));
+        try (final MFSegmentedInputStream in = new MFSegmentedInputStream(new MFSegmentedInputStream.Opener() {
+            @Override
+            public MFNativePeerInputStream open() throws IOException, UnsupportedAudioFileException {
+                return new SyntheticPCMInputStream(44100f, 2, FRAMES) {
+                    @Override
+                    public boolean isSeekable() {
+                        return false;
+                    }
+
+                    @Override
+                    public void seek(final long time, final TimeUnit timeUnit) throws UnsupportedOperationException {
+                        throw new UnsupportedOperationException("Not seekable");
+                    }
+                };
+            }
+        }, FORMAT, FRAMES, 4, 4, executor)) {
+            assertArrayEquals(expected, readFully(in));
+            assertEquals(1, in.getSegmentCount());
+        }
+    }
+
+    @Test
+    public void testUnknownLength() throws IOException, UnsupportedAudioFileException {
+        final byte[] expected = readFully(new SyntheticPCMInputStream(44100f, 2, FRAMES));
+        try (final MFSegmentedInputStream in = new MFSegmentedInputStream(opener(1, 0), FORMAT, -1, 4, 4, executor)) {
+            assertEquals(1, in.getSegmentCount());
+            assertArrayEquals(expected, readFully(in));
+        }
+    }
+
+    @Test
+    public void testDiscardWhileDecoding() throws Exception {
+        final byte[] expected = readFully(new SyntheticPCMInputStream(44100f, 2, FRAMES));
+        final List<MFNativePeerInputStream> opened = new CopyOnWriteArrayList<>();
+        final CountDownLatch discarded = new CountDownLatch(1);
+        final MFSegmentedInputStream.Opener opener = new MFSegmentedInputStream.Opener() {
+            @Override
+            public MFNativePeerInputStream open() throws IOException, UnsupportedAudioFileException {
+                final MFNativePeerInputStream stream = new SyntheticPCMInputStream(44100f, 2, FRAMES) {
+                    private boolean slow;
+
+                    @Override
+                    public void seek(final long time, final TimeUnit timeUnit) throws UnsupportedOperationException, IOException {
+                        final long frame = timeUnit.toMicros(time) * 44100L / 1000000L;
+                        // the second segment can't be positioned, so the rest is discarded
+                        if (frame < FRAMES * 2 / 5) throw new UnsupportedOperationException("Not seekable");
+                        slow = frame > FRAMES * 3 / 5;
+                        super.seek(time, timeUnit);
+                    }
+
+                    @Override
+                    protected void fillNativeBuffer() throws IOException {
+                        while (slow) {
+                            // a native decoder that is still busy and ignores interrupts
+                            try {
+                                discarded.await(30, TimeUnit.SECONDS);
+                                break;
+                            } catch (InterruptedException e) {
+                                // keep decoding
+                            }
+                        }
+                        super.fillNativeBuffer();
+                    }
+                };
+                opened.add(stream);
+                return stream;
+            }
+        };
+        try (final MFSegmentedInputStream in = new MFSegmentedInputStream(opener, FORMAT, FRAMES, 4, 4, executor)) {
+            // read, but don't close yet
+            final byte[] b = new byte[16 * 1024];
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            int justRead;
+            while ((justRead = in.read(b)) != -1) {
+                out.write(b, 0, justRead);
+            }
+            assertArrayEquals(expected, out.toByteArray());
+            assertEquals(1, in.getSegmentCount());
+            // the last segment's decode is still running
+            discarded.countDown();
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+            // including the discarded last segment's stream
+            assertEquals(5, opened.size());
+            for (final MFNativePeerInputStream stream : opened) {
+                assertFalse(stream.isOpen());
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testIllegalParallelism() throws IOException, UnsupportedAudioFileException {
+        new MFSegmentedInputStream(opener(1, 0), FORMAT, FRAMES, 4, 0, executor);
+    }
+
+    private static MFSegmentedInputStream.Opener opener(final int seekGranularity, final long seekErrorFrames) {
+        return new MFSegmentedInputStream.Opener() {
+            @Override
+            public MFNativePeerInputStream open() throws IOException, UnsupportedAudioFileException {
+                return new SyntheticPCMInputStream(44100f, 2, FRAMES, 1152, seekGranularity) {
+                    @Override
+                    public void seek(final long time, final TimeUnit timeUnit) throws UnsupportedOperationException, IOException {
+                        super.seek(timeUnit.toMicros(time) + seekErrorFrames * 1000000L / 44100L, TimeUnit.MICROSECONDS);
+                    }
+                };
+            }
+        };
+    }
+
+    /**
+     * Like {@link #opener(int, long)}, but with digital silence between the given frames.
+     */
+    private static MFSegmentedInputStream.Opener silent(final int seekGranularity, final long from, final long to) {
+        return new MFSegmentedInputStream.Opener() {
+            @Override
+            public MFNativePeerInputStream open() throws IOException, UnsupportedAudioFileException {
+                return new SyntheticPCMInputStream(44100f, 2, FRAMES, 1152, seekGranularity) {
+                    @Override
+                    protected void fillNativeBuffer() throws IOException {
+                        super.fillNativeBuffer();
+                        final long start = Math.round(sampleTime * 44100.0 / 10000000.0);
+                        for (int i = 0; i < nativeBuffer.limit(); i++) {
+                            final long frame = start + i / 4;
+                            if (frame >= from && frame < to) nativeBuffer.put(i, (byte) 0);
+                        }
+                    }
+                };
+            }
+        };
+    }
+
+    private static byte[] readFully(final InputStream in) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final byte[] buf = new byte[10000];
+        int justRead;
+        while ((justRead = in.read(buf)) != -1) {
+            out.write(buf, 0, justRead);
+        }
+        in.close();
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,40 @@
+/*
+ * =================================================
+ * Copyright 2011 tagtraum industries incorporated
+ * All rights reserved.
+ * =================================================
+ */
+package com.tagtraum.mfsampledsp;
+
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * TestMFStartup.
+ *
+ * @author <a href="mailto:hs@tagtraum.com">Hendrik Schreiber</a>
+ */
+public class TestMFStartup {
+
+    @Test
+    public void testMode() {
+        assertEquals(MFStartup.Mode.EAGER, MFStartup.mode(null));
+        assertEquals(MFStartup.Mode.EAGER, MFStartup.mode(""));
+        assertEquals(MFStartup.Mode.LAZY, MFStartup.mode("lazy"));
+        assertEquals(MFStartup.Mode.PREWARM, MFStartup.mode(" Prewarm "));
+        assertEquals(MFStartup.Mode.EAGER, MFStartup.mode("bogus"));
+    }
+
+    @Test
+    public void testPrewarm() throws Exception {
+        final CompletableFuture<Boolean> prewarm = MFStartup.prewarm();
+        assertSame(prewarm, MFStartup.prewarm());
+        // completes whether or not the library is available
+        final Boolean loaded = prewarm.get(30, TimeUnit.SECONDS);
+        assertEquals(MFNativeLibraryLoader.loadLibrary(), loaded);
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ * =================================================
+ * Copyright 2011 tagtraum industries incorporated
+ * All rights reserved.
+ * =================================================
+ */
+package com.tagtraum.mfsampledsp;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * TestMFWorkers.
+ *
+ * @author <a href="mailto:hs@tagtraum.com">Hendrik Schreiber</a>
+ */
+public class TestMFWorkers {
+
+    private MFWorkers workers;
+
+    @Before
+    public void setUp() {
+        workers = new MFWorkers(2, new MFThreadFactory("test"));
+    }
+
+    @After
+    public void tearDown() {
+        workers.shutdown();
+    }
+
+    @Test
+    public void testNativeCallsArePinnedToWorker() throws IOException, UnsupportedAudioFileException {
+        final MFWorkers.Worker worker = workers.assign();
+        final StandInPeer peer = new StandInPeer(worker, 10);
+        final byte[] buf = new byte[1024];
+        int total = 0;
+        int justRead;
+        while ((justRead = peer.read(buf)) != -1) {
+            total += justRead;
+        }
+        assertEquals(10 * 100, total);
+        assertFalse(peer.isOpen());
+        // open, 11 fills (last one empty) and close all ran on the same worker thread
+        assertEquals(Collections.singleton(worker.getThread()), peer.threads);
+        assertFalse(peer.threads.contains(Thread.currentThread()));
+    }
+
+    @Test
+    public void testRoundRobin() {
+        final MFWorkers.Worker a = workers.assign();
+        final MFWorkers.Worker b = workers.assign();
+        assertNotSame(a, b);
+        assertSame(a, workers.assign());
+        assertEquals(2, workers.getSize());
+    }
+
+    @Test
+    public void testDirectWithoutWorkers() throws IOException, UnsupportedAudioFileException {
+        final MFWorkers direct = new MFWorkers(0, new MFThreadFactory("test"));
+        assertNull(direct.assign());
+        final StandInPeer peer = new StandInPeer(direct.assign(), 2);
+        peer.read(new byte[1024]);
+        assertEquals(Collections.singleton(Thread.currentThread()), peer.threads);
+    }
+
+    @Test
+    public void testExceptionIsPropagated() {
+        try {
+            workers.call(new MFWorkers.Task<Void, IOException>() {
+                @Override
+                public Void call() throws IOException {
+                    throw new IOException("Expected");
+                }
+            });
+            fail("Expected IOException");
+        } catch (IOException e) {
+            assertEquals("Expected", e.getMessage());
+        }
+        try {
+            workers.call(new MFWorkers.Task<Void, RuntimeException>() {
+                @Override
+                public Void call() {
+                    throw new IllegalStateException("Expected");
+                }
+            });
+            fail("Expected IllegalStateException");
+        } catch (IllegalStateException e) {
+            assertEquals("Expected", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testReentrantCallRunsDirectly() throws IOException {
+        final MFWorkers.Worker worker = workers.assign();
+        final Thread thread = MFWorkers.call(worker, new MFWorkers.Task<Thread, IOException>() {
+            @Override
+            public Thread call() throws IOException {
+                // would dead-lock, if submitted to the same worker
+                return MFWorkers.call(worker, new MFWorkers.Task<Thread, IOException>() {
+                    @Override
+                    public Thread call() {
+                        return Thread.currentThread();
+                    }
+                });
+            }
+        });
+        assertSame(worker.getThread(), thread);
+    }
+
+    @Test
+    public void testInterruptIsDeferred() throws IOException {
+        Thread.currentThread().interrupt();
+        try {
+            final Integer result = workers.call(new MFWorkers.Task<Integer, IOException>() {
+                @Override
+                public Integer call() {
+                    try {
+                        Thread.sleep(20);
+                    } catch (InterruptedException e) {
+                        // not expected
+                    }
+                    return 42;
+                }
+            });
+            assertEquals(42, result.intValue());
+            assertTrue(Thread.currentThread().isInterrupted());
+        } finally {
+            Thread.interrupted();
+        }
+    }
+
+    /**
+     * Stand-in for a native peer, producing <code>samples</code> samples of 100 bytes each.
+     */
+    private static class StandInPeer extends MFNativePeerInputStream {
+
+        private final Set<Thread> threads = Collections.synchronizedSet(new HashSet<Thread>());
+        private int samples;
+
+        private StandInPeer(final MFWorkers.Worker worker, final int samples) throws IOException, UnsupportedAudioFileException {
+            this.samples = samples;
+            this.nativeBuffer.limit(0);
+            pinToWorker(worker);
+            this.pointer = onWorker(new MFWorkers.Task<Long, IOException>() {
+                @Override
+                public Long call() {
+                    threads.add(Thread.currentThread());
+                    return 1L;
+                }
+            });
+        }
+
+        @Override
+        protected void fillNativeBuffer() throws IOException {
+            if (!isOpen()) return;
+            onWorker(new MFWorkers.Task<Void, IOException>() {
+                @Override
+                public Void call() {
+                    threads.add(Thread.currentThread());
+                    nativeBuffer.clear();
+                    if (samples > 0) {
+                        samples--;
+                        nativeBuffer.put(new byte[100]);
+                    }
+                    nativeBuffer.flip();
+                    return null;
+                }
+            });
+        }
+
+        @Override
+        protected void close(final long pointer) throws IOException {
+            threads.add(Thread.currentThread());
+        }
+
+        @Override
+        public boolean isSeekable() {
+            return false;
+        }
+
+        @Override
+        public void seek(final long time, final TimeUnit timeUnit) throws UnsupportedOperationException, IOException {
+            throw new UnsupportedOperationException();
+        }
+    }
+}